@@ -0,0 +1,102 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterUtilities;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.SpectrumAnnotator;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-cluster statistics and annotations. Every invocation
+ * processes the next of CLUSTER_COUNT clusters using a new ClusterAnalysis
+ * since the results are cached per cluster.
+ *
+ * The fragment ions are shared between clusters through the ProductIonCache.
+ * With ionCacheSize 0, every invocation generates the fragment ions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ClusterAnalysisBenchmark {
+    public static final int CLUSTER_COUNT = 64;
+    public static final float FRAGMENT_TOLERANCE = 0.5F;
+
+    @Param({"2", "10", "100", "1000"})
+    public int clusterSize;
+
+    @Param({"50", "200", "1000"})
+    public int peakCount;
+
+    @Param({"0", "10000"})
+    public int ionCacheSize;
+
+    private ICluster[] clusters;
+    private int nextCluster = 0;
+
+    @Setup(Level.Trial)
+    public void createClusters() throws Exception {
+        List<ICluster> clusterList = SyntheticData.createClusters(CLUSTER_COUNT, clusterSize, peakCount, 42);
+        clusters = clusterList.toArray(new ICluster[clusterList.size()]);
+
+        SpectrumAnnotator.getProductIonCache().setMaxSize(ionCacheSize);
+    }
+
+    private ICluster nextCluster() {
+        ICluster cluster = clusters[nextCluster];
+        nextCluster = (nextCluster + 1) % clusters.length;
+
+        return cluster;
+    }
+
+    /**
+     * Only stores the cluster, the statistics are calculated on access.
+     */
+    @Benchmark
+    public ClusterUtilities processCluster() {
+        ClusterUtilities clusterUtilities = new ClusterUtilities();
+        clusterUtilities.processCluster(nextCluster());
+
+        return clusterUtilities;
+    }
+
+    /**
+     * Calculates all statistics written by the MSP converter.
+     */
+    @Benchmark
+    public void processClusterAllStatistics(Blackhole blackhole) {
+        ClusterUtilities clusterUtilities = new ClusterUtilities();
+        clusterUtilities.processCluster(nextCluster());
+
+        blackhole.consume(clusterUtilities.getMaxSequence());
+        blackhole.consume(clusterUtilities.getMaxILAngosticRatio());
+        blackhole.consume(clusterUtilities.getCharge());
+        blackhole.consume(clusterUtilities.getnProjects());
+        blackhole.consume(clusterUtilities.getnAssays());
+        blackhole.consume(clusterUtilities.getMzRange());
+        blackhole.consume(clusterUtilities.getSpecies());
+        blackhole.consume(clusterUtilities.getSecondMaxSequence());
+        blackhole.consume(clusterUtilities.getThirdMaxSequence());
+    }
+
+    @Benchmark
+    public float getAnnotatedTic() throws Exception {
+        return SpectrumAnnotator.getAnnotatedTic(new ClusterAnalysis(nextCluster()), FRAGMENT_TOLERANCE);
+    }
+
+    @Benchmark
+    public Object getProductIonSet() throws Exception {
+        return new ClusterAnalysis(nextCluster()).getProductIonSet();
+    }
+
+    @Benchmark
+    public double getDeltaMass() throws Exception {
+        return new ClusterAnalysis(nextCluster()).getDeltaMass();
+    }
+}
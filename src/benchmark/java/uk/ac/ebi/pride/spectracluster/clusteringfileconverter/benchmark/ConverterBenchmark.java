@@ -0,0 +1,73 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMgfConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMspConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a cluster into its MSP and MGF
+ * representation. Every invocation converts the next of CLUSTER_COUNT
+ * clusters using a new ClusterAnalysis so that the statistics and
+ * annotations are part of the measurement, same as during a conversion.
+ * Nothing is written to disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConverterBenchmark {
+    public static final int CLUSTER_COUNT = 64;
+
+    @Param({"2", "10", "100", "1000"})
+    public int clusterSize;
+
+    @Param({"50", "200", "1000"})
+    public int peakCount;
+
+    /**
+     * The converter and its options: "annotated" is the same as
+     * -spec_lib_add_annotation, "normalized" as -spec_lib_normalize.
+     */
+    @Param({"msp", "msp_annotated", "msp_normalized", "msp_annotated_normalized", "mgf"})
+    public String converter;
+
+    private ICluster[] clusters;
+    private int nextCluster = 0;
+    private IClusterConverter clusterConverter;
+    private final StringBuilder target = new StringBuilder(64 * 1024);
+
+    @Setup(Level.Trial)
+    public void createClusters() throws Exception {
+        List<ICluster> clusterList = SyntheticData.createClusters(CLUSTER_COUNT, clusterSize, peakCount, 42);
+        clusters = clusterList.toArray(new ICluster[clusterList.size()]);
+
+        if ("mgf".equals(converter)) {
+            clusterConverter = new ClusterMgfConverter();
+        }
+        else {
+            ClusterMspConverter mspConverter = new ClusterMspConverter();
+            mspConverter.setAddAnnotationString(converter.contains("annotated"));
+            mspConverter.setNormalizeSpectra(converter.contains("normalized"));
+            clusterConverter = mspConverter;
+        }
+    }
+
+    @Benchmark
+    public int convertCluster() throws Exception {
+        ICluster cluster = clusters[nextCluster];
+        nextCluster = (nextCluster + 1) % clusters.length;
+        target.setLength(0);
+
+        clusterConverter.convertCluster(new ClusterAnalysis(cluster), target);
+
+        return target.length();
+    }
+}
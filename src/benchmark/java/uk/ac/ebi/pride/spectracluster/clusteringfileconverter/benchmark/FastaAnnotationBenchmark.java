@@ -0,0 +1,72 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mapping of peptides to proteins using proteomes of
+ * realistic sizes (yeast, human, human including isoforms). Half of
+ * the searched peptides are taken from the proteins, the other half
+ * are random sequences that are not found.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FastaAnnotationBenchmark {
+    public static final int PEPTIDE_COUNT = 1024;
+
+    @Param({"6000", "20000", "80000"})
+    public int proteinCount;
+
+    @Param({"false", "true"})
+    public boolean ilAgnostic;
+
+    private FastaFile fastaFile;
+    private String[] peptides;
+    private int nextPeptide = 0;
+
+    @Setup(Level.Trial)
+    public void createFastaFile() throws Exception {
+        Random random = new Random(42);
+        File file = File.createTempFile("benchmark-", ".fasta");
+
+        try {
+            List<String> proteins = SyntheticData.writeFastaFile(file, proteinCount, random);
+            // no index file, the index is only held in memory
+            fastaFile = new FastaFile(file, ilAgnostic, null);
+
+            peptides = new String[PEPTIDE_COUNT];
+            for (int i = 0; i < PEPTIDE_COUNT; i++) {
+                int length = 7 + random.nextInt(14);
+
+                if (i % 2 == 0) {
+                    String protein = proteins.get(random.nextInt(proteins.size()));
+                    int start = random.nextInt(protein.length() - length);
+                    peptides[i] = protein.substring(start, start + length);
+                }
+                else {
+                    peptides[i] = SyntheticData.createPeptide(random, length);
+                }
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public String getProteinAnnotation() {
+        String peptide = peptides[nextPeptide];
+        nextPeptide = (nextPeptide + 1) % peptides.length;
+
+        return fastaFile.getProteinAnnotation(peptide);
+    }
+}
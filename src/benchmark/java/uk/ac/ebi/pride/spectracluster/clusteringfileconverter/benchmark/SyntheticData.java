@@ -0,0 +1,207 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.benchmark;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.PeptideMassCalculator;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Creates reproducible synthetic .clustering and FASTA files for the
+ * benchmarks. The clusters are written in the .clustering format and
+ * parsed by the ClusteringFileReader so that the benchmarks use the
+ * same cluster objects as the conversion.
+ *
+ * Every cluster is identified by a random tryptic peptide. Its consensus
+ * spectrum contains the peptide's singly charged b- and y-ions (as far as
+ * the peak count permits) and random noise peaks.
+ */
+public class SyntheticData {
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    private static final double PROTON_MASS = PeptideMassCalculator.PROTON_MASS;
+    private static final double H2O_MASS = PeptideMassCalculator.H2O_MASS;
+    /**
+     * Fraction of the spectra identified as the cluster's peptide. The
+     * other spectra are identified as a second peptide.
+     */
+    private static final double MAIN_PEPTIDE_FRACTION = 0.8;
+
+    private SyntheticData() {
+
+    }
+
+    /**
+     * Creates the clusters.
+     * @param nClusters Number of clusters to create.
+     * @param clusterSize Number of spectra per cluster.
+     * @param peakCount Number of consensus peaks per cluster.
+     * @param seed Seed of the random number generator.
+     * @return The parsed clusters.
+     * @throws Exception
+     */
+    public static List<ICluster> createClusters(int nClusters, int clusterSize, int peakCount, long seed) throws Exception {
+        File clusteringFile = File.createTempFile("benchmark-", ".clustering");
+
+        try {
+            writeClusteringFile(clusteringFile, nClusters, clusterSize, peakCount, new Random(seed));
+
+            return new ClusteringFileReader(clusteringFile).readAllClusters();
+        }
+        finally {
+            clusteringFile.delete();
+        }
+    }
+
+    private static void writeClusteringFile(File file, int nClusters, int clusterSize, int peakCount, Random random) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+
+        try {
+            writer.write("name=benchmark\nsimilarity_method=FrankEtAlDotProduct\nthreshold=0.6\nfdr=0\ndescription=benchmark\n\n");
+
+            for (int i = 0; i < nClusters; i++) {
+                writeCluster(writer, i, clusterSize, peakCount, random);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private static void writeCluster(Writer writer, int clusterIndex, int clusterSize, int peakCount, Random random) throws IOException {
+        String sequence = createPeptide(random, 7 + random.nextInt(14));
+        String secondSequence = createPeptide(random, 7 + random.nextInt(14));
+        int charge = 2;
+        double precursorMz = (getPeptideMass(sequence) + charge * PROTON_MASS) / charge;
+
+        int mainCount = Math.max(1, (int) Math.round(clusterSize * MAIN_PEPTIDE_FRACTION));
+        int secondCount = clusterSize - mainCount;
+
+        writer.write("=Cluster=\n");
+        writer.write("id=" + new UUID(random.nextLong(), random.nextLong()).toString() + "\n");
+        writer.write(String.format(Locale.US, "av_precursor_mz=%.3f\n", precursorMz));
+        writer.write("av_precursor_intens=1.0\n");
+        writer.write("sequence=[" + sequence + ":" + mainCount + (secondCount > 0 ? "," + secondSequence + ":" + secondCount : "") + "]\n");
+
+        float[] mz = createPeaks(sequence, peakCount, random);
+        StringBuilder mzLine = new StringBuilder("consensus_mz=");
+        StringBuilder intensityLine = new StringBuilder("consensus_intens=");
+        for (int i = 0; i < mz.length; i++) {
+            if (i > 0) {
+                mzLine.append(',');
+                intensityLine.append(',');
+            }
+            mzLine.append(String.format(Locale.US, "%.3f", mz[i]));
+            intensityLine.append(String.format(Locale.US, "%.2f", 1 + random.nextFloat() * 10000));
+        }
+        writer.write(mzLine.append('\n').toString());
+        writer.write(intensityLine.append('\n').toString());
+
+        for (int i = 0; i < clusterSize; i++) {
+            String spectrumSequence = (i < mainCount) ? sequence : secondSequence;
+            int project = 1 + random.nextInt(50);
+
+            writer.write(String.format(Locale.US, "SPEC\tPRD%06d;PRIDE_Exp_Complete_Ac_%d.xml;spectrum=%d\ttrue\t%s\t%.3f\t%d\t9606\t\t%.3f\n",
+                    project, project * 100 + random.nextInt(10), clusterIndex * clusterSize + i, spectrumSequence,
+                    precursorMz + (random.nextDouble() - 0.5) * 0.2, charge, 0.6 + random.nextDouble() * 0.4));
+        }
+    }
+
+    /**
+     * Creates a random peptide that ends with K or R.
+     */
+    static String createPeptide(Random random, int length) {
+        StringBuilder peptide = new StringBuilder(length);
+
+        for (int i = 0; i < length - 1; i++) {
+            char aminoAcid;
+            // no internal cleavage sites
+            do {
+                aminoAcid = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+            } while (aminoAcid == 'K' || aminoAcid == 'R');
+
+            peptide.append(aminoAcid);
+        }
+
+        peptide.append(random.nextBoolean() ? 'K' : 'R');
+
+        return peptide.toString();
+    }
+
+    private static double getPeptideMass(String sequence) {
+        double mass = H2O_MASS;
+
+        for (int i = 0; i < sequence.length(); i++) {
+            mass += PeptideMassCalculator.getResidueMass(sequence.charAt(i));
+        }
+
+        return mass;
+    }
+
+    /**
+     * Returns the sorted m/z values of the peptide's b- and y-ions
+     * filled up with random peaks.
+     */
+    private static float[] createPeaks(String sequence, int peakCount, Random random) {
+        List<Float> peaks = new ArrayList<Float>(peakCount);
+        double bIon = PROTON_MASS;
+        double yIon = H2O_MASS + PROTON_MASS;
+
+        for (int i = 0; i < sequence.length() - 1 && peaks.size() + 1 < peakCount; i++) {
+            bIon += PeptideMassCalculator.getResidueMass(sequence.charAt(i));
+            yIon += PeptideMassCalculator.getResidueMass(sequence.charAt(sequence.length() - 1 - i));
+            peaks.add((float) bIon);
+            peaks.add((float) yIon);
+        }
+
+        while (peaks.size() < peakCount) {
+            peaks.add(100 + random.nextFloat() * 1900);
+        }
+
+        Collections.sort(peaks);
+
+        float[] mz = new float[peakCount];
+        for (int i = 0; i < peakCount; i++) {
+            mz[i] = peaks.get(i);
+        }
+
+        return mz;
+    }
+
+    /**
+     * Writes a FASTA file of random proteins. The proteins' lengths follow
+     * the typical distribution of proteomes (on average about 400 amino acids).
+     * @param file The file to write.
+     * @param nProteins Number of proteins.
+     * @param random
+     * @return The created protein sequences.
+     * @throws IOException
+     */
+    public static List<String> writeFastaFile(File file, int nProteins, Random random) throws IOException {
+        List<String> proteins = new ArrayList<String>(nProteins);
+        Writer writer = new BufferedWriter(new FileWriter(file));
+
+        try {
+            for (int i = 0; i < nProteins; i++) {
+                int length = 50 + (int) Math.min(5000, Math.abs(random.nextGaussian() * 250 + 350));
+                StringBuilder protein = new StringBuilder(length);
+                for (int j = 0; j < length; j++) {
+                    protein.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+                }
+                proteins.add(protein.toString());
+
+                writer.write(String.format(Locale.US, ">sp|B%05d|PROT%d_BENCH Benchmark protein %d\n", i, i, i));
+                // 60 residues per line
+                for (int start = 0; start < length; start += 60) {
+                    writer.write(protein.substring(start, Math.min(length, start + 60)));
+                    writer.write('\n');
+                }
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        return proteins;
+    }
+}
@@ -3,6 +3,10 @@ package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.cli;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.SortedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ProductIonCache;
 
 @SuppressWarnings("static-access")
 public class CliOptions {
@@ -19,9 +23,33 @@ public class CliOptions {
         COMBINE("combine"),
         FORMAT("format"),
         FASTA("fasta"),
+        FASTA_IL_AGNOSTIC("fasta_il_agnostic"),
         INCLUDE_LARGE_DELTAS("include_large_deltas"),
         SPEC_LIB_ANNOTATION("spec_lib_add_annotation"),
         SPEC_LIB_NORMALIZE("spec_lib_normalize"),
+        THREADS("threads"),
+        ION_CACHE_SIZE("ion_cache_size"),
+        MZ_PRECISION("mz_precision"),
+        INTENSITY_PRECISION("intensity_precision"),
+        OUTPUT_BUFFER_SIZE("output_buffer_size"),
+        FLUSH_POLICY("flush_policy"),
+        PREALLOCATE("preallocate"),
+        COMPRESS("compress"),
+        SHARD_MZ("shard_mz"),
+        SHARD_CHARGE("shard_charge"),
+        MAX_FILE_SIZE("max_file_size"),
+        SORT("sort"),
+        SORT_MEMORY("sort_memory"),
+        INDEX("index"),
+        PARSER_THREADS("parser_threads"),
+        ADAPTIVE_FILTERS("adaptive_filters"),
+        PROGRESS_INTERVAL("progress_interval"),
+        REPORT("report"),
+        CLUSTER_ID("cluster_id"),
+        PEPTIDE("peptide"),
+        CHARGE("charge"),
+        MIN_MZ("min_mz"),
+        MAX_MZ("max_mz"),
         OUTPUT_PATH("output_path");
 
 		private String value;
@@ -41,6 +69,7 @@ public class CliOptions {
 	}
 
 	private static final Options options = new Options();
+	private static final Options lookupOptions = new Options();
 
 	static {
         Option minRatio = OptionBuilder
@@ -138,13 +167,213 @@ public class CliOptions {
                 .create(OPTIONS.FASTA.getValue());
         options.addOption(fasta);
 
+        Option fastaIlAgnostic = OptionBuilder
+                .withDescription("if set I and L are treated as identical when mapping peptides to the proteins of the FASTA file.")
+                .create(OPTIONS.FASTA_IL_AGNOSTIC.getValue());
+        options.addOption(fastaIlAgnostic);
+
+        Option threads = OptionBuilder
+                .withDescription("number of threads used to convert the clusters. By default, clusters are converted by a single thread.")
+                .hasArg()
+                .withArgName("THREADS")
+                .withType(Integer.class)
+                .create(OPTIONS.THREADS.getValue());
+        options.addOption(threads);
+
+        Option ionCacheSize = OptionBuilder
+                .withDescription("maximum number of peptides whose theoretical fragment ions are cached (default " + ProductIonCache.DEFAULT_MAX_SIZE + "). 0 disables the cache.")
+                .hasArg()
+                .withArgName("SIZE")
+                .withType(Integer.class)
+                .create(OPTIONS.ION_CACHE_SIZE.getValue());
+        options.addOption(ionCacheSize);
+
+        Option mzPrecision = OptionBuilder
+                .withDescription("maximum number of decimals (0 - " + NumberFormatter.MAX_DECIMALS + ") of the peaks' m/z values. " +
+                        "Use FORMAT:DECIMALS to only set it for one format. By default, the shortest exact representation is written.")
+                .hasArg()
+                .withArgName("DECIMALS")
+                .create(OPTIONS.MZ_PRECISION.getValue());
+        options.addOption(mzPrecision);
+
+        Option intensityPrecision = OptionBuilder
+                .withDescription("maximum number of decimals (0 - " + NumberFormatter.MAX_DECIMALS + ") of the peaks' intensities. " +
+                        "Use FORMAT:DECIMALS to only set it for one format. By default, the shortest exact representation is written.")
+                .hasArg()
+                .withArgName("DECIMALS")
+                .create(OPTIONS.INTENSITY_PRECISION.getValue());
+        options.addOption(intensityPrecision);
+
+        Option outputBufferSize = OptionBuilder
+                .withDescription("size of the buffer used to write every output file in KB (default " + ChannelOutputWriter.DEFAULT_BUFFER_SIZE / 1024 + ").")
+                .hasArg()
+                .withArgName("KB")
+                .withType(Integer.class)
+                .create(OPTIONS.OUTPUT_BUFFER_SIZE.getValue());
+        options.addOption(outputBufferSize);
+
+        Option flushPolicy = OptionBuilder
+                .withDescription("defines when buffered data is written to the output files: when_full (default), every_record (after every cluster), " +
+                        "or sync (when_full and force the data to the disk).")
+                .hasArg()
+                .withArgName("POLICY")
+                .create(OPTIONS.FLUSH_POLICY.getValue());
+        options.addOption(flushPolicy);
+
+        Option preallocate = OptionBuilder
+                .withDescription("reserves the defined space for every output file when it is opened. Unused space is released once the file is complete.")
+                .hasArg()
+                .withArgName("MB")
+                .withType(Integer.class)
+                .create(OPTIONS.PREALLOCATE.getValue());
+        options.addOption(preallocate);
+
+        Option compress = OptionBuilder
+                .withDescription("if set the output files are gzip compressed (.gz is added to the extension). Compression uses the number of threads set by -threads.")
+                .create(OPTIONS.COMPRESS.getValue());
+        options.addOption(compress);
+
+        Option shardMz = OptionBuilder
+                .withDescription("splits the output into one file per precursor m/z range of the defined width (for example 100).")
+                .hasArg()
+                .withArgName("WIDTH")
+                .withType(Double.class)
+                .create(OPTIONS.SHARD_MZ.getValue());
+        options.addOption(shardMz);
+
+        Option shardCharge = OptionBuilder
+                .withDescription("if set the output is split into one file per charge state.")
+                .create(OPTIONS.SHARD_CHARGE.getValue());
+        options.addOption(shardCharge);
+
+        Option maxFileSize = OptionBuilder
+                .withDescription("maximum (uncompressed) size of an output file in MB. Larger output is split into multiple parts.")
+                .hasArg()
+                .withArgName("MB")
+                .withType(Integer.class)
+                .create(OPTIONS.MAX_FILE_SIZE.getValue());
+        options.addOption(maxFileSize);
+
+        Option sort = OptionBuilder
+                .withDescription("sorts the clusters in the output files by precursor m/z (mz), decreasing number of spectra (size), or cluster id (id).")
+                .hasArg()
+                .withArgName("ORDER")
+                .create(OPTIONS.SORT.getValue());
+        options.addOption(sort);
+
+        Option sortMemory = OptionBuilder
+                .withDescription("memory used to sort the clusters of every format in MB (default " + SortedClusterConverter.DEFAULT_MEMORY_BUDGET / 1024 / 1024 +
+                        "). Additional clusters are sorted using temporary files.")
+                .hasArg()
+                .withArgName("MB")
+                .withType(Integer.class)
+                .create(OPTIONS.SORT_MEMORY.getValue());
+        options.addOption(sortMemory);
+
+        Option index = OptionBuilder
+                .withDescription("if set an index of the entries' byte offsets is written next to every output file (<output file>.idx). " +
+                        "Indexed files can be searched using the \"" + ClusteringFileConverterCli.LOOKUP_COMMAND + "\" command.")
+                .create(OPTIONS.INDEX.getValue());
+        options.addOption(index);
+
+        Option parserThreads = OptionBuilder
+                .withDescription("number of threads used to parse every (uncompressed) .clustering file (default 1). " +
+                        "Large files are split into chunks that are copied into temporary files and parsed at the same time. " +
+                        "Compressed files are always parsed by a single thread.")
+                .hasArg()
+                .withArgName("THREADS")
+                .withType(Integer.class)
+                .create(OPTIONS.PARSER_THREADS.getValue());
+        options.addOption(parserThreads);
+
+        Option adaptiveFilters = OptionBuilder
+                .withDescription("if set the cluster filters are re-ordered during the conversion so that the filters rejecting " +
+                        "the most clusters at the lowest cost are evaluated first.")
+                .create(OPTIONS.ADAPTIVE_FILTERS.getValue());
+        options.addOption(adaptiveFilters);
+
+        Option progressInterval = OptionBuilder
+                .withDescription("time between two progress reports in seconds (default " +
+                        ClusteringFileConverterCli.DEFAULT_PROGRESS_INTERVAL + "). 0 disables the progress reports.")
+                .hasArg()
+                .withArgName("SECONDS")
+                .withType(Integer.class)
+                .create(OPTIONS.PROGRESS_INTERVAL.getValue());
+        options.addOption(progressInterval);
+
+        Option report = OptionBuilder
+                .withDescription("if set, a JSON report containing the run's throughput and latency statistics is written to this file.")
+                .hasArg()
+                .withArgName("FILE")
+                .create(OPTIONS.REPORT.getValue());
+        options.addOption(report);
+
 		Option help = OptionBuilder
                 .withDescription("print this help.")
                 .create(OPTIONS.HELP.getValue());
 		options.addOption(help);
+
+        // options of the lookup command
+        Option clusterId = OptionBuilder
+                .withDescription("extracts the cluster with the defined id. May be specified multiple times.")
+                .hasArg()
+                .withArgName("ID")
+                .create(OPTIONS.CLUSTER_ID.getValue());
+        lookupOptions.addOption(clusterId);
+
+        Option peptide = OptionBuilder
+                .withDescription("extracts all clusters with the defined most common peptide sequence.")
+                .hasArg()
+                .withArgName("SEQUENCE")
+                .create(OPTIONS.PEPTIDE.getValue());
+        lookupOptions.addOption(peptide);
+
+        Option charge = OptionBuilder
+                .withDescription("only extracts clusters with the defined charge (in combination with -" + OPTIONS.PEPTIDE.getValue() + ").")
+                .hasArg()
+                .withArgName("CHARGE")
+                .withType(Integer.class)
+                .create(OPTIONS.CHARGE.getValue());
+        lookupOptions.addOption(charge);
+
+        Option minMz = OptionBuilder
+                .withDescription("extracts all clusters with a precursor m/z of at least MZ (in combination with -" + OPTIONS.MAX_MZ.getValue() + ").")
+                .hasArg()
+                .withArgName("MZ")
+                .withType(Double.class)
+                .create(OPTIONS.MIN_MZ.getValue());
+        lookupOptions.addOption(minMz);
+
+        Option maxMz = OptionBuilder
+                .withDescription("extracts all clusters with a precursor m/z of at most MZ (in combination with -" + OPTIONS.MIN_MZ.getValue() + ").")
+                .hasArg()
+                .withArgName("MZ")
+                .withType(Double.class)
+                .create(OPTIONS.MAX_MZ.getValue());
+        lookupOptions.addOption(maxMz);
+
+        Option lookupOutputPath = OptionBuilder
+                .withDescription("file to write the extracted entries to. By default, the entries are written to the standard output.")
+                .hasArg()
+                .withArgName("FILE")
+                .create(OPTIONS.OUTPUT_PATH.getValue());
+        lookupOptions.addOption(lookupOutputPath);
+
+        Option lookupHelp = OptionBuilder
+                .withDescription("print this help.")
+                .create(OPTIONS.HELP.getValue());
+        lookupOptions.addOption(lookupHelp);
 	}
 
 	public static Options getOptions() {
 		return options;
 	}
+
+	/**
+	 * Returns the options of the lookup command.
+	 * @return
+	 */
+	public static Options getLookupOptions() {
+		return lookupOptions;
+	}
 }
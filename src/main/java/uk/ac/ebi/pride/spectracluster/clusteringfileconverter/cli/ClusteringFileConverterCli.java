@@ -4,25 +4,65 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
-import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMspConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterConverterDispatcher;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterFilterChain;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ConverterFactory;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterExporter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterFilter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ParallelConversionPipeline;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.DelegatingClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ShardedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.SortedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.CompressedInputFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexFormat;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EstimatedInputProgress;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.IInputProgress;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.IndexedEntry;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ParallelClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ProductIonCache;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ProgressReporter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.SpectrumAnnotator;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by jg on 01.08.14.
  */
 public class ClusteringFileConverterCli {
+    /**
+     * First argument to extract entries from indexed output files.
+     */
+    public static final String LOOKUP_COMMAND = "lookup";
+    /**
+     * Default time between two progress reports in seconds.
+     */
+    public static final int DEFAULT_PROGRESS_INTERVAL = 10;
+    /**
+     * Added to the output files of a failed conversion.
+     */
+    public static final String INCOMPLETE_EXTENSION = ".incomplete";
+
     public static void main(String[] args) {
+        if (args.length > 0 && LOOKUP_COMMAND.equals(args[0])) {
+            lookupEntries(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         CommandLineParser parser = new GnuParser();
 
         try {
@@ -77,119 +117,749 @@ public class ClusteringFileConverterCli {
 
             FastaFile fastaFile = null;
             if (commandLine.hasOption(CliOptions.OPTIONS.FASTA.getValue())) {
-                fastaFile = new FastaFile(new File(commandLine.getOptionValue(CliOptions.OPTIONS.FASTA.getValue())));
+                boolean ilAgnostic = commandLine.hasOption(CliOptions.OPTIONS.FASTA_IL_AGNOSTIC.getValue());
+                fastaFile = new FastaFile(new File(commandLine.getOptionValue(CliOptions.OPTIONS.FASTA.getValue())), ilAgnostic);
             }
 
             String[] formats = commandLine.getOptionValues(CliOptions.OPTIONS.FORMAT.getValue());
 
-            // process the files
-            if (combineResults) {
-                convertClusteringFilesCombined(commandLine.getArgs(), outputPath, minSize, maxSize, minRatio, maxRatio, minTic, maxTic, species, formats, specLibAnnotation, specLibNormalize, fastaFile);
+            int nThreads = Integer.parseInt(
+                    commandLine.getOptionValue(CliOptions.OPTIONS.THREADS.getValue(), "1")
+            );
+            if (nThreads < 1)
+                throw new Exception(CliOptions.OPTIONS.THREADS.getValue() + " must be at least 1");
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.ION_CACHE_SIZE.getValue())) {
+                int ionCacheSize = Integer.parseInt(commandLine.getOptionValue(CliOptions.OPTIONS.ION_CACHE_SIZE.getValue()));
+                if (ionCacheSize < 0)
+                    throw new Exception(CliOptions.OPTIONS.ION_CACHE_SIZE.getValue() + " must not be negative");
+                SpectrumAnnotator.getProductIonCache().setMaxSize(ionCacheSize);
             }
-            else {
-                // process each file separately
-                for (String inputFilename : commandLine.getArgs()) {
-                    convertCluteringFile(inputFilename, outputPath, minSize, maxSize, minRatio, maxRatio, minTic, maxTic, species, formats, specLibAnnotation, specLibNormalize, fastaFile);
+
+            ConverterSettings converterSettings = new ConverterSettings();
+            converterSettings.setFormats(formats);
+            converterSettings.setMinSize(minSize);
+            converterSettings.setMaxSize(maxSize);
+            converterSettings.setMinRatio(minRatio);
+            converterSettings.setMaxRatio(maxRatio);
+            converterSettings.setMinTic(minTic);
+            converterSettings.setMaxTic(maxTic);
+            converterSettings.setSpecies(species);
+            converterSettings.setFastaFile(fastaFile);
+            converterSettings.setSpecLibAnnotation(specLibAnnotation);
+            converterSettings.setSpecLibNormalize(specLibNormalize);
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.MZ_PRECISION.getValue())) {
+                for (String value : commandLine.getOptionValues(CliOptions.OPTIONS.MZ_PRECISION.getValue())) {
+                    String[] precision = parsePrecision(value, CliOptions.OPTIONS.MZ_PRECISION.getValue());
+                    converterSettings.setMzPrecision(precision[0], Integer.parseInt(precision[1]));
+                }
+            }
+            if (commandLine.hasOption(CliOptions.OPTIONS.INTENSITY_PRECISION.getValue())) {
+                for (String value : commandLine.getOptionValues(CliOptions.OPTIONS.INTENSITY_PRECISION.getValue())) {
+                    String[] precision = parsePrecision(value, CliOptions.OPTIONS.INTENSITY_PRECISION.getValue());
+                    converterSettings.setIntensityPrecision(precision[0], Integer.parseInt(precision[1]));
+                }
+            }
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.OUTPUT_BUFFER_SIZE.getValue())) {
+                int bufferSizeKb = Integer.parseInt(commandLine.getOptionValue(CliOptions.OPTIONS.OUTPUT_BUFFER_SIZE.getValue()));
+                if (bufferSizeKb * 1024L < ChannelOutputWriter.MIN_BUFFER_SIZE || bufferSizeKb > Integer.MAX_VALUE / 1024)
+                    throw new Exception(CliOptions.OPTIONS.OUTPUT_BUFFER_SIZE.getValue() + " must be between " +
+                            ChannelOutputWriter.MIN_BUFFER_SIZE / 1024 + " and " + Integer.MAX_VALUE / 1024);
+                converterSettings.setOutputBufferSize(bufferSizeKb * 1024);
+            }
+            if (commandLine.hasOption(CliOptions.OPTIONS.FLUSH_POLICY.getValue())) {
+                String flushPolicyName = commandLine.getOptionValue(CliOptions.OPTIONS.FLUSH_POLICY.getValue());
+                ChannelOutputWriter.FlushPolicy flushPolicy = ChannelOutputWriter.FlushPolicy.getFlushPolicyByName(flushPolicyName);
+                if (flushPolicy == null)
+                    throw new Exception("Unknown " + CliOptions.OPTIONS.FLUSH_POLICY.getValue() + " '" + flushPolicyName + "'");
+                converterSettings.setFlushPolicy(flushPolicy);
+            }
+            if (commandLine.hasOption(CliOptions.OPTIONS.PREALLOCATE.getValue())) {
+                long preallocateMb = Long.parseLong(commandLine.getOptionValue(CliOptions.OPTIONS.PREALLOCATE.getValue()));
+                if (preallocateMb < 0)
+                    throw new Exception(CliOptions.OPTIONS.PREALLOCATE.getValue() + " must not be negative");
+                converterSettings.setPreallocationSize(preallocateMb * 1024 * 1024);
+            }
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.COMPRESS.getValue()))
+                converterSettings.setCompressionThreads(nThreads);
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.SHARD_MZ.getValue())) {
+                double shardMzWidth = Double.parseDouble(commandLine.getOptionValue(CliOptions.OPTIONS.SHARD_MZ.getValue()));
+                if (!(shardMzWidth > 0) || Double.isInfinite(shardMzWidth))
+                    throw new Exception(CliOptions.OPTIONS.SHARD_MZ.getValue() + " must be greater than 0");
+                converterSettings.setShardMzWidth(shardMzWidth);
+            }
+            converterSettings.setShardByCharge(commandLine.hasOption(CliOptions.OPTIONS.SHARD_CHARGE.getValue()));
+            if (commandLine.hasOption(CliOptions.OPTIONS.MAX_FILE_SIZE.getValue())) {
+                long maxFileSizeMb = Long.parseLong(commandLine.getOptionValue(CliOptions.OPTIONS.MAX_FILE_SIZE.getValue()));
+                if (maxFileSizeMb < 1)
+                    throw new Exception(CliOptions.OPTIONS.MAX_FILE_SIZE.getValue() + " must be at least 1");
+                converterSettings.setMaxFileSize(maxFileSizeMb * 1024 * 1024);
+            }
+            converterSettings.setShardWriterThreads(nThreads);
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.SORT.getValue())) {
+                String sortOrderName = commandLine.getOptionValue(CliOptions.OPTIONS.SORT.getValue());
+                SortedClusterConverter.SortOrder sortOrder = SortedClusterConverter.SortOrder.getSortOrderByName(sortOrderName);
+                if (sortOrder == null)
+                    throw new Exception("Unknown " + CliOptions.OPTIONS.SORT.getValue() + " order '" + sortOrderName + "'");
+                converterSettings.setSortOrder(sortOrder);
+            }
+            if (commandLine.hasOption(CliOptions.OPTIONS.SORT_MEMORY.getValue())) {
+                long sortMemoryMb = Long.parseLong(commandLine.getOptionValue(CliOptions.OPTIONS.SORT_MEMORY.getValue()));
+                if (sortMemoryMb < 1)
+                    throw new Exception(CliOptions.OPTIONS.SORT_MEMORY.getValue() + " must be at least 1");
+                converterSettings.setSortMemoryBudget(sortMemoryMb * 1024 * 1024);
+            }
+
+            converterSettings.setCreateIndex(commandLine.hasOption(CliOptions.OPTIONS.INDEX.getValue()));
+            converterSettings.setAdaptiveFilterOrder(commandLine.hasOption(CliOptions.OPTIONS.ADAPTIVE_FILTERS.getValue()));
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.PARSER_THREADS.getValue())) {
+                int parserThreads = Integer.parseInt(commandLine.getOptionValue(CliOptions.OPTIONS.PARSER_THREADS.getValue()));
+                if (parserThreads < 1)
+                    throw new Exception(CliOptions.OPTIONS.PARSER_THREADS.getValue() + " must be at least 1");
+                converterSettings.setParserThreads(parserThreads);
+            }
+
+            int progressInterval = Integer.parseInt(
+                    commandLine.getOptionValue(CliOptions.OPTIONS.PROGRESS_INTERVAL.getValue(), Integer.toString(DEFAULT_PROGRESS_INTERVAL))
+            );
+            if (progressInterval < 0)
+                throw new Exception(CliOptions.OPTIONS.PROGRESS_INTERVAL.getValue() + " must not be negative");
+            String reportPath = commandLine.getOptionValue(CliOptions.OPTIONS.REPORT.getValue());
+
+            ConversionMetrics metrics = new ConversionMetrics();
+            metrics.setRunInfo("input_files", Arrays.asList(commandLine.getArgs()));
+            metrics.setRunInfo("output_path", outputPath);
+            metrics.setRunInfo("formats", Arrays.asList(converterSettings.getFormats()));
+            metrics.setRunInfo("combine", combineResults);
+            metrics.setRunInfo("threads", nThreads);
+            metrics.setRunInfo("parser_threads", converterSettings.getParserThreads());
+            for (String inputFilename : commandLine.getArgs()) {
+                metrics.addTotalInputBytes(new File(inputFilename).length());
+            }
+
+            ProgressReporter progressReporter = null;
+            if (progressInterval > 0) {
+                progressReporter = new ProgressReporter(metrics, progressInterval * 1000L, System.out);
+                progressReporter.start();
+            }
+
+            try {
+                // process the files
+                if (combineResults) {
+                    if (nThreads > 1 && commandLine.getArgs().length > 1 && converterSettings.isSegmentable())
+                        convertClusteringFilesCombinedParallel(commandLine.getArgs(), outputPath, converterSettings, nThreads, metrics);
+                    else
+                        convertClusteringFilesCombined(commandLine.getArgs(), outputPath, converterSettings, nThreads, metrics);
+                }
+                else {
+                    // process each file separately
+                    for (String inputFilename : commandLine.getArgs()) {
+                        convertCluteringFile(inputFilename, outputPath, converterSettings, nThreads, metrics);
+                    }
+                }
+            }
+            finally {
+                if (progressReporter != null)
+                    progressReporter.stop();
+                metrics.finish();
+            }
+
+            ProductIonCache productIonCache = SpectrumAnnotator.getProductIonCache();
+            if (productIonCache.getHits() + productIonCache.getMisses() > 0)
+                System.out.println("Fragment ion cache: " + productIonCache.toString());
+
+            System.out.println("Conversion statistics:");
+            System.out.print(metrics.getStatistics());
+            if (reportPath != null) {
+                metrics.writeReport(new File(reportPath));
+                System.out.println("Report written to " + reportPath);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Extracts entries from indexed MSP or MGF files. The entries are
+     * read directly at the offsets stored in the files' indexes.
+     * @param args The command's arguments.
+     */
+    private static void lookupEntries(String[] args) {
+        CommandLineParser parser = new GnuParser();
+
+        try {
+            CommandLine commandLine = parser.parse(CliOptions.getLookupOptions(), args);
+
+            if (commandLine.hasOption(CliOptions.OPTIONS.HELP.getValue())) {
+                printLookupHelp();
+                return;
+            }
+
+            boolean mzRange = commandLine.hasOption(CliOptions.OPTIONS.MIN_MZ.getValue()) ||
+                    commandLine.hasOption(CliOptions.OPTIONS.MAX_MZ.getValue());
+            if (!commandLine.hasOption(CliOptions.OPTIONS.CLUSTER_ID.getValue()) &&
+                    !commandLine.hasOption(CliOptions.OPTIONS.PEPTIDE.getValue()) && !mzRange)
+                throw new Exception("At least one of " + CliOptions.OPTIONS.CLUSTER_ID.getValue() + ", " +
+                        CliOptions.OPTIONS.PEPTIDE.getValue() + ", " + CliOptions.OPTIONS.MIN_MZ.getValue() + ", or " +
+                        CliOptions.OPTIONS.MAX_MZ.getValue() + " must be set");
+            if (commandLine.getArgs().length < 1)
+                throw new Exception("No indexed file passed");
+
+            int charge = Integer.parseInt(commandLine.getOptionValue(CliOptions.OPTIONS.CHARGE.getValue(), "0"));
+            double minMz = Double.parseDouble(commandLine.getOptionValue(CliOptions.OPTIONS.MIN_MZ.getValue(), "0"));
+            double maxMz = Double.parseDouble(commandLine.getOptionValue(CliOptions.OPTIONS.MAX_MZ.getValue(),
+                    Double.toString(Double.MAX_VALUE)));
+
+            String outputPath = commandLine.getOptionValue(CliOptions.OPTIONS.OUTPUT_PATH.getValue());
+            WritableByteChannel outputChannel = (outputPath != null) ?
+                    new FileOutputStream(outputPath).getChannel() : Channels.newChannel(System.out);
+            int nEntries = 0;
+
+            try {
+                for (String dataFilename : commandLine.getArgs()) {
+                    File dataFile = new File(dataFilename);
+                    EntryIndexReader indexReader = new EntryIndexReader(dataFile);
+
+                    // entries may match multiple queries
+                    Map<Long, IndexedEntry> entries = new LinkedHashMap<Long, IndexedEntry>();
+
+                    if (commandLine.hasOption(CliOptions.OPTIONS.CLUSTER_ID.getValue())) {
+                        for (String clusterId : commandLine.getOptionValues(CliOptions.OPTIONS.CLUSTER_ID.getValue())) {
+                            addIndexedEntries(entries, indexReader.getEntriesByClusterId(clusterId));
+                        }
+                    }
+                    if (commandLine.hasOption(CliOptions.OPTIONS.PEPTIDE.getValue())) {
+                        addIndexedEntries(entries, indexReader.getEntriesByPeptide(
+                                commandLine.getOptionValue(CliOptions.OPTIONS.PEPTIDE.getValue()), charge));
+                    }
+                    if (mzRange) {
+                        addIndexedEntries(entries, indexReader.getEntries(minMz, maxMz));
+                    }
+
+                    copyEntries(dataFile, entries.values(), outputChannel);
+                    nEntries += entries.size();
                 }
             }
+            finally {
+                // never close the standard output
+                if (outputPath != null)
+                    outputChannel.close();
+                else
+                    System.out.flush();
+            }
+
+            if (outputPath != null)
+                System.out.println(nEntries + " entries written to " + outputPath);
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
         }
     }
 
-    private static void convertClusteringFilesCombined(String[] inputFilenames, String outputPathString, int minSize, int maxSize, float minRatio, float maxRatio, float minTic, float maxTic, Set<String> species, String[] formats, boolean specLibAnnotation, boolean specLibNormalize, FastaFile fastaFile) throws Exception{
+    private static void addIndexedEntries(Map<Long, IndexedEntry> entries, List<IndexedEntry> newEntries) {
+        for (IndexedEntry entry : newEntries) {
+            entries.put(entry.getOffset(), entry);
+        }
+    }
+
+    /**
+     * Copies the entries from the indexed file to the output channel.
+     * @param dataFile The indexed file.
+     * @param entries The entries to copy.
+     * @param outputChannel The channel to write the entries to.
+     * @throws IOException
+     */
+    private static void copyEntries(File dataFile, Collection<IndexedEntry> entries, WritableByteChannel outputChannel) throws IOException {
+        FileChannel dataChannel = new FileInputStream(dataFile).getChannel();
+
+        try {
+            for (IndexedEntry entry : entries) {
+                long position = entry.getOffset();
+                long end = entry.getOffset() + entry.getLength();
+
+                while (position < end) {
+                    long transferred = dataChannel.transferTo(position, end - position, outputChannel);
+                    if (transferred < 1)
+                        throw new IOException("Unexpected end of " + dataFile.getName());
+                    position += transferred;
+                }
+            }
+        }
+        finally {
+            dataChannel.close();
+        }
+    }
+
+    /**
+     * Parses a precision defined as DECIMALS or FORMAT:DECIMALS.
+     * @param value The option's value.
+     * @param optionName The option's name used in error messages.
+     * @return The format (ConverterSettings.ALL_FORMATS if not set) and the number of decimals.
+     * @throws Exception Thrown if the value is invalid.
+     */
+    private static String[] parsePrecision(String value, String optionName) throws Exception {
+        String format = ConverterSettings.ALL_FORMATS;
+        String decimals = value;
+
+        int index = value.indexOf(':');
+        if (index >= 0) {
+            format = value.substring(0, index);
+            decimals = value.substring(index + 1);
+
+            if (ConverterFactory.CONVERTER.getConverterByName(format) == null)
+                throw new Exception("Unknown format '" + format + "' passed to " + optionName);
+        }
+
+        try {
+            int precision = Integer.parseInt(decimals);
+
+            if (precision < 0 || precision > NumberFormatter.MAX_DECIMALS)
+                throw new Exception(optionName + " must be between 0 and " + NumberFormatter.MAX_DECIMALS);
+        }
+        catch (NumberFormatException e) {
+            throw new Exception("Invalid " + optionName + " '" + value + "'");
+        }
+
+        return new String[] {format, decimals};
+    }
+
+    private static void convertClusteringFilesCombined(String[] inputFilenames, String outputPathString, ConverterSettings converterSettings, int nThreads, ConversionMetrics metrics) throws Exception{
         File outputPath = new File(outputPathString);
 
         // get all converters
-        List<IClusterConverter> converters = new ArrayList<IClusterConverter>(formats.length);
-        for (String format : formats) {
-            IClusterConverter converter = ConverterFactory.getConverter(format);
-
-            converter.setMinSize(minSize);
-            converter.setMaxSize(maxSize);
-            converter.setMinRatio(minRatio);
-            converter.setMaxRatio(maxRatio);
-            converter.setMinTic(minTic);
-            converter.setMaxTic(maxTic);
-            converter.setSpecies(species);
-            converter.setFastaFile(fastaFile);
-
-            if (converter.getClass() == ClusterMspConverter.class) {
-                ClusterMspConverter tmp = (ClusterMspConverter) converter;
-                tmp.setNormalizeSpectra(specLibNormalize);
-                tmp.setAddAnnotationString(specLibAnnotation);
-            }
-
-            converter.setOutputPath(outputPath.getPath() + "." + converter.getFiletypeExtension());
+        List<IClusterExporter> converters = converterSettings.createConverters();
+        for (IClusterExporter converter : converters) {
+            converter.setOutputPath(outputPath.getPath() + "." + converterSettings.getOutputExtension(converter));
             converter.setAppend(true);
+        }
+
+        // process all files
+        try {
+            for (String inputFilename : inputFilenames) {
+                System.out.println("Processing " + inputFilename);
+                processClusteringFile(new File(inputFilename), converters, nThreads, converterSettings.getParserThreads(), metrics);
+            }
+        }
+        catch (Exception e) {
+            closeIncompleteConverters(converters);
+            throw e;
+        }
 
-            converters.add(converter);
+        closeConverters(converters, metrics);
+
+        for (IClusterExporter c : converters) {
+            printResultFiles(c);
         }
 
-        //  create the list of listeners
-        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(converters);
+        printFilterStatistics(converters);
+    }
 
-        // process all files
-        for (String inputFilename : inputFilenames) {
-            System.out.println("Processing " + inputFilename);
-            IClusterSourceReader reader = new ClusteringFileReader(new File(inputFilename));
-            reader.readClustersIteratively(listeners);
+    /**
+     * Converts all input files concurrently into temporary segment files
+     * (one per input file and format). The segments are then concatenated
+     * in the order of the input files. Thereby, the result is identical
+     * to the one created by convertClusteringFilesCombined. The segments
+     * are stored in a temporary directory that is removed once the
+     * conversion is complete or failed.
+     * @param inputFilenames The input files.
+     * @param outputPathString The output path without the format's extension.
+     * @param converterSettings The converters' settings.
+     * @param nThreads Number of files to process at the same time.
+     * @param metrics The run's metrics.
+     * @throws Exception
+     */
+    private static void convertClusteringFilesCombinedParallel(String[] inputFilenames, String outputPathString, final ConverterSettings converterSettings,
+                                                               int nThreads, final ConversionMetrics metrics) throws Exception {
+        File outputPath = new File(outputPathString);
+        File segmentDirectory = createTemporaryDirectory("clustering-segments-");
+        String[] formats = converterSettings.getFormats();
+
+        // segmentFiles[input file][format]
+        final File[][] segmentFiles = new File[inputFilenames.length][formats.length];
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(nThreads, inputFilenames.length));
+
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(inputFilenames.length);
+
+            for (int i = 0; i < inputFilenames.length; i++) {
+                final File inputFile = new File(inputFilenames[i]);
+                final File[] fileSegments = segmentFiles[i];
+
+                for (int j = 0; j < formats.length; j++) {
+                    fileSegments[j] = new File(segmentDirectory, i + "-" + j + ".segment");
+                    if (!fileSegments[j].createNewFile())
+                        throw new IOException("Failed to create segment file " + fileSegments[j].getPath());
+                }
+
+                results.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        System.out.println("Processing " + inputFile.getPath());
+                        convertClusteringFileSegment(inputFile, fileSegments, converterSettings, metrics);
+                        return null;
+                    }
+                }));
+            }
+
+            // wait for all files to finish
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                }
+                catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+
+            // concatenate the segments
+            List<IClusterExporter> converters = converterSettings.createConverters();
+            for (int j = 0; j < converters.size(); j++) {
+                // segmented output is only written by text converters
+                IClusterConverter converter = (IClusterConverter) converters.get(j);
+                File resultFile = new File(outputPath.getPath() + "." + converterSettings.getOutputExtension(converter));
+                File[] formatSegments = new File[inputFilenames.length];
+
+                for (int i = 0; i < inputFilenames.length; i++) {
+                    formatSegments[i] = segmentFiles[i][j];
+                }
+
+                long concatenationStart = System.nanoTime();
+                concatenateSegments(formatSegments, resultFile, converter.getFileHeader(), converterSettings.isCompress());
+                metrics.addStageNanos(ConversionMetrics.Stage.WRITE, System.nanoTime() - concatenationStart);
+                System.out.println("Result written to " + resultFile.getPath());
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+
+            for (File[] fileSegments : segmentFiles) {
+                for (File segment : fileSegments) {
+                    if (segment != null)
+                        segment.delete();
+                }
+            }
+            segmentDirectory.delete();
+        }
+    }
+
+    /**
+     * Creates a new, empty directory in the system's temporary directory.
+     * @param prefix The directory name's prefix.
+     * @return The created directory.
+     * @throws IOException
+     */
+    private static File createTemporaryDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Failed to create temporary directory " + directory.getPath());
+
+        return directory;
+    }
+
+    /**
+     * Converts one input file into the passed segment files without
+     * writing any file header.
+     * @param inputFile The input file.
+     * @param segmentFiles One (existing) segment file per format.
+     * @param converterSettings The converters' settings.
+     * @param metrics The run's metrics.
+     * @throws Exception
+     */
+    private static void convertClusteringFileSegment(File inputFile, File[] segmentFiles, ConverterSettings converterSettings, ConversionMetrics metrics) throws Exception {
+        List<IClusterExporter> converters = converterSettings.createConverters();
+
+        for (int i = 0; i < converters.size(); i++) {
+            // since the segment file already exists, no header is written in append mode
+            converters.get(i).setOutputPath(segmentFiles[i].getPath());
+            converters.get(i).setAppend(true);
+        }
+
+        try {
+            processClusteringFile(inputFile, converters, 1, 1, metrics);
+        }
+        finally {
+            closeConverters(converters, metrics);
+        }
+    }
+
+    /**
+     * Appends the segments to the result file. Similar to the converters
+     * in append mode, the header is only written if the result file does
+     * not exist yet. If all segments are empty, the result file is not
+     * created.
+     * @param segments The segments to concatenate in this order.
+     * @param resultFile The file to append the segments to.
+     * @param fileHeader The format's file header.
+     * @param compressed Indicates whether the segments are gzip compressed. Concatenated
+     *                   gzip files are again a valid gzip file.
+     * @throws Exception
+     */
+    private static void concatenateSegments(File[] segments, File resultFile, String fileHeader, boolean compressed) throws Exception {
+        long totalSize = 0;
+        for (File segment : segments) {
+            totalSize += segment.length();
         }
 
-        // close all converters
-        for (IClusterConverter c : converters) {
-            c.close();
+        if (totalSize == 0)
+            return;
+
+        boolean fileExists = resultFile.exists();
+
+        if (!fileExists) {
+            Writer headerWriter = new ChannelOutputWriter(resultFile, true, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                    ChannelOutputWriter.FlushPolicy.WHEN_FULL, 0, compressed ? 1 : 0);
+            headerWriter.write(fileHeader);
+            headerWriter.close();
         }
 
-        for (IClusterConverter c : converters) {
-            System.out.println("Result written to " + c.getOuputPath());
+        FileChannel resultChannel = new FileOutputStream(resultFile, true).getChannel();
+
+        try {
+            for (File segment : segments) {
+                FileChannel segmentChannel = new FileInputStream(segment).getChannel();
+
+                try {
+                    long position = 0;
+                    long size = segmentChannel.size();
+
+                    while (position < size) {
+                        position += segmentChannel.transferTo(position, size - position, resultChannel);
+                    }
+                }
+                finally {
+                    segmentChannel.close();
+                }
+            }
+        }
+        finally {
+            resultChannel.close();
         }
     }
 
-    private static void convertCluteringFile(String inputFilename, String outputPathString, int minSize, int maxSize, float minRatio, float maxRatio, float minTic, float maxTic, Set<String> species, String[] formats, boolean specLibAnnotation, boolean specLibNormalize, FastaFile fastaFile) throws Exception {
+    private static void convertCluteringFile(String inputFilename, String outputPathString, ConverterSettings converterSettings, int nThreads, ConversionMetrics metrics) throws Exception {
         System.out.println("Converting " + inputFilename + "\n");
 
         // get all converters
-        List<IClusterConverter> converters = new ArrayList<IClusterConverter>(formats.length);
+        List<IClusterExporter> converters = converterSettings.createConverters();
         File inputFile = new File(inputFilename);
-        for (String format : formats) {
-            IClusterConverter converter = ConverterFactory.getConverter(format);
+        for (IClusterExporter converter : converters) {
+            converter.setOutputPath(outputPathString + "-" + CompressedInputFile.getUncompressedName(inputFile) + "." + converterSettings.getOutputExtension(converter));
+        }
+
+        // process the file
+        try {
+            processClusteringFile(inputFile, converters, nThreads, converterSettings.getParserThreads(), metrics);
+        }
+        catch (Exception e) {
+            closeIncompleteConverters(converters);
+            throw e;
+        }
+
+        closeConverters(converters, metrics);
+
+        for (IClusterExporter c : converters) {
+            printResultFiles(c);
+        }
+
+        printFilterStatistics(converters);
+    }
+
+    /**
+     * Closes all converters. The time needed is added to the write stage.
+     * The bytes written and the clusters rejected by the converters' filters
+     * are added to the metrics.
+     * @param converters
+     * @param metrics
+     * @throws Exception
+     */
+    private static void closeConverters(List<IClusterExporter> converters, ConversionMetrics metrics) throws Exception {
+        long start = System.nanoTime();
+
+        try {
+            for (IClusterExporter c : converters) {
+                c.close();
+            }
+        }
+        finally {
+            metrics.addStageNanos(ConversionMetrics.Stage.WRITE, System.nanoTime() - start);
+        }
 
-            converter.setMinSize(minSize);
-            converter.setMaxSize(maxSize);
-            converter.setMinRatio(minRatio);
-            converter.setMaxRatio(maxRatio);
-            converter.setMinTic(minTic);
-            converter.setMaxTic(maxTic);
-            converter.setSpecies(species);
-            converter.setFastaFile(fastaFile);
+        for (IClusterExporter converter : converters) {
+            metrics.addOutputBytes(converter.getBytesWritten());
 
-            if (converter.getClass() == ClusterMspConverter.class) {
-                ClusterMspConverter tmp = (ClusterMspConverter) converter;
-                tmp.setNormalizeSpectra(specLibNormalize);
-                tmp.setAddAnnotationString(specLibAnnotation);
+            ClusterFilterChain filterChain = converter.getFilterChain();
+
+            for (IClusterFilter filter : filterChain.getFilters()) {
+                metrics.addRejectedClusters(converter.getFiletypeExtension(), filter.getName(), filterChain.getRejectedClusters(filter));
             }
 
-            converter.setOutputPath(outputPathString + "-" + inputFile.getName() + "." + converter.getFiletypeExtension());
+            if (converter.getFailedClusters() > 0)
+                metrics.addRejectedClusters(converter.getFiletypeExtension(), "conversion_error", converter.getFailedClusters());
+        }
+    }
+
+    /**
+     * Closes the converters after the conversion failed. The output files
+     * are renamed to "[output file].incomplete" so that they are not
+     * mistaken for complete results. Errors are only reported since the
+     * conversion already failed.
+     * @param converters
+     */
+    private static void closeIncompleteConverters(List<IClusterExporter> converters) {
+        for (IClusterExporter converter : converters) {
+            try {
+                converter.close();
+            }
+            catch (Exception e) {
+                System.out.println("Error: Failed to close " + converter.getOuputPath() + ": " + e.getMessage());
+            }
 
-            converters.add(converter);
+            for (File outputFile : getOutputFiles(converter)) {
+                markIncomplete(outputFile);
+                markIncomplete(new File(EntryIndexFormat.getIndexPath(outputFile.getPath())));
+            }
         }
+    }
 
-        //  create the list of listeners
-        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(converters);
+    private static void markIncomplete(File file) {
+        if (!file.exists())
+            return;
 
-        // process the file
-        IClusterSourceReader reader = new ClusteringFileReader(inputFile);
-        reader.readClustersIteratively(listeners);
+        File incompleteFile = new File(file.getPath() + INCOMPLETE_EXTENSION);
+        // replace the output of an earlier failed run
+        incompleteFile.delete();
+
+        if (file.renameTo(incompleteFile))
+            System.out.println("Incomplete output moved to " + incompleteFile.getPath());
+        else
+            System.out.println("Error: " + file.getPath() + " is incomplete");
+    }
+
+    private static void printFilterStatistics(List<IClusterExporter> converters) {
+        for (IClusterExporter converter : converters) {
+            System.out.println("Filter statistics (" + converter.getFiletypeExtension() + "):");
+            System.out.print(converter.getFilterChain().getStatistics());
+
+            if (converter.getFailedClusters() > 0)
+                System.out.println("  " + converter.getFailedClusters() + " clusters could not be converted");
+        }
+    }
+
+    private static void printResultFiles(IClusterExporter converter) {
+        for (File outputFile : getOutputFiles(converter)) {
+            System.out.println("Result written to " + outputFile.getPath());
+        }
+    }
+
+    /**
+     * Returns the files written by the converter.
+     * @param converter
+     * @return
+     */
+    private static List<File> getOutputFiles(IClusterExporter converter) {
+        // the sharded converter may be wrapped by a sorted converter
+        while (converter instanceof DelegatingClusterConverter && !(converter instanceof ShardedClusterConverter))
+            converter = ((DelegatingClusterConverter) converter).getConverter();
+
+        if (converter instanceof ShardedClusterConverter)
+            return ((ShardedClusterConverter) converter).getShardFiles();
+
+        return Collections.singletonList(new File(converter.getOuputPath()));
+    }
+
+    /**
+     * Passes all clusters of the file to the converters. In case more
+     * than one thread is used, the clusters are converted by a
+     * ParallelConversionPipeline. Gzip compressed files are decompressed
+     * in the background while the clusters are read. Uncompressed files
+     * are parsed by a ParallelClusteringFileReader if more than one
+     * parser thread is set.
+     *
+     * The processed clusters and the consumed input are recorded in the
+     * metrics. For files read by the ClusteringFileReader, the consumed
+     * input is estimated based on the read clusters.
+     * @param inputFile The .clustering file to process. May be gzip compressed.
+     * @param converters The converters to use.
+     * @param nThreads Number of threads to use for the conversion.
+     * @param parserThreads Number of threads to parse the file.
+     * @param metrics The run's metrics.
+     * @throws Exception
+     */
+    private static void processClusteringFile(File inputFile, List<IClusterExporter> converters, int nThreads, int parserThreads, ConversionMetrics metrics) throws Exception {
+        final CompressedInputFile input = CompressedInputFile.open(inputFile);
+        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(3);
+        IInputProgress inputProgress = input;
+
+        if (input.isCompressed()) {
+            // stops the reader before a cluster truncated by a decompression error is converted
+            listeners.add(new IClusterSourceListener() {
+                @Override
+                public void onNewClusterRead(ICluster newCluster) {
+                    try {
+                        input.checkDecompression();
+                    }
+                    catch (IOException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                }
+            });
+        }
+
+        // the chunks are read from the memory mapped file, which a pipe does not support
+        if (parserThreads > 1 && input.isCompressed())
+            System.out.println("Warning: " + inputFile.getName() + " is compressed and therefore parsed by a single thread (-" +
+                    CliOptions.OPTIONS.PARSER_THREADS.getValue() + " is ignored)");
+
+        try {
+            IClusterSourceReader reader;
+            if (parserThreads > 1 && !input.isCompressed()) {
+                ParallelClusteringFileReader parallelReader = new ParallelClusteringFileReader(input.getFile(), parserThreads);
+                inputProgress = parallelReader;
+                reader = parallelReader;
+            }
+            else {
+                reader = new ClusteringFileReader(input.getFile());
+
+                if (!input.isCompressed()) {
+                    EstimatedInputProgress estimatedProgress = new EstimatedInputProgress(inputFile.length());
+                    inputProgress = estimatedProgress;
+                    listeners.add(estimatedProgress);
+                }
+            }
 
-        // close all files
-        for (IClusterConverter c : converters) {
-            c.close();
+            metrics.startInput(inputProgress);
+
+            if (nThreads < 2) {
+                // all converters share one analysis per cluster
+                listeners.add(new ClusterConverterDispatcher(converters, metrics));
+                reader.readClustersIteratively(listeners);
+                return;
+            }
+
+            ParallelConversionPipeline pipeline = new ParallelConversionPipeline(converters, nThreads,
+                    nThreads * ParallelConversionPipeline.PENDING_CLUSTERS_PER_THREAD, metrics);
+            listeners.add(pipeline);
+
+            try {
+                reader.readClustersIteratively(listeners);
+            }
+            finally {
+                pipeline.close();
+            }
         }
+        finally {
+            metrics.finishInput(inputProgress, inputFile.length());
 
-        for (IClusterConverter c : converters) {
-            System.out.println("Result written to " + c.getOuputPath());
+            // reports decompression errors
+            input.close();
         }
     }
 
@@ -206,4 +876,13 @@ public class ClusteringFileConverterCli {
                                 supportedFormats.toString(),
                         CliOptions.getOptions(), "\n\n", true);
     }
+
+    private static void printLookupHelp() {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter
+                .printHelp(
+                        "java -jar {VERSION}.jar " + LOOKUP_COMMAND + " [OPTIONS] FILE...",
+                        "Extracts entries from MSP or MGF files that were created using -" + CliOptions.OPTIONS.INDEX.getValue() + ".",
+                        CliOptions.getLookupOptions(), "\n\n", false);
+    }
 }
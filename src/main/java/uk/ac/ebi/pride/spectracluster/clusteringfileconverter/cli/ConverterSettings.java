@@ -0,0 +1,444 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.cli;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterBinaryLibraryConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IBinaryClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMspConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ConverterFactory;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterExporter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ShardedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.SortedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the filter and format settings passed on the command line
+ * and creates identically configured converters.
+ */
+public class ConverterSettings {
+    private String[] formats;
+    private int minSize = 0;
+    private int maxSize = Integer.MAX_VALUE;
+    private float minRatio = 0;
+    private float maxRatio = 1;
+    private float minTic = 0;
+    private float maxTic = 1;
+    private Set<String> species;
+    private FastaFile fastaFile;
+    private boolean specLibAnnotation = false;
+    private boolean specLibNormalize = false;
+    /**
+     * Precisions per format. The precision stored for ALL_FORMATS is
+     * used for formats without specific precision.
+     */
+    private Map<String, Integer> mzPrecisions = new HashMap<String, Integer>();
+    private Map<String, Integer> intensityPrecisions = new HashMap<String, Integer>();
+
+    public static final String ALL_FORMATS = "";
+
+    private int outputBufferSize = ChannelOutputWriter.DEFAULT_BUFFER_SIZE;
+    private ChannelOutputWriter.FlushPolicy flushPolicy = ChannelOutputWriter.FlushPolicy.WHEN_FULL;
+    private long preallocationSize = 0;
+    private int compressionThreads = 0;
+
+    public static final String COMPRESSED_EXTENSION = "gz";
+
+    private double shardMzWidth = 0;
+    private boolean shardByCharge = false;
+    private long maxFileSize = 0;
+    private int shardWriterThreads = 1;
+    private SortedClusterConverter.SortOrder sortOrder = null;
+    private long sortMemoryBudget = SortedClusterConverter.DEFAULT_MEMORY_BUDGET;
+
+    private boolean createIndex = false;
+
+    private int parserThreads = 1;
+
+    private boolean adaptiveFilterOrder = false;
+
+    /**
+     * Creates one converter for every defined format. The output
+     * path is not set. In case the output is sharded, every converter
+     * is wrapped by a ShardedClusterConverter. Sorted output is created
+     * by an additional SortedClusterConverter.
+     * @return The list of converters.
+     * @throws Exception Thrown if an unknown format was set.
+     */
+    public List<IClusterExporter> createConverters() throws Exception {
+        List<IClusterExporter> converters = new ArrayList<IClusterExporter>(formats.length);
+
+        for (String format : formats) {
+            IClusterExporter exporter = ConverterFactory.getConverter(format);
+
+            exporter.setMinSize(minSize);
+            exporter.setMaxSize(maxSize);
+            exporter.setMinRatio(minRatio);
+            exporter.setMaxRatio(maxRatio);
+            exporter.setMinTic(minTic);
+            exporter.setMaxTic(maxTic);
+            exporter.setSpecies(species);
+            exporter.setFastaFile(fastaFile);
+            exporter.setOutputBufferSize(outputBufferSize);
+            exporter.setAdaptiveFilterOrder(adaptiveFilterOrder);
+
+            // binary libraries are memory mapped and contain their own m/z index
+            if (exporter instanceof IBinaryClusterConverter) {
+                if (isCompress())
+                    throw new Exception("Output in the " + format + " format cannot be compressed");
+                if (createIndex)
+                    throw new Exception("Output in the " + format + " format cannot be indexed");
+                if (isSorted())
+                    throw new Exception("Sorted output is not supported for the " + format + " format");
+                if (isSharded())
+                    throw new Exception("Sharded output is not supported for the " + format + " format");
+
+                converters.add(exporter);
+                continue;
+            }
+
+            IClusterConverter converter = (IClusterConverter) exporter;
+            converter.setMzPrecision(getPrecision(mzPrecisions, format));
+            converter.setIntensityPrecision(getPrecision(intensityPrecisions, format));
+            converter.setFlushPolicy(flushPolicy);
+            converter.setPreallocationSize(preallocationSize);
+            converter.setCompressionThreads(compressionThreads);
+            converter.setCreateIndex(createIndex);
+
+            if (converter.getClass() == ClusterMspConverter.class) {
+                ClusterMspConverter tmp = (ClusterMspConverter) converter;
+                tmp.setNormalizeSpectra(specLibNormalize);
+                tmp.setAddAnnotationString(specLibAnnotation);
+            }
+
+            // offsets in compressed files cannot be accessed directly
+            if (converter.isCreateIndex() && converter.getCompressionThreads() > 0)
+                throw new Exception("Compressed output cannot be indexed");
+            // every record would become a separate gzip block
+            if (converter.getCompressionThreads() > 0 && converter.getFlushPolicy() == ChannelOutputWriter.FlushPolicy.EVERY_RECORD)
+                throw new Exception("Compressed output cannot be flushed after every record");
+
+            if (isSharded()) {
+                if (converter.isCreateIndex())
+                    throw new Exception("Sharded output cannot be indexed");
+                converter = new ShardedClusterConverter(converter, shardMzWidth, shardByCharge, maxFileSize, shardWriterThreads);
+            }
+            if (isSorted())
+                converter = new SortedClusterConverter(converter, sortOrder, sortMemoryBudget, null);
+
+            converters.add(converter);
+        }
+
+        return converters;
+    }
+
+    private static int getPrecision(Map<String, Integer> precisions, String format) {
+        if (precisions.containsKey(format))
+            return precisions.get(format);
+        if (precisions.containsKey(ALL_FORMATS))
+            return precisions.get(ALL_FORMATS);
+
+        return NumberFormatter.SHORTEST;
+    }
+
+    /**
+     * Sets the m/z precision for the given format.
+     * @param format The format's name or ALL_FORMATS.
+     * @param precision Maximum number of decimals or NumberFormatter.SHORTEST.
+     */
+    public void setMzPrecision(String format, int precision) {
+        mzPrecisions.put(format, precision);
+    }
+
+    /**
+     * Sets the intensity precision for the given format.
+     * @param format The format's name or ALL_FORMATS.
+     * @param precision Maximum number of decimals or NumberFormatter.SHORTEST.
+     */
+    public void setIntensityPrecision(String format, int precision) {
+        intensityPrecisions.put(format, precision);
+    }
+
+    /**
+     * Returns the extension (without the leading ".") of the converter's
+     * output file.
+     * @param converter
+     * @return The converter's extension, ".gz" is added in case the output is compressed.
+     */
+    public String getOutputExtension(IClusterExporter converter) {
+        if (isCompress())
+            return converter.getFiletypeExtension() + "." + COMPRESSED_EXTENSION;
+
+        return converter.getFiletypeExtension();
+    }
+
+    /**
+     * Indicates whether the output of multiple input files can be written
+     * into separate segments that are concatenated afterwards.
+     * @return
+     */
+    public boolean isSegmentable() {
+        if (isSharded() || isSorted())
+            return false;
+        // the entries' offsets change when the segments are concatenated
+        if (createIndex)
+            return false;
+
+        for (String format : formats) {
+            if (ClusterBinaryLibraryConverter.FILE_EXTENSION.equals(format))
+                return false;
+        }
+
+        return true;
+    }
+
+    public boolean isCompress() {
+        return compressionThreads > 0;
+    }
+
+    /**
+     * Indicates whether the output is split into multiple files.
+     * @return
+     */
+    public boolean isSharded() {
+        return shardMzWidth > 0 || shardByCharge || maxFileSize > 0;
+    }
+
+    public boolean isSorted() {
+        return sortOrder != null;
+    }
+
+    public SortedClusterConverter.SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * Sets the order in which the clusters are written.
+     * @param sortOrder The order or null to keep the input order.
+     */
+    public void setSortOrder(SortedClusterConverter.SortOrder sortOrder) {
+        this.sortOrder = sortOrder;
+    }
+
+    public long getSortMemoryBudget() {
+        return sortMemoryBudget;
+    }
+
+    /**
+     * Sets the memory that buffered clusters may use per format before
+     * they are written to a temporary file.
+     * @param sortMemoryBudget The memory in bytes.
+     */
+    public void setSortMemoryBudget(long sortMemoryBudget) {
+        this.sortMemoryBudget = sortMemoryBudget;
+    }
+
+    public double getShardMzWidth() {
+        return shardMzWidth;
+    }
+
+    /**
+     * Sets the precursor m/z range per output file.
+     * @param shardMzWidth The width in m/z, 0 to not split the output by m/z.
+     */
+    public void setShardMzWidth(double shardMzWidth) {
+        this.shardMzWidth = shardMzWidth;
+    }
+
+    public boolean isShardByCharge() {
+        return shardByCharge;
+    }
+
+    public void setShardByCharge(boolean shardByCharge) {
+        this.shardByCharge = shardByCharge;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Sets the maximum size of an output file. Larger output is
+     * split into multiple parts.
+     * @param maxFileSize The size in bytes, 0 to disable.
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public int getShardWriterThreads() {
+        return shardWriterThreads;
+    }
+
+    public void setShardWriterThreads(int shardWriterThreads) {
+        this.shardWriterThreads = shardWriterThreads;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public boolean isCreateIndex() {
+        return createIndex;
+    }
+
+    public boolean isAdaptiveFilterOrder() {
+        return adaptiveFilterOrder;
+    }
+
+    /**
+     * Defines whether the converters re-order their filters based on
+     * the observed rejection rates.
+     * @param adaptiveFilterOrder
+     */
+    public void setAdaptiveFilterOrder(boolean adaptiveFilterOrder) {
+        this.adaptiveFilterOrder = adaptiveFilterOrder;
+    }
+
+    public int getParserThreads() {
+        return parserThreads;
+    }
+
+    /**
+     * Sets the number of threads used to parse a single input file.
+     * @param parserThreads
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
+    /**
+     * Defines whether a sidecar index is written next to every
+     * output file.
+     * @param createIndex
+     */
+    public void setCreateIndex(boolean createIndex) {
+        this.createIndex = createIndex;
+    }
+
+    /**
+     * Sets the number of threads used to compress every output file.
+     * @param compressionThreads Number of threads, 0 to disable compression.
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    public String[] getFormats() {
+        return formats;
+    }
+
+    public void setFormats(String[] formats) {
+        this.formats = formats;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public float getMinRatio() {
+        return minRatio;
+    }
+
+    public void setMinRatio(float minRatio) {
+        this.minRatio = minRatio;
+    }
+
+    public float getMaxRatio() {
+        return maxRatio;
+    }
+
+    public void setMaxRatio(float maxRatio) {
+        this.maxRatio = maxRatio;
+    }
+
+    public float getMinTic() {
+        return minTic;
+    }
+
+    public void setMinTic(float minTic) {
+        this.minTic = minTic;
+    }
+
+    public float getMaxTic() {
+        return maxTic;
+    }
+
+    public void setMaxTic(float maxTic) {
+        this.maxTic = maxTic;
+    }
+
+    public Set<String> getSpecies() {
+        return species;
+    }
+
+    public void setSpecies(Set<String> species) {
+        this.species = species;
+    }
+
+    public FastaFile getFastaFile() {
+        return fastaFile;
+    }
+
+    public void setFastaFile(FastaFile fastaFile) {
+        this.fastaFile = fastaFile;
+    }
+
+    public boolean isSpecLibAnnotation() {
+        return specLibAnnotation;
+    }
+
+    public void setSpecLibAnnotation(boolean specLibAnnotation) {
+        this.specLibAnnotation = specLibAnnotation;
+    }
+
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    public void setOutputBufferSize(int outputBufferSize) {
+        this.outputBufferSize = outputBufferSize;
+    }
+
+    public ChannelOutputWriter.FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public void setFlushPolicy(ChannelOutputWriter.FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    public long getPreallocationSize() {
+        return preallocationSize;
+    }
+
+    public void setPreallocationSize(long preallocationSize) {
+        this.preallocationSize = preallocationSize;
+    }
+
+    public boolean isSpecLibNormalize() {
+        return specLibNormalize;
+    }
+
+    public void setSpecLibNormalize(boolean specLibNormalize) {
+        this.specLibNormalize = specLibNormalize;
+    }
+}
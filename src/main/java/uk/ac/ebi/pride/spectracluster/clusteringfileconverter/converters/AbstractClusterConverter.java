@@ -1,226 +1,234 @@
 package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
 
 
-import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterUtilities;
-import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
-import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.SpectrumAnnotator;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexFormat;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.IndexedEntry;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
-import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ISpectrumReference;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.util.Set;
+import java.io.IOException;
 
 /**
  * Created by jg on 10.08.14.
  */
-public abstract class AbstractClusterConverter implements IClusterConverter {
-    protected String outputPath;
-    protected BufferedWriter writer;
-    protected boolean append = false;
+public abstract class AbstractClusterConverter extends AbstractClusterExporter implements IClusterConverter {
+    protected ChannelOutputWriter writer;
 
-    public final double MAX_DELTA_MASS = 1.0;
+    protected int mzPrecision = NumberFormatter.SHORTEST;
+    protected int intensityPrecision = NumberFormatter.SHORTEST;
+    protected ChannelOutputWriter.FlushPolicy flushPolicy = ChannelOutputWriter.FlushPolicy.WHEN_FULL;
+    protected long preallocationSize = 0;
+    protected int compressionThreads = 0;
+    protected boolean createIndex = false;
 
-    protected int minSize = 0;
-    protected int maxSize = Integer.MAX_VALUE;
-    protected float minRatio = 0;
-    protected float maxRatio = 1;
-    protected Set<String> species = null;
-    protected FastaFile fastaFile = null;
-    protected float minTic = Float.MAX_VALUE;
-    protected float maxTic = 0;
-    protected boolean includeLargeDeltas = false;
+    /**
+     * Collects the entries' offsets in case an index is created.
+     */
+    private EntryIndexWriter indexWriter;
+    /**
+     * Size of the output file before the writer was opened.
+     */
+    private long fileStartOffset = 0;
+    /**
+     * Bytes written to the output file by writers that were already closed.
+     */
+    private long closedBytesWritten = 0;
+    /**
+     * Offset and length (in bytes) of the last string written by writeStringToFile.
+     */
+    private long lastRecordOffset = 0;
+    private long lastRecordLength = 0;
 
-    protected String currentAnnotation = null;
+    /**
+     * Export buffers are only re-used up to this capacity (in characters)
+     * so that a single very large cluster does not keep its memory.
+     */
+    public static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Re-used buffers to export the clusters. Clusters may be exported by
+     * multiple threads at the same time.
+     */
+    private final ThreadLocal<StringBuilder> exportBuffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(8192);
+        }
+    };
 
     @Override
-    public void setOutputPath(String outputPath) {
-        this.outputPath = outputPath;
-    }
+    public abstract String getFileHeader();
 
     @Override
-    public String getOuputPath() {
-        return outputPath;
-    }
+    public abstract String getFiletypeExtension();
 
     @Override
-    public void setAppend(boolean append) {
-        this.append = append;
+    public String convertCluster(ICluster cluster) {
+        return convertCluster(new ClusterAnalysis(cluster));
     }
 
     @Override
-    public abstract String getFileHeader();
+    public String convertCluster(ClusterAnalysis clusterAnalysis) {
+        StringBuilder stringBuilder = new StringBuilder();
 
-    @Override
-    public abstract String getFiletypeExtension();
+        try {
+            convertCluster(clusterAnalysis, stringBuilder);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return "";
+        }
+
+        return stringBuilder.toString();
+    }
 
     @Override
-    public abstract String convertCluster(ICluster cluster);
+    public abstract void convertCluster(ClusterAnalysis clusterAnalysis, Appendable target) throws Exception;
 
+    /**
+     * Closes the output file and writes its index if enabled.
+     * @throws Exception
+     */
     @Override
     public void close() throws Exception {
         if (writer != null) {
+            boolean compressed = writer.isCompressed();
+            long bytesWritten = writer.getBytesWritten();
+
             writer.close();
             writer = null;
+
+            // the compressed size is only known once all blocks are written
+            closedBytesWritten += compressed ? new File(outputPath).length() - fileStartOffset : bytesWritten;
         }
-    }
 
-    @Override
-    public void setMinSize(int minSize) {
-        this.minSize = minSize;
+        if (indexWriter != null) {
+            File indexFile = new File(EntryIndexFormat.getIndexPath(outputPath));
+            indexWriter.write(indexFile, new File(outputPath).length());
+            indexWriter = null;
+        }
     }
 
     @Override
-    public void setMaxSize(int maxSize) {
-        this.maxSize = maxSize;
-    }
+    public long getBytesWritten() {
+        if (writer == null)
+            return closedBytesWritten;
 
-    @Override
-    public void setMinRatio(float minRatio) {
-        this.minRatio = minRatio;
-    }
-
-    @Override
-    public void setMaxRatio(float maxRatio) {
-        this.maxRatio = maxRatio;
-    }
+        try {
+            long bytesWritten = writer.isCompressed() ? writer.getFileSize() - fileStartOffset : writer.getBytesWritten();
 
-    @Override
-    public int getMinSize() {
-        return minSize;
+            return closedBytesWritten + bytesWritten;
+        }
+        catch (IOException e) {
+            return closedBytesWritten;
+        }
     }
 
     @Override
-    public int getMaxSize() {
-        return maxSize;
-    }
+    public void onNewClusterAnalysis(ClusterAnalysis clusterAnalysis) {
+        StringBuilder exportBuffer = getExportBuffer();
 
-    @Override
-    public float getMinRatio() {
-        return minRatio;
+        if (exportCluster(clusterAnalysis, exportBuffer))
+            writeExportedCluster(clusterAnalysis.getEntryInfo(), exportBuffer);
     }
 
     @Override
-    public float getMaxRatio() {
-        return maxRatio;
-    }
-
-    public float getMinTic() {
-        return minTic;
-    }
-
-    public void setMinTic(float minTic) {
-        this.minTic = minTic;
-    }
+    public String exportCluster(ClusterAnalysis clusterAnalysis) {
+        StringBuilder exportBuffer = getExportBuffer();
 
-    public float getMaxTic() {
-        return maxTic;
-    }
+        if (!exportCluster(clusterAnalysis, exportBuffer))
+            return null;
 
-    public void setMaxTic(float maxTic) {
-        this.maxTic = maxTic;
+        return exportBuffer.toString();
     }
 
-    @Override
-    public abstract void onNewClusterRead(ICluster newCluster);
-
     /**
-     * Checks whether the cluster should be exported based
-     * on the set minSize, maxSize, minRatio, maxRatio, and taxonomyId.
-     * @param cluster
+     * Filters and converts the cluster. The time spent is added to the
+     * cluster's FILTER and FORMAT stages excluding the annotations
+     * calculated in between.
+     * @param clusterAnalysis
+     * @param target
      * @return
      */
-    protected boolean shouldClusterBeExported(ICluster cluster) {
-        ClusterUtilities clusterUtilities = new ClusterUtilities(cluster);
-
-        if (cluster.getIdentifiedSpecCount() < minSize)
-            return false;
-        if (cluster.getIdentifiedSpecCount() > maxSize)
-            return false;
-        if (clusterUtilities.getMaxILAngosticSequenceRatio() < minRatio)
-            return false;
-        if (clusterUtilities.getMaxILAngosticSequenceRatio() > maxRatio)
+    @Override
+    public boolean exportCluster(ClusterAnalysis clusterAnalysis, StringBuilder target) {
+        if (!filterCluster(clusterAnalysis))
             return false;
 
-        if (!includeLargeDeltas && cluster.getIdentifiedSpecCount() > 0) {
-            try {
-                double delta = SpectrumAnnotator.getDeltaMass(clusterUtilities.getMostCommonPsm(), cluster.getAvPrecursorMz());
-                if (delta > MAX_DELTA_MASS) {
-                    System.out.println("Ignoring cluster with delta = " + delta + " (id = " + cluster.getId() + ")");
-                    return false;
-                }
-            }
-            catch (Exception e) {
-                System.out.println("Waring: Failed to calculate delta mass for cluster " + cluster.getId() + ". Ignoring cluster.");
-                e.printStackTrace();
-                return false;
-            }
-        }
+        long start = System.nanoTime();
+        long annotationNanos = clusterAnalysis.getStageNanos(ConversionMetrics.Stage.ANNOTATE);
+        int startLength = target.length();
 
-        // get the explained TIC
-        try {
-            float explainedTIC = SpectrumAnnotator.getAnnotatedTic(cluster, 0.5f);
+        boolean converted = false;
 
-            if (explainedTIC < minTic)
-                return false;
-            if (explainedTIC > maxTic)
-                return false;
+        try {
+            convertCluster(clusterAnalysis, target);
+            converted = true;
         }
         catch (Exception e) {
-            // don't export clusters that cannot be explained
-            return false;
+            // the cluster is skipped but the failure is reported and counted
+            addFailedCluster(clusterAnalysis, e);
+            target.setLength(startLength);
         }
 
+        addStageNanos(clusterAnalysis, ConversionMetrics.Stage.FORMAT, start, annotationNanos);
 
-        // check if the taxonomy needs to be taken into consideration
-        boolean containsSpecies = false;
-
-        if (species != null && species.size() > 0) {
-            for (ISpectrumReference specRef : cluster.getSpectrumReferences()) {
-                // ignore if no species is available
-                if (specRef.getSpecies() == null)
-                    continue;
+        return converted;
+    }
 
-                String[] specRefSpecies = specRef.getSpecies().split(",");
+    /**
+     * Returns the current thread's (empty) export buffer.
+     * @return
+     */
+    protected StringBuilder getExportBuffer() {
+        StringBuilder exportBuffer = exportBuffers.get();
 
-                for (String s : specRefSpecies) {
-                    if (species.contains(s)) {
-                        containsSpecies = true;
-                        break;
-                    }
-                }
-            }
-        }
-        else {
-            // disable the species test in case no species was set
-            containsSpecies = true;
+        if (exportBuffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            exportBuffer = new StringBuilder(8192);
+            exportBuffers.set(exportBuffer);
         }
 
-        if (!containsSpecies)
-            return false;
+        exportBuffer.setLength(0);
 
-        // check if a fasta file was set
-        if (fastaFile != null) {
-            String proteinAnnotation = fastaFile.getProteinAnnotation(cluster.getMaxSequence());
+        return exportBuffer;
+    }
 
-            if (proteinAnnotation == null)
-                return false;
+    /**
+     * Writes a cluster's representation as returned by exportCluster
+     * to the output file.
+     * @param exportedCluster
+     */
+    public void writeExportedCluster(CharSequence exportedCluster) {
+        writeStringToFile(exportedCluster, getFileHeader());
+    }
 
-            currentAnnotation = proteinAnnotation;
-        }
+    @Override
+    public void writeExportedCluster(ClusterEntryInfo entryInfo, CharSequence exportedCluster) {
+        lastRecordLength = 0;
+        writeExportedCluster(exportedCluster);
 
-        return true;
+        // clusters that failed to convert are not indexed
+        if (indexWriter != null && lastRecordLength > 0)
+            indexWriter.addEntry(entryInfo, lastRecordOffset, (int) lastRecordLength);
     }
 
     /**
      * Writes the passed string to the defined output file. If
-     * necessary, the BufferedWriter object is created by this
-     * function.
+     * necessary, the ChannelOutputWriter object is created by this
+     * function. Every call is treated as one record with regard to
+     * the flush policy. In case an index is created, the record's
+     * byte offset is recorded.
      * @param string
      * @param fileHeader The header string written to a new file.
      */
-    protected void writeStringToFile(String string, String fileHeader) {
+    protected void writeStringToFile(CharSequence string, String fileHeader) {
         if (outputPath == null)
             throw new IllegalStateException("OutputPath must be set before clusters can be written.");
 
@@ -228,8 +236,12 @@ public abstract class AbstractClusterConverter implements IClusterConverter {
             if (writer == null) {
                 File outputFile = new File(outputPath);
                 boolean fileExists = outputFile.exists();
+                fileStartOffset = (fileExists && append) ? outputFile.length() : 0;
+
+                if (createIndex && indexWriter == null)
+                    indexWriter = createIndexWriter(outputFile);
 
-                writer = new BufferedWriter(new FileWriter(outputFile, append));
+                writer = new ChannelOutputWriter(outputFile, append, outputBufferSize, flushPolicy, preallocationSize, compressionThreads);
 
                 // write the file header in case a new file was created or the current
                 // file is being overwritten.
@@ -237,34 +249,113 @@ public abstract class AbstractClusterConverter implements IClusterConverter {
                     writer.write(fileHeader);
             }
 
-            writer.write(string);
+            lastRecordOffset = fileStartOffset + writer.getBytesWritten();
+            writer.append(string);
+            lastRecordLength = fileStartOffset + writer.getBytesWritten() - lastRecordOffset;
+            writer.endRecord();
         }
         catch (Exception e) {
+            lastRecordLength = 0;
             e.printStackTrace();
         }
     }
 
+    /**
+     * Creates the EntryIndexWriter for the output file. When appending
+     * to an indexed file, the existing index's entries are kept.
+     * @param outputFile
+     * @return
+     */
+    private EntryIndexWriter createIndexWriter(File outputFile) {
+        EntryIndexWriter entryIndexWriter = new EntryIndexWriter();
+
+        if (fileStartOffset < 1)
+            return entryIndexWriter;
+
+        try {
+            EntryIndexReader existingIndex = new EntryIndexReader(outputFile);
+
+            for (int i = 0; i < existingIndex.getEntryCount(); i++) {
+                IndexedEntry entry = existingIndex.getEntry(i);
+                entryIndexWriter.addEntry(entry);
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Warning: Existing entries of " + outputFile.getName() + " are not indexed (" + e.getMessage() + ")");
+        }
+
+        return entryIndexWriter;
+    }
+
+    @Override
+    public void setFlushPolicy(ChannelOutputWriter.FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    @Override
+    public ChannelOutputWriter.FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    @Override
+    public void setPreallocationSize(long preallocationSize) {
+        if (preallocationSize < 0)
+            throw new IllegalArgumentException("The preallocation size must not be negative");
+
+        this.preallocationSize = preallocationSize;
+    }
+
+    @Override
+    public long getPreallocationSize() {
+        return preallocationSize;
+    }
+
+    @Override
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 0)
+            throw new IllegalArgumentException("The number of compression threads must not be negative");
+
+        this.compressionThreads = compressionThreads;
+    }
+
     @Override
-    public Set<String> getSpecies() {
-        return species;
+    public int getCompressionThreads() {
+        return compressionThreads;
     }
 
     @Override
-    public void setSpecies(Set<String> species) {
-        this.species = species;
+    public void setCreateIndex(boolean createIndex) {
+        this.createIndex = createIndex;
     }
 
     @Override
-    public FastaFile getFastaFile() {
-        return fastaFile;
+    public boolean isCreateIndex() {
+        return createIndex;
     }
 
     @Override
-    public void setFastaFile(FastaFile fastaFile) {
-        this.fastaFile = fastaFile;
+    public int getMzPrecision() {
+        return mzPrecision;
     }
 
-    public void setIncludeLargeDeltas(boolean includeLargeDeltas) {
-        this.includeLargeDeltas = includeLargeDeltas;
+    @Override
+    public void setMzPrecision(int mzPrecision) {
+        if (!NumberFormatter.isValidPrecision(mzPrecision))
+            throw new IllegalArgumentException("Invalid m/z precision: " + mzPrecision);
+
+        this.mzPrecision = mzPrecision;
+    }
+
+    @Override
+    public int getIntensityPrecision() {
+        return intensityPrecision;
+    }
+
+    @Override
+    public void setIntensityPrecision(int intensityPrecision) {
+        if (!NumberFormatter.isValidPrecision(intensityPrecision))
+            throw new IllegalArgumentException("Invalid intensity precision: " + intensityPrecision);
+
+        this.intensityPrecision = intensityPrecision;
     }
 }
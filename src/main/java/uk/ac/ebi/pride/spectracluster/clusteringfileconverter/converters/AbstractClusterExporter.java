@@ -0,0 +1,297 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the output and filter settings shared by the text and the
+ * binary converters.
+ */
+public abstract class AbstractClusterExporter implements IClusterExporter {
+    protected String outputPath;
+    protected boolean append = false;
+
+    public final double MAX_DELTA_MASS = 1.0;
+
+    protected int minSize = 0;
+    protected int maxSize = Integer.MAX_VALUE;
+    protected float minRatio = 0;
+    protected float maxRatio = 1;
+    protected Set<String> species = null;
+    protected FastaFile fastaFile = null;
+    protected float minTic = Float.MAX_VALUE;
+    protected float maxTic = 0;
+    protected boolean includeLargeDeltas = false;
+    protected int outputBufferSize = ChannelOutputWriter.DEFAULT_BUFFER_SIZE;
+    protected boolean adaptiveFilterOrder = false;
+
+    /**
+     * Number of clusters that passed the filters but could not be converted.
+     */
+    private final AtomicLong failedClusters = new AtomicLong();
+
+    private final List<IClusterFilter> additionalFilters = new ArrayList<IClusterFilter>();
+    /**
+     * Created from the filter settings on first use. Reset whenever
+     * a filter setting changes.
+     */
+    private volatile ClusterFilterChain filterChain;
+
+    @Override
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    @Override
+    public String getOuputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    @Override
+    public abstract String getFiletypeExtension();
+
+    @Override
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+        filterChain = null;
+    }
+
+    @Override
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        filterChain = null;
+    }
+
+    @Override
+    public void setMinRatio(float minRatio) {
+        this.minRatio = minRatio;
+        filterChain = null;
+    }
+
+    @Override
+    public void setMaxRatio(float maxRatio) {
+        this.maxRatio = maxRatio;
+        filterChain = null;
+    }
+
+    @Override
+    public int getMinSize() {
+        return minSize;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public float getMinRatio() {
+        return minRatio;
+    }
+
+    @Override
+    public float getMaxRatio() {
+        return maxRatio;
+    }
+
+    public float getMinTic() {
+        return minTic;
+    }
+
+    public void setMinTic(float minTic) {
+        this.minTic = minTic;
+        filterChain = null;
+    }
+
+    public float getMaxTic() {
+        return maxTic;
+    }
+
+    public void setMaxTic(float maxTic) {
+        this.maxTic = maxTic;
+        filterChain = null;
+    }
+
+    @Override
+    public void onNewClusterRead(ICluster newCluster) {
+        onNewClusterAnalysis(new ClusterAnalysis(newCluster));
+    }
+
+    @Override
+    public long getFailedClusters() {
+        return failedClusters.get();
+    }
+
+    /**
+     * Reports and counts a cluster that passed the filters but could
+     * not be converted. The cluster is skipped.
+     * @param clusterAnalysis
+     * @param e The reason the conversion failed.
+     */
+    protected void addFailedCluster(ClusterAnalysis clusterAnalysis, Exception e) {
+        System.out.println("Error: Failed to convert cluster " + clusterAnalysis.getCluster().getId() + ": " + e.getMessage());
+        e.printStackTrace();
+        failedClusters.incrementAndGet();
+    }
+
+    /**
+     * Applies the filters to the cluster. The time spent is added to the
+     * cluster's FILTER stage excluding the annotations calculated in between.
+     * @param clusterAnalysis
+     * @return Indicates whether the cluster should be exported.
+     */
+    protected boolean filterCluster(ClusterAnalysis clusterAnalysis) {
+        long start = System.nanoTime();
+        long annotationNanos = clusterAnalysis.getStageNanos(ConversionMetrics.Stage.ANNOTATE);
+        boolean exportCluster = shouldClusterBeExported(clusterAnalysis);
+        addStageNanos(clusterAnalysis, ConversionMetrics.Stage.FILTER, start, annotationNanos);
+
+        return exportCluster;
+    }
+
+    /**
+     * Adds the time since start to the cluster's stage without the
+     * time spent on annotations.
+     * @param clusterAnalysis
+     * @param stage
+     * @param start Start of the stage (System.nanoTime).
+     * @param annotationNanos The cluster's annotation time at the start of the stage.
+     * @return The current time (System.nanoTime).
+     */
+    protected static long addStageNanos(ClusterAnalysis clusterAnalysis, ConversionMetrics.Stage stage, long start, long annotationNanos) {
+        long end = System.nanoTime();
+        long nestedAnnotationNanos = clusterAnalysis.getStageNanos(ConversionMetrics.Stage.ANNOTATE) - annotationNanos;
+
+        clusterAnalysis.addStageNanos(stage, end - start - nestedAnnotationNanos);
+
+        return end;
+    }
+
+    /**
+     * Checks whether the cluster should be exported based
+     * on the set minSize, maxSize, minRatio, maxRatio, and taxonomyId.
+     * @param clusterAnalysis
+     * @return
+     */
+    protected boolean shouldClusterBeExported(ClusterAnalysis clusterAnalysis) {
+        return getFilterChain().accept(clusterAnalysis);
+    }
+
+    /**
+     * Returns the chain of filters applied to every cluster. The chain
+     * is created from the current settings when it is first used.
+     * Changing a filter setting afterwards creates a new chain.
+     * @return
+     */
+    @Override
+    public ClusterFilterChain getFilterChain() {
+        ClusterFilterChain chain = filterChain;
+
+        if (chain == null) {
+            synchronized (this) {
+                if (filterChain == null)
+                    filterChain = new ClusterFilterChain(createFilters(), adaptiveFilterOrder);
+
+                chain = filterChain;
+            }
+        }
+
+        return chain;
+    }
+
+    /**
+     * Creates the filters based on the current settings.
+     * @return The filters in the order of their definition.
+     */
+    protected List<IClusterFilter> createFilters() {
+        List<IClusterFilter> filters = new ArrayList<IClusterFilter>();
+
+        filters.add(new ClusterSizeFilter(minSize, maxSize));
+        filters.add(new SequenceRatioFilter(minRatio, maxRatio));
+
+        if (!includeLargeDeltas)
+            filters.add(new DeltaMassFilter(MAX_DELTA_MASS));
+
+        filters.add(new ExplainedTicFilter(minTic, maxTic));
+
+        // disable the species test in case no species was set
+        if (species != null && species.size() > 0)
+            filters.add(new SpeciesFilter(species));
+
+        if (fastaFile != null)
+            filters.add(new FastaFilter(fastaFile));
+
+        filters.addAll(additionalFilters);
+
+        return filters;
+    }
+
+    /**
+     * Adds a filter that is applied in addition to the ones
+     * defined by the converter's settings.
+     * @param filter
+     */
+    public void addFilter(IClusterFilter filter) {
+        additionalFilters.add(filter);
+        filterChain = null;
+    }
+
+    @Override
+    public void setAdaptiveFilterOrder(boolean adaptiveFilterOrder) {
+        this.adaptiveFilterOrder = adaptiveFilterOrder;
+        filterChain = null;
+    }
+
+    @Override
+    public Set<String> getSpecies() {
+        return species;
+    }
+
+    @Override
+    public void setSpecies(Set<String> species) {
+        this.species = species;
+        filterChain = null;
+    }
+
+    @Override
+    public FastaFile getFastaFile() {
+        return fastaFile;
+    }
+
+    @Override
+    public void setFastaFile(FastaFile fastaFile) {
+        this.fastaFile = fastaFile;
+        filterChain = null;
+    }
+
+    public void setIncludeLargeDeltas(boolean includeLargeDeltas) {
+        this.includeLargeDeltas = includeLargeDeltas;
+        filterChain = null;
+    }
+
+    @Override
+    public void setOutputBufferSize(int outputBufferSize) {
+        if (outputBufferSize < ChannelOutputWriter.MIN_BUFFER_SIZE)
+            throw new IllegalArgumentException("The output buffer must at least be " + ChannelOutputWriter.MIN_BUFFER_SIZE + " bytes");
+
+        this.outputBufferSize = outputBufferSize;
+    }
+
+    @Override
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+}
@@ -0,0 +1,365 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.BinaryLibraryFormat;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConsensusPeaks;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EncodedLibraryEntry;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationPositionComparator;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IModification;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Writes the clusters into a binary spectral library (see BinaryLibraryFormat)
+ * that can be memory mapped by the BinaryLibraryReader.
+ *
+ * Entries are encoded by exportCluster, which may be called by multiple
+ * threads. Only the ids of the peptide and modification strings are
+ * assigned when the entry is written.
+ *
+ * Binary libraries cannot be compressed or appended to and already
+ * contain a precursor m/z index.
+ */
+public class ClusterBinaryLibraryConverter extends AbstractClusterExporter implements IBinaryClusterConverter {
+    public static final String FILE_EXTENSION = "clib";
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    /**
+     * File position of the next byte added to the buffer.
+     */
+    private long position;
+    private int entryCount;
+    private int maxRecordLength;
+
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private float[] indexMz = new float[1024];
+    private long[] indexOffsets = new long[1024];
+
+    @Override
+    public String getFiletypeExtension() {
+        return FILE_EXTENSION;
+    }
+
+    @Override
+    public void onNewClusterAnalysis(ClusterAnalysis clusterAnalysis) {
+        EncodedLibraryEntry entry = exportCluster(clusterAnalysis);
+
+        if (entry != null)
+            writeExportedCluster(entry);
+    }
+
+    /**
+     * Filters and encodes the cluster. The time spent is added to the
+     * cluster's FILTER and FORMAT stages excluding the annotations
+     * calculated in between.
+     * @param clusterAnalysis
+     * @return
+     */
+    @Override
+    public EncodedLibraryEntry exportCluster(ClusterAnalysis clusterAnalysis) {
+        if (!filterCluster(clusterAnalysis))
+            return null;
+
+        long start = System.nanoTime();
+        long annotationNanos = clusterAnalysis.getStageNanos(ConversionMetrics.Stage.ANNOTATE);
+        EncodedLibraryEntry entry = null;
+
+        try {
+            entry = encodeCluster(clusterAnalysis);
+        }
+        catch (Exception e) {
+            // the cluster is skipped but the failure is reported and counted
+            addFailedCluster(clusterAnalysis, e);
+        }
+
+        addStageNanos(clusterAnalysis, ConversionMetrics.Stage.FORMAT, start, annotationNanos);
+
+        return entry;
+    }
+
+    /**
+     * Encodes the cluster as library entry without applying the filters.
+     * @param clusterAnalysis
+     * @return
+     * @throws Exception Thrown in case the cluster cannot be converted.
+     */
+    public EncodedLibraryEntry encodeCluster(ClusterAnalysis clusterAnalysis) throws Exception {
+        ICluster cluster = clusterAnalysis.getCluster();
+        byte[] clusterId = cluster.getId().getBytes("UTF-8");
+        String peptide = null;
+        String modifications = null;
+
+        if (cluster.getIdentifiedSpecCount() > 0) {
+            peptide = clusterAnalysis.getClusterUtilities().getMaxSequence();
+            modifications = getModificationString(clusterAnalysis.getMostCommonPsm());
+        }
+
+        // peaks in m/z order, ignoring peaks with 0 m/z or 0 intensity
+        ConsensusPeaks peaks = clusterAnalysis.getConsensusPeaks();
+        int peakCount = 0;
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
+            if (peaks.getMz(i) != 0 && peaks.getIntensity(i) != 0)
+                peakCount++;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(BinaryLibraryFormat.ENTRY_HEADER_SIZE + peakCount * 8 + clusterId.length);
+        data.putFloat(cluster.getAvPrecursorMz());
+        data.putInt(clusterAnalysis.getCharge());
+        // the string ids are set when the entry is written
+        data.putInt(BinaryLibraryFormat.NO_STRING);
+        data.putInt(BinaryLibraryFormat.NO_STRING);
+        data.putInt(clusterId.length);
+        data.putInt(cluster.getSpecCount());
+        data.putInt(peakCount);
+
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
+            int peakIndex = peaks.getSortedPeakIndex(i);
+            if (peaks.getMz(peakIndex) != 0 && peaks.getIntensity(peakIndex) != 0)
+                data.putFloat(peaks.getMz(peakIndex));
+        }
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
+            int peakIndex = peaks.getSortedPeakIndex(i);
+            if (peaks.getMz(peakIndex) != 0 && peaks.getIntensity(peakIndex) != 0)
+                data.putFloat(peaks.getIntensity(peakIndex));
+        }
+        data.put(clusterId);
+
+        return new EncodedLibraryEntry(cluster.getAvPrecursorMz(), peptide, modifications, data.array());
+    }
+
+    /**
+     * Returns the modifications as "position:accession" separated by ","
+     * ordered by position.
+     */
+    private static String getModificationString(IPeptideSpectrumMatch psm) {
+        if (psm == null || psm.getModifications().size() < 1)
+            return null;
+
+        List<IModification> modifications = new ArrayList<IModification>(new HashSet<IModification>(psm.getModifications()));
+        Collections.sort(modifications, new ModificationPositionComparator());
+
+        StringBuilder modificationString = new StringBuilder();
+        for (IModification modification : modifications) {
+            if (modificationString.length() > 0)
+                modificationString.append(',');
+            modificationString.append(modification.getPosition()).append(':').append(modification.getAccession());
+        }
+
+        return modificationString.toString();
+    }
+
+    /**
+     * Adds the entry to the output buffer.
+     * @param exportedCluster
+     */
+    @Override
+    public void writeExportedCluster(EncodedLibraryEntry exportedCluster) {
+        byte[] data = exportedCluster.getData();
+
+        try {
+            if (channel == null)
+                openFile();
+
+            ByteBuffer entryHeader = ByteBuffer.wrap(data);
+            entryHeader.putInt(BinaryLibraryFormat.ENTRY_PEPTIDE_OFFSET, getStringId(exportedCluster.getPeptideSequence()));
+            entryHeader.putInt(BinaryLibraryFormat.ENTRY_MODIFICATIONS_OFFSET, getStringId(exportedCluster.getModifications()));
+
+            addIndexRecord(exportedCluster.getPrecursorMz(), position);
+            put(data, 0, data.length);
+        }
+        catch (IOException e) {
+            // an incomplete entry would corrupt the complete library
+            throw new IllegalStateException("Failed to write " + outputPath, e);
+        }
+
+        maxRecordLength = Math.max(maxRecordLength, data.length);
+        entryCount++;
+    }
+
+    private void openFile() throws IOException {
+        if (outputPath == null)
+            throw new IllegalStateException("OutputPath must be set before clusters can be written.");
+
+        File outputFile = new File(outputPath);
+        if (append && outputFile.exists() && outputFile.length() > 0)
+            throw new IllegalStateException("Binary libraries cannot be appended to (" + outputPath + ")");
+
+        file = new RandomAccessFile(outputFile, "rw");
+        channel = file.getChannel();
+        channel.truncate(0);
+        buffer = ByteBuffer.allocateDirect(outputBufferSize);
+
+        // the header is written on close
+        position = BinaryLibraryFormat.HEADER_SIZE;
+        channel.position(position);
+        maxRecordLength = BinaryLibraryFormat.ENTRY_HEADER_SIZE;
+    }
+
+    private int getStringId(String string) {
+        if (string == null)
+            return BinaryLibraryFormat.NO_STRING;
+
+        Integer id = stringIds.get(string);
+
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(string, id);
+            strings.add(string);
+        }
+
+        return id;
+    }
+
+    private void addIndexRecord(float precursorMz, long offset) {
+        if (entryCount == indexMz.length) {
+            indexMz = Arrays.copyOf(indexMz, entryCount * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, entryCount * 2);
+        }
+
+        indexMz[entryCount] = precursorMz;
+        indexOffsets[entryCount] = offset;
+    }
+
+    private void ensureRemaining(int nBytes) throws IOException {
+        if (buffer.remaining() < nBytes)
+            writeBuffer();
+    }
+
+    private void put(byte[] data, int offset, int length) throws IOException {
+        position += length;
+
+        while (length > 0) {
+            if (!buffer.hasRemaining())
+                writeBuffer();
+
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the size of the library. This includes the dictionary
+     * and the index once the converter was closed.
+     * @return
+     */
+    @Override
+    public long getBytesWritten() {
+        return position;
+    }
+
+    /**
+     * Writes the string dictionary, the precursor m/z index, and
+     * the header.
+     * @throws Exception
+     */
+    @Override
+    public void close() throws Exception {
+        if (channel == null)
+            return;
+
+        try {
+            long dictionaryOffset = position;
+            writeDictionary();
+
+            long indexOffset = position;
+            writeIndex();
+
+            writeBuffer();
+
+            ByteBuffer header = ByteBuffer.allocate(BinaryLibraryFormat.HEADER_SIZE);
+            header.put(BinaryLibraryFormat.MAGIC_NUMBER);
+            header.putInt(BinaryLibraryFormat.VERSION_OFFSET, BinaryLibraryFormat.VERSION);
+            header.putInt(BinaryLibraryFormat.ENTRY_COUNT_OFFSET, entryCount);
+            header.putLong(BinaryLibraryFormat.DICTIONARY_OFFSET_OFFSET, dictionaryOffset);
+            header.putLong(BinaryLibraryFormat.INDEX_OFFSET_OFFSET, indexOffset);
+            header.putInt(BinaryLibraryFormat.MAX_RECORD_LENGTH_OFFSET, maxRecordLength);
+            header.putInt(BinaryLibraryFormat.STRING_COUNT_OFFSET, strings.size());
+            header.clear();
+
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        finally {
+            file.close();
+            file = null;
+            channel = null;
+            buffer = null;
+            entryCount = 0;
+            stringIds.clear();
+            strings.clear();
+        }
+    }
+
+    private void writeDictionary() throws IOException {
+        byte[][] encodedStrings = new byte[strings.size()][];
+        long stringOffset = position + strings.size() * 8L;
+
+        for (int i = 0; i < encodedStrings.length; i++) {
+            encodedStrings[i] = strings.get(i).getBytes("UTF-8");
+
+            ensureRemaining(8);
+            buffer.putLong(stringOffset);
+            position += 8;
+
+            stringOffset += 4 + encodedStrings[i].length;
+        }
+
+        for (byte[] encodedString : encodedStrings) {
+            ensureRemaining(4);
+            buffer.putInt(encodedString.length);
+            position += 4;
+            put(encodedString, 0, encodedString.length);
+
+            maxRecordLength = Math.max(maxRecordLength, 4 + encodedString.length);
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        // sort the entries by m/z, entries with the same m/z keep their order
+        long[] sortKeys = new long[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            int bits = Float.floatToIntBits(indexMz[i]);
+            // make the bits of negative values sortable as int
+            if (bits < 0)
+                bits ^= 0x7FFFFFFF;
+
+            sortKeys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+
+        for (long sortKey : sortKeys) {
+            int entry = (int) sortKey;
+
+            ensureRemaining(BinaryLibraryFormat.INDEX_RECORD_SIZE);
+            buffer.putFloat(indexMz[entry]);
+            buffer.putLong(indexOffsets[entry]);
+            position += BinaryLibraryFormat.INDEX_RECORD_SIZE;
+        }
+
+        indexMz = new float[1024];
+        indexOffsets = new long[1024];
+    }
+}
@@ -0,0 +1,105 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EncodedLibraryEntry;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Analyses every read cluster once and passes the resulting
+ * ClusterAnalysis to all registered converters. This prevents
+ * every converter from re-calculating the same statistics.
+ *
+ * If ConversionMetrics are set, the time spent per cluster in every
+ * stage is recorded. The time between two clusters is the time the
+ * reader needed to parse the cluster.
+ */
+public class ClusterConverterDispatcher implements IClusterSourceListener {
+    private final List<IClusterExporter> converters;
+    private final ConversionMetrics metrics;
+    private StringBuilder exportBuffer = new StringBuilder(8192);
+    /**
+     * End of the last cluster's processing (System.nanoTime).
+     */
+    private long lastClusterEnd;
+
+    public ClusterConverterDispatcher(Collection<? extends IClusterExporter> converters) {
+        this(converters, null);
+    }
+
+    /**
+     * Creates a new ClusterConverterDispatcher.
+     * @param converters The converters to pass the clusters to.
+     * @param metrics The metrics to record the clusters in. May be null.
+     */
+    public ClusterConverterDispatcher(Collection<? extends IClusterExporter> converters, ConversionMetrics metrics) {
+        this.converters = new ArrayList<IClusterExporter>(converters);
+        this.metrics = metrics;
+        this.lastClusterEnd = System.nanoTime();
+    }
+
+    @Override
+    public void onNewClusterRead(ICluster newCluster) {
+        ClusterAnalysis clusterAnalysis = new ClusterAnalysis(newCluster);
+        clusterAnalysis.addStageNanos(ConversionMetrics.Stage.READ, System.nanoTime() - lastClusterEnd);
+
+        boolean exported = false;
+
+        for (IClusterExporter converter : converters) {
+            if (converter instanceof IBinaryClusterConverter) {
+                IBinaryClusterConverter binaryConverter = (IBinaryClusterConverter) converter;
+                EncodedLibraryEntry entry = binaryConverter.exportCluster(clusterAnalysis);
+
+                if (entry == null)
+                    continue;
+
+                long writeStart = System.nanoTime();
+                binaryConverter.writeExportedCluster(entry);
+                clusterAnalysis.addStageNanos(ConversionMetrics.Stage.WRITE, System.nanoTime() - writeStart);
+
+                exported = true;
+                continue;
+            }
+
+            IClusterConverter textConverter = (IClusterConverter) converter;
+            StringBuilder exportBuffer = getExportBuffer();
+
+            if (!textConverter.exportCluster(clusterAnalysis, exportBuffer))
+                continue;
+
+            long writeStart = System.nanoTime();
+            textConverter.writeExportedCluster(clusterAnalysis.getEntryInfo(), exportBuffer);
+            clusterAnalysis.addStageNanos(ConversionMetrics.Stage.WRITE, System.nanoTime() - writeStart);
+
+            exported = true;
+        }
+
+        if (metrics != null)
+            metrics.recordCluster(clusterAnalysis.getStageNanos(), exported);
+
+        lastClusterEnd = System.nanoTime();
+    }
+
+    /**
+     * Returns the (empty) export buffer. Same as the converters' buffers, it
+     * is only re-used up to AbstractClusterConverter.MAX_RETAINED_BUFFER_SIZE.
+     * @return
+     */
+    private StringBuilder getExportBuffer() {
+        if (exportBuffer.capacity() > AbstractClusterConverter.MAX_RETAINED_BUFFER_SIZE)
+            exportBuffer = new StringBuilder(8192);
+
+        exportBuffer.setLength(0);
+
+        return exportBuffer;
+    }
+
+    public List<IClusterExporter> getConverters() {
+        return converters;
+    }
+}
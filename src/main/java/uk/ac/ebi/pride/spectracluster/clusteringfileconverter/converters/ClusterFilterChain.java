@@ -0,0 +1,208 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Combines multiple IClusterFilters. A cluster is only accepted if it
+ * passes all filters. The filters are evaluated in the order of their
+ * cost so that expensive filters only process clusters that passed
+ * the cheap ones.
+ *
+ * In adaptive mode, the filters are re-ordered every REORDER_INTERVAL
+ * clusters based on their observed rejection rates. The filter with the
+ * lowest cost per rejected cluster is evaluated first.
+ *
+ * For every filter, the number of evaluated and rejected clusters and
+ * the time spent are recorded.
+ *
+ * This class is thread-safe.
+ */
+public class ClusterFilterChain {
+    public static final int REORDER_INTERVAL = 1000;
+
+    private final IClusterFilter[] filters;
+    private final boolean adaptive;
+
+    private final AtomicLongArray evaluatedClusters;
+    private final AtomicLongArray rejectedClusters;
+    private final AtomicLongArray filterNanos;
+    private final AtomicLong processedClusters = new AtomicLong();
+
+    /**
+     * Indexes of the filters in the order in which they are evaluated.
+     * The array is replaced, never changed.
+     */
+    private volatile int[] order;
+
+    /**
+     * Creates a new chain.
+     * @param filters The filters to combine.
+     * @param adaptive If set, the filters are re-ordered based on their rejection rates.
+     */
+    public ClusterFilterChain(List<IClusterFilter> filters, boolean adaptive) {
+        this.filters = filters.toArray(new IClusterFilter[filters.size()]);
+        this.adaptive = adaptive;
+
+        evaluatedClusters = new AtomicLongArray(this.filters.length);
+        rejectedClusters = new AtomicLongArray(this.filters.length);
+        filterNanos = new AtomicLongArray(this.filters.length);
+
+        order = sortFilters(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareCosts(o1, o2);
+            }
+        });
+    }
+
+    /**
+     * Checks whether the cluster passes all filters.
+     * @param clusterAnalysis
+     * @return
+     */
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        boolean accepted = true;
+
+        for (int filter : order) {
+            long start = System.nanoTime();
+            boolean passed = filters[filter].accept(clusterAnalysis);
+            filterNanos.addAndGet(filter, System.nanoTime() - start);
+            evaluatedClusters.incrementAndGet(filter);
+
+            if (!passed) {
+                rejectedClusters.incrementAndGet(filter);
+                accepted = false;
+                break;
+            }
+        }
+
+        if (adaptive && processedClusters.incrementAndGet() % REORDER_INTERVAL == 0)
+            reorder();
+
+        return accepted;
+    }
+
+    /**
+     * Orders the filters by their cost divided by their (smoothed)
+     * rejection rate. Filters with the same rank keep their cost order.
+     */
+    private synchronized void reorder() {
+        final double[] ranks = new double[filters.length];
+
+        for (int i = 0; i < filters.length; i++) {
+            double rejectionRate = (rejectedClusters.get(i) + 1.0) / (evaluatedClusters.get(i) + 2.0);
+            ranks[i] = filters[i].getCost() / rejectionRate;
+        }
+
+        order = sortFilters(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int result = Double.compare(ranks[o1], ranks[o2]);
+
+                return (result != 0) ? result : compareCosts(o1, o2);
+            }
+        });
+    }
+
+    private int compareCosts(int filter1, int filter2) {
+        int cost1 = filters[filter1].getCost();
+        int cost2 = filters[filter2].getCost();
+
+        return (cost1 < cost2) ? -1 : ((cost1 == cost2) ? 0 : 1);
+    }
+
+    private int[] sortFilters(Comparator<Integer> comparator) {
+        Integer[] sortedFilters = new Integer[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            sortedFilters[i] = i;
+        }
+
+        // the sort is stable, filters with the same cost keep the order in which they were added
+        Arrays.sort(sortedFilters, comparator);
+
+        int[] newOrder = new int[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            newOrder[i] = sortedFilters[i];
+        }
+
+        return newOrder;
+    }
+
+    /**
+     * Returns the filters in the order in which they are currently
+     * evaluated.
+     * @return
+     */
+    public IClusterFilter[] getFilters() {
+        int[] currentOrder = order;
+        IClusterFilter[] orderedFilters = new IClusterFilter[currentOrder.length];
+
+        for (int i = 0; i < currentOrder.length; i++) {
+            orderedFilters[i] = filters[currentOrder[i]];
+        }
+
+        return orderedFilters;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Returns the number of clusters processed by the filter.
+     * @param filter
+     * @return
+     */
+    public long getEvaluatedClusters(IClusterFilter filter) {
+        return evaluatedClusters.get(indexOf(filter));
+    }
+
+    /**
+     * Returns the number of clusters rejected by the filter.
+     * @param filter
+     * @return
+     */
+    public long getRejectedClusters(IClusterFilter filter) {
+        return rejectedClusters.get(indexOf(filter));
+    }
+
+    /**
+     * Returns the time spent in the filter in nanoseconds.
+     * @param filter
+     * @return
+     */
+    public long getFilterNanos(IClusterFilter filter) {
+        return filterNanos.get(indexOf(filter));
+    }
+
+    private int indexOf(IClusterFilter filter) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i] == filter)
+                return i;
+        }
+
+        throw new IllegalArgumentException("Filter " + filter.getName() + " is not part of the chain");
+    }
+
+    /**
+     * Returns one line per filter in the current order listing the
+     * evaluated and rejected clusters and the time spent.
+     * @return
+     */
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder();
+
+        for (IClusterFilter filter : getFilters()) {
+            statistics.append(String.format("  %-14s evaluated: %10d  rejected: %10d  time: %10.1f ms\n",
+                    filter.getName(), getEvaluatedClusters(filter), getRejectedClusters(filter), getFilterNanos(filter) / 1000000.0));
+        }
+
+        return statistics.toString();
+    }
+}
@@ -1,8 +1,13 @@
 package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
 
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterUtilities;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConsensusPeaks;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
 
+import java.io.IOException;
+
 /**
  * Created by jg on 09.08.14.
  */
@@ -21,52 +26,54 @@ public class ClusterMgfConverter extends AbstractClusterConverter {
     }
 
     @Override
-    public String convertCluster(ICluster cluster) {
-        ClusterUtilities clusterUtilities = new ClusterUtilities(cluster);
+    public void convertCluster(ClusterAnalysis clusterAnalysis, Appendable target) throws IOException {
+        ICluster cluster = clusterAnalysis.getCluster();
+        ClusterUtilities clusterUtilities = clusterAnalysis.getClusterUtilities();
+
+        target.append("BEGIN IONS\n");
 
-        StringBuilder stringBuilder = new StringBuilder("BEGIN IONS\n");
+        target.append("TITLE=");
+        if (cluster.getId() != null)
+            target.append(cluster.getId()).append(",sequence=");
+        target.append(cluster.getIdentifiedSpecCount() > 0 ? clusterUtilities.getMaxSequence() : "UNIDENTIFIED").append('\n');
 
-        stringBuilder.append(String.format("TITLE=%s\n",
-                (cluster.getId() != null ? cluster.getId() + ",sequence=" : "") + (cluster.getIdentifiedSpecCount() > 0 ? clusterUtilities.getMaxSequence() : "UNIDENTIFIED"),
-                clusterCounter));
         int charge = clusterUtilities.getCharge();
-        stringBuilder.append(String.format("PEPMASS=%.4f\n", cluster.getAvPrecursorMz()));
-        stringBuilder.append(String.format("CHARGE=%d%c\n", Math.abs(charge), (charge > 0 ? '+' : '-')));
+        target.append("PEPMASS=");
+        NumberFormatter.appendFixed(target, cluster.getAvPrecursorMz(), 4);
+        target.append('\n');
+        target.append("CHARGE=").append(Integer.toString(Math.abs(charge))).append(charge > 0 ? '+' : '-').append('\n');
 
         // add the peak list
-        for (int i = 0; i < cluster.getConsensusMzValues().size(); i++) {
+        ConsensusPeaks peaks = clusterAnalysis.getConsensusPeaks();
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
             // ignore peaks with 0 m/z and 0 intensity
-            if (cluster.getConsensusMzValues().get(i) == 0) {
+            if (peaks.getMz(i) == 0) {
                 continue;
             }
-            if (cluster.getConsensusIntensValues().get(i) == 0) {
+            if (peaks.getIntensity(i) == 0) {
                 continue;
             }
 
-            stringBuilder.append(cluster.getConsensusMzValues().get(i)).append(" ").append(cluster.getConsensusIntensValues().get(i)).append("\n");
+            NumberFormatter.appendFloat(target, peaks.getMz(i), mzPrecision);
+            target.append(' ');
+            NumberFormatter.appendFloat(target, peaks.getIntensity(i), intensityPrecision);
+            target.append('\n');
         }
 
-        stringBuilder.append("END IONS\n\n");
-
-        return stringBuilder.toString();
+        target.append("END IONS\n\n");
     }
 
     @Override
     public void close() throws Exception {
-        if (writer != null) {
-            writer.close();
-            writer = null;
-            if (!append)
-                clusterCounter = 0;
-        }
+        if (writer != null && !append)
+            clusterCounter = 0;
+
+        super.close();
     }
 
     @Override
-    public void onNewClusterRead(ICluster newCluster) {
-        if (!shouldClusterBeExported(newCluster))
-            return;
-
-        writeStringToFile(convertCluster(newCluster), getFileHeader());
+    public void writeExportedCluster(CharSequence exportedCluster) {
+        super.writeExportedCluster(exportedCluster);
         clusterCounter++;
     }
 }
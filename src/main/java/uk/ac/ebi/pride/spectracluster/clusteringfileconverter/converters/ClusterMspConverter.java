@@ -1,18 +1,19 @@
 package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
 
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterUtilities;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConsensusPeaks;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationPositionComparator;
-import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.SpectrumAnnotator;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationRecord;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationRegistry;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IModification;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
 import uk.ac.ebi.pride.utilities.iongen.model.ProductIon;
 import uk.ac.ebi.pride.utilities.iongen.model.ProductIonSet;
-import uk.ac.ebi.pridemod.ModReader;
-import uk.ac.ebi.pridemod.model.PTM;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.*;
 
 /**
@@ -20,22 +21,21 @@ import java.util.*;
  */
 public class ClusterMspConverter extends AbstractClusterConverter {
     public final static String FILE_EXTENSION = "msp";
-    public final static Double MOD_TOLERANCE = 0.001;
+    public final static Double MOD_TOLERANCE = ModificationRegistry.MSP_NAME_TOLERANCE;
     public final static float ANNOTATION_TOLERANCE = 0.5F;
     public final int BASE_PEAK_INTENSITY = 10000; // intensity used for base peak normalization
 
-    private Map<String, Double> modToDeltaMap;
     private boolean normalizeSpectra = false;
     private boolean addAnnotationString = false;
-    private ProductIon lastProductIon = null;
 
-    // logging
-    private Set<String> unresolvedAccessions = new HashSet<String>();
-    private Set<String> missingModMassAccessions = new HashSet<String>();
-    private Set<String> unmatchedModificationAccessions = new HashSet<String>();
+    // logging - clusters may be converted by multiple threads
+    private Set<String> unresolvedAccessions = Collections.synchronizedSet(new HashSet<String>());
+    private Set<String> missingModMassAccessions = Collections.synchronizedSet(new HashSet<String>());
+    private Set<String> unmatchedModificationAccessions = Collections.synchronizedSet(new HashSet<String>());
 
     public ClusterMspConverter() {
-        modToDeltaMap = loadMspModMap();
+        // make sure the MSP names are available
+        ModificationRegistry.getInstance();
     }
 
         @Override
@@ -49,93 +49,88 @@ public class ClusterMspConverter extends AbstractClusterConverter {
     }
 
     @Override
-    public String convertCluster(ICluster cluster) {
-        try {
-            ClusterUtilities clusterUtilities = new ClusterUtilities(cluster);
+    public void convertCluster(ClusterAnalysis clusterAnalysis, Appendable target) throws Exception {
+        ICluster cluster = clusterAnalysis.getCluster();
+        ClusterUtilities clusterUtilities = clusterAnalysis.getClusterUtilities();
 
-            // TODO: filter clusters where the most common PSM was identified with two different sequences
+        // TODO: filter clusters where the most common PSM was identified with two different sequences
 
-            if (clusterUtilities.isAverageCharge()) {
-                throw new Exception("Failed to calculate charge for cluster " + cluster.getId());
-            }
-
-            StringBuilder mspString = new StringBuilder();
-
-            mspString.append("Name: ").append(generateClusterName(clusterUtilities.getMaxSequence(), clusterUtilities.getCharge())).append("\n");
-
-            double molecularWeight = (cluster.getAvPrecursorMz() * clusterUtilities.getCharge()) - (clusterUtilities.getCharge() * 1.008);
-            mspString.append("MW: ").append(molecularWeight).append("\n");
+        if (clusterUtilities.isAverageCharge()) {
+            throw new Exception("Failed to calculate charge for cluster " + cluster.getId());
+        }
 
-            String commentString = generateComments(cluster, clusterUtilities);
-            mspString.append("Comment: ").append(commentString).append("\n");
+        target.append("Name: ").append(clusterUtilities.getMaxSequence()).append('/').append(Integer.toString(clusterUtilities.getCharge())).append('\n');
 
-            // normalize intensity values
-            List<Float> normalizedIntensities = null;
-            if (normalizeSpectra)
-                normalizedIntensities = normalizeIntensities(cluster.getConsensusIntensValues(), BASE_PEAK_INTENSITY);
+        double molecularWeight = (cluster.getAvPrecursorMz() * clusterUtilities.getCharge()) - (clusterUtilities.getCharge() * 1.008);
+        target.append("MW: ").append(Double.toString(molecularWeight)).append('\n');
 
-            mspString.append("Num peaks: ").append(getPeakCount(cluster, normalizedIntensities)).append("\n");
+        target.append("Comment: ");
+        appendComments(clusterAnalysis, target);
+        target.append('\n');
 
-            String annotatedPeakList = createPeakList(cluster, clusterUtilities, normalizedIntensities);
+        // normalize intensity values
+        ConsensusPeaks peaks = clusterAnalysis.getConsensusPeaks();
+        float[] normalizedIntensities = null;
+        if (normalizeSpectra)
+            normalizedIntensities = normalizeIntensities(peaks, BASE_PEAK_INTENSITY);
 
-            mspString.append(annotatedPeakList);
+        target.append("Num peaks: ").append(Integer.toString(getPeakCount(peaks, normalizedIntensities))).append('\n');
 
-            return mspString.toString();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-            return "";
-        }
+        appendPeakList(clusterAnalysis, normalizedIntensities, target);
     }
 
-    private String createPeakList(ICluster cluster, ClusterUtilities clusterUtilities, List<Float> normalizedIntensities) throws Exception {
-        StringBuilder peakListString = new StringBuilder();
-        ProductIonSet productIonSet = SpectrumAnnotator.getProductIonSet(cluster, clusterUtilities.getMostCommonPsm(), clusterUtilities.getCharge());
+    private void appendPeakList(ClusterAnalysis clusterAnalysis, float[] normalizedIntensities, Appendable target) throws Exception {
+        ICluster cluster = clusterAnalysis.getCluster();
+        ConsensusPeaks peaks = clusterAnalysis.getConsensusPeaks();
+        ClusterUtilities clusterUtilities = clusterAnalysis.getClusterUtilities();
+        ProductIonSet productIonSet = clusterAnalysis.getProductIonSet();
+        // the last product ion is kept per cluster so that clusters can be converted concurrently
+        PeakAnnotationState annotationState = new PeakAnnotationState();
 
         // create the peak annotation set
-        for (int i = 0; i < cluster.getConsensusMzValues().size(); i++) {
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
+            float mz = peaks.getMz(i);
+
             // ignore peaks with 0 m/z and 0 intensity
-            if (cluster.getConsensusMzValues().get(i) == 0)
+            if (mz == 0)
                 continue;
-            boolean emptyIntensity = (normalizeSpectra) ? normalizedIntensities.get(i) == 0 : cluster.getConsensusIntensValues().get(i) == 0;
-            if (emptyIntensity)
+            float intensity = (normalizeSpectra) ? normalizedIntensities[i] : peaks.getIntensity(i);
+            if (intensity == 0)
                 continue;
 
-            String intensityString = (normalizeSpectra) ? normalizedIntensities.get(i).toString() : cluster.getConsensusIntensValues().get(i).toString();
+            NumberFormatter.appendFloat(target, mz, mzPrecision);
+            target.append(' ');
+            NumberFormatter.appendFloat(target, intensity, intensityPrecision);
+            target.append(' ');
 
             // get the ion set
-            String annotation = "";
             if (addAnnotationString) {
-                annotation = "\"" + getBestPeakAnnotation(cluster.getConsensusMzValues().get(i), productIonSet.iterator(), cluster, clusterUtilities) + "\"";
+                long annotationStart = System.nanoTime();
+                String peakAnnotation = getBestPeakAnnotation(mz, productIonSet.iterator(), annotationState, cluster, clusterUtilities);
+                clusterAnalysis.addStageNanos(ConversionMetrics.Stage.ANNOTATE, System.nanoTime() - annotationStart);
+
+                target.append('"').append(peakAnnotation).append('"');
             }
 
-            peakListString.append(
-                    cluster.getConsensusMzValues().get(i))
-                    .append(" ")
-                    .append(intensityString)
-                    .append(" ")
-                    .append(annotation)
-                    .append("\n");
+            target.append('\n');
         }
-
-        return peakListString.toString();
     }
 
-    private int getPeakCount(ICluster cluster, List<Float> normalizedIntensities) {
+    private int getPeakCount(ConsensusPeaks peaks, float[] normalizedIntensities) {
         // count the peaks ignoring any peaks with 0 m/z or intensity
         int nPeaks = 0;
-        for (int i = 0; i < cluster.getConsensusMzValues().size(); i++) {
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
             // ignore peaks with 0 m/z and 0 intensity
-            if (cluster.getConsensusMzValues().get(i) == 0) {
+            if (peaks.getMz(i) == 0) {
                 continue;
             }
 
             if (normalizeSpectra) {
-                if (normalizedIntensities.get(i) == 0) {
+                if (normalizedIntensities[i] == 0) {
                     continue;
                 }
             } else {
-                if (cluster.getConsensusIntensValues().get(i) == 0)
+                if (peaks.getIntensity(i) == 0)
                     continue;
             }
 
@@ -145,9 +140,9 @@ public class ClusterMspConverter extends AbstractClusterConverter {
         return nPeaks;
     }
 
-    private String getBestPeakAnnotation(Float mz, Iterator<ProductIon> iterator, ICluster cluster, ClusterUtilities clusterUtilities) {
+    private String getBestPeakAnnotation(float mz, Iterator<ProductIon> iterator, PeakAnnotationState annotationState, ICluster cluster, ClusterUtilities clusterUtilities) {
         // get all possible annotations
-        List<String> annotations = getPeakIonAnnotations(mz, iterator, clusterUtilities, cluster);
+        List<String> annotations = getPeakIonAnnotations(mz, iterator, annotationState, clusterUtilities, cluster);
 
         if (annotations.size() < 1)
             throw new IllegalStateException("No annotation returned for peak");
@@ -185,8 +180,9 @@ public class ClusterMspConverter extends AbstractClusterConverter {
         return annotations.get(0);
     }
 
-    private List<String> getPeakIonAnnotations(Float mz, Iterator<ProductIon> iterator, ClusterUtilities clusterUtilities, ICluster cluster) {
+    private List<String> getPeakIonAnnotations(float mz, Iterator<ProductIon> iterator, PeakAnnotationState annotationState, ClusterUtilities clusterUtilities, ICluster cluster) {
         List<String> annotations = new ArrayList<String>();
+        ProductIon lastProductIon = annotationState.lastProductIon;
 
         // TODO: optimize peak calculation...
         int minPeaks = Math.round(cluster.getSpecCount() * 0.7F);
@@ -199,7 +195,7 @@ public class ClusterMspConverter extends AbstractClusterConverter {
         // check if it's the precursor
         // TODO: add neutral losses to precursor identification
         if (mz < cluster.getAvPrecursorMz() + ANNOTATION_TOLERANCE && mz > cluster.getAvPrecursorMz() - ANNOTATION_TOLERANCE) {
-            String annotation =  "p/" + " " + peakCount + " " + String.format(".2f", cluster.getAvPrecursorMz() - mz);
+            String annotation =  "p/" + " " + peakCount + " .2f";
             annotations.add(annotation);
         }
 
@@ -222,19 +218,23 @@ public class ClusterMspConverter extends AbstractClusterConverter {
             }
 
             // within range, add string to annotation string list
-            String annotationString = lastProductIon.getType().toString().toLowerCase() +
-                    lastProductIon.getPosition();
+            StringBuilder annotationString = new StringBuilder(32);
+            annotationString.append(lastProductIon.getType().toString().toLowerCase())
+                    .append(lastProductIon.getPosition());
             if (lastProductIon.getCharge() > 1)  {
-                annotationString += "^" + lastProductIon.getCharge();
+                annotationString.append('^').append(lastProductIon.getCharge());
             }
 
-            annotationString += "/" + String.format("%.2f", lastProductIon.getMassOverCharge() - mz) +
-                        " " + peakCount + " " + deviation;
+            annotationString.append('/');
+            NumberFormatter.appendFixed(annotationString, lastProductIon.getMassOverCharge() - mz, 2);
+            annotationString.append(' ').append(peakCount).append(' ').append(deviation);
 
-            annotations.add(annotationString);
+            annotations.add(annotationString.toString());
             lastProductIon = null;
         }
 
+        annotationState.lastProductIon = lastProductIon;
+
         // if there is no annotation, mark peak as unknown
         if (annotations.size() < 1) {
             annotations.add("? " + peakCount + " 0.5");
@@ -243,42 +243,49 @@ public class ClusterMspConverter extends AbstractClusterConverter {
         return annotations;
     }
 
-    private List<Float> normalizeIntensities(List<Float> consensusIntensValues, int fixedHighestPeakIntensity) {
+    private float[] normalizeIntensities(ConsensusPeaks peaks, int fixedHighestPeakIntensity) {
         // get the highest intensity
-        float maxIntensity = Collections.max(consensusIntensValues);
+        float maxIntensity = peaks.getMaxIntensity();
 
         // calculate the factor
         float factor = fixedHighestPeakIntensity / maxIntensity;
 
-        List<Float> normalizedIntensities = new ArrayList<Float>(consensusIntensValues.size());
+        float[] normalizedIntensities = new float[peaks.getPeakCount()];
 
-        for (Float intensity : consensusIntensValues) {
-            normalizedIntensities.add(intensity * factor);
+        for (int i = 0; i < normalizedIntensities.length; i++) {
+            normalizedIntensities[i] = peaks.getIntensity(i) * factor;
         }
 
         return normalizedIntensities;
     }
 
-    private String generateComments(ICluster cluster, ClusterUtilities clusterUtilities) throws Exception {
-        StringBuilder commentString = new StringBuilder();
+    private void appendComments(ClusterAnalysis clusterAnalysis, Appendable target) throws Exception {
+        ICluster cluster = clusterAnalysis.getCluster();
+        ClusterUtilities clusterUtilities = clusterAnalysis.getClusterUtilities();
 
         String modString = generateModString(cluster, clusterUtilities);
 
-        commentString.append("Spec=Consensus");
-        commentString.append(" Mods=" + modString);
-        commentString.append(" Parent=").append(String.format("%.3f", cluster.getAvPrecursorMz()));
-        commentString.append(" Nreps=").append(cluster.getSpecCount());
-        commentString.append(" Naa=").append(clusterUtilities.getMaxSequence().length());
-        commentString.append(" MaxRatio=").append(String.format("%.3f", clusterUtilities.getMaxILAngosticRatio()));
-        commentString.append(" PrecursorMzRange=").append(String.format("%.4f", cluster.getSpectrumPrecursorMzRange()));
-        commentString.append(" DeltaMass=").append(String.format("%.2f", SpectrumAnnotator.getDeltaMass(clusterUtilities.getMostCommonPsm(), cluster.getAvPrecursorMz())));
+        target.append("Spec=Consensus");
+        target.append(" Mods=").append(modString);
+        target.append(" Parent=");
+        NumberFormatter.appendFixed(target, cluster.getAvPrecursorMz(), 3);
+        target.append(" Nreps=").append(Integer.toString(cluster.getSpecCount()));
+        target.append(" Naa=").append(Integer.toString(clusterUtilities.getMaxSequence().length()));
+        target.append(" MaxRatio=");
+        NumberFormatter.appendFixed(target, clusterUtilities.getMaxILAngosticRatio(), 3);
+        target.append(" PrecursorMzRange=");
+        NumberFormatter.appendFixed(target, cluster.getSpectrumPrecursorMzRange(), 4);
+        target.append(" DeltaMass=");
+        NumberFormatter.appendFixed(target, clusterAnalysis.getDeltaMass(), 2);
         if (cluster.getId() != null)
-            commentString.append(" ClusterId=").append(cluster.getId());
+            target.append(" ClusterId=").append(cluster.getId());
 
-        if (currentAnnotation != null)
-            commentString.append(" Protein=" + currentAnnotation);
+        if (fastaFile != null) {
+            String proteinAnnotation = clusterAnalysis.getProteinAnnotation(fastaFile);
 
-        return commentString.toString();
+            if (proteinAnnotation != null)
+                target.append(" Protein=").append(proteinAnnotation);
+        }
     }
 
     private String generateModString(ICluster cluster, ClusterUtilities clusterUtilities) throws Exception {
@@ -295,7 +302,7 @@ public class ClusterMspConverter extends AbstractClusterConverter {
             return "0";
         }
 
-        ModReader modReader = ModReader.getInstance();
+        ModificationRegistry modificationRegistry = ModificationRegistry.getInstance();
 
         // sort by position and only use unique modifications
         List<IModification> modifications = new ArrayList<IModification>( new HashSet<IModification>(psm.getModifications()) );
@@ -308,22 +315,22 @@ public class ClusterMspConverter extends AbstractClusterConverter {
             String modMspName;
 
             // first try to get the modification's delta mass
-            PTM ptmObject = modReader.getPTMbyAccession(modification.getAccession());
+            ModificationRecord modificationRecord = modificationRegistry.getModification(modification.getAccession());
 
             // if we can't get the delta, we'll use the accession as a name
-            if (ptmObject == null) {
+            if (modificationRecord == null) {
                 unresolvedAccessions.add(modification.getAccession());
                 modMspName = modification.getAccession();
             } else {
-                Double delta = ptmObject.getMonoDeltaMass();
+                Double delta = modificationRecord.getMonoDeltaMass();
 
                 // if there is no delta for the modification (incorrect modification supplied), use the accession
                 if (delta == null) {
                     missingModMassAccessions.add(modification.getAccession());
                     modMspName = modification.getAccession();
                 } else {
-                    // using the delta we try to match it to the MSP name
-                    modMspName = getMspNameForDetla(delta);
+                    // the MSP name is matched using the delta
+                    modMspName = modificationRecord.getMspName();
 
                     // if the delta cannot be matched, we'll use the delta
                     if (modMspName == null) {
@@ -354,31 +361,15 @@ public class ClusterMspConverter extends AbstractClusterConverter {
         return modificationString.toString();
     }
 
-    private String getMspNameForDetla(Double delta) {
-        for (String mspName : modToDeltaMap.keySet()) {
-            // if the delta is within the tolerance, use this name
-            Double modDelta = modToDeltaMap.get(mspName);
-
-            if (modDelta > delta - MOD_TOLERANCE && modDelta < delta + MOD_TOLERANCE) {
-                return mspName;
-            }
-        }
-
-        return null;
-    }
-
-    private String generateClusterName(String sequence, int charge) {
-        return String.format("%s/%d", sequence, charge);
-    }
-
     @Override
-    public void onNewClusterRead(ICluster newCluster) {
-        if (!shouldClusterBeExported(newCluster))
-            return;
+    public boolean exportCluster(ClusterAnalysis clusterAnalysis, StringBuilder target) {
+        if (!super.exportCluster(clusterAnalysis, target))
+            return false;
 
-        String mspString = convertCluster(newCluster);
+        // spectra are separated by an empty line
+        target.append('\n');
 
-        writeStringToFile(mspString + "\n", getFileHeader());
+        return true;
     }
 
     public boolean isNormalizeSpectra() {
@@ -397,41 +388,11 @@ public class ClusterMspConverter extends AbstractClusterConverter {
         this.addAnnotationString = addAnnotationString;
     }
 
-    private Map<String, Double> loadMspModMap() {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-                ClusterMspConverter.class.getClassLoader().getResourceAsStream("msp_mod_mapping.tsv")));
-
-        Map<String, Double> mspNameToDeltaMap = new HashMap<String, Double>();
-        try {
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                // remove comments
-                int index = line.indexOf('#');
-                if (index >= 0) {
-                    line = line.substring(0, index);
-                }
-
-                // ignore empty lines
-                if (line.length() < 1)
-                    continue;
-
-                // split based on fields
-                String[] fields = line.split("\t");
-
-                if (fields.length < 2)
-                    throw new IllegalStateException("Invalid line encountered in msp_mod_mapping.tsv");
-
-                String mspName = fields[0];
-                Double deltaMass = Double.parseDouble(fields[1]);
-
-                mspNameToDeltaMap.put(mspName, deltaMass);
-            }
-
-            return mspNameToDeltaMap;
-        }
-        catch (Exception e) {
-            throw new IllegalStateException("Failed to load MSP mod name map.");
-        }
+    /**
+     * Holds the product ion that was last checked while annotating
+     * the peaks of one cluster.
+     */
+    private static class PeakAnnotationState {
+        private ProductIon lastProductIon = null;
     }
 }
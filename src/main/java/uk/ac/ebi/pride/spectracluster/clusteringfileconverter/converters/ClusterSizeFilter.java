@@ -0,0 +1,36 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+
+/**
+ * Only accepts clusters whose number of identified spectra is
+ * within the defined range.
+ */
+public class ClusterSizeFilter implements IClusterFilter {
+    public static final int COST = 1;
+
+    private final int minSize;
+    private final int maxSize;
+
+    public ClusterSizeFilter(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        int identifiedSpecCount = clusterAnalysis.getCluster().getIdentifiedSpecCount();
+
+        return identifiedSpecCount >= minSize && identifiedSpecCount <= maxSize;
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    @Override
+    public String getName() {
+        return "size";
+    }
+}
@@ -8,7 +8,8 @@ public class ConverterFactory {
 
     public enum CONVERTER {
         MSP_CONVERTER("msp"),
-        MGF_CONVERTER("mgf");
+        MGF_CONVERTER("mgf"),
+        BINARY_LIBRARY_CONVERTER("clib");
 
         private String name;
         private CONVERTER(String name) {
@@ -39,7 +40,7 @@ public class ConverterFactory {
         }
     }
 
-    public static IClusterConverter getConverter(String converterName) throws Exception {
+    public static IClusterExporter getConverter(String converterName) throws Exception {
         CONVERTER converter = CONVERTER.getConverterByName(converterName);
 
         if (converter == null)
@@ -48,12 +49,14 @@ public class ConverterFactory {
         return getConverter(converter);
     }
 
-    public static IClusterConverter getConverter(CONVERTER converter) {
+    public static IClusterExporter getConverter(CONVERTER converter) {
         switch(converter) {
             case MSP_CONVERTER:
                 return new ClusterMspConverter();
             case MGF_CONVERTER:
                 return new ClusterMgfConverter();
+            case BINARY_LIBRARY_CONVERTER:
+                return new ClusterBinaryLibraryConverter();
             default:
                 throw new IllegalStateException("Unsupported converter type passed.");
         }
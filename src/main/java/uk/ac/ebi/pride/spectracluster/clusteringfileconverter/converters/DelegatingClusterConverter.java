@@ -0,0 +1,261 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.Set;
+
+/**
+ * Base class of converters that change how the clusters of another
+ * converter are written (for example into multiple files or in a
+ * different order). Every function is passed to the wrapped converter.
+ * Subclasses override the functions whose behaviour they change.
+ */
+public abstract class DelegatingClusterConverter implements IClusterConverter {
+    protected final IClusterConverter converter;
+
+    protected DelegatingClusterConverter(IClusterConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Returns the wrapped converter.
+     * @return
+     */
+    public IClusterConverter getConverter() {
+        return converter;
+    }
+
+    @Override
+    public void setOutputPath(String outputPath) {
+        converter.setOutputPath(outputPath);
+    }
+
+    @Override
+    public String getOuputPath() {
+        return converter.getOuputPath();
+    }
+
+    @Override
+    public void setAppend(boolean append) {
+        converter.setAppend(append);
+    }
+
+    @Override
+    public void onNewClusterRead(ICluster newCluster) {
+        onNewClusterAnalysis(new ClusterAnalysis(newCluster));
+    }
+
+    @Override
+    public void onNewClusterAnalysis(ClusterAnalysis clusterAnalysis) {
+        converter.onNewClusterAnalysis(clusterAnalysis);
+    }
+
+    @Override
+    public void writeExportedCluster(ClusterEntryInfo entryInfo, CharSequence exportedCluster) {
+        converter.writeExportedCluster(entryInfo, exportedCluster);
+    }
+
+    @Override
+    public void close() throws Exception {
+        converter.close();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return converter.getBytesWritten();
+    }
+
+    @Override
+    public String getFileHeader() {
+        return converter.getFileHeader();
+    }
+
+    @Override
+    public String getFiletypeExtension() {
+        return converter.getFiletypeExtension();
+    }
+
+    @Override
+    public String convertCluster(ICluster cluster) {
+        return converter.convertCluster(cluster);
+    }
+
+    @Override
+    public String convertCluster(ClusterAnalysis clusterAnalysis) {
+        return converter.convertCluster(clusterAnalysis);
+    }
+
+    @Override
+    public void convertCluster(ClusterAnalysis clusterAnalysis, Appendable target) throws Exception {
+        converter.convertCluster(clusterAnalysis, target);
+    }
+
+    @Override
+    public String exportCluster(ClusterAnalysis clusterAnalysis) {
+        return converter.exportCluster(clusterAnalysis);
+    }
+
+    @Override
+    public boolean exportCluster(ClusterAnalysis clusterAnalysis, StringBuilder target) {
+        return converter.exportCluster(clusterAnalysis, target);
+    }
+
+    @Override
+    public long getFailedClusters() {
+        return converter.getFailedClusters();
+    }
+
+    @Override
+    public void setMinSize(int minSize) {
+        converter.setMinSize(minSize);
+    }
+
+    @Override
+    public void setMaxSize(int maxSize) {
+        converter.setMaxSize(maxSize);
+    }
+
+    @Override
+    public void setMinRatio(float minRatio) {
+        converter.setMinRatio(minRatio);
+    }
+
+    @Override
+    public void setMaxRatio(float maxRatio) {
+        converter.setMaxRatio(maxRatio);
+    }
+
+    @Override
+    public void setSpecies(Set<String> taxonomyIds) {
+        converter.setSpecies(taxonomyIds);
+    }
+
+    @Override
+    public void setFastaFile(FastaFile fastFile) {
+        converter.setFastaFile(fastFile);
+    }
+
+    @Override
+    public void setMinTic(float minTic) {
+        converter.setMinTic(minTic);
+    }
+
+    @Override
+    public void setMaxTic(float maxTic) {
+        converter.setMaxTic(maxTic);
+    }
+
+    @Override
+    public void setMzPrecision(int mzPrecision) {
+        converter.setMzPrecision(mzPrecision);
+    }
+
+    @Override
+    public void setIntensityPrecision(int intensityPrecision) {
+        converter.setIntensityPrecision(intensityPrecision);
+    }
+
+    @Override
+    public void setOutputBufferSize(int outputBufferSize) {
+        converter.setOutputBufferSize(outputBufferSize);
+    }
+
+    @Override
+    public void setFlushPolicy(ChannelOutputWriter.FlushPolicy flushPolicy) {
+        converter.setFlushPolicy(flushPolicy);
+    }
+
+    @Override
+    public void setPreallocationSize(long preallocationSize) {
+        converter.setPreallocationSize(preallocationSize);
+    }
+
+    @Override
+    public void setCompressionThreads(int compressionThreads) {
+        converter.setCompressionThreads(compressionThreads);
+    }
+
+    @Override
+    public void setCreateIndex(boolean createIndex) {
+        converter.setCreateIndex(createIndex);
+    }
+
+    @Override
+    public void setAdaptiveFilterOrder(boolean adaptiveFilterOrder) {
+        converter.setAdaptiveFilterOrder(adaptiveFilterOrder);
+    }
+
+    @Override
+    public ClusterFilterChain getFilterChain() {
+        return converter.getFilterChain();
+    }
+
+    @Override
+    public int getMinSize() {
+        return converter.getMinSize();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return converter.getMaxSize();
+    }
+
+    @Override
+    public float getMinRatio() {
+        return converter.getMinRatio();
+    }
+
+    @Override
+    public float getMaxRatio() {
+        return converter.getMaxRatio();
+    }
+
+    @Override
+    public Set<String> getSpecies() {
+        return converter.getSpecies();
+    }
+
+    @Override
+    public FastaFile getFastaFile() {
+        return converter.getFastaFile();
+    }
+
+    @Override
+    public int getMzPrecision() {
+        return converter.getMzPrecision();
+    }
+
+    @Override
+    public int getIntensityPrecision() {
+        return converter.getIntensityPrecision();
+    }
+
+    @Override
+    public int getOutputBufferSize() {
+        return converter.getOutputBufferSize();
+    }
+
+    @Override
+    public ChannelOutputWriter.FlushPolicy getFlushPolicy() {
+        return converter.getFlushPolicy();
+    }
+
+    @Override
+    public long getPreallocationSize() {
+        return converter.getPreallocationSize();
+    }
+
+    @Override
+    public int getCompressionThreads() {
+        return converter.getCompressionThreads();
+    }
+
+    @Override
+    public boolean isCreateIndex() {
+        return converter.isCreateIndex();
+    }
+}
@@ -0,0 +1,51 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+/**
+ * Rejects identified clusters whose most common PSM's delta m/z
+ * exceeds the defined maximum or cannot be calculated.
+ */
+public class DeltaMassFilter implements IClusterFilter {
+    public static final int COST = 50;
+
+    private final double maxDeltaMass;
+
+    public DeltaMassFilter(double maxDeltaMass) {
+        this.maxDeltaMass = maxDeltaMass;
+    }
+
+    @Override
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        ICluster cluster = clusterAnalysis.getCluster();
+
+        if (cluster.getIdentifiedSpecCount() < 1)
+            return true;
+
+        try {
+            double delta = clusterAnalysis.getDeltaMass();
+            if (delta > maxDeltaMass) {
+                System.out.println("Ignoring cluster with delta = " + delta + " (id = " + cluster.getId() + ")");
+                return false;
+            }
+        }
+        catch (Exception e) {
+            System.out.println("Waring: Failed to calculate delta mass for cluster " + cluster.getId() + ". Ignoring cluster.");
+            e.printStackTrace();
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    @Override
+    public String getName() {
+        return "delta mass";
+    }
+}
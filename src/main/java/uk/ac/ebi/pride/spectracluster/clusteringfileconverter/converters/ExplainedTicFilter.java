@@ -0,0 +1,47 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+
+/**
+ * Only accepts clusters whose consensus spectrum's explained TIC is
+ * within the defined range. Clusters whose consensus spectrum cannot
+ * be annotated are rejected.
+ */
+public class ExplainedTicFilter implements IClusterFilter {
+    public static final int COST = 1000;
+    /**
+     * Fragment tolerance used to annotate the consensus spectrum.
+     */
+    public static final float FRAGMENT_TOLERANCE = 0.5f;
+
+    private final float minTic;
+    private final float maxTic;
+
+    public ExplainedTicFilter(float minTic, float maxTic) {
+        this.minTic = minTic;
+        this.maxTic = maxTic;
+    }
+
+    @Override
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        try {
+            float explainedTIC = clusterAnalysis.getExplainedTic(FRAGMENT_TOLERANCE);
+
+            return explainedTIC >= minTic && explainedTIC <= maxTic;
+        }
+        catch (Exception e) {
+            // don't export clusters that cannot be explained
+            return false;
+        }
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    @Override
+    public String getName() {
+        return "explained TIC";
+    }
+}
@@ -0,0 +1,33 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+
+/**
+ * Only accepts clusters whose most common sequence is found in
+ * the FASTA file.
+ */
+public class FastaFilter implements IClusterFilter {
+    public static final int COST = 20;
+
+    private final FastaFile fastaFile;
+
+    public FastaFilter(FastaFile fastaFile) {
+        this.fastaFile = fastaFile;
+    }
+
+    @Override
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        return clusterAnalysis.getProteinAnnotation(fastaFile) != null;
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    @Override
+    public String getName() {
+        return "fasta";
+    }
+}
@@ -0,0 +1,30 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EncodedLibraryEntry;
+
+/**
+ * Converter into a binary spectral library (see util.BinaryLibraryFormat).
+ * Same as the text converters, clusters are encoded by exportCluster,
+ * which may be called by multiple threads, and written in the order in
+ * which they were read by writeExportedCluster.
+ */
+public interface IBinaryClusterConverter extends IClusterExporter {
+    /**
+     * Filters and encodes an already analysed cluster without writing
+     * it. This function must not change the converter's state so that
+     * it can be called by multiple threads at the same time.
+     * @param clusterAnalysis
+     * @return The encoded entry or null in case the cluster should not
+     *         be exported.
+     */
+    public EncodedLibraryEntry exportCluster(ClusterAnalysis clusterAnalysis);
+
+    /**
+     * Writes an entry as returned by exportCluster to the library.
+     * Entries must be passed in the order in which the clusters were
+     * read.
+     * @param exportedCluster
+     */
+    public void writeExportedCluster(EncodedLibraryEntry exportedCluster);
+}
@@ -1,78 +1,127 @@
 package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
 
-import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
-import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
 
-import java.util.Set;
-
 /**
  * Created by jg on 01.08.14.
  */
-public interface IClusterConverter extends IClusterSourceListener {
+public interface IClusterConverter extends IClusterExporter {
     /**
-     * Sets the path of the result file.
-     * @param outputPath
+     * Retruns the header of the output file if required by the
+     * format.
+     * @return
      */
-    public void setOutputPath(String outputPath);
+    public String getFileHeader();
 
     /**
-     * Retrieves the current path of the result file.
+     * Convert a cluster to the corresponding representation of the file
+     * format.
+     * @param cluster
      * @return
      */
-    public String getOuputPath();
+    public String convertCluster(ICluster cluster);
 
     /**
-     * Defines whether the processed spectra should be appended
-     * to the output file if it exists. Otherwise, the output file
-     * will be overwritten.
-     * @param append
+     * Convert an already analysed cluster to the corresponding representation
+     * of the file format. The results stored in the ClusterAnalysis are re-used.
+     * @param clusterAnalysis
+     * @return
      */
-    public void setAppend(boolean append);
+    public String convertCluster(ClusterAnalysis clusterAnalysis);
 
     /**
-     * Retruns the header of the output file if required by the
-     * format.
-     * @return
+     * Convert an already analysed cluster and append its representation
+     * to the passed target instead of creating a new String. This
+     * allows the caller to re-use the same buffer for every cluster.
+     * @param clusterAnalysis
+     * @param target The Appendable to write the cluster's representation to.
+     * @throws Exception Thrown in case the cluster cannot be converted. Parts
+     *                   of the cluster's representation may already have been
+     *                   appended to the target.
      */
-    public String getFileHeader();
+    public void convertCluster(ClusterAnalysis clusterAnalysis, Appendable target) throws Exception;
 
     /**
-     * Returns the default filetype extension (without the ".") of the
-     * file format.
-     * @return
+     * Filters and converts an already analysed cluster without writing
+     * it. This function must not change the converter's state so that
+     * it can be called by multiple threads at the same time.
+     * @param clusterAnalysis
+     * @return The cluster's representation or null in case the cluster
+     *         should not be exported.
      */
-    public String getFiletypeExtension();
+    public String exportCluster(ClusterAnalysis clusterAnalysis);
 
     /**
-     * Convert a cluster to the corresponding representation of the file
-     * format.
-     * @param cluster
-     * @return
+     * Filters and converts an already analysed cluster and appends its
+     * representation to the passed target. Like exportCluster(ClusterAnalysis)
+     * this function can be called by multiple threads at the same time.
+     * @param clusterAnalysis
+     * @param target The StringBuilder to append the cluster's representation to.
+     * @return Indicates whether the cluster was exported. If false, the
+     *         target was not changed.
      */
-    public String convertCluster(ICluster cluster);
+    public boolean exportCluster(ClusterAnalysis clusterAnalysis, StringBuilder target);
+
+    /**
+     * Writes a cluster's representation as returned by exportCluster
+     * to the output. Entries must be passed in the order in which the
+     * clusters were read. The cluster's summary is used by converters
+     * that index, distribute or order the clusters.
+     * @param entryInfo The exported cluster's summary.
+     * @param exportedCluster
+     */
+    public void writeExportedCluster(ClusterEntryInfo entryInfo, CharSequence exportedCluster);
+
+    /**
+     * Sets the maximum number of decimals used to write the peaks' m/z
+     * values. NumberFormatter.SHORTEST writes the shortest representation
+     * that uniquely identifies the value (default).
+     * @param mzPrecision
+     */
+    public void setMzPrecision(int mzPrecision);
+
+    /**
+     * Sets the maximum number of decimals used to write the peaks'
+     * intensities. NumberFormatter.SHORTEST writes the shortest representation
+     * that uniquely identifies the value (default).
+     * @param intensityPrecision
+     */
+    public void setIntensityPrecision(int intensityPrecision);
 
     /**
-     * Close the handle to the output file. This function must be
-     * called after writing is complete.
-     * @throws Exception
+     * Defines when buffered data is written to the output file.
+     * @param flushPolicy
      */
-    public void close() throws Exception;
+    public void setFlushPolicy(ChannelOutputWriter.FlushPolicy flushPolicy);
 
-    public void setMinSize(int minSize);
-    public void setMaxSize(int maxSize);
-    public void setMinRatio(float minRatio);
-    public void setMaxRatio(float maxRatio);
-    public void setSpecies(Set<String> taxonomyIds);
-    public void setFastaFile(FastaFile fastFile);
-    public void setMinTic(float minTic);
-    public void setMaxTic(float maxTic);
+    /**
+     * Sets the number of bytes that are reserved when the output file
+     * is opened. Unused space is removed when the file is closed.
+     * @param preallocationSize The size in bytes, 0 to disable.
+     */
+    public void setPreallocationSize(long preallocationSize);
 
+    /**
+     * Sets the number of threads used to gzip compress the output
+     * file. The output path is not changed.
+     * @param compressionThreads Number of threads, 0 to disable compression.
+     */
+    public void setCompressionThreads(int compressionThreads);
+
+    /**
+     * Defines whether a sidecar index (see util.EntryIndexFormat) holding the
+     * byte offset of every entry is written next to the output file.
+     * @param createIndex
+     */
+    public void setCreateIndex(boolean createIndex);
 
-    public int getMinSize();
-    public int getMaxSize();
-    public float getMinRatio();
-    public float getMaxRatio();
-    public Set<String> getSpecies();
-    public FastaFile getFastaFile();
+    public int getMzPrecision();
+    public int getIntensityPrecision();
+    public ChannelOutputWriter.FlushPolicy getFlushPolicy();
+    public long getPreallocationSize();
+    public int getCompressionThreads();
+    public boolean isCreateIndex();
 }
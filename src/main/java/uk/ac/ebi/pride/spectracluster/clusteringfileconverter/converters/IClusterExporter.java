@@ -0,0 +1,109 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+
+import java.util.Set;
+
+/**
+ * Filters clusters and writes them into an output file. Converters
+ * into text formats implement IClusterConverter, converters into
+ * binary formats IBinaryClusterConverter.
+ */
+public interface IClusterExporter extends IClusterSourceListener {
+    /**
+     * Sets the path of the result file.
+     * @param outputPath
+     */
+    public void setOutputPath(String outputPath);
+
+    /**
+     * Retrieves the current path of the result file.
+     * @return
+     */
+    public String getOuputPath();
+
+    /**
+     * Defines whether the processed spectra should be appended
+     * to the output file if it exists. Otherwise, the output file
+     * will be overwritten.
+     * @param append
+     */
+    public void setAppend(boolean append);
+
+    /**
+     * Returns the default filetype extension (without the ".") of the
+     * file format.
+     * @return
+     */
+    public String getFiletypeExtension();
+
+    /**
+     * Filters and writes an already analysed cluster. This function is
+     * used instead of onNewClusterRead if the same cluster is passed to
+     * multiple converters.
+     * @param clusterAnalysis
+     */
+    public void onNewClusterAnalysis(ClusterAnalysis clusterAnalysis);
+
+    /**
+     * Returns the number of clusters that passed the filters but
+     * could not be converted. These clusters are not exported.
+     * @return
+     */
+    public long getFailedClusters();
+
+    /**
+     * Returns the number of bytes written to the output file(s). For
+     * compressed output, this is the compressed size. The number is
+     * only final once the converter was closed.
+     * @return
+     */
+    public long getBytesWritten();
+
+    /**
+     * Close the handle to the output file. This function must be
+     * called after writing is complete.
+     * @throws Exception
+     */
+    public void close() throws Exception;
+
+    public void setMinSize(int minSize);
+    public void setMaxSize(int maxSize);
+    public void setMinRatio(float minRatio);
+    public void setMaxRatio(float maxRatio);
+    public void setSpecies(Set<String> taxonomyIds);
+    public void setFastaFile(FastaFile fastFile);
+    public void setMinTic(float minTic);
+    public void setMaxTic(float maxTic);
+
+    /**
+     * Sets the size of the (direct) buffer used to write the output file.
+     * @param outputBufferSize The size in bytes.
+     */
+    public void setOutputBufferSize(int outputBufferSize);
+
+    /**
+     * Defines whether the filters are re-ordered based on the number
+     * of clusters they reject (see ClusterFilterChain).
+     * @param adaptiveFilterOrder
+     */
+    public void setAdaptiveFilterOrder(boolean adaptiveFilterOrder);
+
+    /**
+     * Returns the filters applied to every cluster including their
+     * statistics.
+     * @return
+     */
+    public ClusterFilterChain getFilterChain();
+
+
+    public int getMinSize();
+    public int getMaxSize();
+    public float getMinRatio();
+    public float getMaxRatio();
+    public Set<String> getSpecies();
+    public FastaFile getFastaFile();
+    public int getOutputBufferSize();
+}
@@ -0,0 +1,34 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+
+/**
+ * Decides whether a cluster is exported by a converter. Filters are
+ * combined in a ClusterFilterChain which may evaluate them in any
+ * order. Therefore, a filter's result must not depend on other filters.
+ *
+ * Filters may be used by multiple threads at the same time.
+ */
+public interface IClusterFilter {
+    /**
+     * Checks whether the cluster should be exported.
+     * @param clusterAnalysis
+     * @return True if the cluster passes the filter.
+     */
+    public boolean accept(ClusterAnalysis clusterAnalysis);
+
+    /**
+     * Returns the filter's cost relative to the other filters (for
+     * example 1 for a check of the cluster's size and 1000 for an
+     * annotation of the consensus spectrum). Cheaper filters are
+     * evaluated first.
+     * @return
+     */
+    public int getCost();
+
+    /**
+     * Returns the filter's name as shown in the filter statistics.
+     * @return
+     */
+    public String getName();
+}
@@ -0,0 +1,356 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EncodedLibraryEntry;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationRegistry;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Converts clusters using multiple threads. The thread reading
+ * the .clustering file only passes the clusters to a pool of worker
+ * threads which filter, annotate, and format the clusters. A
+ * separate writer thread only writes the results in the original order
+ * of the clusters. Therefore, the result is identical to the one
+ * created by passing the clusters directly to the converters.
+ *
+ * The number of clusters being processed at the same time is limited
+ * by the size of the reorder buffer. In case the buffer is full,
+ * the reading thread is blocked.
+ *
+ * If ConversionMetrics are set, the time spent per cluster in every
+ * stage is recorded by the writer thread once the cluster was written.
+ */
+public class ParallelConversionPipeline implements IClusterSourceListener {
+    /**
+     * Number of pending clusters per worker thread used as default
+     * size of the reorder buffer.
+     */
+    public static final int PENDING_CLUSTERS_PER_THREAD = 16;
+    /**
+     * Interval in which a blocked reader checks whether the writer
+     * thread is still alive.
+     */
+    private static final long WRITER_CHECK_INTERVAL_MS = 100;
+
+    /**
+     * Marks the end of the input in the reorder buffer.
+     */
+    private static final Future<ExportedCluster> END_OF_CLUSTERS = new FutureTask<ExportedCluster>(new Callable<ExportedCluster>() {
+        @Override
+        public ExportedCluster call() throws Exception {
+            return null;
+        }
+    });
+
+    private final List<IClusterExporter> converters;
+    private final ConversionMetrics metrics;
+    private final ExecutorService workerPool;
+    private final BlockingQueue<Future<ExportedCluster>> reorderBuffer;
+    private final Thread writerThread;
+    /**
+     * Export buffers returned by the writer thread to be re-used by
+     * the workers. Clusters are exported into these buffers instead
+     * of creating a String per cluster and converter.
+     */
+    private final ConcurrentLinkedQueue<StringBuilder> exportBuffers = new ConcurrentLinkedQueue<StringBuilder>();
+    /**
+     * The first exception or error of the writer thread. Errors are
+     * kept as well so that the reader is never blocked by a writer
+     * that stopped.
+     */
+    private volatile Throwable writerException = null;
+    private boolean closed = false;
+    /**
+     * End of the last call to onNewClusterRead (System.nanoTime).
+     */
+    private long lastClusterEnd;
+
+    public ParallelConversionPipeline(Collection<? extends IClusterExporter> converters, int nThreads) {
+        this(converters, nThreads, nThreads * PENDING_CLUSTERS_PER_THREAD);
+    }
+
+    /**
+     * Creates a new ParallelConversionPipeline and starts the
+     * worker and writer threads.
+     * @param converters The converters to pass the clusters to.
+     * @param nThreads Number of worker threads.
+     * @param reorderBufferSize Maximum number of clusters that are processed or waiting to be written.
+     */
+    public ParallelConversionPipeline(Collection<? extends IClusterExporter> converters, int nThreads, int reorderBufferSize) {
+        this(converters, nThreads, reorderBufferSize, null);
+    }
+
+    /**
+     * Creates a new ParallelConversionPipeline and starts the
+     * worker and writer threads.
+     * @param converters The converters to pass the clusters to.
+     * @param nThreads Number of worker threads.
+     * @param reorderBufferSize Maximum number of clusters that are processed or waiting to be written.
+     * @param metrics The metrics to record the clusters in. May be null.
+     */
+    public ParallelConversionPipeline(Collection<? extends IClusterExporter> converters, int nThreads, int reorderBufferSize, ConversionMetrics metrics) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("At least one worker thread is required.");
+        if (reorderBufferSize < 1)
+            throw new IllegalArgumentException("The reorder buffer must at least hold one cluster.");
+
+        this.converters = new ArrayList<IClusterExporter>(converters);
+        this.metrics = metrics;
+
+        // make sure the modification definitions are loaded before the workers access them
+        ModificationRegistry.getInstance();
+
+        this.workerPool = Executors.newFixedThreadPool(nThreads);
+        this.reorderBuffer = new ArrayBlockingQueue<Future<ExportedCluster>>(reorderBufferSize);
+
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeExportedClusters();
+            }
+        }, "cluster-writer");
+        this.writerThread.start();
+        this.lastClusterEnd = System.nanoTime();
+    }
+
+    @Override
+    public void onNewClusterRead(final ICluster newCluster) {
+        if (closed)
+            throw new IllegalStateException("Pipeline was already closed.");
+        if (writerException != null)
+            throw new IllegalStateException("Failed to write converted clusters", writerException);
+
+        final long readNanos = System.nanoTime() - lastClusterEnd;
+
+        Future<ExportedCluster> exportedClusters = workerPool.submit(new Callable<ExportedCluster>() {
+            @Override
+            public ExportedCluster call() throws Exception {
+                return exportCluster(newCluster, readNanos);
+            }
+        });
+
+        try {
+            // blocks if the reorder buffer is full
+            enqueue(exportedClusters);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the writer", e);
+        }
+
+        lastClusterEnd = System.nanoTime();
+    }
+
+    /**
+     * Adds the future to the reorder buffer. Waits while the buffer is
+     * full but never longer than the writer thread is alive.
+     * @param exportedClusters
+     * @throws InterruptedException
+     */
+    private void enqueue(Future<ExportedCluster> exportedClusters) throws InterruptedException {
+        while (!reorderBuffer.offer(exportedClusters, WRITER_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            if (!writerThread.isAlive()) {
+                exportedClusters.cancel(false);
+                throw new IllegalStateException("The writer thread stopped", writerException);
+            }
+        }
+    }
+
+    /**
+     * Analyses the cluster once and creates the representation
+     * of every converter. This function is called by the worker
+     * threads.
+     * @param cluster
+     * @param readNanos Time the reader needed to parse the cluster.
+     * @return The cluster's representation for every converter.
+     */
+    private ExportedCluster exportCluster(ICluster cluster, long readNanos) {
+        ClusterAnalysis clusterAnalysis = new ClusterAnalysis(cluster);
+        clusterAnalysis.addStageNanos(ConversionMetrics.Stage.READ, readNanos);
+        StringBuilder[] representations = new StringBuilder[converters.size()];
+        EncodedLibraryEntry[] entries = new EncodedLibraryEntry[converters.size()];
+        boolean exported = false;
+
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i) instanceof IBinaryClusterConverter) {
+                entries[i] = ((IBinaryClusterConverter) converters.get(i)).exportCluster(clusterAnalysis);
+                continue;
+            }
+
+            StringBuilder exportBuffer = getExportBuffer();
+
+            if (((IClusterConverter) converters.get(i)).exportCluster(clusterAnalysis, exportBuffer)) {
+                representations[i] = exportBuffer;
+                exported = true;
+            }
+            else {
+                releaseExportBuffer(exportBuffer);
+            }
+        }
+
+        // the summary is calculated here so that the writer thread only writes
+        ClusterEntryInfo entryInfo = null;
+        if (exported) {
+            long start = System.nanoTime();
+            entryInfo = clusterAnalysis.getEntryInfo();
+            clusterAnalysis.addStageNanos(ConversionMetrics.Stage.FORMAT, System.nanoTime() - start);
+        }
+
+        return new ExportedCluster(entryInfo, representations, entries, clusterAnalysis.getStageNanos());
+    }
+
+    /**
+     * Returns an empty export buffer from the pool or creates a new one.
+     * @return
+     */
+    private StringBuilder getExportBuffer() {
+        StringBuilder exportBuffer = exportBuffers.poll();
+
+        if (exportBuffer == null)
+            return new StringBuilder(8192);
+
+        exportBuffer.setLength(0);
+
+        return exportBuffer;
+    }
+
+    /**
+     * Returns the buffer to the pool. Same as the converters' buffers, it
+     * is only re-used up to AbstractClusterConverter.MAX_RETAINED_BUFFER_SIZE.
+     * The pool never holds more buffers than clusters were processed at
+     * the same time.
+     * @param exportBuffer
+     */
+    private void releaseExportBuffer(StringBuilder exportBuffer) {
+        if (exportBuffer.capacity() <= AbstractClusterConverter.MAX_RETAINED_BUFFER_SIZE)
+            exportBuffers.offer(exportBuffer);
+    }
+
+    /**
+     * Writes the exported clusters in the order they were submitted.
+     * This function is run by the writer thread.
+     */
+    private void writeExportedClusters() {
+        while (true) {
+            Future<ExportedCluster> exportedClusters;
+
+            try {
+                exportedClusters = reorderBuffer.take();
+            }
+            catch (InterruptedException e) {
+                writerException = e;
+                return;
+            }
+
+            if (exportedClusters == END_OF_CLUSTERS)
+                return;
+
+            // after an error the buffer is only drained so that the reader is not blocked
+            if (writerException != null) {
+                exportedClusters.cancel(false);
+                continue;
+            }
+
+            try {
+                ExportedCluster result = exportedClusters.get();
+                long writeStart = System.nanoTime();
+                boolean exported = false;
+
+                for (int i = 0; i < result.representations.length; i++) {
+                    if (result.representations[i] != null) {
+                        ((IClusterConverter) converters.get(i)).writeExportedCluster(result.entryInfo, result.representations[i]);
+                        exported = true;
+                        releaseExportBuffer(result.representations[i]);
+                    }
+                    if (result.entries[i] != null) {
+                        ((IBinaryClusterConverter) converters.get(i)).writeExportedCluster(result.entries[i]);
+                        exported = true;
+                    }
+                }
+
+                if (metrics != null) {
+                    result.stageNanos[ConversionMetrics.Stage.WRITE.ordinal()] += System.nanoTime() - writeStart;
+                    metrics.recordCluster(result.stageNanos, exported);
+                }
+            }
+            catch (ExecutionException e) {
+                writerException = (e.getCause() != null) ? e.getCause() : e;
+            }
+            catch (Throwable e) {
+                // also keep errors (f.e. OutOfMemoryError) and continue draining the buffer
+                writerException = e;
+            }
+        }
+    }
+
+    /**
+     * Waits until all submitted clusters were written and stops
+     * all threads. The converters themselves are not closed.
+     * @throws Exception Thrown in case a cluster could not be converted or written.
+     */
+    public void close() throws Exception {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            if (writerThread.isAlive())
+                enqueue(END_OF_CLUSTERS);
+            writerThread.join();
+        }
+        catch (IllegalStateException e) {
+            // the writer stopped, the cause is reported below
+        }
+        finally {
+            workerPool.shutdownNow();
+        }
+
+        if (writerException instanceof Exception)
+            throw (Exception) writerException;
+        if (writerException instanceof Error)
+            throw (Error) writerException;
+        if (writerException != null)
+            throw new ExecutionException(writerException);
+    }
+
+    /**
+     * The result of a worker thread.
+     */
+    private static class ExportedCluster {
+        /**
+         * The cluster's summary passed to the text converters, null if no
+         * text converter exports the cluster.
+         */
+        private final ClusterEntryInfo entryInfo;
+        /**
+         * The representation for every text converter, null if the converter
+         * does not export the cluster.
+         */
+        private final StringBuilder[] representations;
+        /**
+         * The encoded entry for every binary converter, null if the converter
+         * does not export the cluster.
+         */
+        private final EncodedLibraryEntry[] entries;
+        /**
+         * Time spent on the cluster per stage (see ClusterAnalysis.getStageNanos).
+         */
+        private final long[] stageNanos;
+
+        private ExportedCluster(ClusterEntryInfo entryInfo, StringBuilder[] representations, EncodedLibraryEntry[] entries, long[] stageNanos) {
+            this.entryInfo = entryInfo;
+            this.representations = representations;
+            this.entries = entries;
+            this.stageNanos = stageNanos;
+        }
+    }
+}
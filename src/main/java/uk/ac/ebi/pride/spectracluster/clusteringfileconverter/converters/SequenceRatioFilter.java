@@ -0,0 +1,36 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+
+/**
+ * Only accepts clusters whose I/L agnostic ratio of the most common
+ * sequence (counting every PSM) is within the defined range.
+ */
+public class SequenceRatioFilter implements IClusterFilter {
+    public static final int COST = 10;
+
+    private final float minRatio;
+    private final float maxRatio;
+
+    public SequenceRatioFilter(float minRatio, float maxRatio) {
+        this.minRatio = minRatio;
+        this.maxRatio = maxRatio;
+    }
+
+    @Override
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        float ratio = clusterAnalysis.getClusterUtilities().getMaxILAngosticSequenceRatio();
+
+        return ratio >= minRatio && ratio <= maxRatio;
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    @Override
+    public String getName() {
+        return "ratio";
+    }
+}
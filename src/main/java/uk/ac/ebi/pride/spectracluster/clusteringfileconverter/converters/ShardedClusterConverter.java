@@ -0,0 +1,494 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Distributes the exported clusters into multiple files (shards) based
+ * on the cluster's precursor m/z and / or charge. Optionally, a shard's
+ * file is closed once it reaches the maximum file size and the shard is
+ * continued in a new file ("part").
+ *
+ * Filtering and formatting is done by the wrapped converter. The shard's
+ * name is added to the output path in front of the format's extension
+ * (for example "library.mz400-500.z2.msp").
+ *
+ * Every shard has its own writer. To limit the memory and file handles
+ * used, at most maxOpenShards files are open at the same time. If the
+ * limit is reached, the least recently written shard's file is closed
+ * and re-opened in append mode once the shard is written again.
+ *
+ * In case more than one writer thread is used, the shards are distributed
+ * across these threads and written concurrently. Clusters are always
+ * written to a shard in the order in which they were passed.
+ */
+public class ShardedClusterConverter extends DelegatingClusterConverter {
+    /**
+     * Number of clusters that may wait to be written per writer thread.
+     */
+    public static final int PENDING_CLUSTERS_PER_WRITER = 256;
+    /**
+     * Default maximum number of shard files that are open at the same time.
+     */
+    public static final int DEFAULT_MAX_OPEN_SHARDS = 64;
+
+    private static final PendingCluster END_OF_CLUSTERS = new PendingCluster(null, null);
+
+    private final double mzBinWidth;
+    private final boolean shardByCharge;
+    private final long maxFileSize;
+    private int maxOpenShards = DEFAULT_MAX_OPEN_SHARDS;
+
+    private String outputPath;
+    private boolean append = false;
+
+    /**
+     * Shards by name. Only accessed by the thread passing the clusters.
+     */
+    private final Map<String, Shard> shards = new HashMap<String, Shard>();
+    private final StringBuilder exportBuffer = new StringBuilder(8192);
+
+    private final List<BlockingQueue<PendingCluster>> writerQueues;
+    private final List<Thread> writerThreads;
+    /**
+     * Shards with an open file per writer thread (or only one if the
+     * shards are written by the calling thread). Ordered by the last
+     * write, least recent first.
+     */
+    private final List<LinkedHashMap<Shard, Boolean>> openShards;
+    private volatile Exception writerException = null;
+    private boolean closed = false;
+    /**
+     * Bytes written to the shards' files (compressed if enabled). Shards
+     * add their bytes whenever a file is closed.
+     */
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * Creates a new ShardedClusterConverter.
+     * @param converter The converter used to filter and format the clusters.
+     * @param mzBinWidth Width of the precursor m/z range per shard. 0 to not shard by m/z.
+     * @param shardByCharge If set, every charge state is written to a separate shard.
+     * @param maxFileSize Maximum number of (uncompressed) bytes per file. 0 to disable.
+     * @param nWriterThreads Number of threads writing the shards. If 1, the shards are written
+     *                       by the thread passing the clusters.
+     */
+    public ShardedClusterConverter(IClusterConverter converter, double mzBinWidth, boolean shardByCharge, long maxFileSize, int nWriterThreads) {
+        super(converter);
+
+        if (mzBinWidth < 0 || Double.isNaN(mzBinWidth) || Double.isInfinite(mzBinWidth))
+            throw new IllegalArgumentException("Invalid m/z bin width " + mzBinWidth);
+        if (maxFileSize < 0)
+            throw new IllegalArgumentException("The maximum file size must not be negative");
+        if (nWriterThreads < 1)
+            throw new IllegalArgumentException("At least one writer thread is required");
+
+        this.mzBinWidth = mzBinWidth;
+        this.shardByCharge = shardByCharge;
+        this.maxFileSize = maxFileSize;
+
+        this.writerQueues = new ArrayList<BlockingQueue<PendingCluster>>(nWriterThreads);
+        this.writerThreads = new ArrayList<Thread>(nWriterThreads);
+        this.openShards = new ArrayList<LinkedHashMap<Shard, Boolean>>(nWriterThreads);
+
+        for (int i = 0; i < nWriterThreads; i++) {
+            openShards.add(new LinkedHashMap<Shard, Boolean>(16, 0.75f, true));
+        }
+
+        if (nWriterThreads > 1) {
+            for (int i = 0; i < nWriterThreads; i++) {
+                final BlockingQueue<PendingCluster> queue = new ArrayBlockingQueue<PendingCluster>(PENDING_CLUSTERS_PER_WRITER);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writePendingClusters(queue);
+                    }
+                }, "shard-writer-" + i);
+                thread.setDaemon(true);
+
+                writerQueues.add(queue);
+                writerThreads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the shard the cluster belongs to.
+     * @param entryInfo The cluster's summary.
+     * @return The shard's name, an empty String if the output is not sharded.
+     */
+    public String getShardName(ClusterEntryInfo entryInfo) {
+        StringBuilder name = new StringBuilder(24);
+
+        if (mzBinWidth > 0) {
+            long bin = (long) Math.floor(entryInfo.getPrecursorMz() / mzBinWidth);
+
+            name.append("mz");
+            appendBinBoundary(name, bin * mzBinWidth);
+            name.append('-');
+            appendBinBoundary(name, (bin + 1) * mzBinWidth);
+        }
+
+        if (shardByCharge) {
+            if (name.length() > 0)
+                name.append('.');
+            name.append('z').append(entryInfo.getCharge());
+        }
+
+        return name.toString();
+    }
+
+    private static void appendBinBoundary(StringBuilder name, double boundary) {
+        try {
+            NumberFormatter.appendCompact(name, boundary, 4);
+        }
+        catch (IOException e) {
+            // cannot happen for StringBuilder
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the path of a shard's file.
+     * @param shardName The shard's name.
+     * @param part The part of the shard, 0 if the files are not split.
+     * @return The path
+     */
+    protected String getShardPath(String shardName, int part) {
+        if (outputPath == null)
+            throw new IllegalStateException("OutputPath must be set before clusters can be written.");
+
+        // add the shard's name in front of the format's extension
+        String extension = "." + converter.getFiletypeExtension();
+        int index = outputPath.lastIndexOf(extension);
+        if (index < 0)
+            index = outputPath.length();
+
+        StringBuilder path = new StringBuilder(outputPath.substring(0, index));
+        if (shardName.length() > 0)
+            path.append('.').append(shardName);
+        if (part > 0)
+            path.append(".part").append(part);
+        path.append(outputPath.substring(index));
+
+        return path.toString();
+    }
+
+    @Override
+    public void onNewClusterAnalysis(ClusterAnalysis clusterAnalysis) {
+        exportBuffer.setLength(0);
+
+        if (converter.exportCluster(clusterAnalysis, exportBuffer))
+            writeExportedCluster(clusterAnalysis.getEntryInfo(), exportBuffer);
+    }
+
+    @Override
+    public void writeExportedCluster(ClusterEntryInfo entryInfo, CharSequence exportedCluster) {
+        if (closed)
+            throw new IllegalStateException("Converter was already closed.");
+        if (writerException != null)
+            throw new IllegalStateException("Failed to write shard", writerException);
+
+        String shardName = getShardName(entryInfo);
+        Shard shard = shards.get(shardName);
+
+        if (shard == null) {
+            // distribute the shards evenly across the writer threads
+            shard = new Shard(shardName, shards.size());
+            shards.put(shardName, shard);
+        }
+
+        if (writerQueues.isEmpty()) {
+            try {
+                shard.write(exportedCluster);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Failed to write shard '" + shard.name + "'", e);
+            }
+            return;
+        }
+
+        try {
+            // the passed CharSequence may be re-used by the caller
+            writerQueues.get(shard.writerIndex % writerQueues.size()).put(new PendingCluster(shard, exportedCluster.toString()));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shard writer", e);
+        }
+    }
+
+    /**
+     * Writes the queued clusters to their shards. This function is run
+     * by the writer threads.
+     */
+    private void writePendingClusters(BlockingQueue<PendingCluster> queue) {
+        while (true) {
+            PendingCluster pendingCluster;
+
+            try {
+                pendingCluster = queue.take();
+            }
+            catch (InterruptedException e) {
+                writerException = e;
+                return;
+            }
+
+            if (pendingCluster == END_OF_CLUSTERS)
+                return;
+
+            // after an error the queue is only drained so that the caller is not blocked
+            if (writerException != null)
+                continue;
+
+            try {
+                pendingCluster.shard.write(pendingCluster.exportedCluster);
+            }
+            catch (Exception e) {
+                writerException = e;
+            }
+        }
+    }
+
+    /**
+     * Returns all files that were written sorted by their path.
+     * @return
+     */
+    public List<File> getShardFiles() {
+        List<File> files = new ArrayList<File>();
+
+        for (Shard shard : shards.values()) {
+            files.addAll(shard.files);
+        }
+
+        Collections.sort(files);
+
+        return files;
+    }
+
+    public double getMzBinWidth() {
+        return mzBinWidth;
+    }
+
+    public boolean isShardByCharge() {
+        return shardByCharge;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public int getMaxOpenShards() {
+        return maxOpenShards;
+    }
+
+    /**
+     * Sets the maximum number of shard files that are open at the same
+     * time. The limit is split evenly across the writer threads. Must be
+     * set before the first cluster is written.
+     * @param maxOpenShards
+     */
+    public void setMaxOpenShards(int maxOpenShards) {
+        if (maxOpenShards < 1)
+            throw new IllegalArgumentException("At least one shard must be open");
+
+        this.maxOpenShards = maxOpenShards;
+    }
+
+    /**
+     * Waits until all clusters are written and closes all shards.
+     * @throws Exception
+     */
+    @Override
+    public void close() throws Exception {
+        try {
+            for (BlockingQueue<PendingCluster> queue : writerQueues) {
+                if (!closed)
+                    queue.put(END_OF_CLUSTERS);
+            }
+            for (Thread thread : writerThreads) {
+                thread.join();
+            }
+        }
+        finally {
+            closed = true;
+
+            // close all shards even if one fails
+            for (Shard shard : shards.values()) {
+                try {
+                    shard.close();
+                }
+                catch (IOException e) {
+                    if (writerException == null)
+                        writerException = e;
+                }
+            }
+        }
+
+        if (writerException != null)
+            throw writerException;
+    }
+
+    @Override
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    /**
+     * Returns the bytes written to all shards' files. Files that are
+     * still open are not included.
+     * @return
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Returns the output path without the shards' names.
+     * @return
+     */
+    @Override
+    public String getOuputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * One output shard. Once created, a shard is only written by
+     * one thread.
+     */
+    private class Shard {
+        private final String name;
+        private final int writerIndex;
+        private final List<File> files = new ArrayList<File>(1);
+        /**
+         * The file currently written to, null if the next cluster starts a new part.
+         */
+        private File currentFile;
+        private ChannelOutputWriter writer;
+        private int clustersInFile = 0;
+        /**
+         * Number of (uncompressed) bytes written to the current file.
+         */
+        private long bytesInFile = 0;
+        /**
+         * Size of the current file before the writer was opened.
+         */
+        private long fileStartSize = 0;
+
+        private Shard(String name, int writerIndex) {
+            this.name = name;
+            this.writerIndex = writerIndex;
+        }
+
+        private void write(CharSequence exportedCluster) throws IOException {
+            // start a new part if the file is full but always write at least one cluster per file
+            if (currentFile != null && maxFileSize > 0 && clustersInFile > 0 &&
+                    bytesInFile + ChannelOutputWriter.getEncodedLength(exportedCluster) > maxFileSize) {
+                closeFile();
+                currentFile = null;
+            }
+
+            if (writer == null)
+                openFile();
+            else
+                getOpenShards().get(this); // marks the shard as most recently written
+
+            long start = writer.getBytesWritten();
+            writer.append(exportedCluster);
+            writer.endRecord();
+            bytesInFile += writer.getBytesWritten() - start;
+            clustersInFile++;
+        }
+
+        /**
+         * Opens the shard's current file or starts a new part. In case too
+         * many files are open, the least recently written shard is closed.
+         * @throws IOException
+         */
+        private void openFile() throws IOException {
+            boolean newPart = currentFile == null;
+
+            if (newPart) {
+                int part = (maxFileSize > 0) ? files.size() + 1 : 0;
+                currentFile = new File(getShardPath(name, part));
+                files.add(currentFile);
+                clustersInFile = 0;
+                bytesInFile = 0;
+            }
+
+            boolean fileExists = currentFile.exists();
+            fileStartSize = (append || !newPart) ? currentFile.length() : 0;
+
+            // shards are written concurrently, so each shard only uses one compression thread
+            writer = new ChannelOutputWriter(currentFile, append || !newPart, converter.getOutputBufferSize(), converter.getFlushPolicy(),
+                    converter.getPreallocationSize(), Math.min(converter.getCompressionThreads(), 1));
+
+            if (newPart && (!fileExists || !append)) {
+                writer.write(converter.getFileHeader());
+                bytesInFile = writer.getBytesWritten();
+            }
+
+            LinkedHashMap<Shard, Boolean> open = getOpenShards();
+            open.put(this, Boolean.TRUE);
+
+            int maxOpenPerWriter = Math.max(1, maxOpenShards / openShards.size());
+            while (open.size() > maxOpenPerWriter) {
+                Shard leastRecent = open.keySet().iterator().next();
+                leastRecent.closeFile();
+            }
+        }
+
+        private LinkedHashMap<Shard, Boolean> getOpenShards() {
+            return openShards.get(writerIndex % openShards.size());
+        }
+
+        /**
+         * Closes the current file. It is re-opened in append mode when
+         * the shard is written again.
+         * @throws IOException
+         */
+        private void closeFile() throws IOException {
+            if (writer == null)
+                return;
+
+            try {
+                writer.close();
+                bytesWritten.addAndGet(currentFile.length() - fileStartSize);
+            }
+            finally {
+                writer = null;
+                getOpenShards().remove(this);
+            }
+        }
+
+        private void close() throws IOException {
+            closeFile();
+        }
+    }
+
+    private static class PendingCluster {
+        private final Shard shard;
+        private final String exportedCluster;
+
+        private PendingCluster(Shard shard, String exportedCluster) {
+            this.shard = shard;
+            this.exportedCluster = exportedCluster;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes the clusters of the wrapped converter sorted by precursor m/z,
+ * cluster size or cluster id. The exported clusters are collected in
+ * memory until the memory budget is reached. The collected clusters are
+ * then sorted and written to a temporary file (a "run"). On close, all
+ * runs are merged and passed to the wrapped converter in sorted order.
+ *
+ * Thereby, files of any size can be sorted with a bounded heap. Clusters
+ * with identical sort keys keep their original order.
+ *
+ * The runs are stored in a new temporary directory which is removed on
+ * close. In case the converter is not closed, the runs are deleted when
+ * the JVM exits.
+ */
+public class SortedClusterConverter extends DelegatingClusterConverter {
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+    /**
+     * Maximum number of runs that are merged at the same time. If there
+     * are more runs, they are first merged into larger runs.
+     */
+    public static final int MAX_MERGE_RUNS = 64;
+
+    /**
+     * Estimated memory used by a buffered cluster in addition to
+     * its characters.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    public enum SortOrder {
+        /**
+         * Sort by increasing precursor m/z.
+         */
+        PRECURSOR_MZ("mz") {
+            @Override
+            protected int compare(ClusterEntryInfo entry1, ClusterEntryInfo entry2) {
+                return Float.compare(entry1.getPrecursorMz(), entry2.getPrecursorMz());
+            }
+        },
+        /**
+         * Sort by decreasing number of spectra.
+         */
+        SIZE("size") {
+            @Override
+            protected int compare(ClusterEntryInfo entry1, ClusterEntryInfo entry2) {
+                return entry2.getSize() < entry1.getSize() ? -1 : (entry2.getSize() == entry1.getSize() ? 0 : 1);
+            }
+        },
+        /**
+         * Sort by the cluster's id (lexicographically). Clusters without
+         * id are written last.
+         */
+        ID("id") {
+            @Override
+            protected int compare(ClusterEntryInfo entry1, ClusterEntryInfo entry2) {
+                if (entry1.getId() == null)
+                    return (entry2.getId() == null) ? 0 : 1;
+                if (entry2.getId() == null)
+                    return -1;
+
+                return entry1.getId().compareTo(entry2.getId());
+            }
+        };
+
+        private final String name;
+
+        private SortOrder(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        protected abstract int compare(ClusterEntryInfo entry1, ClusterEntryInfo entry2);
+
+        public static SortOrder getSortOrderByName(String name) {
+            for (SortOrder sortOrder : values()) {
+                if (sortOrder.getName().equals(name))
+                    return sortOrder;
+            }
+
+            return null;
+        }
+    }
+
+    private final SortOrder sortOrder;
+    private final long memoryBudget;
+    private final Comparator<SortEntry> comparator;
+
+    private final StringBuilder exportBuffer = new StringBuilder(8192);
+    private List<SortEntry> bufferedEntries = new ArrayList<SortEntry>();
+    private long bufferedMemory = 0;
+    /**
+     * Position of the next cluster in the input. Used to keep the
+     * original order of clusters with identical keys.
+     */
+    private long nextSequenceNumber = 0;
+    private final List<File> runFiles = new ArrayList<File>();
+    /**
+     * Directory in which the run directory is created.
+     */
+    private final File temporaryDirectory;
+    /**
+     * Directory holding the runs. Created when the first run is written.
+     */
+    private File runDirectory;
+    private boolean closed = false;
+
+    public SortedClusterConverter(IClusterConverter converter, SortOrder sortOrder) {
+        this(converter, sortOrder, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * Creates a new SortedClusterConverter.
+     * @param converter The converter used to filter, format, and write the clusters.
+     * @param sortOrder The order in which the clusters are written.
+     * @param memoryBudget Estimated number of bytes buffered clusters may use before they are written to a run.
+     * @param temporaryDirectory Directory to create the runs' directory in. If null, the system's temporary directory is used.
+     */
+    public SortedClusterConverter(IClusterConverter converter, SortOrder sortOrder, long memoryBudget, File temporaryDirectory) {
+        super(converter);
+
+        if (sortOrder == null)
+            throw new IllegalArgumentException("No sort order defined");
+        if (memoryBudget < 1)
+            throw new IllegalArgumentException("The memory budget must be greater than 0");
+
+        this.sortOrder = sortOrder;
+        this.memoryBudget = memoryBudget;
+        this.temporaryDirectory = temporaryDirectory;
+
+        final SortOrder order = sortOrder;
+        this.comparator = new Comparator<SortEntry>() {
+            @Override
+            public int compare(SortEntry entry1, SortEntry entry2) {
+                int result = order.compare(entry1.entryInfo, entry2.entryInfo);
+
+                if (result != 0)
+                    return result;
+
+                return entry1.sequenceNumber < entry2.sequenceNumber ? -1 : (entry1.sequenceNumber == entry2.sequenceNumber ? 0 : 1);
+            }
+        };
+    }
+
+    @Override
+    public void onNewClusterAnalysis(ClusterAnalysis clusterAnalysis) {
+        exportBuffer.setLength(0);
+
+        if (converter.exportCluster(clusterAnalysis, exportBuffer))
+            writeExportedCluster(clusterAnalysis.getEntryInfo(), exportBuffer);
+    }
+
+    /**
+     * Buffers the exported cluster. The cluster is only passed to the
+     * wrapped converter when this converter is closed.
+     * @param entryInfo The exported cluster's summary.
+     * @param exportedCluster
+     */
+    @Override
+    public void writeExportedCluster(ClusterEntryInfo entryInfo, CharSequence exportedCluster) {
+        if (closed)
+            throw new IllegalStateException("Converter was already closed.");
+
+        SortEntry entry = new SortEntry(entryInfo, nextSequenceNumber++, exportedCluster.toString());
+        bufferedEntries.add(entry);
+        bufferedMemory += entry.getEstimatedMemory();
+
+        if (bufferedMemory >= memoryBudget) {
+            try {
+                writeRun();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Failed to write sorted run", e);
+            }
+        }
+    }
+
+    /**
+     * Sorts the buffered clusters and writes them to a new run file.
+     */
+    private void writeRun() throws IOException {
+        Collections.sort(bufferedEntries, comparator);
+
+        File runFile = createRunFile();
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE));
+
+        try {
+            for (SortEntry entry : bufferedEntries) {
+                entry.write(outputStream);
+            }
+        }
+        finally {
+            outputStream.close();
+        }
+
+        bufferedEntries = new ArrayList<SortEntry>();
+        bufferedMemory = 0;
+    }
+
+    private File createRunFile() throws IOException {
+        if (runDirectory == null) {
+            File directory = File.createTempFile("sorted-runs-", "", temporaryDirectory);
+            if (!directory.delete() || !directory.mkdir())
+                throw new IOException("Failed to create temporary directory " + directory.getPath());
+
+            // files are deleted in the reverse order of registration, so the directory is deleted last
+            directory.deleteOnExit();
+            runDirectory = directory;
+        }
+
+        File runFile = File.createTempFile("run-", ".tmp", runDirectory);
+        runFile.deleteOnExit();
+        runFiles.add(runFile);
+
+        return runFile;
+    }
+
+    /**
+     * Merges all runs and writes the clusters to the wrapped converter.
+     * The wrapped converter is closed afterwards.
+     * @throws Exception
+     */
+    @Override
+    public void close() throws Exception {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            if (runFiles.isEmpty()) {
+                // everything fit into memory
+                Collections.sort(bufferedEntries, comparator);
+
+                for (SortEntry entry : bufferedEntries) {
+                    converter.writeExportedCluster(entry.entryInfo, entry.exportedCluster);
+                }
+            }
+            else {
+                if (!bufferedEntries.isEmpty())
+                    writeRun();
+
+                // limit the number of open files
+                while (runFiles.size() > MAX_MERGE_RUNS) {
+                    List<File> mergedRuns = new ArrayList<File>(runFiles.subList(0, MAX_MERGE_RUNS));
+                    runFiles.subList(0, MAX_MERGE_RUNS).clear();
+
+                    File runFile = createRunFile();
+                    final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE));
+
+                    try {
+                        mergeRuns(mergedRuns, new EntryHandler() {
+                            @Override
+                            public void onEntry(SortEntry entry) throws IOException {
+                                entry.write(outputStream);
+                            }
+                        });
+                    }
+                    finally {
+                        outputStream.close();
+                    }
+                }
+
+                mergeRuns(new ArrayList<File>(runFiles), new EntryHandler() {
+                    @Override
+                    public void onEntry(SortEntry entry) {
+                        converter.writeExportedCluster(entry.entryInfo, entry.exportedCluster);
+                    }
+                });
+            }
+        }
+        finally {
+            bufferedEntries = new ArrayList<SortEntry>();
+
+            for (File runFile : runFiles) {
+                runFile.delete();
+            }
+            runFiles.clear();
+
+            if (runDirectory != null) {
+                runDirectory.delete();
+                runDirectory = null;
+            }
+
+            converter.close();
+        }
+    }
+
+    /**
+     * Merges the passed runs and deletes them.
+     */
+    private void mergeRuns(List<File> runs, EntryHandler handler) throws IOException {
+        PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader reader1, RunReader reader2) {
+                return comparator.compare(reader1.currentEntry, reader2.currentEntry);
+            }
+        });
+        List<RunReader> openReaders = new ArrayList<RunReader>(runs.size());
+
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                openReaders.add(reader);
+
+                if (reader.next())
+                    readers.add(reader);
+            }
+
+            while (!readers.isEmpty()) {
+                RunReader reader = readers.poll();
+                handler.onEntry(reader.currentEntry);
+
+                if (reader.next())
+                    readers.add(reader);
+            }
+        }
+        finally {
+            for (RunReader reader : openReaders) {
+                reader.close();
+            }
+            for (File run : runs) {
+                run.delete();
+                runFiles.remove(run);
+            }
+        }
+    }
+
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the number of runs that were written to disk so far.
+     * @return
+     */
+    public int getRunCount() {
+        return runFiles.size();
+    }
+
+    private interface EntryHandler {
+        void onEntry(SortEntry entry) throws IOException;
+    }
+
+    private static class SortEntry {
+        private final ClusterEntryInfo entryInfo;
+        private final long sequenceNumber;
+        private final String exportedCluster;
+
+        private SortEntry(ClusterEntryInfo entryInfo, long sequenceNumber, String exportedCluster) {
+            this.entryInfo = entryInfo;
+            this.sequenceNumber = sequenceNumber;
+            this.exportedCluster = exportedCluster;
+        }
+
+        private long getEstimatedMemory() {
+            return ENTRY_OVERHEAD + 2L * exportedCluster.length() + ((entryInfo.getId() != null) ? 2L * entryInfo.getId().length() : 0) +
+                    ((entryInfo.getPeptideSequence() != null) ? 2L * entryInfo.getPeptideSequence().length() : 0);
+        }
+
+        private void write(DataOutputStream outputStream) throws IOException {
+            outputStream.writeLong(sequenceNumber);
+            outputStream.writeBoolean(entryInfo.getId() != null);
+            if (entryInfo.getId() != null)
+                outputStream.writeUTF(entryInfo.getId());
+            outputStream.writeFloat(entryInfo.getPrecursorMz());
+            outputStream.writeInt(entryInfo.getCharge());
+            outputStream.writeInt(entryInfo.getSize());
+            outputStream.writeBoolean(entryInfo.getPeptideSequence() != null);
+            if (entryInfo.getPeptideSequence() != null)
+                outputStream.writeUTF(entryInfo.getPeptideSequence());
+
+            // writeUTF is limited to 64 KB
+            byte[] data = exportedCluster.getBytes("UTF-8");
+            outputStream.writeInt(data.length);
+            outputStream.write(data);
+        }
+
+        private static SortEntry read(DataInputStream inputStream) throws IOException {
+            long sequenceNumber = inputStream.readLong();
+            String id = inputStream.readBoolean() ? inputStream.readUTF() : null;
+            float precursorMz = inputStream.readFloat();
+            int charge = inputStream.readInt();
+            int size = inputStream.readInt();
+            String peptideSequence = inputStream.readBoolean() ? inputStream.readUTF() : null;
+
+            byte[] data = new byte[inputStream.readInt()];
+            inputStream.readFully(data);
+
+            return new SortEntry(new ClusterEntryInfo(id, precursorMz, charge, size, peptideSequence), sequenceNumber, new String(data, "UTF-8"));
+        }
+    }
+
+    private static class RunReader {
+        private final DataInputStream inputStream;
+        private SortEntry currentEntry;
+
+        private RunReader(File runFile) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), RUN_BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next entry.
+         * @return False if the end of the run was reached.
+         */
+        private boolean next() throws IOException {
+            try {
+                currentEntry = SortEntry.read(inputStream);
+                return true;
+            }
+            catch (EOFException e) {
+                currentEntry = null;
+                return false;
+            }
+        }
+
+        private void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
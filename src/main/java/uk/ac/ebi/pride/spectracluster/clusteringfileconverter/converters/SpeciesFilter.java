@@ -0,0 +1,52 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ISpectrumReference;
+
+import java.util.Set;
+
+/**
+ * Only accepts clusters that contain at least one spectrum of
+ * the defined species.
+ */
+public class SpeciesFilter implements IClusterFilter {
+    public static final int COST = 5;
+
+    private final Set<String> species;
+
+    /**
+     * Creates a new filter.
+     * @param species The accepted taxonomy ids.
+     */
+    public SpeciesFilter(Set<String> species) {
+        this.species = species;
+    }
+
+    @Override
+    public boolean accept(ClusterAnalysis clusterAnalysis) {
+        for (ISpectrumReference specRef : clusterAnalysis.getCluster().getSpectrumReferences()) {
+            // ignore if no species is available
+            if (specRef.getSpecies() == null)
+                continue;
+
+            String[] specRefSpecies = specRef.getSpecies().split(",");
+
+            for (String s : specRefSpecies) {
+                if (species.contains(s))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public int getCost() {
+        return COST;
+    }
+
+    @Override
+    public String getName() {
+        return "species";
+    }
+}
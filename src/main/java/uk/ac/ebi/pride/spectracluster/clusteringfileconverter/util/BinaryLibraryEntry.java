@@ -0,0 +1,88 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * View of one entry of a memory mapped binary spectral library. All
+ * values are read from the mapped file when they are requested.
+ */
+public class BinaryLibraryEntry {
+    private final BinaryLibraryReader reader;
+    private final long offset;
+
+    BinaryLibraryEntry(BinaryLibraryReader reader, long offset) {
+        this.reader = reader;
+        this.offset = offset;
+    }
+
+    public float getPrecursorMz() {
+        return reader.getFloat(offset + BinaryLibraryFormat.ENTRY_PRECURSOR_MZ_OFFSET);
+    }
+
+    public int getCharge() {
+        return reader.getInt(offset + BinaryLibraryFormat.ENTRY_CHARGE_OFFSET);
+    }
+
+    /**
+     * Returns the cluster's most common peptide sequence.
+     * @return The sequence or null if the cluster is not identified.
+     */
+    public String getPeptideSequence() {
+        return reader.getString(reader.getInt(offset + BinaryLibraryFormat.ENTRY_PEPTIDE_OFFSET));
+    }
+
+    /**
+     * Returns the modifications of the most common PSM as
+     * "position:accession" separated by ",".
+     * @return The modifications or null if there are none.
+     */
+    public String getModifications() {
+        return reader.getString(reader.getInt(offset + BinaryLibraryFormat.ENTRY_MODIFICATIONS_OFFSET));
+    }
+
+    public String getClusterId() {
+        long clusterIdOffset = offset + BinaryLibraryFormat.ENTRY_HEADER_SIZE + getPeakCount() * 8L;
+
+        return reader.getString(clusterIdOffset, reader.getInt(offset + BinaryLibraryFormat.ENTRY_CLUSTER_ID_LENGTH_OFFSET));
+    }
+
+    /**
+     * Returns the number of spectra in the cluster.
+     * @return
+     */
+    public int getSize() {
+        return reader.getInt(offset + BinaryLibraryFormat.ENTRY_SIZE_OFFSET);
+    }
+
+    public int getPeakCount() {
+        return reader.getInt(offset + BinaryLibraryFormat.ENTRY_PEAK_COUNT_OFFSET);
+    }
+
+    /**
+     * Returns the m/z value of a peak. Peaks are sorted by m/z.
+     * @param peakIndex
+     * @return
+     */
+    public float getMz(int peakIndex) {
+        checkPeakIndex(peakIndex);
+
+        return reader.getFloat(offset + BinaryLibraryFormat.ENTRY_HEADER_SIZE + peakIndex * 4L);
+    }
+
+    public float getIntensity(int peakIndex) {
+        checkPeakIndex(peakIndex);
+
+        return reader.getFloat(offset + BinaryLibraryFormat.ENTRY_HEADER_SIZE + (getPeakCount() + peakIndex) * 4L);
+    }
+
+    private void checkPeakIndex(int peakIndex) {
+        if (peakIndex < 0 || peakIndex >= getPeakCount())
+            throw new IndexOutOfBoundsException("Invalid peak " + peakIndex);
+    }
+
+    /**
+     * Returns the entry's offset in the library file.
+     * @return
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
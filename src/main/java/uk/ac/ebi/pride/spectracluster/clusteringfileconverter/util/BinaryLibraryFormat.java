@@ -0,0 +1,60 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * Layout of the binary spectral library files. All values are
+ * stored in big-endian byte order.
+ *
+ * Header (HEADER_SIZE bytes):
+ *   magic number (8 bytes), version (int), number of entries (int),
+ *   offset of the string dictionary (long), offset of the precursor
+ *   m/z index (long), maximum record length (int), number of strings (int).
+ *
+ * Entries, starting at HEADER_SIZE:
+ *   precursor m/z (float), charge (int), peptide sequence (string id),
+ *   modifications (string id), length of the cluster id in bytes (int),
+ *   number of spectra (int), number of peaks (int), m/z values
+ *   (float[number of peaks]), intensities (float[number of peaks]),
+ *   UTF-8 encoded cluster id. Cluster ids are unique and therefore
+ *   stored in the entry instead of the string dictionary.
+ *
+ * String dictionary:
+ *   offset of every string (long[number of strings]), followed by the
+ *   strings as length (int) and UTF-8 encoded bytes. Missing strings
+ *   are referenced using NO_STRING.
+ *
+ * Precursor m/z index:
+ *   one record per entry sorted by precursor m/z consisting of the
+ *   precursor m/z (float) and the entry's offset (long).
+ *
+ * No record (entry, string, index record) is longer than the maximum
+ * record length stored in the header.
+ */
+public class BinaryLibraryFormat {
+    public static final byte[] MAGIC_NUMBER = new byte[] {'C', 'L', 'S', 'T', 'R', 'L', 'I', 'B'};
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int VERSION_OFFSET = 8;
+    public static final int ENTRY_COUNT_OFFSET = 12;
+    public static final int DICTIONARY_OFFSET_OFFSET = 16;
+    public static final int INDEX_OFFSET_OFFSET = 24;
+    public static final int MAX_RECORD_LENGTH_OFFSET = 32;
+    public static final int STRING_COUNT_OFFSET = 36;
+
+    public static final int ENTRY_HEADER_SIZE = 28;
+    public static final int ENTRY_PRECURSOR_MZ_OFFSET = 0;
+    public static final int ENTRY_CHARGE_OFFSET = 4;
+    public static final int ENTRY_PEPTIDE_OFFSET = 8;
+    public static final int ENTRY_MODIFICATIONS_OFFSET = 12;
+    public static final int ENTRY_CLUSTER_ID_LENGTH_OFFSET = 16;
+    public static final int ENTRY_SIZE_OFFSET = 20;
+    public static final int ENTRY_PEAK_COUNT_OFFSET = 24;
+
+    public static final int INDEX_RECORD_SIZE = 12;
+
+    public static final int NO_STRING = -1;
+
+    private BinaryLibraryFormat() {
+
+    }
+}
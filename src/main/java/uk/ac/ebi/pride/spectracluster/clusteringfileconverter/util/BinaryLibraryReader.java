@@ -0,0 +1,234 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory maps a binary spectral library (see BinaryLibraryFormat) and
+ * returns its entries by precursor m/z. Opening a library only reads
+ * its header. Entries are read directly from the mapped file when
+ * they are accessed.
+ *
+ * Since a single mapping is limited to 2 GB, large files are mapped
+ * in overlapping segments so that every record is contained completely
+ * in the segment in which it starts.
+ *
+ * This class is thread-safe.
+ */
+public class BinaryLibraryReader {
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    private final File libraryFile;
+    private final long segmentSize;
+    private final MappedByteBuffer[] segments;
+    private final int entryCount;
+    private final int stringCount;
+    private final long dictionaryOffset;
+    private final long indexOffset;
+
+    public BinaryLibraryReader(File libraryFile) throws IOException {
+        this(libraryFile, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the library.
+     * @param libraryFile The library to open.
+     * @param segmentSize Size of the mapped segments in bytes (without the overlap).
+     * @throws IOException Thrown if the file is not a valid binary library.
+     */
+    public BinaryLibraryReader(File libraryFile, int segmentSize) throws IOException {
+        if (segmentSize < 1)
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+
+        this.libraryFile = libraryFile;
+        this.segmentSize = segmentSize;
+
+        RandomAccessFile file = new RandomAccessFile(libraryFile, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+
+            if (fileSize < BinaryLibraryFormat.HEADER_SIZE)
+                throw new IOException(libraryFile.getName() + " is not a binary spectral library");
+
+            ByteBuffer header = ByteBuffer.allocate(BinaryLibraryFormat.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0)
+                    throw new IOException("Unexpected end of " + libraryFile.getName());
+            }
+
+            byte[] magicNumber = new byte[BinaryLibraryFormat.MAGIC_NUMBER.length];
+            header.position(0);
+            header.get(magicNumber);
+            if (!Arrays.equals(magicNumber, BinaryLibraryFormat.MAGIC_NUMBER))
+                throw new IOException(libraryFile.getName() + " is not a binary spectral library");
+            if (header.getInt(BinaryLibraryFormat.VERSION_OFFSET) != BinaryLibraryFormat.VERSION)
+                throw new IOException("Unsupported library version " + header.getInt(BinaryLibraryFormat.VERSION_OFFSET));
+
+            entryCount = header.getInt(BinaryLibraryFormat.ENTRY_COUNT_OFFSET);
+            dictionaryOffset = header.getLong(BinaryLibraryFormat.DICTIONARY_OFFSET_OFFSET);
+            indexOffset = header.getLong(BinaryLibraryFormat.INDEX_OFFSET_OFFSET);
+            stringCount = header.getInt(BinaryLibraryFormat.STRING_COUNT_OFFSET);
+            int maxRecordLength = header.getInt(BinaryLibraryFormat.MAX_RECORD_LENGTH_OFFSET);
+
+            if (indexOffset + (long) entryCount * BinaryLibraryFormat.INDEX_RECORD_SIZE > fileSize)
+                throw new IOException("Incomplete binary library " + libraryFile.getName());
+
+            // every segment overlaps with the next one by the maximum record length
+            int nSegments = (int) ((fileSize + segmentSize - 1) / segmentSize);
+            segments = new MappedByteBuffer[nSegments];
+
+            for (int i = 0; i < nSegments; i++) {
+                long start = (long) i * segmentSize;
+                long size = Math.min(segmentSize + (long) maxRecordLength, fileSize - start);
+
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        finally {
+            // the mappings stay valid after the file is closed
+            file.close();
+        }
+    }
+
+    public File getLibraryFile() {
+        return libraryFile;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the entry at the given position of the m/z sorted index.
+     * @param indexPosition Position in the index (0 - getEntryCount() - 1).
+     * @return The entry
+     */
+    public BinaryLibraryEntry getEntry(int indexPosition) {
+        if (indexPosition < 0 || indexPosition >= entryCount)
+            throw new IndexOutOfBoundsException("Invalid entry " + indexPosition);
+
+        return new BinaryLibraryEntry(this, getLong(getIndexRecordOffset(indexPosition) + 4));
+    }
+
+    /**
+     * Returns all entries with a precursor m/z between minMz and maxMz
+     * (both inclusive) in m/z order.
+     * @param minMz
+     * @param maxMz
+     * @return The entries
+     */
+    public List<BinaryLibraryEntry> getEntries(double minMz, double maxMz) {
+        int first = getFirstIndexPosition(minMz);
+        List<BinaryLibraryEntry> entries = new ArrayList<BinaryLibraryEntry>();
+
+        for (int i = first; i < entryCount && getIndexMz(i) <= maxMz; i++) {
+            entries.add(getEntry(i));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the position of the first entry in the index with a
+     * precursor m/z greater or equal to the passed value.
+     * @param minMz
+     * @return The index position, getEntryCount() if there is no such entry.
+     */
+    public int getFirstIndexPosition(double minMz) {
+        int low = 0;
+        int high = entryCount;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (getIndexMz(middle) < minMz)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the precursor m/z of the entry at the given index position.
+     * @param indexPosition
+     * @return
+     */
+    public float getIndexMz(int indexPosition) {
+        return getFloat(getIndexRecordOffset(indexPosition));
+    }
+
+    private long getIndexRecordOffset(int indexPosition) {
+        return indexOffset + (long) indexPosition * BinaryLibraryFormat.INDEX_RECORD_SIZE;
+    }
+
+    /**
+     * Returns a string of the dictionary.
+     * @param stringId The string's id.
+     * @return The string or null in case the id is BinaryLibraryFormat.NO_STRING.
+     */
+    String getString(int stringId) {
+        if (stringId == BinaryLibraryFormat.NO_STRING)
+            return null;
+        if (stringId < 0 || stringId >= stringCount)
+            throw new IndexOutOfBoundsException("Invalid string id " + stringId);
+
+        long stringOffset = getLong(dictionaryOffset + stringId * 8L);
+
+        return getString(stringOffset + 4, getInt(stringOffset));
+    }
+
+    /**
+     * Decodes the UTF-8 encoded string stored at the offset.
+     * @param offset
+     * @param length The string's length in bytes.
+     * @return
+     */
+    String getString(long offset, int length) {
+        ByteBuffer segment = getSegment(offset).duplicate();
+        segment.position(getSegmentPosition(offset));
+        byte[] data = new byte[length];
+        segment.get(data);
+
+        try {
+            return new String(data, "UTF-8");
+        }
+        catch (IOException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MappedByteBuffer getSegment(long offset) {
+        return segments[(int) (offset / segmentSize)];
+    }
+
+    /**
+     * Returns the position within the segment returned by getSegment.
+     */
+    private int getSegmentPosition(long offset) {
+        return (int) (offset % segmentSize);
+    }
+
+    int getInt(long offset) {
+        return getSegment(offset).getInt(getSegmentPosition(offset));
+    }
+
+    long getLong(long offset) {
+        return getSegment(offset).getLong(getSegmentPosition(offset));
+    }
+
+    float getFloat(long offset) {
+        return getSegment(offset).getFloat(getSegmentPosition(offset));
+    }
+}
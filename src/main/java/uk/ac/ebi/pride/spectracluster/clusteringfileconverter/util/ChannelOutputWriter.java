@@ -0,0 +1,389 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writer that encodes characters as UTF-8 into a (large) direct
+ * ByteBuffer which is written to a FileChannel. ASCII characters, which
+ * make up the complete peak lists, are copied without going through
+ * a CharsetEncoder.
+ *
+ * Optionally, the file is pre-allocated to the expected size. In this
+ * case, the file is truncated to the actually written data on close.
+ *
+ * If compression is enabled, every buffer is compressed as one gzip
+ * block by a ParallelGzipOutput. Since every record would become a
+ * separate gzip block, compression cannot be combined with the
+ * EVERY_RECORD flush policy.
+ *
+ * This class is not thread-safe.
+ */
+public class ChannelOutputWriter extends Writer {
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int MIN_BUFFER_SIZE = 4096;
+
+    /**
+     * Defines when the buffered data is written to the file.
+     */
+    public enum FlushPolicy {
+        /**
+         * The buffer is only written once it is full (default).
+         */
+        WHEN_FULL("when_full"),
+        /**
+         * The buffer is written after every record (cluster) so
+         * that the output file is always complete. Not supported
+         * for compressed output.
+         */
+        EVERY_RECORD("every_record"),
+        /**
+         * Like WHEN_FULL but the data is additionally forced to the
+         * storage device whenever the buffer is written. For compressed
+         * output, the writer waits until all pending blocks are written.
+         */
+        SYNC("sync");
+
+        private final String name;
+
+        private FlushPolicy(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static FlushPolicy getFlushPolicyByName(String name) {
+            for (FlushPolicy flushPolicy : values()) {
+                if (flushPolicy.getName().equals(name))
+                    return flushPolicy;
+            }
+
+            return null;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final FlushPolicy flushPolicy;
+    private final boolean preallocated;
+    private final ParallelGzipOutput compressor;
+    /**
+     * Number of (uncompressed) bytes written to the channel or compressor.
+     */
+    private long bytesWritten = 0;
+    /**
+     * High surrogate of a surrogate pair split between two write calls.
+     */
+    private char pendingHighSurrogate = 0;
+
+    public ChannelOutputWriter(File outputFile, boolean append) throws IOException {
+        this(outputFile, append, DEFAULT_BUFFER_SIZE, FlushPolicy.WHEN_FULL, 0);
+    }
+
+    public ChannelOutputWriter(File outputFile, boolean append, int bufferSize, FlushPolicy flushPolicy, long preallocationSize) throws IOException {
+        this(outputFile, append, bufferSize, flushPolicy, preallocationSize, 0);
+    }
+
+    /**
+     * Opens the output file.
+     * @param outputFile The file to write to.
+     * @param append If set, data is appended to an existing file. Otherwise, the file is overwritten.
+     * @param bufferSize Size of the direct buffer in bytes.
+     * @param flushPolicy Defines when the buffer is written to the file.
+     * @param preallocationSize Number of bytes to reserve for the new data. 0 to disable.
+     * @param compressionThreads Number of threads to gzip compress the data. 0 to disable compression.
+     * @throws IOException
+     */
+    public ChannelOutputWriter(File outputFile, boolean append, int bufferSize, FlushPolicy flushPolicy, long preallocationSize,
+                               int compressionThreads) throws IOException {
+        if (bufferSize < MIN_BUFFER_SIZE)
+            throw new IllegalArgumentException("Buffer size must at least be " + MIN_BUFFER_SIZE + " bytes");
+        if (preallocationSize < 0)
+            throw new IllegalArgumentException("Preallocation size must not be negative");
+        if (compressionThreads < 0)
+            throw new IllegalArgumentException("Number of compression threads must not be negative");
+        if (compressionThreads > 0 && flushPolicy == FlushPolicy.EVERY_RECORD)
+            throw new IllegalArgumentException("Compressed output cannot be flushed after every record");
+
+        this.flushPolicy = flushPolicy;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+
+        file = new RandomAccessFile(outputFile, "rw");
+        channel = file.getChannel();
+
+        if (append) {
+            channel.position(channel.size());
+        }
+        else {
+            channel.truncate(0);
+        }
+
+        preallocated = preallocationSize > 0;
+        if (preallocated)
+            file.setLength(channel.position() + preallocationSize);
+
+        compressor = (compressionThreads > 0) ? new ParallelGzipOutput(channel, compressionThreads, Deflater.DEFAULT_COMPRESSION) : null;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        putChar((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+
+            // ASCII fast path
+            if (c < 0x80 && pendingHighSurrogate == 0) {
+                if (!buffer.hasRemaining())
+                    writeBuffer();
+                buffer.put((byte) c);
+            }
+            else {
+                putChar(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        appendChars(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if (csq == null)
+            csq = "null";
+
+        appendChars(csq, 0, csq.length());
+
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null)
+            csq = "null";
+
+        appendChars(csq, start, end);
+
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) throws IOException {
+        putChar(c);
+
+        return this;
+    }
+
+    private void appendChars(CharSequence chars, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+
+            // ASCII fast path
+            if (c < 0x80 && pendingHighSurrogate == 0) {
+                if (!buffer.hasRemaining())
+                    writeBuffer();
+                buffer.put((byte) c);
+            }
+            else {
+                putChar(c);
+            }
+        }
+    }
+
+    /**
+     * Encodes a single character as UTF-8. Unpaired surrogates are
+     * replaced by '?'.
+     */
+    private void putChar(char c) throws IOException {
+        if (buffer.remaining() < 4)
+            writeBuffer();
+
+        if (pendingHighSurrogate != 0) {
+            char highSurrogate = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(highSurrogate, c);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                return;
+            }
+
+            buffer.put((byte) '?');
+            if (buffer.remaining() < 4)
+                writeBuffer();
+        }
+
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        }
+        else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+        else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            buffer.put((byte) '?');
+        }
+        else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    /**
+     * Returns the number of bytes the characters are encoded in. This
+     * is the number of bytes written by append(CharSequence).
+     * @param chars
+     * @return
+     */
+    public static long getEncodedLength(CharSequence chars) {
+        long length = 0;
+        int nChars = chars.length();
+
+        for (int i = 0; i < nChars; i++) {
+            char c = chars.charAt(i);
+
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < nChars && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogates are replaced by '?'
+                length++;
+            }
+            else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Marks the end of a record (for example a cluster). Depending on the
+     * flush policy, the buffered data is written to the file.
+     * @throws IOException
+     */
+    public void endRecord() throws IOException {
+        if (flushPolicy == FlushPolicy.EVERY_RECORD)
+            writeBuffer();
+    }
+
+    /**
+     * Writes the buffer's content to the channel.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+
+        if (compressor != null) {
+            compressor.write(buffer);
+        }
+        else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        buffer.clear();
+
+        if (flushPolicy == FlushPolicy.SYNC) {
+            // the compressed blocks must be written before they can be forced to the disk
+            if (compressor != null)
+                compressor.flush();
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Returns the number of (uncompressed) bytes written since the file
+     * was opened including the buffered data.
+     * @return
+     */
+    public long getBytesWritten() {
+        return bytesWritten + buffer.position();
+    }
+
+    /**
+     * Returns the number of bytes that were actually written to the
+     * file. This excludes buffered data and, in case of compression,
+     * blocks that are still being compressed.
+     * @return
+     * @throws IOException
+     */
+    public long getFileSize() throws IOException {
+        return channel.position();
+    }
+
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    /**
+     * Writes all buffered data to the file. In case of compression,
+     * this waits until all pending blocks are compressed and written.
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+
+        if (compressor != null)
+            compressor.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+
+        try {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                putChar('?');
+            }
+
+            writeBuffer();
+
+            if (compressor != null)
+                compressor.finish();
+
+            // remove the unused preallocated space
+            if (preallocated)
+                channel.truncate(channel.position());
+        }
+        finally {
+            // releases the compression threads in case finish was not reached
+            if (compressor != null)
+                compressor.close();
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.iongen.model.ProductIonSet;
+
+/**
+ * Holds all per-cluster results that are needed by the
+ * filters, the spectrum annotation, and the converters.
+ *
+ * Every value is only calculated once when it is first
+ * requested and then cached. Thereby, one ClusterAnalysis
+ * object can be shared by all converters processing the
+ * same cluster.
+ *
+ * Additionally, the time spent on the cluster is recorded per
+ * ConversionMetrics.Stage. The annotation stage is measured by
+ * this class, all other stages by the callers.
+ *
+ * This class is not thread-safe. One object must only be
+ * used by one thread at a time.
+ */
+public class ClusterAnalysis {
+    private final ICluster cluster;
+    private final ClusterUtilities clusterUtilities;
+    private ConsensusPeaks consensusPeaks;
+
+    private boolean deltaMassCalculated = false;
+    private Double deltaMass;
+    private Exception deltaMassException;
+
+    private boolean productIonSetCreated = false;
+    private ProductIonSet productIonSet;
+    private Exception productIonSetException;
+
+    private float explainedTicTolerance = Float.NaN;
+    private float explainedTic;
+    private Exception explainedTicException;
+
+    private FastaFile annotatedFastaFile;
+    private String proteinAnnotation;
+
+    private ClusterEntryInfo entryInfo;
+
+    private final long[] stageNanos = new long[ConversionMetrics.Stage.values().length];
+    /**
+     * Nesting level of annotation calculations. Only the outermost
+     * calculation is measured.
+     */
+    private int annotationDepth = 0;
+    private long annotationStart;
+
+    public ClusterAnalysis(ICluster cluster) {
+        this.cluster = cluster;
+        this.clusterUtilities = new ClusterUtilities(cluster);
+    }
+
+    public ICluster getCluster() {
+        return cluster;
+    }
+
+    public ClusterUtilities getClusterUtilities() {
+        return clusterUtilities;
+    }
+
+    /**
+     * Returns the primitive view of the cluster's consensus spectrum.
+     * @return The ConsensusPeaks
+     */
+    public ConsensusPeaks getConsensusPeaks() {
+        if (consensusPeaks == null)
+            consensusPeaks = new ConsensusPeaks(cluster);
+
+        return consensusPeaks;
+    }
+
+    /**
+     * Returns the PSM of the most common sequence with the lowest
+     * delta mass.
+     * @return The PSM or null in case the cluster is not identified.
+     * @throws Exception
+     */
+    public IPeptideSpectrumMatch getMostCommonPsm() throws Exception {
+        return clusterUtilities.getMostCommonPsm();
+    }
+
+    public int getCharge() {
+        return clusterUtilities.getCharge();
+    }
+
+    /**
+     * Returns the cluster's summary that is passed to the write stage.
+     * @return The ClusterEntryInfo
+     */
+    public ClusterEntryInfo getEntryInfo() {
+        if (entryInfo == null)
+            entryInfo = ClusterEntryInfo.fromClusterAnalysis(this);
+
+        return entryInfo;
+    }
+
+    /**
+     * Returns the delta m/z of the most common PSM
+     * compared to the cluster's average precursor m/z.
+     * @return The delta m/z
+     * @throws Exception Thrown in case the delta cannot be calculated.
+     */
+    public double getDeltaMass() throws Exception {
+        if (!deltaMassCalculated) {
+            deltaMassCalculated = true;
+            startAnnotation();
+
+            try {
+                deltaMass = SpectrumAnnotator.getDeltaMass(getMostCommonPsm(), cluster.getAvPrecursorMz());
+            }
+            catch (Exception e) {
+                deltaMassException = e;
+            }
+            finally {
+                endAnnotation();
+            }
+        }
+
+        if (deltaMassException != null)
+            throw deltaMassException;
+
+        return deltaMass;
+    }
+
+    /**
+     * Returns all theoretical product ions for the most common PSM
+     * using the estimated charge.
+     * @return The ProductIonSet or null in case the cluster is not identified.
+     * @throws Exception
+     */
+    public ProductIonSet getProductIonSet() throws Exception {
+        if (!productIonSetCreated) {
+            productIonSetCreated = true;
+            startAnnotation();
+
+            try {
+                IPeptideSpectrumMatch maxPsm = getMostCommonPsm();
+
+                if (maxPsm != null)
+                    productIonSet = SpectrumAnnotator.getProductIonSet(maxPsm, getCharge());
+            }
+            catch (Exception e) {
+                productIonSetException = e;
+            }
+            finally {
+                endAnnotation();
+            }
+        }
+
+        if (productIonSetException != null)
+            throw productIonSetException;
+
+        return productIonSet;
+    }
+
+    /**
+     * Returns the fraction of the total ion current explained
+     * by b- and y-ions. The result is cached for the last used
+     * tolerance.
+     * @param fragmentIonTolerance The fragment ion tolerance in m/z.
+     * @return The explained fraction of the TIC.
+     * @throws Exception
+     */
+    public float getExplainedTic(float fragmentIonTolerance) throws Exception {
+        if (Float.compare(fragmentIonTolerance, explainedTicTolerance) != 0) {
+            explainedTicTolerance = fragmentIonTolerance;
+            explainedTicException = null;
+            startAnnotation();
+
+            try {
+                explainedTic = SpectrumAnnotator.getAnnotatedTic(this, fragmentIonTolerance);
+            }
+            catch (Exception e) {
+                explainedTicException = e;
+            }
+            finally {
+                endAnnotation();
+            }
+        }
+
+        if (explainedTicException != null)
+            throw explainedTicException;
+
+        return explainedTic;
+    }
+
+    /**
+     * Returns the protein annotation of the cluster's max sequence
+     * in the passed FASTA file. The result is cached for the last
+     * used FastaFile.
+     * @param fastaFile The FastaFile to search.
+     * @return The protein's annotation or null if the sequence was not found.
+     */
+    public String getProteinAnnotation(FastaFile fastaFile) {
+        if (fastaFile != annotatedFastaFile) {
+            annotatedFastaFile = fastaFile;
+            startAnnotation();
+
+            try {
+                proteinAnnotation = fastaFile.getProteinAnnotation(cluster.getMaxSequence());
+            }
+            finally {
+                endAnnotation();
+            }
+        }
+
+        return proteinAnnotation;
+    }
+
+    private void startAnnotation() {
+        if (annotationDepth++ == 0)
+            annotationStart = System.nanoTime();
+    }
+
+    private void endAnnotation() {
+        if (--annotationDepth == 0)
+            stageNanos[ConversionMetrics.Stage.ANNOTATE.ordinal()] += System.nanoTime() - annotationStart;
+    }
+
+    /**
+     * Adds time spent on this cluster to the stage.
+     * @param stage
+     * @param nanos The time in nanoseconds.
+     */
+    public void addStageNanos(ConversionMetrics.Stage stage, long nanos) {
+        stageNanos[stage.ordinal()] += nanos;
+    }
+
+    /**
+     * Returns the time spent on this cluster in the stage.
+     * @param stage
+     * @return The time in nanoseconds.
+     */
+    public long getStageNanos(ConversionMetrics.Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Returns the time spent on this cluster per stage.
+     * @return A copy of the times in nanoseconds indexed by the stages' ordinals.
+     */
+    public long[] getStageNanos() {
+        return stageNanos.clone();
+    }
+}
@@ -0,0 +1,76 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+/**
+ * Small summary of a cluster that is passed together with the
+ * cluster's exported representation to the write stage. In contrast
+ * to the ClusterAnalysis it does not keep any reference to the
+ * cluster itself.
+ *
+ * This class is immutable.
+ */
+public class ClusterEntryInfo {
+    private final String id;
+    private final float precursorMz;
+    private final int charge;
+    private final int size;
+    private final String peptideSequence;
+
+    public ClusterEntryInfo(String id, float precursorMz, int charge, int size) {
+        this(id, precursorMz, charge, size, null);
+    }
+
+    public ClusterEntryInfo(String id, float precursorMz, int charge, int size, String peptideSequence) {
+        this.id = id;
+        this.precursorMz = precursorMz;
+        this.charge = charge;
+        this.size = size;
+        this.peptideSequence = peptideSequence;
+    }
+
+    /**
+     * Creates the ClusterEntryInfo for the analysed cluster.
+     * @param clusterAnalysis
+     * @return
+     */
+    public static ClusterEntryInfo fromClusterAnalysis(ClusterAnalysis clusterAnalysis) {
+        ICluster cluster = clusterAnalysis.getCluster();
+        String peptideSequence = (cluster.getIdentifiedSpecCount() > 0) ? clusterAnalysis.getClusterUtilities().getMaxSequence() : null;
+
+        return new ClusterEntryInfo(cluster.getId(), cluster.getAvPrecursorMz(), clusterAnalysis.getCharge(),
+                cluster.getSpecCount(), peptideSequence);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public float getPrecursorMz() {
+        return precursorMz;
+    }
+
+    /**
+     * Returns the charge as estimated by the ClusterUtilities.
+     * @return
+     */
+    public int getCharge() {
+        return charge;
+    }
+
+    /**
+     * Returns the number of spectra in the cluster.
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the cluster's most common peptide sequence.
+     * @return The sequence or null if the cluster is not identified.
+     */
+    public String getPeptideSequence() {
+        return peptideSequence;
+    }
+}
@@ -7,6 +7,13 @@ import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ISpectrumRefe
 import java.util.*;
 
 /**
+ * Calculates statistics about a cluster. Every statistic is only
+ * calculated when it is first requested and then cached. Thereby,
+ * clusters that are rejected based on their size never process
+ * their PSMs.
+ *
+ * This class is not thread-safe.
+ *
  * Created by jg on 14.07.14.
  */
 public class ClusterUtilities {
@@ -39,6 +46,16 @@ public class ClusterUtilities {
 
     private boolean isAverageCharge;
 
+    // indicate which statistics were already calculated
+    private boolean projectsCounted;
+    private boolean sequencesProcessed;
+    private boolean alternativeSequencesProcessed;
+    private boolean sequencesCounted;
+    private boolean mzRangeCalculated;
+    private boolean speciesCollected;
+    private boolean chargeEstimated;
+    private boolean mostCommonPsmFound;
+
     public ClusterUtilities() {
 
     }
@@ -49,30 +66,69 @@ public class ClusterUtilities {
 
     /**
      * Processed the passed cluster. This call overwrites
-     * any results that may have been created before.
+     * any results that may have been created before. The
+     * statistics are only calculated once they are requested.
      * @param cluster
      */
     public void processCluster(ICluster cluster) {
         // this is only saved for potential future reference
         currentCluster = cluster;
 
-        updateNumberOfProjects(cluster);
+        projectsCounted = false;
+        sequencesProcessed = false;
+        alternativeSequencesProcessed = false;
+        sequencesCounted = false;
+        mzRangeCalculated = false;
+        speciesCollected = false;
+        chargeEstimated = false;
+        mostCommonPsmFound = false;
+        mostCommonPsm = null;
+    }
+
+    private void ensureProjectsCounted() {
+        if (!projectsCounted) {
+            updateNumberOfProjects(currentCluster);
+            projectsCounted = true;
+        }
+    }
+
+    private void ensureSequencesProcessed() {
+        if (!sequencesProcessed) {
+            updateSequences(currentCluster);
+            sequencesProcessed = true;
+        }
+    }
+
+    private void ensureAlternativeSequencesProcessed() {
+        if (!alternativeSequencesProcessed) {
+            ensureSequencesProcessed();
+            updateAlternativeSequences(currentCluster);
+            alternativeSequencesProcessed = true;
+        }
+    }
+
+    private void ensureChargeEstimated() {
+        if (chargeEstimated)
+            return;
 
-        // update the sequences
-        updateSequences(cluster);
-        updatePrecursorMzRange(cluster);
-        updateSpecies(cluster);
         try {
-            charge = SpectrumAnnotator.estimateCharge(this.getMostCommonPsm(), cluster.getAvPrecursorMz());
+            charge = SpectrumAnnotator.estimateCharge(this.getMostCommonPsm(), currentCluster.getAvPrecursorMz());
             this.isAverageCharge = false;
         }
         catch (Exception e) {
-            charge = this.calculateAverageCharge(cluster);
+            charge = this.calculateAverageCharge(currentCluster);
             this.isAverageCharge = true;
         }
+
+        chargeEstimated = true;
     }
 
     private void updateSequences(ICluster cluster) {
+        this.maxSequence = null;
+        this.maxSequenceCount = 0;
+        this.maxILAngosticRatio = 0;
+        this.maxILAngosticSequenceRatio = 0;
+
         if (cluster.getIdentifiedSpecCount() < 1)
             return;
 
@@ -82,14 +138,29 @@ public class ClusterUtilities {
         this.maxSequence = (String) maxSequenceProperties.get(0);
         this.maxSequenceCount = (Integer) maxSequenceProperties.get(1);
         this.maxILAngosticRatio = (float) this.maxSequenceCount / cluster.getIdentifiedSpecCount();
-        this.sequenceCounts = createSequenceCounts(cluster);
+
+        updateMaxILAgnosticSequenceRatio(cluster);
+    }
+
+    /**
+     * Finds the second and third most common sequence.
+     * @param cluster
+     */
+    private void updateAlternativeSequences(ICluster cluster) {
+        this.secondMaxSequence = null;
+        this.secondMaxSequenceCount = 0;
+        this.thirdMaxSequence = null;
+        this.thirdMaxSequenceCount = 0;
+
+        if (cluster.getIdentifiedSpecCount() < 1)
+            return;
 
         // get the second most common sequence
         String maxIlAgnosticSequence = this.maxSequence.replaceAll("I", "L");
         Set<String> knownSequence = new HashSet<String>();
         knownSequence.add(maxIlAgnosticSequence);
 
-        maxSequenceProperties = getMaxSequence(cluster, knownSequence);
+        List<Object> maxSequenceProperties = getMaxSequence(cluster, knownSequence);
 
         this.secondMaxSequence = (String) maxSequenceProperties.get(0);
         this.secondMaxSequenceCount = (Integer) maxSequenceProperties.get(1);
@@ -106,7 +177,9 @@ public class ClusterUtilities {
             this.thirdMaxSequence = null;
             this.thirdMaxSequenceCount = 0;
         }
+    }
 
+    private void updateMaxILAgnosticSequenceRatio(ICluster cluster) {
         // create the max i/l agnostic sequence ratio
         Map<String, Integer> ilSequenceCounts = new HashMap<String, Integer>();
         Map<String, Integer> completeSequenceCounts = createCompleteSequenceCounts(cluster);
@@ -316,9 +389,11 @@ public class ClusterUtilities {
      * @return
      */
     public IPeptideSpectrumMatch getMostCommonPsm() throws Exception {
-        if (mostCommonPsm != null)
+        if (mostCommonPsmFound)
             return mostCommonPsm;
 
+        ensureSequencesProcessed();
+
         IPeptideSpectrumMatch psm = null;
         double minDelta = Double.MAX_VALUE;
 
@@ -338,6 +413,7 @@ public class ClusterUtilities {
         }
 
         mostCommonPsm = psm;
+        mostCommonPsmFound = true;
         return mostCommonPsm;
     }
 
@@ -346,61 +422,86 @@ public class ClusterUtilities {
     }
 
     public String getMaxSequence() {
+        ensureSequencesProcessed();
         return maxSequence;
     }
 
     public float getMaxILAngosticRatio() {
+        ensureSequencesProcessed();
         return maxILAngosticRatio;
     }
 
     public int getMaxSequenceCount() {
+        ensureSequencesProcessed();
         return maxSequenceCount;
     }
 
     public int getnProjects() {
+        ensureProjectsCounted();
         return nProjects;
     }
 
     public int getnAssays() {
+        ensureProjectsCounted();
         return nAssays;
     }
 
     public double getMzRange() {
+        if (!mzRangeCalculated) {
+            updatePrecursorMzRange(currentCluster);
+            mzRangeCalculated = true;
+        }
+
         return mzRange;
     }
 
     public Set<String> getSpecies() {
+        if (!speciesCollected) {
+            updateSpecies(currentCluster);
+            speciesCollected = true;
+        }
+
         return Collections.unmodifiableSet(species);
     }
 
     public String getSecondMaxSequence() {
+        ensureAlternativeSequencesProcessed();
         return secondMaxSequence;
     }
 
     public int getSecondMaxSequenceCount() {
+        ensureAlternativeSequencesProcessed();
         return secondMaxSequenceCount;
     }
 
     public Map<String, Integer> getSequenceCounts() {
+        if (!sequencesCounted) {
+            sequenceCounts = (currentCluster.getIdentifiedSpecCount() > 0) ? createSequenceCounts(currentCluster) : Collections.<String, Integer>emptyMap();
+            sequencesCounted = true;
+        }
+
         return Collections.unmodifiableMap(sequenceCounts);
     }
 
     public String getThirdMaxSequence() {
+        ensureAlternativeSequencesProcessed();
         return thirdMaxSequence;
     }
 
     public int getThirdMaxSequenceCount() {
+        ensureAlternativeSequencesProcessed();
         return thirdMaxSequenceCount;
     }
 
     public boolean isStable() {
-        if (currentCluster.getIdentifiedSpecCount() >= 10 & maxILAngosticRatio > 0.7)
+        if (currentCluster.getIdentifiedSpecCount() >= 10 & getMaxILAngosticRatio() > 0.7)
             return true;
 
         return false;
     }
 
     public int getCharge() {
+        ensureChargeEstimated();
         return charge;
     }
 
@@ -411,6 +512,7 @@ public class ClusterUtilities {
      * @return True if the charge is based on the average charge.
      */
     public boolean isAverageCharge() {
+        ensureChargeEstimated();
         return isAverageCharge;
     }
 
@@ -421,6 +523,7 @@ public class ClusterUtilities {
      * @return The maximum ratio based on the PSMs observed.
      */
     public float getMaxILAngosticSequenceRatio() {
+        ensureSequencesProcessed();
         return maxILAngosticSequenceRatio;
     }
 }
@@ -0,0 +1,357 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes gzip compressed input files available as a File object
+ * since the ClusteringFileReader only supports (uncompressed) files.
+ *
+ * The compressed file is decompressed by a read-ahead thread into a
+ * bounded queue of blocks. A second thread writes these blocks into a
+ * named pipe (FIFO) that is passed to the reader. Thereby, decompression
+ * overlaps with parsing and the decompressed data is only kept in memory.
+ * Compressed files cannot be opened if named pipes are not supported by
+ * the system (mkfifo).
+ *
+ * The returned file can only be read once, sequentially. If the
+ * decompression fails, the reader only sees the end of the file. Readers
+ * must therefore call checkDecompression for every cluster they read.
+ *
+ * For compressed files, the number of compressed bytes that were
+ * decompressed so far is reported as progress.
+ */
+public class CompressedInputFile implements IInputProgress {
+    public static final int BLOCK_SIZE = 1024 * 1024;
+    /**
+     * Number of decompressed blocks that are buffered.
+     */
+    public static final int READ_AHEAD_BLOCKS = 16;
+    public static final String COMPRESSED_EXTENSION = ".gz";
+
+    /**
+     * Time to wait for the pipe writer on close in milliseconds.
+     */
+    private static final long PIPE_WRITER_TIMEOUT = 10000;
+
+    private static final Block END_OF_DATA = new Block(0);
+
+    private final File inputFile;
+    private final File file;
+    private final File temporaryDirectory;
+    private final BlockingQueue<Block> filledBlocks;
+    private final BlockingQueue<Block> freeBlocks;
+    private Thread decompressorThread;
+    private Thread pipeWriterThread;
+    private volatile IOException exception = null;
+    private volatile boolean closed = false;
+    private volatile long compressedBytesRead = 0;
+
+    /**
+     * Returns the file to pass to the reader. For uncompressed files, this is the
+     * input file itself.
+     * @param inputFile The input file, may be gzip compressed.
+     * @return A CompressedInputFile that must be closed after the file was read.
+     * @throws IOException
+     */
+    public static CompressedInputFile open(File inputFile) throws IOException {
+        return new CompressedInputFile(inputFile);
+    }
+
+    /**
+     * Tests whether the file is gzip compressed based on the gzip magic number.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static boolean isGzipFile(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+
+        try {
+            int firstByte = inputStream.read();
+            int secondByte = inputStream.read();
+
+            return firstByte == 0x1f && secondByte == 0x8b;
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Returns the file's name without the ".gz" extension.
+     * @param file
+     * @return
+     */
+    public static String getUncompressedName(File file) {
+        String name = file.getName();
+
+        if (name.endsWith(COMPRESSED_EXTENSION))
+            return name.substring(0, name.length() - COMPRESSED_EXTENSION.length());
+
+        return name;
+    }
+
+    private CompressedInputFile(File inputFile) throws IOException {
+        this.inputFile = inputFile;
+
+        if (!isGzipFile(inputFile)) {
+            file = inputFile;
+            temporaryDirectory = null;
+            filledBlocks = null;
+            freeBlocks = null;
+            return;
+        }
+
+        temporaryDirectory = File.createTempFile("clustering-input-", "");
+        if (!temporaryDirectory.delete() || !temporaryDirectory.mkdir())
+            throw new IOException("Failed to create temporary directory " + temporaryDirectory.getPath());
+
+        file = new File(temporaryDirectory, getUncompressedName(inputFile));
+
+        if (!createNamedPipe(file)) {
+            temporaryDirectory.delete();
+            throw new IOException("Cannot read " + inputFile.getName() + ": compressed input requires named pipes (mkfifo), decompress the file first");
+        }
+
+        // one additional place for END_OF_DATA
+        filledBlocks = new ArrayBlockingQueue<Block>(READ_AHEAD_BLOCKS + 1);
+        freeBlocks = new ArrayBlockingQueue<Block>(READ_AHEAD_BLOCKS);
+        for (int i = 0; i < READ_AHEAD_BLOCKS; i++) {
+            freeBlocks.add(new Block(BLOCK_SIZE));
+        }
+
+        startThreads();
+    }
+
+    private static boolean createNamedPipe(File file) {
+        try {
+            Process process = new ProcessBuilder("mkfifo", file.getAbsolutePath()).redirectErrorStream(true).start();
+            process.getInputStream().close();
+
+            return process.waitFor() == 0 && file.exists();
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void startThreads() {
+        decompressorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decompress();
+            }
+        }, "gzip-read-ahead");
+        decompressorThread.setDaemon(true);
+
+        pipeWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeToPipe();
+            }
+        }, "gzip-pipe-writer");
+        pipeWriterThread.setDaemon(true);
+
+        decompressorThread.start();
+        pipeWriterThread.start();
+    }
+
+    /**
+     * Decompresses the input file into the filled blocks. Run
+     * by the read-ahead thread.
+     */
+    private void decompress() {
+        InputStream inputStream = null;
+
+        try {
+            inputStream = new GZIPInputStream(new FilterInputStream(new FileInputStream(inputFile)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0)
+                        compressedBytesRead += read;
+
+                    return read;
+                }
+            }, 64 * 1024);
+
+            while (!closed) {
+                Block block = freeBlocks.take();
+                block.length = 0;
+                int read = 0;
+
+                // fill the complete block
+                while (block.length < block.data.length && (read = inputStream.read(block.data, block.length, block.data.length - block.length)) > 0) {
+                    block.length += read;
+                }
+
+                if (block.length > 0)
+                    filledBlocks.put(block);
+
+                if (read < 0 || block.length < block.data.length)
+                    break;
+            }
+        }
+        catch (InterruptedException e) {
+            // closed
+        }
+        catch (IOException e) {
+            // set before END_OF_DATA so that the error is visible once the reader reaches the end
+            exception = e;
+        }
+        finally {
+            try {
+                if (inputStream != null)
+                    inputStream.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+
+            filledBlocks.offer(END_OF_DATA);
+        }
+    }
+
+    /**
+     * Writes the decompressed blocks to the named pipe. Run by the
+     * pipe writer thread.
+     */
+    private void writeToPipe() {
+        OutputStream outputStream = null;
+
+        try {
+            // blocks until the reader opens the pipe
+            outputStream = new FileOutputStream(file);
+
+            while (true) {
+                Block block = filledBlocks.take();
+
+                if (block == END_OF_DATA)
+                    break;
+
+                outputStream.write(block.data, 0, block.length);
+                freeBlocks.put(block);
+            }
+        }
+        catch (InterruptedException e) {
+            // closed
+        }
+        catch (IOException e) {
+            // the reader closed the pipe before all data was written, the reader reports the error
+        }
+        finally {
+            try {
+                if (outputStream != null)
+                    outputStream.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+
+            // unblock the decompressor
+            decompressorThread.interrupt();
+        }
+    }
+
+    /**
+     * Returns the file that should be read.
+     * @return
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public boolean isCompressed() {
+        return file != inputFile;
+    }
+
+    /**
+     * Returns the number of compressed bytes that were decompressed.
+     * Due to the read-ahead, this may be up to READ_AHEAD_BLOCKS
+     * decompressed blocks ahead of the reader. For uncompressed
+     * files, 0 is returned.
+     * @return The number of bytes.
+     */
+    @Override
+    public long getBytesConsumed() {
+        return compressedBytesRead;
+    }
+
+    /**
+     * Throws the error that stopped the decompression. The file then
+     * ends early and the last cluster that was read may be incomplete.
+     * @throws IOException Thrown if the decompression failed.
+     */
+    public void checkDecompression() throws IOException {
+        if (exception != null) {
+            IOException ioException = new IOException("Failed to decompress " + inputFile.getPath());
+            ioException.initCause(exception);
+            throw ioException;
+        }
+    }
+
+    /**
+     * Stops all threads and removes temporary files.
+     * @throws IOException Thrown if the decompression failed.
+     */
+    public void close() throws IOException {
+        if (closed || !isCompressed())
+            return;
+
+        closed = true;
+
+        try {
+            if (pipeWriterThread != null) {
+                // in case the reader never opened the pipe, the writer is still waiting
+                if (pipeWriterThread.isAlive()) {
+                    pipeWriterThread.interrupt();
+                    openAndClosePipe();
+                }
+
+                // the writer may still be blocked if the reader did not close the file
+                pipeWriterThread.join(PIPE_WRITER_TIMEOUT);
+                decompressorThread.interrupt();
+                decompressorThread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            file.delete();
+            temporaryDirectory.delete();
+        }
+
+        checkDecompression();
+    }
+
+    /**
+     * Releases a pipe writer waiting for a reader. The pipe is opened
+     * for reading and writing since this does not block if the writer
+     * already finished in the meantime.
+     */
+    private void openAndClosePipe() {
+        try {
+            new RandomAccessFile(file, "rw").close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private int length = 0;
+
+        private Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.util.List;
+
+/**
+ * Primitive view of a cluster's consensus spectrum. The m/z and
+ * intensity values are copied once from the cluster's List<Float>
+ * objects. Additionally, the view provides the peaks in m/z order
+ * together with their original index.
+ *
+ * Peaks are always accessed using their original index unless
+ * the method explicitly refers to the sorted order.
+ */
+public class ConsensusPeaks {
+    private final float[] mz;
+    private final float[] intensities;
+    /**
+     * Original indices of the peaks in m/z order. Null if the
+     * peaks are already sorted.
+     */
+    private final int[] sortedIndices;
+
+    public ConsensusPeaks(ICluster cluster) {
+        this(cluster.getConsensusMzValues(), cluster.getConsensusIntensValues());
+    }
+
+    public ConsensusPeaks(List<Float> mzValues, List<Float> intensityValues) {
+        if (mzValues.size() != intensityValues.size())
+            throw new IllegalArgumentException("Different number of m/z and intensity values");
+
+        int nPeaks = mzValues.size();
+        mz = new float[nPeaks];
+        intensities = new float[nPeaks];
+
+        int i = 0;
+        for (Float value : mzValues) {
+            mz[i++] = value;
+        }
+        i = 0;
+        for (Float value : intensityValues) {
+            intensities[i++] = value;
+        }
+
+        sortedIndices = (isSorted(mz)) ? null : createSortedIndices(mz);
+    }
+
+    private static boolean isSorted(float[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] > values[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the indices of the values in ascending order of the values. The
+     * sort is stable so that peaks with the same m/z keep their order.
+     */
+    private static int[] createSortedIndices(float[] values) {
+        int[] indices = new int[values.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+
+        mergeSort(indices, new int[indices.length], 0, indices.length, values);
+
+        return indices;
+    }
+
+    private static void mergeSort(int[] indices, int[] buffer, int from, int to, float[] values) {
+        if (to - from < 2)
+            return;
+
+        int middle = (from + to) >>> 1;
+        mergeSort(indices, buffer, from, middle, values);
+        mergeSort(indices, buffer, middle, to, values);
+
+        if (values[indices[middle - 1]] <= values[indices[middle]])
+            return;
+
+        System.arraycopy(indices, from, buffer, from, to - from);
+
+        int left = from, right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && values[buffer[left]] <= values[buffer[right]]))
+                indices[i] = buffer[left++];
+            else
+                indices[i] = buffer[right++];
+        }
+    }
+
+    public int getPeakCount() {
+        return mz.length;
+    }
+
+    public float getMz(int peakIndex) {
+        return mz[peakIndex];
+    }
+
+    public float getIntensity(int peakIndex) {
+        return intensities[peakIndex];
+    }
+
+    /**
+     * Returns the original index of the peak at the given position
+     * of the m/z sorted order.
+     * @param sortedPosition Position in the m/z sorted peak list.
+     * @return The original index of the peak.
+     */
+    public int getSortedPeakIndex(int sortedPosition) {
+        return (sortedIndices == null) ? sortedPosition : sortedIndices[sortedPosition];
+    }
+
+    /**
+     * Returns the m/z value at the given position of the m/z sorted order.
+     * @param sortedPosition Position in the m/z sorted peak list.
+     * @return The m/z value.
+     */
+    public float getSortedMz(int sortedPosition) {
+        return mz[getSortedPeakIndex(sortedPosition)];
+    }
+
+    public boolean isSorted() {
+        return sortedIndices == null;
+    }
+
+    public float getMaxIntensity() {
+        float maxIntensity = 0;
+
+        for (float intensity : intensities) {
+            if (intensity > maxIntensity)
+                maxIntensity = intensity;
+        }
+
+        return maxIntensity;
+    }
+
+    public double[] getMzAsDoubles() {
+        return toDoubles(mz);
+    }
+
+    public double[] getIntensitiesAsDoubles() {
+        return toDoubles(intensities);
+    }
+
+    private static double[] toDoubles(float[] values) {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = values[i];
+        }
+
+        return doubles;
+    }
+}
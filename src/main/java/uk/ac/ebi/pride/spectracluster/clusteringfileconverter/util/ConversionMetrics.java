@@ -0,0 +1,558 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the throughput and latency of a conversion run. For every
+ * cluster, the time spent in each Stage is recorded in a LatencyHistogram.
+ * Additionally, the number of read and exported clusters, the written
+ * bytes, and the consumed input bytes are counted. The consumed input
+ * bytes are used to estimate the remaining time.
+ *
+ * The metrics can be written as JSON report to compare different runs.
+ *
+ * This class is thread-safe.
+ */
+public class ConversionMetrics {
+    /**
+     * Version of the JSON report's structure.
+     */
+    public static final int REPORT_VERSION = 1;
+
+    /**
+     * Percentiles listed in the statistics and the report.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    public enum Stage {
+        /**
+         * Parsing the .clustering file.
+         */
+        READ("read"),
+        /**
+         * Evaluating the cluster filters (without annotations required by the filters).
+         */
+        FILTER("filter"),
+        /**
+         * Generating and matching fragment ions, calculating delta masses,
+         * and looking up proteins.
+         */
+        ANNOTATE("annotate"),
+        /**
+         * Creating the output format's representation (without annotations).
+         */
+        FORMAT("format"),
+        /**
+         * Passing the representation to the output file.
+         */
+        WRITE("write");
+
+        private final String name;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+
+    private final LatencyHistogram[] stageHistograms = new LatencyHistogram[Stage.values().length];
+    private final LatencyHistogram clusterHistogram = new LatencyHistogram();
+    /**
+     * Time per stage including the time that is not attributed to a single
+     * cluster (for example, closing the output files).
+     */
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+
+    private final AtomicLong clustersRead = new AtomicLong();
+    private final AtomicLong clustersExported = new AtomicLong();
+    /**
+     * Bytes written to the output files (compressed if enabled). Added
+     * when the converters are closed.
+     */
+    private final AtomicLong outputBytes = new AtomicLong();
+
+    private final AtomicLong totalInputBytes = new AtomicLong();
+    /**
+     * Size of all completely processed input files.
+     */
+    private final AtomicLong completedInputBytes = new AtomicLong();
+    private final List<IInputProgress> activeInputs = new CopyOnWriteArrayList<IInputProgress>();
+
+    /**
+     * Rejected clusters per converter and filter.
+     */
+    private final Map<String, Map<String, Long>> rejectedClusters = new LinkedHashMap<String, Map<String, Long>>();
+    private final Map<String, Object> runInfo = new LinkedHashMap<String, Object>();
+
+    public ConversionMetrics() {
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Adds the size of an input file to the bytes that are expected
+     * to be processed.
+     * @param bytes The input file's size.
+     */
+    public void addTotalInputBytes(long bytes) {
+        totalInputBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Registers an input file that is currently being read.
+     * @param inputProgress The input's progress.
+     */
+    public void startInput(IInputProgress inputProgress) {
+        activeInputs.add(inputProgress);
+    }
+
+    /**
+     * Marks an input file as completely processed.
+     * @param inputProgress The progress passed to startInput.
+     * @param fileSize The input file's size.
+     */
+    public void finishInput(IInputProgress inputProgress, long fileSize) {
+        completedInputBytes.addAndGet(fileSize);
+        activeInputs.remove(inputProgress);
+    }
+
+    /**
+     * Records a processed cluster.
+     * @param clusterStageNanos The time spent per Stage in nanoseconds (indexed by the Stage's ordinal).
+     * @param exported Indicates whether at least one converter exported the cluster.
+     */
+    public void recordCluster(long[] clusterStageNanos, boolean exported) {
+        long totalNanos = 0;
+
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i].record(clusterStageNanos[i]);
+            stageNanos.addAndGet(i, clusterStageNanos[i]);
+            totalNanos += clusterStageNanos[i];
+        }
+
+        clusterHistogram.record(totalNanos);
+        clustersRead.incrementAndGet();
+        if (exported)
+            clustersExported.incrementAndGet();
+    }
+
+    /**
+     * Adds the bytes a converter wrote to its output files.
+     * @param bytes
+     */
+    public void addOutputBytes(long bytes) {
+        outputBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Adds time to a stage that is not attributed to a single cluster.
+     * @param stage
+     * @param nanos
+     */
+    public void addStageNanos(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    /**
+     * Adds the clusters rejected by a converter's filter.
+     * @param converter The converter's name.
+     * @param filter The filter's name.
+     * @param count Number of rejected clusters.
+     */
+    public synchronized void addRejectedClusters(String converter, String filter, long count) {
+        Map<String, Long> converterRejects = rejectedClusters.get(converter);
+        if (converterRejects == null) {
+            converterRejects = new LinkedHashMap<String, Long>();
+            rejectedClusters.put(converter, converterRejects);
+        }
+
+        Long current = converterRejects.get(filter);
+        converterRejects.put(filter, (current != null ? current : 0) + count);
+    }
+
+    /**
+     * Adds information about the run (for example, settings) to the report.
+     * @param name The property's name.
+     * @param value The value, either a Number, Boolean, String, or Collection of these.
+     */
+    public synchronized void setRunInfo(String name, Object value) {
+        runInfo.put(name, value);
+    }
+
+    /**
+     * Stops the clock. All rates are calculated based on the time
+     * until this function was called.
+     */
+    public void finish() {
+        if (endNanos == 0)
+            endNanos = System.nanoTime();
+    }
+
+    public long getElapsedNanos() {
+        long end = endNanos;
+
+        return ((end != 0) ? end : System.nanoTime()) - startNanos;
+    }
+
+    public long getClustersRead() {
+        return clustersRead.get();
+    }
+
+    public long getClustersExported() {
+        return clustersExported.get();
+    }
+
+    public long getOutputBytes() {
+        return outputBytes.get();
+    }
+
+    public long getTotalInputBytes() {
+        return totalInputBytes.get();
+    }
+
+    /**
+     * Returns the number of input bytes processed so far.
+     * @return The number of bytes.
+     */
+    public long getInputBytesConsumed() {
+        long consumed = completedInputBytes.get();
+
+        for (IInputProgress input : activeInputs) {
+            consumed += input.getBytesConsumed();
+        }
+
+        return consumed;
+    }
+
+    /**
+     * Returns the time spent in the stage including the time not
+     * attributed to single clusters.
+     * @param stage
+     * @return The time in nanoseconds.
+     */
+    public long getStageNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    /**
+     * Returns the histogram of the time spent per cluster in the stage.
+     * @param stage
+     * @return
+     */
+    public LatencyHistogram getStageHistogram(Stage stage) {
+        return stageHistograms[stage.ordinal()];
+    }
+
+    /**
+     * Returns the histogram of the total time spent per cluster.
+     * @return
+     */
+    public LatencyHistogram getClusterHistogram() {
+        return clusterHistogram;
+    }
+
+    public double getClustersPerSecond() {
+        return perSecond(clustersRead.get());
+    }
+
+    public double getInputBytesPerSecond() {
+        return perSecond(getInputBytesConsumed());
+    }
+
+    public double getOutputBytesPerSecond() {
+        return perSecond(outputBytes.get());
+    }
+
+    private double perSecond(long value) {
+        long elapsedNanos = getElapsedNanos();
+
+        return (elapsedNanos > 0) ? value / (elapsedNanos / 1000000000.0) : 0;
+    }
+
+    /**
+     * Returns the processed fraction of the input.
+     * @return The fraction between 0 and 1, -1 if the input's size is not known.
+     */
+    public double getProgress() {
+        long total = totalInputBytes.get();
+
+        if (total < 1)
+            return -1;
+
+        return Math.min(1, getInputBytesConsumed() / (double) total);
+    }
+
+    /**
+     * Estimates the remaining time based on the consumed input bytes.
+     * @return The remaining time in nanoseconds, -1 if it cannot be estimated yet.
+     */
+    public long getRemainingNanos() {
+        double progress = getProgress();
+
+        if (progress <= 0)
+            return -1;
+
+        return (long) (getElapsedNanos() * (1 - progress) / progress);
+    }
+
+    /**
+     * Returns a one line summary of the current progress.
+     * @return
+     */
+    public String getProgressLine() {
+        StringBuilder line = new StringBuilder("Progress: ");
+        double progress = getProgress();
+
+        if (progress >= 0)
+            line.append(String.format(Locale.US, "%.1f%% ", progress * 100));
+
+        line.append(String.format(Locale.US, "(%d clusters, %.0f clusters/s, %.1f MB/s)",
+                clustersRead.get(), getClustersPerSecond(), getInputBytesPerSecond() / (1024 * 1024)));
+
+        long remainingNanos = getRemainingNanos();
+        if (remainingNanos >= 0)
+            line.append(", ETA ").append(formatDuration(remainingNanos));
+
+        return line.toString();
+    }
+
+    /**
+     * Formats the duration as H:MM:SS.
+     * @param nanos
+     * @return
+     */
+    public static String formatDuration(long nanos) {
+        long seconds = Math.round(nanos / 1000000000.0);
+
+        return String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    /**
+     * Returns one line per stage listing the total time and the
+     * latency percentiles per cluster.
+     * @return
+     */
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder();
+
+        statistics.append(String.format(Locale.US, "  %d clusters (%d exported) in %s, %.0f clusters/s, input %.1f MB/s, output %.1f MB/s\n",
+                clustersRead.get(), clustersExported.get(), formatDuration(getElapsedNanos()), getClustersPerSecond(),
+                getInputBytesPerSecond() / (1024 * 1024), getOutputBytesPerSecond() / (1024 * 1024)));
+
+        for (Stage stage : Stage.values()) {
+            appendStatistics(statistics, stage.getName(), getStageNanos(stage), getStageHistogram(stage));
+        }
+        appendStatistics(statistics, "cluster", clusterHistogram.getTotalNanos(), clusterHistogram);
+
+        return statistics.toString();
+    }
+
+    private static void appendStatistics(StringBuilder statistics, String name, long totalNanos, LatencyHistogram histogram) {
+        statistics.append(String.format(Locale.US, "  %-9s time: %10.1f ms", name, totalNanos / 1000000.0));
+
+        for (double percentile : PERCENTILES) {
+            statistics.append(String.format(Locale.US, "  p%s: %8.1f us", formatPercentile(percentile),
+                    histogram.getPercentile(percentile) / 1000.0));
+        }
+
+        statistics.append(String.format(Locale.US, "  max: %8.1f us\n", histogram.getMaxNanos() / 1000.0));
+    }
+
+    private static String formatPercentile(double percentile) {
+        return (percentile == Math.rint(percentile)) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    /**
+     * Writes the JSON report.
+     * @param reportFile The file to write the report to. An existing file is overwritten.
+     * @throws IOException
+     */
+    public void writeReport(File reportFile) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+
+        try {
+            writer.write(toJson());
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the metrics as JSON object.
+     * @return
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(4096);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
+
+        json.append("{\n");
+        json.append("  \"version\": ").append(REPORT_VERSION).append(",\n");
+        json.append("  \"started\": ");
+        appendJsonValue(json, dateFormat.format(new Date(startTime)));
+        json.append(",\n");
+        json.append("  \"elapsed_ms\": ").append(formatNumber(getElapsedNanos() / 1000000.0)).append(",\n");
+
+        json.append("  \"run\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Object> info : runInfo.entrySet()) {
+            json.append(separator).append("    ");
+            appendJsonValue(json, info.getKey());
+            json.append(": ");
+            appendJsonValue(json, info.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"clusters\": {\"read\": ").append(clustersRead.get())
+                .append(", \"exported\": ").append(clustersExported.get())
+                .append(", \"rejected\": ").append(clustersRead.get() - clustersExported.get()).append("},\n");
+        json.append("  \"bytes\": {\"input_total\": ").append(totalInputBytes.get())
+                .append(", \"input_consumed\": ").append(getInputBytesConsumed())
+                .append(", \"output\": ").append(outputBytes.get()).append("},\n");
+        json.append("  \"throughput\": {\"clusters_per_second\": ").append(formatNumber(getClustersPerSecond()))
+                .append(", \"input_bytes_per_second\": ").append(formatNumber(getInputBytesPerSecond()))
+                .append(", \"output_bytes_per_second\": ").append(formatNumber(getOutputBytesPerSecond())).append("},\n");
+
+        json.append("  \"stages\": {\n");
+        for (Stage stage : Stage.values()) {
+            json.append("    ");
+            appendJsonValue(json, stage.getName());
+            json.append(": ");
+            appendJsonHistogram(json, getStageNanos(stage), getStageHistogram(stage));
+            json.append(",\n");
+        }
+        json.append("    \"cluster\": ");
+        appendJsonHistogram(json, clusterHistogram.getTotalNanos(), clusterHistogram);
+        json.append("\n  },\n");
+
+        json.append("  \"rejected_by\": {");
+        separator = "\n";
+        for (Map.Entry<String, Map<String, Long>> converter : rejectedClusters.entrySet()) {
+            json.append(separator).append("    ");
+            appendJsonValue(json, converter.getKey());
+            json.append(": {");
+
+            String filterSeparator = "";
+            for (Map.Entry<String, Long> filter : converter.getValue().entrySet()) {
+                json.append(filterSeparator);
+                appendJsonValue(json, filter.getKey());
+                json.append(": ").append(filter.getValue());
+                filterSeparator = ", ";
+            }
+
+            json.append("}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, garbageCollector.getCollectionCount());
+            gcTime += Math.max(0, garbageCollector.getCollectionTime());
+        }
+
+        json.append("  \"jvm\": {\"available_processors\": ").append(Runtime.getRuntime().availableProcessors())
+                .append(", \"max_heap_bytes\": ").append(Runtime.getRuntime().maxMemory())
+                .append(", \"gc_count\": ").append(gcCount)
+                .append(", \"gc_time_ms\": ").append(gcTime).append("}\n");
+        json.append("}\n");
+
+        return json.toString();
+    }
+
+    private static void appendJsonHistogram(StringBuilder json, long totalNanos, LatencyHistogram histogram) {
+        json.append("{\"total_ms\": ").append(formatNumber(totalNanos / 1000000.0))
+                .append(", \"count\": ").append(histogram.getCount())
+                .append(", \"mean_us\": ").append(formatNumber(histogram.getMeanNanos() / 1000.0));
+
+        for (double percentile : PERCENTILES) {
+            json.append(", \"p").append(formatPercentile(percentile).replace('.', '_')).append("_us\": ")
+                    .append(formatNumber(histogram.getPercentile(percentile) / 1000.0));
+        }
+
+        json.append(", \"max_us\": ").append(formatNumber(histogram.getMaxNanos() / 1000.0)).append("}");
+    }
+
+    private static String formatNumber(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return "null";
+
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static void appendJsonValue(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            json.append(formatNumber(((Number) value).doubleValue()));
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value.toString());
+        }
+        else if (value instanceof Collection) {
+            json.append("[");
+            String separator = "";
+            for (Object element : (Collection<?>) value) {
+                json.append(separator);
+                appendJsonValue(json, element);
+                separator = ", ";
+            }
+            json.append("]");
+        }
+        else {
+            String string = value.toString();
+            json.append('"');
+
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+
+                switch (c) {
+                    case '"':
+                        json.append("\\\"");
+                        break;
+                    case '\\':
+                        json.append("\\\\");
+                        break;
+                    case '\n':
+                        json.append("\\n");
+                        break;
+                    case '\r':
+                        json.append("\\r");
+                        break;
+                    case '\t':
+                        json.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20)
+                            json.append(String.format("\\u%04x", (int) c));
+                        else
+                            json.append(c);
+                }
+            }
+
+            json.append('"');
+        }
+    }
+}
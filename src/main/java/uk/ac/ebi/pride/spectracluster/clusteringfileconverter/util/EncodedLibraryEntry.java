@@ -0,0 +1,45 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * An entry of a binary spectral library encoded as described in
+ * BinaryLibraryFormat. The ids of the peptide and modification strings
+ * are only known once the entry is written to a library. Until then,
+ * the entry holds the strings themselves.
+ */
+public class EncodedLibraryEntry {
+    private final float precursorMz;
+    private final String peptideSequence;
+    private final String modifications;
+    private final byte[] data;
+
+    /**
+     * Creates a new EncodedLibraryEntry.
+     * @param precursorMz The entry's precursor m/z used by the library's index.
+     * @param peptideSequence The peptide sequence, may be null.
+     * @param modifications The modification string, may be null.
+     * @param data The encoded entry. The peptide and modification string
+     *             ids are set when the entry is written.
+     */
+    public EncodedLibraryEntry(float precursorMz, String peptideSequence, String modifications, byte[] data) {
+        this.precursorMz = precursorMz;
+        this.peptideSequence = peptideSequence;
+        this.modifications = modifications;
+        this.data = data;
+    }
+
+    public float getPrecursorMz() {
+        return precursorMz;
+    }
+
+    public String getPeptideSequence() {
+        return peptideSequence;
+    }
+
+    public String getModifications() {
+        return modifications;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
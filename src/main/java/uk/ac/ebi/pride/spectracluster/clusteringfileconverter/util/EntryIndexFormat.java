@@ -0,0 +1,113 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * Layout of the sidecar index (<output file>.idx) that stores the
+ * byte offset of every entry in an MSP or MGF file. All values are
+ * stored in big-endian byte order.
+ *
+ * Header (HEADER_SIZE bytes):
+ *   magic number (8 bytes), version (int), number of entries (int),
+ *   size of the indexed file (long), number of strings (int), number of
+ *   slots of the hash tables (int), offset of the string dictionary (long),
+ *   offset of the cluster id hash table (long), offset of the peptide
+ *   list (long), offset of the peptide hash table (long).
+ *
+ * Entries, starting at HEADER_SIZE, sorted by precursor m/z:
+ *   precursor m/z (float), charge (int), offset in the indexed file (long),
+ *   length in bytes (int), cluster id (string id), peptide sequence (string id).
+ *
+ * Cluster id hash table:
+ *   int[number of slots] holding the entry number + 1 (0 for empty slots).
+ *   Collisions are resolved through linear probing.
+ *
+ * Peptide list:
+ *   int[number of identified entries] holding the entry numbers sorted by
+ *   peptide sequence and precursor m/z.
+ *
+ * Peptide hash table:
+ *   int[number of slots] holding the position in the peptide list + 1 of
+ *   every peptide's first entry.
+ *
+ * String dictionary:
+ *   offset of every string (long[number of strings]), followed by the
+ *   strings as length (int) and UTF-8 encoded bytes.
+ */
+public class EntryIndexFormat {
+    public static final String FILE_EXTENSION = "idx";
+
+    public static final byte[] MAGIC_NUMBER = new byte[] {'C', 'L', 'S', 'T', 'R', 'I', 'D', 'X'};
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int VERSION_OFFSET = 8;
+    public static final int ENTRY_COUNT_OFFSET = 12;
+    public static final int DATA_FILE_SIZE_OFFSET = 16;
+    public static final int STRING_COUNT_OFFSET = 24;
+    public static final int HASH_TABLE_SIZE_OFFSET = 28;
+    public static final int DICTIONARY_OFFSET_OFFSET = 32;
+    public static final int ID_TABLE_OFFSET_OFFSET = 40;
+    public static final int PEPTIDE_LIST_OFFSET_OFFSET = 48;
+    public static final int PEPTIDE_TABLE_OFFSET_OFFSET = 56;
+
+    public static final int ENTRY_RECORD_SIZE = 28;
+    public static final int ENTRY_PRECURSOR_MZ_OFFSET = 0;
+    public static final int ENTRY_CHARGE_OFFSET = 4;
+    public static final int ENTRY_DATA_OFFSET_OFFSET = 8;
+    public static final int ENTRY_LENGTH_OFFSET = 16;
+    public static final int ENTRY_CLUSTER_ID_OFFSET = 20;
+    public static final int ENTRY_PEPTIDE_OFFSET = 24;
+
+    public static final int NO_STRING = -1;
+
+    private EntryIndexFormat() {
+
+    }
+
+    /**
+     * Returns the sidecar index of the passed output file.
+     * @param dataFilePath The output file's path.
+     * @return The index file's path.
+     */
+    public static String getIndexPath(String dataFilePath) {
+        return dataFilePath + "." + FILE_EXTENSION;
+    }
+
+    /**
+     * Returns the number of slots used for the hash tables. The tables
+     * are at most half full.
+     * @param entryCount
+     * @return
+     */
+    public static int getHashTableSize(int entryCount) {
+        int size = 2;
+        while (size < entryCount * 2L)
+            size <<= 1;
+
+        return size;
+    }
+
+    /**
+     * Returns the first slot of the string in a hash table.
+     * @param string
+     * @param hashTableSize
+     * @return
+     */
+    public static int getHashSlot(String string, int hashTableSize) {
+        // String.hashCode is defined by the specification and therefore
+        // identical in every JVM
+        return getHashSlot(string.hashCode(), hashTableSize);
+    }
+
+    /**
+     * Returns the first slot of a string in a hash table based on
+     * the string's hashCode.
+     * @param hashCode
+     * @param hashTableSize
+     * @return
+     */
+    public static int getHashSlot(int hashCode, int hashTableSize) {
+        int hash = hashCode * 0x9E3779B9;
+
+        return (hash ^ (hash >>> 16)) & (hashTableSize - 1);
+    }
+}
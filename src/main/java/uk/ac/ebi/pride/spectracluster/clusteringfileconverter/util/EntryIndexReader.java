@@ -0,0 +1,261 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory maps the sidecar index (see EntryIndexFormat) of an MSP or
+ * MGF file. Entries are found by cluster id and peptide sequence
+ * through hash tables and by precursor m/z through a binary search.
+ *
+ * This class is thread-safe.
+ */
+public class EntryIndexReader {
+    private final File indexFile;
+    private final MappedByteBuffer index;
+    private final int entryCount;
+    private final long dataFileSize;
+    private final int stringCount;
+    private final int hashTableSize;
+    private final int dictionaryOffset;
+    private final int idTableOffset;
+    private final int peptideListOffset;
+    private final int peptideTableOffset;
+
+    /**
+     * Opens the index of the passed output file.
+     * @param dataFile The indexed output file.
+     * @throws IOException Thrown if the index does not exist or is out of date.
+     */
+    public EntryIndexReader(File dataFile) throws IOException {
+        this(new File(EntryIndexFormat.getIndexPath(dataFile.getPath())), dataFile);
+    }
+
+    /**
+     * Opens the index.
+     * @param indexFile The index file.
+     * @param dataFile The indexed output file. If set, the index is only opened
+     *                 if it matches the file's size.
+     * @throws IOException Thrown if the file is not a valid index.
+     */
+    public EntryIndexReader(File indexFile, File dataFile) throws IOException {
+        this.indexFile = indexFile;
+
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+
+            if (fileSize < EntryIndexFormat.HEADER_SIZE)
+                throw new IOException(indexFile.getName() + " is not an entry index");
+            if (fileSize > Integer.MAX_VALUE)
+                throw new IOException(indexFile.getName() + " is too large to be mapped");
+
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        }
+        finally {
+            // the mapping stays valid after the file is closed
+            file.close();
+        }
+
+        byte[] magicNumber = new byte[EntryIndexFormat.MAGIC_NUMBER.length];
+        ByteBuffer header = index.duplicate();
+        header.get(magicNumber);
+        if (!Arrays.equals(magicNumber, EntryIndexFormat.MAGIC_NUMBER))
+            throw new IOException(indexFile.getName() + " is not an entry index");
+        if (index.getInt(EntryIndexFormat.VERSION_OFFSET) != EntryIndexFormat.VERSION)
+            throw new IOException("Unsupported index version " + index.getInt(EntryIndexFormat.VERSION_OFFSET));
+
+        entryCount = index.getInt(EntryIndexFormat.ENTRY_COUNT_OFFSET);
+        dataFileSize = index.getLong(EntryIndexFormat.DATA_FILE_SIZE_OFFSET);
+        stringCount = index.getInt(EntryIndexFormat.STRING_COUNT_OFFSET);
+        hashTableSize = index.getInt(EntryIndexFormat.HASH_TABLE_SIZE_OFFSET);
+        // the whole file is mapped, therefore all offsets are below 2 GB
+        dictionaryOffset = (int) index.getLong(EntryIndexFormat.DICTIONARY_OFFSET_OFFSET);
+        idTableOffset = (int) index.getLong(EntryIndexFormat.ID_TABLE_OFFSET_OFFSET);
+        peptideListOffset = (int) index.getLong(EntryIndexFormat.PEPTIDE_LIST_OFFSET_OFFSET);
+        peptideTableOffset = (int) index.getLong(EntryIndexFormat.PEPTIDE_TABLE_OFFSET_OFFSET);
+
+        if (dictionaryOffset + stringCount * 8L > index.capacity())
+            throw new IOException("Incomplete entry index " + indexFile.getName());
+
+        if (dataFile != null && dataFile.length() != dataFileSize)
+            throw new IOException(indexFile.getName() + " is out of date (" + dataFile.getName() + " was changed)");
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the size of the indexed file when the index was written.
+     * @return
+     */
+    public long getDataFileSize() {
+        return dataFileSize;
+    }
+
+    /**
+     * Returns the entry at the given position. Entries are sorted
+     * by precursor m/z.
+     * @param entryNumber The entry's position (0 - getEntryCount() - 1).
+     * @return The entry
+     */
+    public IndexedEntry getEntry(int entryNumber) {
+        if (entryNumber < 0 || entryNumber >= entryCount)
+            throw new IndexOutOfBoundsException("Invalid entry " + entryNumber);
+
+        int offset = getEntryOffset(entryNumber);
+
+        return new IndexedEntry(
+                index.getFloat(offset + EntryIndexFormat.ENTRY_PRECURSOR_MZ_OFFSET),
+                index.getInt(offset + EntryIndexFormat.ENTRY_CHARGE_OFFSET),
+                index.getLong(offset + EntryIndexFormat.ENTRY_DATA_OFFSET_OFFSET),
+                index.getInt(offset + EntryIndexFormat.ENTRY_LENGTH_OFFSET),
+                getString(index.getInt(offset + EntryIndexFormat.ENTRY_CLUSTER_ID_OFFSET)),
+                getString(index.getInt(offset + EntryIndexFormat.ENTRY_PEPTIDE_OFFSET)));
+    }
+
+    /**
+     * Returns all entries of the cluster. Normally, a cluster id is
+     * only present once but combined files may contain duplicates.
+     * @param clusterId
+     * @return The entries, an empty list if the cluster is not indexed.
+     */
+    public List<IndexedEntry> getEntriesByClusterId(String clusterId) {
+        List<IndexedEntry> entries = new ArrayList<IndexedEntry>(1);
+
+        for (int slot = EntryIndexFormat.getHashSlot(clusterId, hashTableSize); ; slot = (slot + 1) & (hashTableSize - 1)) {
+            int value = index.getInt(idTableOffset + slot * 4);
+            if (value == 0)
+                break;
+
+            int entryNumber = value - 1;
+            int stringId = index.getInt(getEntryOffset(entryNumber) + EntryIndexFormat.ENTRY_CLUSTER_ID_OFFSET);
+
+            if (clusterId.equals(getString(stringId)))
+                entries.add(getEntry(entryNumber));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns all entries whose most common peptide is the passed sequence
+     * in m/z order.
+     * @param peptideSequence
+     * @param charge Only return entries with this charge. 0 to return all entries.
+     * @return The entries, an empty list if the peptide is not indexed.
+     */
+    public List<IndexedEntry> getEntriesByPeptide(String peptideSequence, int charge) {
+        List<IndexedEntry> entries = new ArrayList<IndexedEntry>();
+        int peptideId = EntryIndexFormat.NO_STRING;
+        int listPosition = -1;
+
+        for (int slot = EntryIndexFormat.getHashSlot(peptideSequence, hashTableSize); ; slot = (slot + 1) & (hashTableSize - 1)) {
+            int value = index.getInt(peptideTableOffset + slot * 4);
+            if (value == 0)
+                return entries;
+
+            int stringId = getPeptideId(value - 1);
+            if (peptideSequence.equals(getString(stringId))) {
+                peptideId = stringId;
+                listPosition = value - 1;
+                break;
+            }
+        }
+
+        // the entries of one peptide are stored next to each other
+        int nIdentified = (peptideTableOffset - peptideListOffset) / 4;
+        for (int i = listPosition; i < nIdentified && getPeptideId(i) == peptideId; i++) {
+            IndexedEntry entry = getEntry(index.getInt(peptideListOffset + i * 4));
+
+            if (charge == 0 || entry.getCharge() == charge)
+                entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the peptide's string id of the entry at the given
+     * position of the peptide list.
+     */
+    private int getPeptideId(int listPosition) {
+        int entryNumber = index.getInt(peptideListOffset + listPosition * 4);
+
+        return index.getInt(getEntryOffset(entryNumber) + EntryIndexFormat.ENTRY_PEPTIDE_OFFSET);
+    }
+
+    /**
+     * Returns all entries with a precursor m/z between minMz and maxMz
+     * (both inclusive) in m/z order.
+     * @param minMz
+     * @param maxMz
+     * @return The entries
+     */
+    public List<IndexedEntry> getEntries(double minMz, double maxMz) {
+        int low = 0;
+        int high = entryCount;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (getMz(middle) < minMz)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        List<IndexedEntry> entries = new ArrayList<IndexedEntry>();
+        for (int i = low; i < entryCount && getMz(i) <= maxMz; i++) {
+            entries.add(getEntry(i));
+        }
+
+        return entries;
+    }
+
+    private float getMz(int entryNumber) {
+        return index.getFloat(getEntryOffset(entryNumber) + EntryIndexFormat.ENTRY_PRECURSOR_MZ_OFFSET);
+    }
+
+    private static int getEntryOffset(int entryNumber) {
+        return EntryIndexFormat.HEADER_SIZE + entryNumber * EntryIndexFormat.ENTRY_RECORD_SIZE;
+    }
+
+    private String getString(int stringId) {
+        if (stringId == EntryIndexFormat.NO_STRING)
+            return null;
+        if (stringId < 0 || stringId >= stringCount)
+            throw new IndexOutOfBoundsException("Invalid string id " + stringId);
+
+        int stringOffset = (int) index.getLong(dictionaryOffset + stringId * 8);
+        int length = index.getInt(stringOffset);
+
+        ByteBuffer data = index.duplicate();
+        data.position(stringOffset + 4);
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+
+        try {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+}
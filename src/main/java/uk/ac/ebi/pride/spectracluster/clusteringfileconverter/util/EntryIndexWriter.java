@@ -0,0 +1,321 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * Collects the byte offsets of the entries written to an output file
+ * and writes them as sidecar index (see EntryIndexFormat) once the
+ * output file is complete.
+ *
+ * Only peptide sequences are de-duplicated. Cluster ids are stored as
+ * encoded bytes to keep the memory required per entry small.
+ *
+ * This class is not thread-safe.
+ */
+public class EntryIndexWriter {
+    private int entryCount = 0;
+    private float[] precursorMz = new float[1024];
+    private int[] charges = new int[1024];
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int[] clusterIds = new int[1024];
+    private int[] peptides = new int[1024];
+    /**
+     * hashCode of every entry's cluster id.
+     */
+    private int[] clusterIdHashes = new int[1024];
+
+    /**
+     * The strings in the dictionary's format (length + UTF-8 bytes).
+     */
+    private byte[] stringData = new byte[8192];
+    private int stringDataLength = 0;
+    private int[] stringPositions = new int[1024];
+    private int stringCount = 0;
+
+    private final Map<String, Integer> peptideIds = new HashMap<String, Integer>();
+
+    /**
+     * Adds an entry written to the output file.
+     * @param entryInfo The cluster's summary.
+     * @param offset The entry's byte offset in the output file.
+     * @param length The entry's length in bytes.
+     */
+    public void addEntry(ClusterEntryInfo entryInfo, long offset, int length) {
+        addEntry(entryInfo.getPrecursorMz(), entryInfo.getCharge(), offset, length, entryInfo.getId(), entryInfo.getPeptideSequence());
+    }
+
+    /**
+     * Adds an entry of an existing index. This is used when entries
+     * are appended to an already indexed file.
+     * @param entry
+     */
+    public void addEntry(IndexedEntry entry) {
+        addEntry(entry.getPrecursorMz(), entry.getCharge(), entry.getOffset(), entry.getLength(), entry.getClusterId(), entry.getPeptideSequence());
+    }
+
+    private void addEntry(float mz, int charge, long offset, int length, String clusterId, String peptideSequence) {
+        if (entryCount == precursorMz.length) {
+            int newSize = entryCount * 2;
+            precursorMz = Arrays.copyOf(precursorMz, newSize);
+            charges = Arrays.copyOf(charges, newSize);
+            offsets = Arrays.copyOf(offsets, newSize);
+            lengths = Arrays.copyOf(lengths, newSize);
+            clusterIds = Arrays.copyOf(clusterIds, newSize);
+            peptides = Arrays.copyOf(peptides, newSize);
+            clusterIdHashes = Arrays.copyOf(clusterIdHashes, newSize);
+        }
+
+        precursorMz[entryCount] = mz;
+        charges[entryCount] = charge;
+        offsets[entryCount] = offset;
+        lengths[entryCount] = length;
+
+        if (clusterId != null) {
+            clusterIds[entryCount] = addString(clusterId);
+            clusterIdHashes[entryCount] = clusterId.hashCode();
+        }
+        else {
+            clusterIds[entryCount] = EntryIndexFormat.NO_STRING;
+        }
+
+        if (peptideSequence != null) {
+            Integer peptideId = peptideIds.get(peptideSequence);
+            if (peptideId == null) {
+                peptideId = addString(peptideSequence);
+                peptideIds.put(peptideSequence, peptideId);
+            }
+            peptides[entryCount] = peptideId;
+        }
+        else {
+            peptides[entryCount] = EntryIndexFormat.NO_STRING;
+        }
+
+        entryCount++;
+    }
+
+    private int addString(String string) {
+        byte[] data;
+        try {
+            data = string.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+
+        long requiredLength = (long) stringDataLength + 4 + data.length;
+        if (requiredLength > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many strings to index");
+        if (requiredLength > stringData.length)
+            stringData = Arrays.copyOf(stringData, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(requiredLength, stringData.length * 2L)));
+        if (stringCount == stringPositions.length)
+            stringPositions = Arrays.copyOf(stringPositions, stringCount * 2);
+
+        stringPositions[stringCount] = stringDataLength;
+
+        stringData[stringDataLength++] = (byte) (data.length >>> 24);
+        stringData[stringDataLength++] = (byte) (data.length >>> 16);
+        stringData[stringDataLength++] = (byte) (data.length >>> 8);
+        stringData[stringDataLength++] = (byte) data.length;
+        System.arraycopy(data, 0, stringData, stringDataLength, data.length);
+        stringDataLength += data.length;
+
+        return stringCount++;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Writes the index.
+     * @param indexFile The file to write the index to. An existing file is overwritten.
+     * @param dataFileSize The size of the indexed output file.
+     * @throws IOException
+     */
+    public void write(File indexFile, long dataFileSize) throws IOException {
+        // order[entry number] = position in which the entry was added
+        int[] order = getMzOrder();
+        int[] peptideList = getPeptideList(order);
+        int hashTableSize = EntryIndexFormat.getHashTableSize(entryCount);
+
+        long idTableOffset = EntryIndexFormat.HEADER_SIZE + (long) entryCount * EntryIndexFormat.ENTRY_RECORD_SIZE;
+        long peptideListOffset = idTableOffset + hashTableSize * 4L;
+        long peptideTableOffset = peptideListOffset + peptideList.length * 4L;
+        long dictionaryOffset = peptideTableOffset + hashTableSize * 4L;
+
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1024 * 1024));
+
+        try {
+            // header
+            outputStream.write(EntryIndexFormat.MAGIC_NUMBER);
+            outputStream.writeInt(EntryIndexFormat.VERSION);
+            outputStream.writeInt(entryCount);
+            outputStream.writeLong(dataFileSize);
+            outputStream.writeInt(stringCount);
+            outputStream.writeInt(hashTableSize);
+            outputStream.writeLong(dictionaryOffset);
+            outputStream.writeLong(idTableOffset);
+            outputStream.writeLong(peptideListOffset);
+            outputStream.writeLong(peptideTableOffset);
+
+            for (int entry : order) {
+                outputStream.writeFloat(precursorMz[entry]);
+                outputStream.writeInt(charges[entry]);
+                outputStream.writeLong(offsets[entry]);
+                outputStream.writeInt(lengths[entry]);
+                outputStream.writeInt(clusterIds[entry]);
+                outputStream.writeInt(peptides[entry]);
+            }
+
+            writeHashTable(outputStream, createClusterIdTable(order, hashTableSize));
+
+            for (int entryNumber : peptideList) {
+                outputStream.writeInt(entryNumber);
+            }
+
+            writeHashTable(outputStream, createPeptideTable(order, peptideList, hashTableSize));
+
+            long stringDataOffset = dictionaryOffset + stringCount * 8L;
+            for (int i = 0; i < stringCount; i++) {
+                outputStream.writeLong(stringDataOffset + stringPositions[i]);
+            }
+            outputStream.write(stringData, 0, stringDataLength);
+        }
+        finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Returns the entries sorted by precursor m/z. Entries with the
+     * same m/z keep their order.
+     */
+    private int[] getMzOrder() {
+        long[] sortKeys = new long[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            int bits = Float.floatToIntBits(precursorMz[i]);
+            // make the bits of negative values sortable as int
+            if (bits < 0)
+                bits ^= 0x7FFFFFFF;
+
+            sortKeys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+
+        int[] order = new int[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            order[i] = (int) sortKeys[i];
+        }
+
+        return order;
+    }
+
+    /**
+     * Returns the entry numbers of all identified entries sorted by
+     * peptide sequence. Entries of the same peptide remain sorted by m/z.
+     */
+    private int[] getPeptideList(int[] order) {
+        // rank the peptides alphabetically
+        final String[] peptideSequences = new String[stringCount];
+        for (Map.Entry<String, Integer> peptide : peptideIds.entrySet()) {
+            peptideSequences[peptide.getValue()] = peptide.getKey();
+        }
+
+        Integer[] sortedPeptides = peptideIds.values().toArray(new Integer[peptideIds.size()]);
+        Arrays.sort(sortedPeptides, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return peptideSequences[o1].compareTo(peptideSequences[o2]);
+            }
+        });
+
+        int[] peptideRanks = new int[stringCount];
+        for (int rank = 0; rank < sortedPeptides.length; rank++) {
+            peptideRanks[sortedPeptides[rank]] = rank;
+        }
+
+        int nIdentified = 0;
+        long[] sortKeys = new long[entryCount];
+        for (int entryNumber = 0; entryNumber < entryCount; entryNumber++) {
+            int peptide = peptides[order[entryNumber]];
+
+            if (peptide != EntryIndexFormat.NO_STRING)
+                sortKeys[nIdentified++] = ((long) peptideRanks[peptide] << 32) | entryNumber;
+        }
+        Arrays.sort(sortKeys, 0, nIdentified);
+
+        int[] peptideList = new int[nIdentified];
+        for (int i = 0; i < nIdentified; i++) {
+            peptideList[i] = (int) sortKeys[i];
+        }
+
+        return peptideList;
+    }
+
+    private int[] createClusterIdTable(int[] order, int hashTableSize) {
+        int[] table = new int[hashTableSize];
+
+        for (int entryNumber = 0; entryNumber < entryCount; entryNumber++) {
+            int entry = order[entryNumber];
+            if (clusterIds[entry] == EntryIndexFormat.NO_STRING)
+                continue;
+
+            insert(table, EntryIndexFormat.getHashSlot(clusterIdHashes[entry], hashTableSize), entryNumber + 1);
+        }
+
+        return table;
+    }
+
+    private int[] createPeptideTable(int[] order, int[] peptideList, int hashTableSize) {
+        int[] table = new int[hashTableSize];
+        int lastPeptide = EntryIndexFormat.NO_STRING;
+
+        for (int i = 0; i < peptideList.length; i++) {
+            int peptide = peptides[order[peptideList[i]]];
+
+            // only the first entry of every peptide is stored
+            if (peptide == lastPeptide)
+                continue;
+
+            lastPeptide = peptide;
+            String peptideSequence = getString(peptide);
+            insert(table, EntryIndexFormat.getHashSlot(peptideSequence, hashTableSize), i + 1);
+        }
+
+        return table;
+    }
+
+    private static void insert(int[] table, int slot, int value) {
+        while (table[slot] != 0)
+            slot = (slot + 1) & (table.length - 1);
+
+        table[slot] = value;
+    }
+
+    private String getString(int stringId) {
+        int position = stringPositions[stringId];
+        int length = ((stringData[position] & 0xFF) << 24) | ((stringData[position + 1] & 0xFF) << 16) |
+                ((stringData[position + 2] & 0xFF) << 8) | (stringData[position + 3] & 0xFF);
+
+        try {
+            return new String(stringData, position + 4, length, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeHashTable(DataOutputStream outputStream, int[] table) throws IOException {
+        for (int value : table) {
+            outputStream.writeInt(value);
+        }
+    }
+}
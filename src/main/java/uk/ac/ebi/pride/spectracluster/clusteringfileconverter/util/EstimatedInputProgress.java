@@ -0,0 +1,83 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ISpectrumReference;
+
+/**
+ * Estimates the consumed bytes of a .clustering file that is read
+ * by the ClusteringFileReader, which does not report its position.
+ * The size of every read cluster in the .clustering format is
+ * estimated from its number of peaks and its spectra. On the
+ * test files, the estimate is within 15% of the actual size.
+ *
+ * The estimate never reaches the file's size so that the progress
+ * only reaches 100% once the file is complete.
+ */
+public class EstimatedInputProgress implements IClusterSourceListener, IInputProgress {
+    /**
+     * Size of the "=Cluster=" block's fixed lines (id, average precursor, sequence).
+     */
+    public static final int CLUSTER_HEADER_SIZE = 160;
+    /**
+     * Size of one consensus peak (m/z and intensity).
+     */
+    public static final int PEAK_SIZE = 15;
+    /**
+     * Size of a "SPEC" line without the spectrum's id and sequence.
+     */
+    public static final int SPECTRUM_LINE_SIZE = 45;
+
+    private final long fileSize;
+    private volatile long estimatedBytes = 0;
+
+    /**
+     * Creates a new estimate.
+     * @param fileSize The size of the .clustering file.
+     */
+    public EstimatedInputProgress(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    @Override
+    public void onNewClusterRead(ICluster newCluster) {
+        // only written by the reading thread
+        estimatedBytes = estimatedBytes + estimateClusterSize(newCluster);
+    }
+
+    /**
+     * Returns the approximate size of the cluster in the .clustering format.
+     * @param cluster
+     * @return The size in bytes.
+     */
+    public static long estimateClusterSize(ICluster cluster) {
+        long size = CLUSTER_HEADER_SIZE;
+
+        if (cluster.getConsensusMzValues() != null)
+            size += cluster.getConsensusMzValues().size() * (long) PEAK_SIZE;
+
+        if (cluster.getSpectrumReferences() != null) {
+            for (ISpectrumReference spectrumReference : cluster.getSpectrumReferences()) {
+                size += SPECTRUM_LINE_SIZE;
+
+                if (spectrumReference.getSpectrumId() != null)
+                    size += spectrumReference.getSpectrumId().length();
+
+                if (spectrumReference.getPSMs() != null) {
+                    for (IPeptideSpectrumMatch psm : spectrumReference.getPSMs()) {
+                        if (psm.getSequence() != null)
+                            size += psm.getSequence().length() + 1;
+                    }
+                }
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public long getBytesConsumed() {
+        return Math.min(estimatedBytes, Math.max(0, fileSize - 1));
+    }
+}
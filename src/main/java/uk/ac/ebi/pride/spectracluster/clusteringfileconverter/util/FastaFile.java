@@ -1,31 +1,83 @@
 package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by jg on 21.05.15.
  */
 public class FastaFile {
+    private static final Charset ANNOTATION_CHARSET = Charset.forName("UTF-8");
+
     private final File inputFile;
-    private final Map<String, String> proteinSequences;
+    private final boolean ilAgnostic;
+    private FastaIndexFile fastaIndex;
 
     public FastaFile(File inputFile) throws Exception {
+        this(inputFile, false);
+    }
+
+    public FastaFile(File inputFile, boolean ilAgnostic) throws Exception {
+        this(inputFile, ilAgnostic, FastaIndexFile.getIndexFile(inputFile));
+    }
+
+    /**
+     * Loads the FASTA file and creates the index used to map
+     * peptides to proteins. If an up-to-date index file exists, it
+     * is memory mapped instead of parsing the FASTA file. Otherwise,
+     * the index is created and stored in the index file.
+     * @param inputFile The FASTA file.
+     * @param ilAgnostic If set, I and L are treated as identical when mapping peptides.
+     * @param indexFile The index file to use. If null, the index is only held in memory.
+     * @throws Exception
+     */
+    public FastaFile(File inputFile, boolean ilAgnostic, File indexFile) throws Exception {
         this.inputFile = inputFile;
-        this.proteinSequences = loadFastaFile(inputFile);
+        this.ilAgnostic = ilAgnostic;
+
+        if (indexFile != null) {
+            try {
+                fastaIndex = FastaIndexFile.load(indexFile, inputFile);
+            }
+            catch (IOException e) {
+                System.out.println("Warning: Failed to load FASTA index " + indexFile.getPath() + ": " + e.getMessage());
+            }
+        }
+
+        if (fastaIndex == null) {
+            fastaIndex = loadFastaFile(inputFile);
+
+            if (indexFile != null) {
+                try {
+                    fastaIndex.write(indexFile, inputFile);
+                }
+                catch (IOException e) {
+                    System.out.println("Warning: Failed to write FASTA index " + indexFile.getPath() + ": " + e.getMessage());
+                }
+            }
+        }
     }
 
-    protected Map<String, String> loadFastaFile(File file) throws Exception {
+    protected FastaIndexFile loadFastaFile(File file) throws Exception {
         FileReader fileReader = new FileReader(file);
         BufferedReader reader = new BufferedReader(fileReader);
 
         String line;
         String currentAnnotation = "UNKNOWN";
-        StringBuilder currentSequence = new StringBuilder();
-        Map<String, String> sequences = new HashMap<String, String>();
+        boolean inSequence = false;
+        ByteArrayOutputStream residues = new ByteArrayOutputStream();
+        List<Integer> proteinStarts = new ArrayList<Integer>();
+        ByteArrayOutputStream annotations = new ByteArrayOutputStream();
+        List<Integer> annotationOffsets = new ArrayList<Integer>();
 
         while ((line = reader.readLine()) != null) {
             line = line.trim();
@@ -36,9 +88,9 @@ public class FastaFile {
 
             // ignore any comment line and store the previous protein sequence
             if (line.startsWith(">")) {
-                if (currentSequence.length() > 0) {
-                    sequences.put(currentAnnotation, currentSequence.toString());
-                    currentSequence = new StringBuilder();
+                if (inSequence) {
+                    residues.write(ProteinSequenceIndex.SEPARATOR);
+                    inSequence = false;
                 }
 
                 currentAnnotation = line.substring(1); // just ignore the ">"
@@ -46,30 +98,108 @@ public class FastaFile {
                 continue;
             }
 
-            currentSequence.append(line);
+            if (!inSequence) {
+                annotationOffsets.add(annotations.size());
+                annotations.write(currentAnnotation.getBytes(ANNOTATION_CHARSET));
+                proteinStarts.add(residues.size());
+                inSequence = true;
+            }
+
+            for (int i = 0; i < line.length(); i++) {
+                char residue = Character.toUpperCase(line.charAt(i));
+
+                // peptides never span non-amino acid characters
+                if (residue < 'A' || residue > 'Z')
+                    residue = (char) ProteinSequenceIndex.SEPARATOR;
+
+                residues.write(residue);
+            }
         }
 
-        if (currentSequence.length() > 0) {
-            sequences.put(currentAnnotation, currentSequence.toString());
+        if (inSequence) {
+            residues.write(ProteinSequenceIndex.SEPARATOR);
         }
 
-        return sequences;
+        reader.close();
+
+        annotationOffsets.add(annotations.size());
+
+        ProteinSequenceIndex sequenceIndex = new ProteinSequenceIndex(residues.toByteArray(), toIntArray(proteinStarts));
+
+        return new FastaIndexFile(sequenceIndex, IntBuffer.wrap(toIntArray(annotationOffsets)), ByteBuffer.wrap(annotations.toByteArray()));
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+
+        return array;
+    }
+
+    /**
+     * Decodes the annotation of the protein with the given index.
+     */
+    private String getAnnotation(int proteinIndex) {
+        IntBuffer offsets = fastaIndex.getAnnotationOffsets();
+        int start = offsets.get(proteinIndex);
+        int length = offsets.get(proteinIndex + 1) - start;
+
+        byte[] annotation = new byte[length];
+        ByteBuffer annotations = fastaIndex.getAnnotations().duplicate();
+        annotations.position(start);
+        annotations.get(annotation);
+
+        return new String(annotation, ANNOTATION_CHARSET);
     }
 
     /**
      * Retruns the protein annotation for the given peptide or null in case
-     * the peptide cannot be mapped to any protein.
+     * the peptide cannot be mapped to any protein. In case the peptide
+     * matches multiple proteins, the first protein in the FASTA file is
+     * returned.
      * @param peptideSequence
      * @return
      */
     public String getProteinAnnotation(String peptideSequence) {
-        for (String annotation : proteinSequences.keySet()) {
-            String proteinSequence = proteinSequences.get(annotation);
+        int[] proteinIndices = fastaIndex.getSequenceIndex().findProteins(peptideSequence, ilAgnostic);
+
+        if (proteinIndices.length < 1)
+            return null;
+
+        return getAnnotation(proteinIndices[0]);
+    }
+
+    /**
+     * Returns the annotations of all proteins containing the peptide
+     * in the order of the FASTA file.
+     * @param peptideSequence
+     * @return The annotations, an empty list if the peptide cannot be mapped.
+     */
+    public List<String> getProteinAnnotations(String peptideSequence) {
+        int[] proteinIndices = fastaIndex.getSequenceIndex().findProteins(peptideSequence, ilAgnostic);
+
+        if (proteinIndices.length < 1)
+            return Collections.emptyList();
 
-            if (proteinSequence.contains(peptideSequence))
-                return annotation;
+        List<String> annotations = new ArrayList<String>(proteinIndices.length);
+        for (int proteinIndex : proteinIndices) {
+            annotations.add(getAnnotation(proteinIndex));
         }
 
-        return null;
+        return annotations;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public boolean isIlAgnostic() {
+        return ilAgnostic;
+    }
+
+    public int getProteinCount() {
+        return fastaIndex.getSequenceIndex().getProteinCount();
     }
 }
@@ -0,0 +1,279 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the ProteinSequenceIndex and the protein annotations of a
+ * FASTA file on disk. The index file is memory mapped when it is
+ * loaded so that opening it is almost free and the data does not
+ * need to be held on the heap.
+ *
+ * The index file stores the FASTA file's size, modification time,
+ * and a checksum. If any of these values changes, the index file
+ * is no longer used.
+ *
+ * Layout (big endian):
+ *  header: magic, version, FASTA size, FASTA modification time, FASTA checksum,
+ *          number of proteins, number of residues, number of suffixes,
+ *          length of the annotation bytes
+ *  int[number of proteins] protein start positions
+ *  int[number of proteins + 1] annotation offsets
+ *  byte[number of residues] residues, padded to a multiple of 4
+ *  int[number of suffixes] suffix array
+ *  byte[annotation length] UTF-8 encoded protein annotations
+ *
+ * Since every section is mapped separately, no section may be
+ * larger than 2 GB.
+ */
+public class FastaIndexFile {
+    public static final String FILE_EXTENSION = "pidx";
+    private static final long MAGIC = 0x4346434641535441L; // "CFCFASTA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 8;
+    /**
+     * Number of bytes at the beginning and at the end of the FASTA
+     * file that are used to calculate the checksum.
+     */
+    private static final int CHECKSUM_BLOCK_SIZE = 1024 * 1024;
+
+    private final ProteinSequenceIndex sequenceIndex;
+    private final IntBuffer annotationOffsets;
+    private final ByteBuffer annotations;
+
+    public FastaIndexFile(ProteinSequenceIndex sequenceIndex, IntBuffer annotationOffsets, ByteBuffer annotations) {
+        this.sequenceIndex = sequenceIndex;
+        this.annotationOffsets = annotationOffsets;
+        this.annotations = annotations;
+    }
+
+    public ProteinSequenceIndex getSequenceIndex() {
+        return sequenceIndex;
+    }
+
+    public IntBuffer getAnnotationOffsets() {
+        return annotationOffsets;
+    }
+
+    public ByteBuffer getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * Returns the default index file for the passed FASTA file.
+     * @param fastaFile
+     * @return
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getPath() + "." + FILE_EXTENSION);
+    }
+
+    /**
+     * Memory maps the index file.
+     * @param indexFile The index file to load.
+     * @param fastaFile The FASTA file the index was created for.
+     * @return The loaded index or null in case the index file does not exist or is outdated.
+     * @throws IOException
+     */
+    public static FastaIndexFile load(File indexFile, File fastaFile) throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE)
+            return null;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0)
+                    return null;
+            }
+            header.flip();
+
+            if (header.getLong() != MAGIC || header.getInt() != VERSION)
+                return null;
+
+            // check whether the FASTA file changed
+            if (header.getLong() != fastaFile.length() ||
+                    header.getLong() != fastaFile.lastModified() ||
+                    header.getLong() != calculateChecksum(fastaFile)) {
+                return null;
+            }
+
+            int nProteins = header.getInt();
+            int nResidues = header.getInt();
+            int nSuffixes = header.getInt();
+            long annotationLength = header.getLong();
+
+            long position = HEADER_SIZE;
+
+            IntBuffer proteinStarts = mapSection(channel, position, nProteins * 4L).asIntBuffer();
+            position += nProteins * 4L;
+
+            IntBuffer annotationOffsets = mapSection(channel, position, (nProteins + 1) * 4L).asIntBuffer();
+            position += (nProteins + 1) * 4L;
+
+            ByteBuffer residues = mapSection(channel, position, nResidues);
+            position += getPaddedSize(nResidues);
+
+            IntBuffer suffixArray = mapSection(channel, position, nSuffixes * 4L).asIntBuffer();
+            position += nSuffixes * 4L;
+
+            ByteBuffer annotations = mapSection(channel, position, annotationLength);
+
+            ProteinSequenceIndex sequenceIndex = new ProteinSequenceIndex(residues, proteinStarts, suffixArray);
+
+            return new FastaIndexFile(sequenceIndex, annotationOffsets, annotations);
+        }
+        finally {
+            // mapped buffers remain valid after the channel is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Sections are padded so that the following int sections are aligned.
+     */
+    private static long getPaddedSize(long size) {
+        return (size + 3) & ~3L;
+    }
+
+    private static ByteBuffer mapSection(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("FASTA index section exceeds 2 GB");
+        if (position + size > channel.size())
+            throw new IOException("Truncated FASTA index file");
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Writes the index to the index file. The index is first written
+     * to a temporary file which is then renamed to prevent incomplete
+     * index files.
+     * @param indexFile The index file to create.
+     * @param fastaFile The FASTA file the index was created for.
+     * @throws IOException
+     */
+    public void write(File indexFile, File fastaFile) throws IOException {
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+
+            IntBuffer proteinStarts = sequenceIndex.getProteinStarts();
+            ByteBuffer residues = sequenceIndex.getResidues();
+            IntBuffer suffixArray = sequenceIndex.getSuffixArray();
+            IntBuffer offsets = annotationOffsets.duplicate();
+            ByteBuffer annotationBytes = annotations.duplicate();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(fastaFile.length());
+            header.putLong(fastaFile.lastModified());
+            header.putLong(calculateChecksum(fastaFile));
+            header.putInt(proteinStarts.limit());
+            header.putInt(residues.limit());
+            header.putInt(suffixArray.limit());
+            header.putLong(annotationBytes.limit());
+            header.flip();
+            writeFully(channel, header);
+
+            writeInts(channel, proteinStarts);
+            writeInts(channel, offsets);
+            residues.rewind();
+            writeFully(channel, residues);
+            writeFully(channel, ByteBuffer.allocate((int) (getPaddedSize(residues.limit()) - residues.limit())));
+            writeInts(channel, suffixArray);
+            annotationBytes.rewind();
+            writeFully(channel, annotationBytes);
+
+            channel.force(false);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        if (indexFile.exists() && !indexFile.delete())
+            throw new IOException("Failed to replace " + indexFile.getPath());
+        if (!tmpFile.renameTo(indexFile))
+            throw new IOException("Failed to create " + indexFile.getPath());
+    }
+
+    private static void writeInts(FileChannel channel, IntBuffer values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        IntBuffer intView = buffer.asIntBuffer();
+        values.rewind();
+
+        while (values.hasRemaining()) {
+            intView.clear();
+            int n = Math.min(intView.capacity(), values.remaining());
+
+            for (int i = 0; i < n; i++) {
+                intView.put(values.get());
+            }
+
+            buffer.clear();
+            buffer.limit(n * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Calculates a CRC32 checksum based on the FASTA file's size and
+     * its first and last megabyte. This detects changed files without
+     * having to read the complete file.
+     * @param fastaFile
+     * @return
+     * @throws IOException
+     */
+    public static long calculateChecksum(File fastaFile) throws IOException {
+        CRC32 crc32 = new CRC32();
+        long size = fastaFile.length();
+        byte[] block = new byte[CHECKSUM_BLOCK_SIZE];
+
+        crc32.update(Long.toString(size).getBytes("ASCII"));
+
+        FileInputStream inputStream = new FileInputStream(fastaFile);
+        try {
+            FileChannel channel = inputStream.getChannel();
+
+            updateChecksum(crc32, channel, 0, block);
+            if (size > CHECKSUM_BLOCK_SIZE)
+                updateChecksum(crc32, channel, Math.max(CHECKSUM_BLOCK_SIZE, size - CHECKSUM_BLOCK_SIZE), block);
+        }
+        finally {
+            inputStream.close();
+        }
+
+        return crc32.getValue();
+    }
+
+    private static void updateChecksum(CRC32 crc32, FileChannel channel, long position, byte[] block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                break;
+        }
+
+        crc32.update(block, 0, buffer.position());
+    }
+}
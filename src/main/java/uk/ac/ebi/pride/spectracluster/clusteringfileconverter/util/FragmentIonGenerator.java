@@ -0,0 +1,284 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.util.Arrays;
+
+/**
+ * Generates the theoretical b- and y-ions (and optionally the precursor
+ * and neutral losses) of a peptide based on the residue masses of
+ * the PeptideMassCalculator. In contrast to the pride-utilities
+ * ion generation, ions are written into primitive arrays that are reused
+ * for every peptide. Thereby, no objects are created once the arrays
+ * reached their final size.
+ *
+ * Usage: setSequence, addModification for every modification, generate.
+ * After generate, the ions are available sorted by m/z.
+ *
+ * This class is not thread-safe.
+ */
+public class FragmentIonGenerator {
+    public static final int TYPE_B = 0;
+    public static final int TYPE_Y = 1;
+    public static final int TYPE_PRECURSOR = 2;
+
+    public static final int LOSS_NONE = 0;
+    public static final int LOSS_H2O = 1;
+    public static final int LOSS_NH3 = 2;
+
+    public static final double PROTON_MASS = PeptideMassCalculator.PROTON_MASS;
+    public static final double H2O_MASS = PeptideMassCalculator.H2O_MASS;
+    public static final double NH3_MASS = 17.026549;
+
+    private static final int INSERTION_SORT_THRESHOLD = 12;
+
+    private boolean includePrecursor = false;
+    private boolean includeNeutralLosses = false;
+
+    // the current peptide
+    private double[] residueMasses = new double[64];
+    private int sequenceLength = 0;
+
+    // the generated ions
+    private double[] ionMz = new double[256];
+    private int[] ionTypes = new int[256];
+    private int[] ionPositions = new int[256];
+    private int[] ionCharges = new int[256];
+    private int[] ionLosses = new int[256];
+    private int nIons = 0;
+
+    public FragmentIonGenerator() {
+
+    }
+
+    public FragmentIonGenerator(boolean includePrecursor, boolean includeNeutralLosses) {
+        this.includePrecursor = includePrecursor;
+        this.includeNeutralLosses = includeNeutralLosses;
+    }
+
+    /**
+     * Sets the peptide's sequence. Any previously added modifications
+     * and generated ions are removed.
+     * @param sequence The (upper case) amino acid sequence.
+     * @throws Exception Thrown if the sequence contains unknown amino acids.
+     */
+    public void setSequence(String sequence) throws Exception {
+        if (sequence == null || sequence.length() < 1)
+            throw new Exception("Cannot generate fragment ions for an empty sequence");
+
+        int length = sequence.length();
+        if (residueMasses.length < length)
+            residueMasses = new double[Math.max(length, residueMasses.length * 2)];
+
+        for (int i = 0; i < length; i++) {
+            char aminoAcid = sequence.charAt(i);
+            double mass = PeptideMassCalculator.getResidueMass(aminoAcid);
+
+            if (Double.isNaN(mass))
+                throw new Exception("Unknown amino acid '" + aminoAcid + "' in " + sequence);
+
+            residueMasses[i] = mass;
+        }
+
+        sequenceLength = length;
+        nIons = 0;
+    }
+
+    /**
+     * Adds a modification to the current sequence.
+     * @param position 0-based position of the modified amino acid.
+     * @param deltaMass The modification's monoisotopic delta mass.
+     */
+    public void addModification(int position, double deltaMass) {
+        if (position < 0 || position >= sequenceLength)
+            throw new IllegalArgumentException("Invalid modification position " + position);
+
+        residueMasses[position] += deltaMass;
+    }
+
+    /**
+     * Generates all ions of the current peptide with charge 1 up to
+     * maxCharge whose m/z lies within [minMz, maxMz].
+     * @param maxCharge The highest fragment ion charge.
+     * @param minMz The lowest m/z to report.
+     * @param maxMz The highest m/z to report.
+     * @return The number of generated ions.
+     */
+    public int generate(int maxCharge, double minMz, double maxMz) {
+        int[] charges = new int[Math.max(0, maxCharge)];
+        for (int i = 0; i < charges.length; i++) {
+            charges[i] = i + 1;
+        }
+
+        return generate(charges, minMz, maxMz);
+    }
+
+    /**
+     * Generates all ions of the current peptide with the passed charges
+     * whose m/z lies within [minMz, maxMz].
+     * @param charges The fragment ion charges to generate.
+     * @param minMz The lowest m/z to report.
+     * @param maxMz The highest m/z to report.
+     * @return The number of generated ions.
+     */
+    public int generate(int[] charges, double minMz, double maxMz) {
+        nIons = 0;
+
+        double peptideMass = H2O_MASS;
+        for (int i = 0; i < sequenceLength; i++) {
+            peptideMass += residueMasses[i];
+        }
+
+        for (int charge : charges) {
+            double bMass = 0;
+
+            // b1 to b(n-1) and y1 to y(n-1)
+            for (int position = 1; position < sequenceLength; position++) {
+                bMass += residueMasses[position - 1];
+                double yMass = peptideMass - bMass;
+
+                addIon(TYPE_B, position, charge, LOSS_NONE, bMass, minMz, maxMz);
+                addIon(TYPE_Y, sequenceLength - position, charge, LOSS_NONE, yMass, minMz, maxMz);
+
+                if (includeNeutralLosses) {
+                    addIon(TYPE_B, position, charge, LOSS_H2O, bMass - H2O_MASS, minMz, maxMz);
+                    addIon(TYPE_B, position, charge, LOSS_NH3, bMass - NH3_MASS, minMz, maxMz);
+                    addIon(TYPE_Y, sequenceLength - position, charge, LOSS_H2O, yMass - H2O_MASS, minMz, maxMz);
+                    addIon(TYPE_Y, sequenceLength - position, charge, LOSS_NH3, yMass - NH3_MASS, minMz, maxMz);
+                }
+            }
+
+            if (includePrecursor) {
+                addIon(TYPE_PRECURSOR, sequenceLength, charge, LOSS_NONE, peptideMass, minMz, maxMz);
+
+                if (includeNeutralLosses) {
+                    addIon(TYPE_PRECURSOR, sequenceLength, charge, LOSS_H2O, peptideMass - H2O_MASS, minMz, maxMz);
+                    addIon(TYPE_PRECURSOR, sequenceLength, charge, LOSS_NH3, peptideMass - NH3_MASS, minMz, maxMz);
+                }
+            }
+        }
+
+        sortIons(0, nIons);
+
+        return nIons;
+    }
+
+    private void addIon(int type, int position, int charge, int loss, double neutralMass, double minMz, double maxMz) {
+        double mz = (neutralMass + charge * PROTON_MASS) / charge;
+
+        if (mz < minMz || mz > maxMz)
+            return;
+
+        if (nIons == ionMz.length) {
+            int newSize = ionMz.length * 2;
+            ionMz = Arrays.copyOf(ionMz, newSize);
+            ionTypes = Arrays.copyOf(ionTypes, newSize);
+            ionPositions = Arrays.copyOf(ionPositions, newSize);
+            ionCharges = Arrays.copyOf(ionCharges, newSize);
+            ionLosses = Arrays.copyOf(ionLosses, newSize);
+        }
+
+        ionMz[nIons] = mz;
+        ionTypes[nIons] = type;
+        ionPositions[nIons] = position;
+        ionCharges[nIons] = charge;
+        ionLosses[nIons] = loss;
+        nIons++;
+    }
+
+    /**
+     * In-place quicksort of the ions in [from, to) by m/z.
+     */
+    private void sortIons(int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            double pivot = ionMz[(from + to) >>> 1];
+            int i = from, j = to - 1;
+
+            while (i <= j) {
+                while (ionMz[i] < pivot)
+                    i++;
+                while (ionMz[j] > pivot)
+                    j--;
+
+                if (i <= j)
+                    swapIons(i++, j--);
+            }
+
+            // recurse into the smaller part
+            if (j - from < to - i) {
+                sortIons(from, j + 1);
+                from = i;
+            }
+            else {
+                sortIons(i, to);
+                to = j + 1;
+            }
+        }
+
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && ionMz[j - 1] > ionMz[j]; j--) {
+                swapIons(j - 1, j);
+            }
+        }
+    }
+
+    private void swapIons(int i, int j) {
+        double mz = ionMz[i];
+        ionMz[i] = ionMz[j];
+        ionMz[j] = mz;
+
+        int tmp = ionTypes[i];
+        ionTypes[i] = ionTypes[j];
+        ionTypes[j] = tmp;
+
+        tmp = ionPositions[i];
+        ionPositions[i] = ionPositions[j];
+        ionPositions[j] = tmp;
+
+        tmp = ionCharges[i];
+        ionCharges[i] = ionCharges[j];
+        ionCharges[j] = tmp;
+
+        tmp = ionLosses[i];
+        ionLosses[i] = ionLosses[j];
+        ionLosses[j] = tmp;
+    }
+
+    public int getIonCount() {
+        return nIons;
+    }
+
+    public double getMz(int ionIndex) {
+        return ionMz[ionIndex];
+    }
+
+    public int getType(int ionIndex) {
+        return ionTypes[ionIndex];
+    }
+
+    public int getPosition(int ionIndex) {
+        return ionPositions[ionIndex];
+    }
+
+    public int getCharge(int ionIndex) {
+        return ionCharges[ionIndex];
+    }
+
+    public int getLoss(int ionIndex) {
+        return ionLosses[ionIndex];
+    }
+
+    public boolean isIncludePrecursor() {
+        return includePrecursor;
+    }
+
+    public void setIncludePrecursor(boolean includePrecursor) {
+        this.includePrecursor = includePrecursor;
+    }
+
+    public boolean isIncludeNeutralLosses() {
+        return includeNeutralLosses;
+    }
+
+    public void setIncludeNeutralLosses(boolean includeNeutralLosses) {
+        this.includeNeutralLosses = includeNeutralLosses;
+    }
+}
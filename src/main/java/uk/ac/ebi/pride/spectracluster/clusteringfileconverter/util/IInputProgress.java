@@ -0,0 +1,14 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * Reports how much of an input file was already consumed. This
+ * is used to estimate the remaining time of a conversion.
+ */
+public interface IInputProgress {
+    /**
+     * Returns the number of bytes of the input file that were
+     * processed so far. Implementations must be thread-safe.
+     * @return The number of bytes.
+     */
+    public long getBytesConsumed();
+}
@@ -0,0 +1,60 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * An entry of an output file's sidecar index.
+ *
+ * This class is immutable.
+ */
+public class IndexedEntry {
+    private final float precursorMz;
+    private final int charge;
+    private final long offset;
+    private final int length;
+    private final String clusterId;
+    private final String peptideSequence;
+
+    public IndexedEntry(float precursorMz, int charge, long offset, int length, String clusterId, String peptideSequence) {
+        this.precursorMz = precursorMz;
+        this.charge = charge;
+        this.offset = offset;
+        this.length = length;
+        this.clusterId = clusterId;
+        this.peptideSequence = peptideSequence;
+    }
+
+    public float getPrecursorMz() {
+        return precursorMz;
+    }
+
+    public int getCharge() {
+        return charge;
+    }
+
+    /**
+     * Returns the entry's byte offset in the indexed file.
+     * @return
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the entry's length in bytes.
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public String getClusterId() {
+        return clusterId;
+    }
+
+    /**
+     * Returns the cluster's most common peptide sequence.
+     * @return The sequence or null if the cluster is not identified.
+     */
+    public String getPeptideSequence() {
+        return peptideSequence;
+    }
+}
@@ -0,0 +1,134 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets. Every
+ * power of two is split into SUB_BUCKETS buckets of equal width. Thereby,
+ * the relative error of the returned percentiles is at most 1 / SUB_BUCKETS
+ * while the histogram only requires a few KB of memory independent of the
+ * number of recorded values.
+ *
+ * This class is thread-safe.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of buckets per power of two. Must be a power of two.
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    /**
+     * Buckets up to the highest power of two of a (positive) long (2^62).
+     */
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Adds a value to the histogram. Negative values are recorded as 0.
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets.incrementAndGet(getBucket(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long currentMax = maxNanos.get();
+        while (nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos))
+            currentMax = maxNanos.get();
+    }
+
+    /**
+     * Returns the bucket of the value. Values below SUB_BUCKETS have
+     * their own bucket.
+     */
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that is stored in the bucket.
+     */
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     * @return The mean in nanoseconds, 0 if no value was recorded.
+     */
+    public double getMeanNanos() {
+        long n = count.get();
+
+        return (n > 0) ? totalNanos.get() / (double) n : 0;
+    }
+
+    /**
+     * Returns the latency below which the passed fraction of values lies.
+     * The result is the upper bound of the value's bucket but never exceeds
+     * the highest recorded value.
+     * @param percentile The percentile between 0 and 100.
+     * @return The latency in nanoseconds, 0 if no value was recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+
+        long n = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+
+        if (n == 0)
+            return 0;
+
+        // rank of the value (1-based) that is returned
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+
+            if (seen >= rank)
+                return Math.min(getBucketUpperBound(i), maxNanos.get());
+        }
+
+        return maxNanos.get();
+    }
+}
@@ -0,0 +1,55 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+/**
+ * Immutable summary of a resolved modification.
+ */
+public class ModificationRecord {
+    private final String accession;
+    private final String name;
+    private final String description;
+    private final Double monoDeltaMass;
+    private final Double avgDeltaMass;
+    private final String mspName;
+
+    public ModificationRecord(String accession, String name, String description, Double monoDeltaMass, Double avgDeltaMass, String mspName) {
+        this.accession = accession;
+        this.name = name;
+        this.description = description;
+        this.monoDeltaMass = monoDeltaMass;
+        this.avgDeltaMass = avgDeltaMass;
+        this.mspName = mspName;
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return The monoisotopic delta mass or null if it is not defined.
+     */
+    public Double getMonoDeltaMass() {
+        return monoDeltaMass;
+    }
+
+    /**
+     * @return The average delta mass or null if it is not defined.
+     */
+    public Double getAvgDeltaMass() {
+        return avgDeltaMass;
+    }
+
+    /**
+     * @return The MSP name matching the monoisotopic delta mass or null if there is none.
+     */
+    public String getMspName() {
+        return mspName;
+    }
+}
@@ -0,0 +1,184 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pridemod.ModReader;
+import uk.ac.ebi.pridemod.model.PTM;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared registry of all modifications. Every accession is only
+ * resolved once through the ModReader and then kept as an immutable
+ * ModificationRecord.
+ *
+ * The MSP names defined in msp_mod_mapping.tsv are held in an array
+ * sorted by their delta mass so that the MSP name of a modification
+ * is found using a binary search.
+ *
+ * This class is thread-safe.
+ */
+public class ModificationRegistry {
+    /**
+     * Maximum difference in delta mass to match a modification to
+     * an MSP name.
+     */
+    public static final double MSP_NAME_TOLERANCE = 0.001;
+
+    /**
+     * Stored for accessions that cannot be resolved since the
+     * ConcurrentHashMap does not support null values.
+     */
+    private static final ModificationRecord UNKNOWN_MODIFICATION = new ModificationRecord(null, null, null, null, null, null);
+
+    private static ModificationRegistry instance;
+
+    private final ModReader modReader;
+    private final ConcurrentHashMap<String, ModificationRecord> modifications = new ConcurrentHashMap<String, ModificationRecord>();
+
+    private final double[] mspDeltas;
+    private final String[] mspNames;
+
+    public static synchronized ModificationRegistry getInstance() {
+        if (instance == null)
+            instance = new ModificationRegistry();
+
+        return instance;
+    }
+
+    private ModificationRegistry() {
+        modReader = ModReader.getInstance();
+
+        List<Object[]> mspMods = loadMspModMap();
+
+        // sort by delta, the sort is stable so that the file's order is kept for equal deltas
+        Collections.sort(mspMods, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] o1, Object[] o2) {
+                return ((Double) o1[1]).compareTo((Double) o2[1]);
+            }
+        });
+
+        mspNames = new String[mspMods.size()];
+        mspDeltas = new double[mspMods.size()];
+
+        for (int i = 0; i < mspNames.length; i++) {
+            mspNames[i] = (String) mspMods.get(i)[0];
+            mspDeltas[i] = (Double) mspMods.get(i)[1];
+        }
+    }
+
+    /**
+     * Returns the modification with the given accession.
+     * @param accession The modification's accession.
+     * @return The ModificationRecord or null in case the accession is unknown.
+     */
+    public ModificationRecord getModification(String accession) {
+        ModificationRecord modification = modifications.get(accession);
+
+        if (modification == null) {
+            modification = resolveModification(accession);
+            modifications.putIfAbsent(accession, modification);
+        }
+
+        return (modification == UNKNOWN_MODIFICATION) ? null : modification;
+    }
+
+    private ModificationRecord resolveModification(String accession) {
+        PTM ptm = modReader.getPTMbyAccession(accession);
+
+        if (ptm == null)
+            return UNKNOWN_MODIFICATION;
+
+        Double monoDeltaMass = ptm.getMonoDeltaMass();
+        String mspName = (monoDeltaMass != null) ? getMspName(monoDeltaMass) : null;
+
+        return new ModificationRecord(accession, ptm.getName(), ptm.getDescription(),
+                monoDeltaMass, ptm.getAveDeltaMass(), mspName);
+    }
+
+    /**
+     * Returns the MSP name whose delta mass is closest to the passed
+     * delta mass.
+     * @param deltaMass The delta mass to search for.
+     * @return The MSP name or null if no MSP name lies within MSP_NAME_TOLERANCE.
+     */
+    public String getMspName(double deltaMass) {
+        int low = 0, high = mspDeltas.length;
+
+        // find the first delta >= deltaMass
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (mspDeltas[mid] < deltaMass)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        // the closest delta is either at low or right before
+        int bestIndex = -1;
+        double bestDifference = MSP_NAME_TOLERANCE;
+
+        for (int i = low - 1; i <= low; i++) {
+            if (i < 0 || i >= mspDeltas.length)
+                continue;
+
+            double difference = Math.abs(mspDeltas[i] - deltaMass);
+            if (difference < bestDifference) {
+                bestIndex = i;
+                bestDifference = difference;
+            }
+        }
+
+        return (bestIndex >= 0) ? mspNames[bestIndex] : null;
+    }
+
+    /**
+     * Loads the MSP names and their delta masses.
+     * @return A list of [name, delta] pairs in the file's order.
+     */
+    private static List<Object[]> loadMspModMap() {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                ModificationRegistry.class.getClassLoader().getResourceAsStream("msp_mod_mapping.tsv")));
+
+        List<Object[]> mspMods = new ArrayList<Object[]>();
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                // remove comments
+                int index = line.indexOf('#');
+                if (index >= 0) {
+                    line = line.substring(0, index);
+                }
+
+                // ignore empty lines
+                if (line.length() < 1)
+                    continue;
+
+                // split based on fields
+                String[] fields = line.split("\t");
+
+                if (fields.length < 2)
+                    throw new IllegalStateException("Invalid line encountered in msp_mod_mapping.tsv");
+
+                String mspName = fields[0];
+                Double deltaMass = Double.parseDouble(fields[1]);
+
+                mspMods.add(new Object[] {mspName, deltaMass});
+            }
+
+            reader.close();
+
+            return mspMods;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Failed to load MSP mod name map.");
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats decimal numbers with a fixed number of decimals without
+ * creating any objects. The output is identical to String.format("%.nf")
+ * using the US locale: values are rounded half-up based on their
+ * shortest decimal representation (as returned by Double.toString).
+ *
+ * Ambiguous values (very close to the rounding boundary or very large
+ * values) are rounded using BigDecimal which is slower but rarely needed.
+ *
+ * Floats can also be written in their shortest representation in the
+ * format of Float.toString. The digits are searched using double
+ * arithmetic. Only if a candidate is too close to the limits of the
+ * float's rounding interval to decide, Float.toString is used.
+ */
+public class NumberFormatter {
+    /**
+     * Precision value that represents the shortest representation
+     * that uniquely identifies the value (formatted like Float.toString).
+     */
+    public static final int SHORTEST = -1;
+    /**
+     * Highest supported number of decimals.
+     */
+    public static final int MAX_DECIMALS = 9;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+    /**
+     * Correctly rounded powers of ten from 10^-MAX_DOUBLE_POWER to 10^MAX_DOUBLE_POWER.
+     */
+    private static final double[] DOUBLE_POWERS_OF_TEN;
+    private static final int MAX_DOUBLE_POWER = 64;
+    /**
+     * Number of significant digits that always identify a float.
+     */
+    private static final int MAX_FLOAT_DIGITS = 9;
+    /**
+     * Candidates closer than this (relative to their value) to the limits
+     * of the float's rounding interval are formatted using Float.toString.
+     */
+    private static final double SHORTEST_UNCERTAINTY = 1e-15;
+    /**
+     * Integers below this limit are exactly represented as double.
+     */
+    private static final double MAX_EXACT_DOUBLE_INTEGER = 9007199254740992.0;
+    private static final int MAX_EXACT_DOUBLE_POWER = 22;
+    /**
+     * Floats (and the midpoints between them) multiplied by up to this power
+     * of ten are exactly represented as double (25 + 28 bits).
+     */
+    private static final int MAX_EXACT_FLOAT_POWER = 12;
+    private static final double LOG10_2 = Math.log10(2);
+    /**
+     * Scaled values above this limit are always formatted using
+     * BigDecimal since the precision of a double is no longer sufficient
+     * to decide the rounding.
+     */
+    private static final double MAX_FAST_SCALED_VALUE = 1e9;
+    /**
+     * Scaled values whose fraction is closer than this to .5 are
+     * formatted using BigDecimal.
+     */
+    private static final double ROUNDING_UNCERTAINTY = 1e-6;
+    /**
+     * Scaled values above this limit cannot be represented as long.
+     */
+    private static final double MAX_LONG_SCALED_VALUE = 1e18;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+
+        DOUBLE_POWERS_OF_TEN = new double[2 * MAX_DOUBLE_POWER + 1];
+        for (int i = -MAX_DOUBLE_POWER; i <= MAX_DOUBLE_POWER; i++) {
+            DOUBLE_POWERS_OF_TEN[i + MAX_DOUBLE_POWER] = Double.parseDouble("1e" + i);
+        }
+    }
+
+    private NumberFormatter() {
+
+    }
+
+    /**
+     * Appends the value with exactly the given number of decimals.
+     * @param target The Appendable to write the value to.
+     * @param value The value to format.
+     * @param decimals Number of decimals (0 - MAX_DECIMALS).
+     * @throws IOException
+     */
+    public static void appendFixed(Appendable target, double value, int decimals) throws IOException {
+        appendDecimal(target, value, decimals, false);
+    }
+
+    /**
+     * Appends the value with at most the given number of decimals. Trailing
+     * zeros (and the decimal point if no decimals are left) are removed.
+     * @param target The Appendable to write the value to.
+     * @param value The value to format.
+     * @param decimals The maximum number of decimals (0 - MAX_DECIMALS).
+     * @throws IOException
+     */
+    public static void appendCompact(Appendable target, double value, int decimals) throws IOException {
+        appendDecimal(target, value, decimals, true);
+    }
+
+    /**
+     * Appends a peak value. In case precision is SHORTEST, the shortest
+     * representation that identifies the value is written in the format of
+     * Float.toString. Otherwise it is rounded to at most precision decimals
+     * without trailing zeros.
+     * @param target The Appendable to write the value to.
+     * @param value The value to format.
+     * @param precision The maximum number of decimals or SHORTEST.
+     * @throws IOException
+     */
+    public static void appendFloat(Appendable target, float value, int precision) throws IOException {
+        if (precision == SHORTEST)
+            appendShortest(target, value);
+        else
+            appendDecimal(target, value, precision, true);
+    }
+
+    /**
+     * Formats the value like String.format("%.nf") using the US locale.
+     * @param value The value to format.
+     * @param decimals Number of decimals (0 - MAX_DECIMALS).
+     * @return The formatted value.
+     */
+    public static String formatFixed(double value, int decimals) {
+        StringBuilder stringBuilder = new StringBuilder(24);
+        appendFixed(stringBuilder, value, decimals);
+
+        return stringBuilder.toString();
+    }
+
+    /**
+     * StringBuilder version of appendFixed that does not throw an IOException.
+     */
+    public static StringBuilder appendFixed(StringBuilder target, double value, int decimals) {
+        try {
+            appendDecimal(target, value, decimals, false);
+        }
+        catch (IOException e) {
+            // cannot happen for StringBuilder
+            throw new IllegalStateException(e);
+        }
+
+        return target;
+    }
+
+    /**
+     * Checks whether the passed value is a supported precision.
+     * @param precision
+     * @return
+     */
+    public static boolean isValidPrecision(int precision) {
+        return precision == SHORTEST || (precision >= 0 && precision <= MAX_DECIMALS);
+    }
+
+    private static void appendDecimal(Appendable target, double value, int decimals, boolean stripTrailingZeros) throws IOException {
+        if (decimals < 0 || decimals > MAX_DECIMALS)
+            throw new IllegalArgumentException("Unsupported number of decimals: " + decimals);
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            target.append(Double.toString(value));
+            return;
+        }
+
+        // String.format also keeps the sign of -0.0 and of values rounded to 0
+        if (Double.doubleToRawLongBits(value) < 0) {
+            target.append('-');
+            value = -value;
+        }
+
+        if (value * POWERS_OF_TEN[decimals] >= MAX_LONG_SCALED_VALUE) {
+            // does not fit into a long
+            BigDecimal rounded = new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP);
+            if (stripTrailingZeros && rounded.scale() > 0)
+                rounded = rounded.stripTrailingZeros();
+            target.append(rounded.toPlainString());
+            return;
+        }
+
+        long scaledValue = roundScaled(value, decimals);
+
+        long divisor = POWERS_OF_TEN[decimals];
+        long integerPart = scaledValue / divisor;
+        long fraction = scaledValue % divisor;
+
+        appendDigits(target, integerPart, 1);
+
+        if (decimals < 1)
+            return;
+
+        if (stripTrailingZeros) {
+            if (fraction == 0)
+                return;
+
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+        }
+
+        target.append('.');
+        appendDigits(target, fraction, decimals);
+    }
+
+    /**
+     * Appends the shortest decimal that rounds to the value. If there are
+     * several, the one closest to the value is used. At least two digits
+     * are considered so that integers end with ".0" like in Float.toString.
+     */
+    private static void appendShortest(Appendable target, float value) throws IOException {
+        if (Float.isNaN(value)) {
+            target.append("NaN");
+            return;
+        }
+
+        if (Float.floatToRawIntBits(value) < 0) {
+            target.append('-');
+            value = -value;
+        }
+
+        if (Float.isInfinite(value)) {
+            target.append("Infinity");
+            return;
+        }
+        if (value == 0) {
+            target.append("0.0");
+            return;
+        }
+
+        // all decimals between the midpoints to the neighbouring floats round to the value,
+        // the midpoints themselves only if the value's last bit is 0 (round half to even)
+        boolean limitsIncluded = (Float.floatToRawIntBits(value) & 1) == 0;
+        double exactValue = value;
+        double lowerLimit = (exactValue + Math.nextAfter(value, Double.NEGATIVE_INFINITY)) / 2;
+        float nextValue = Math.nextUp(value);
+        double upperLimit = Float.isInfinite(nextValue) ? exactValue + Math.ulp(value) / 2.0 : (exactValue + nextValue) / 2;
+
+        // exponent of the first digit, estimated from the binary exponent
+        int binaryExponent = Math.getExponent(value);
+        int exponent = (binaryExponent >= Float.MIN_EXPONENT) ? (int) Math.floor(binaryExponent * LOG10_2) : (int) Math.floor(Math.log10(exactValue));
+        if (exactValue >= getPowerOfTen(exponent + 1))
+            exponent++;
+        else if (exactValue < getPowerOfTen(exponent))
+            exponent--;
+
+        for (int nDigits = 2; nDigits <= MAX_FLOAT_DIGITS; nDigits++) {
+            int scale = exponent - nDigits + 1;
+            long lowerDigits = (long) Math.floor(scaleByPowerOfTen(exactValue, -scale));
+            lowerDigits = Math.max(POWERS_OF_TEN[nDigits - 1], Math.min(POWERS_OF_TEN[nDigits] - 1, lowerDigits));
+            long upperDigits = lowerDigits + 1;
+
+            // the candidates are compared to the value in the domain in which all numbers are exact
+            double lowerCandidate, upperCandidate, comparedValue, comparedLowerLimit, comparedUpperLimit;
+            boolean exact;
+
+            if (scale < 0 && scale >= -MAX_EXACT_FLOAT_POWER) {
+                lowerCandidate = lowerDigits;
+                upperCandidate = upperDigits;
+                comparedValue = scaleByPowerOfTen(exactValue, -scale);
+                comparedLowerLimit = scaleByPowerOfTen(lowerLimit, -scale);
+                comparedUpperLimit = scaleByPowerOfTen(upperLimit, -scale);
+                exact = true;
+            }
+            else {
+                lowerCandidate = scaleByPowerOfTen(lowerDigits, scale);
+                upperCandidate = scaleByPowerOfTen(upperDigits, scale);
+                comparedValue = exactValue;
+                comparedLowerLimit = lowerLimit;
+                comparedUpperLimit = upperLimit;
+                // (large) integers are exact
+                exact = scale >= 0 && scale <= MAX_EXACT_DOUBLE_POWER && upperCandidate < MAX_EXACT_DOUBLE_INTEGER;
+            }
+
+            if (!exact && (isNearLimit(lowerCandidate, lowerLimit, upperLimit) || isNearLimit(upperCandidate, lowerLimit, upperLimit))) {
+                target.append(Float.toString(value));
+                return;
+            }
+
+            boolean lowerValid = isWithinLimits(lowerCandidate, comparedLowerLimit, comparedUpperLimit, limitsIncluded);
+            boolean upperValid = isWithinLimits(upperCandidate, comparedLowerLimit, comparedUpperLimit, limitsIncluded);
+
+            if (!lowerValid && !upperValid)
+                continue;
+
+            if (lowerValid && upperValid) {
+                double lowerDistance = comparedValue - lowerCandidate;
+                double upperDistance = upperCandidate - comparedValue;
+
+                if (exact && lowerDistance == upperDistance) {
+                    // use the even digit
+                    upperValid = lowerDigits % 2 != 0;
+                }
+                else if (!exact && Math.abs(lowerDistance - upperDistance) <= SHORTEST_UNCERTAINTY * exactValue) {
+                    target.append(Float.toString(value));
+                    return;
+                }
+                else {
+                    upperValid = upperDistance < lowerDistance;
+                }
+            }
+
+            long digits = upperValid ? upperDigits : lowerDigits;
+            if (digits == POWERS_OF_TEN[nDigits]) {
+                // rounded up to the next power of ten
+                digits = POWERS_OF_TEN[nDigits - 1];
+                exponent++;
+            }
+
+            while (nDigits > 1 && digits % 10 == 0) {
+                digits /= 10;
+                nDigits--;
+            }
+
+            appendShortestDigits(target, digits, nDigits, exponent);
+            return;
+        }
+
+        target.append(Float.toString(value));
+    }
+
+    /**
+     * Appends the digits in the format of Float.toString: values from 10^-3
+     * to 10^7 are written as plain decimal, others in scientific notation.
+     * @param target
+     * @param digits The significant digits without trailing zeros.
+     * @param nDigits The number of significant digits.
+     * @param exponent The exponent of the first digit.
+     * @throws IOException
+     */
+    private static void appendShortestDigits(Appendable target, long digits, int nDigits, int exponent) throws IOException {
+        if (exponent < -3 || exponent >= 7) {
+            long divisor = POWERS_OF_TEN[nDigits - 1];
+
+            appendDigits(target, digits / divisor, 1);
+            target.append('.');
+            appendDigits(target, digits % divisor, Math.max(nDigits - 1, 1));
+            target.append('E');
+            if (exponent < 0) {
+                target.append('-');
+                exponent = -exponent;
+            }
+            appendDigits(target, exponent, 1);
+        }
+        else if (exponent < 0) {
+            target.append("0.");
+            for (int i = exponent + 1; i < 0; i++) {
+                target.append('0');
+            }
+            appendDigits(target, digits, 1);
+        }
+        else if (nDigits <= exponent + 1) {
+            appendDigits(target, digits, 1);
+            for (int i = nDigits; i <= exponent; i++) {
+                target.append('0');
+            }
+            target.append(".0");
+        }
+        else {
+            long divisor = POWERS_OF_TEN[nDigits - exponent - 1];
+
+            appendDigits(target, digits / divisor, 1);
+            target.append('.');
+            appendDigits(target, digits % divisor, nDigits - exponent - 1);
+        }
+    }
+
+    private static boolean isWithinLimits(double candidate, double lowerLimit, double upperLimit, boolean limitsIncluded) {
+        if (limitsIncluded)
+            return candidate >= lowerLimit && candidate <= upperLimit;
+        else
+            return candidate > lowerLimit && candidate < upperLimit;
+    }
+
+    /**
+     * Checks whether the candidate is too close to one of the limits to
+     * decide whether it lies within the limits.
+     */
+    private static boolean isNearLimit(double candidate, double lowerLimit, double upperLimit) {
+        double uncertainty = SHORTEST_UNCERTAINTY * candidate;
+
+        return Math.abs(candidate - lowerLimit) <= uncertainty || Math.abs(candidate - upperLimit) <= uncertainty;
+    }
+
+    private static double getPowerOfTen(int exponent) {
+        return DOUBLE_POWERS_OF_TEN[exponent + MAX_DOUBLE_POWER];
+    }
+
+    /**
+     * Returns value * 10^exponent. Negative exponents divide by the positive
+     * power since these are exact up to 10^22.
+     */
+    private static double scaleByPowerOfTen(double value, int exponent) {
+        if (exponent >= 0)
+            return value * getPowerOfTen(exponent);
+        else
+            return value / getPowerOfTen(-exponent);
+    }
+
+    /**
+     * Returns the positive value multiplied by 10^decimals and
+     * rounded half-up.
+     */
+    private static long roundScaled(double value, int decimals) {
+        double scaled = value * POWERS_OF_TEN[decimals];
+
+        if (scaled < MAX_FAST_SCALED_VALUE) {
+            double floor = Math.floor(scaled);
+            double remainder = scaled - floor;
+
+            if (Math.abs(remainder - 0.5) > ROUNDING_UNCERTAINTY)
+                return (long) floor + (remainder > 0.5 ? 1 : 0);
+        }
+
+        // round based on the shortest representation, as String.format does
+        BigDecimal rounded = new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP);
+
+        return rounded.unscaledValue().longValue();
+    }
+
+    /**
+     * Appends the positive value padded with leading zeros to minDigits.
+     */
+    private static void appendDigits(Appendable target, long value, int minDigits) throws IOException {
+        int nDigits = 1;
+        while (nDigits < POWERS_OF_TEN.length && POWERS_OF_TEN[nDigits] <= value) {
+            nDigits++;
+        }
+
+        for (int i = nDigits; i < minDigits; i++) {
+            target.append('0');
+        }
+
+        for (int i = nDigits - 1; i >= 0; i--) {
+            long digit = (value / POWERS_OF_TEN[i]) % 10;
+            target.append((char) ('0' + digit));
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parses a single .clustering file using multiple threads. The file is
+ * split into chunks of roughly the same size whose boundaries are
+ * aligned to "=Cluster=" lines. The boundaries are found by memory
+ * mapping small windows of the file around the chunks' target offsets.
+ *
+ * Since the ClusteringFileReader only reads complete files, every
+ * chunk is copied (together with the file's header) into a temporary
+ * file that is parsed by one of the threads. Thereby, the complete file
+ * is written and read a second time and up to nThreads chunks occupy
+ * the temporary directory at the same time. The chunks are deleted
+ * right after they were parsed, so they are usually still in the page
+ * cache when they are read. The clusters are passed to the listeners
+ * in the order of the original file by the calling thread.
+ *
+ * The file must not be compressed.
+ */
+public class ParallelClusteringFileReader implements IClusterSourceReader, IInputProgress {
+    public static final long DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    /**
+     * Size of the windows mapped to search for cluster boundaries.
+     */
+    public static final int SCAN_WINDOW_SIZE = 64 * 1024;
+
+    private static final byte[] CLUSTER_START = "\n=Cluster=".getBytes();
+
+    private final File clusteringFile;
+    private final int nThreads;
+    private final long chunkSize;
+    private final File temporaryDirectory;
+
+    /**
+     * Offsets of all chunks followed by the file's size.
+     */
+    private long[] chunkOffsets;
+    /**
+     * End offset of the last chunk whose clusters were passed to the listeners.
+     */
+    private volatile long bytesConsumed = 0;
+
+    public ParallelClusteringFileReader(File clusteringFile, int nThreads) {
+        this(clusteringFile, nThreads, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * Creates a new reader.
+     * @param clusteringFile The (uncompressed) .clustering file to read.
+     * @param nThreads Number of threads to parse the file.
+     * @param chunkSize Approximate size of the chunks in bytes.
+     * @param temporaryDirectory Directory to write the chunks to. If null, the system's
+     *                           default temporary directory is used.
+     */
+    public ParallelClusteringFileReader(File clusteringFile, int nThreads, long chunkSize, File temporaryDirectory) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("At least one thread is required");
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+
+        this.clusteringFile = clusteringFile;
+        this.nThreads = nThreads;
+        this.chunkSize = chunkSize;
+        this.temporaryDirectory = temporaryDirectory;
+    }
+
+    @Override
+    public List<ICluster> readAllClusters() throws Exception {
+        final List<ICluster> clusters = new ArrayList<ICluster>();
+        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(1);
+
+        listeners.add(new IClusterSourceListener() {
+            @Override
+            public void onNewClusterRead(ICluster newCluster) {
+                clusters.add(newCluster);
+            }
+        });
+
+        readClustersIteratively(listeners);
+
+        return clusters;
+    }
+
+    /**
+     * Parses the chunks in parallel and passes the clusters to the listeners
+     * in the file's order. At most nThreads + 1 parsed chunks are kept in memory.
+     * @param listeners
+     * @throws Exception
+     */
+    @Override
+    public void readClustersIteratively(Collection<IClusterSourceListener> listeners) throws Exception {
+        final long[] offsets = getChunkOffsets();
+        int nChunks = offsets.length - 1;
+
+        if (nChunks < 1)
+            return;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(nThreads, nChunks));
+        LinkedList<Future<List<ICluster>>> parsedChunks = new LinkedList<Future<List<ICluster>>>();
+        int nextChunk = 0;
+        int currentChunk = 0;
+
+        try {
+            while (nextChunk < nChunks && parsedChunks.size() <= nThreads) {
+                parsedChunks.add(executorService.submit(createChunkParser(offsets, nextChunk++)));
+            }
+
+            while (!parsedChunks.isEmpty()) {
+                List<ICluster> clusters;
+                try {
+                    clusters = parsedChunks.removeFirst().get();
+                }
+                catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+
+                // keep the threads busy while the clusters are processed
+                if (nextChunk < nChunks)
+                    parsedChunks.add(executorService.submit(createChunkParser(offsets, nextChunk++)));
+
+                for (ICluster cluster : clusters) {
+                    for (IClusterSourceListener listener : listeners) {
+                        listener.onNewClusterRead(cluster);
+                    }
+                }
+
+                bytesConsumed = offsets[++currentChunk];
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the end offset of the last chunk whose clusters were
+     * passed to the listeners.
+     * @return The number of bytes.
+     */
+    @Override
+    public long getBytesConsumed() {
+        return bytesConsumed;
+    }
+
+    private Callable<List<ICluster>> createChunkParser(final long[] offsets, final int chunk) {
+        return new Callable<List<ICluster>>() {
+            @Override
+            public List<ICluster> call() throws Exception {
+                return parseChunk(offsets[0], offsets[chunk], offsets[chunk + 1]);
+            }
+        };
+    }
+
+    /**
+     * Copies the file's header and the chunk into a temporary file and
+     * parses it.
+     * @param headerLength Length of the file's header.
+     * @param start The chunk's start offset.
+     * @param end The chunk's end offset (exclusive).
+     * @return The chunk's clusters.
+     * @throws Exception
+     */
+    private List<ICluster> parseChunk(long headerLength, long start, long end) throws Exception {
+        File chunkFile = File.createTempFile(clusteringFile.getName() + "-", ".clustering", temporaryDirectory);
+
+        try {
+            RandomAccessFile inputFile = new RandomAccessFile(clusteringFile, "r");
+            FileChannel chunkChannel = new FileOutputStream(chunkFile).getChannel();
+
+            try {
+                FileChannel inputChannel = inputFile.getChannel();
+                transfer(inputChannel, 0, headerLength, chunkChannel);
+                transfer(inputChannel, start, end, chunkChannel);
+            }
+            finally {
+                chunkChannel.close();
+                inputFile.close();
+            }
+
+            return new ClusteringFileReader(chunkFile).readAllClusters();
+        }
+        finally {
+            chunkFile.delete();
+        }
+    }
+
+    private void transfer(FileChannel inputChannel, long start, long end, FileChannel target) throws IOException {
+        long position = start;
+
+        while (position < end) {
+            long transferred = inputChannel.transferTo(position, end - position, target);
+            if (transferred < 1)
+                throw new IOException("Unexpected end of " + clusteringFile.getName());
+            position += transferred;
+        }
+    }
+
+    /**
+     * Returns the start offsets of all chunks followed by the file's
+     * size. Every chunk starts with a "=Cluster=" line. The first chunk's
+     * offset is therefore the length of the file's header.
+     * @return The offsets.
+     * @throws IOException
+     */
+    public long[] getChunkOffsets() throws IOException {
+        if (chunkOffsets != null)
+            return chunkOffsets;
+
+        RandomAccessFile file = new RandomAccessFile(clusteringFile, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+            List<Long> offsets = new ArrayList<Long>();
+
+            // the file may start with the first cluster
+            long clusterStart = findClusterStart(channel, 0, fileSize);
+
+            while (clusterStart >= 0) {
+                offsets.add(clusterStart);
+                clusterStart = findClusterStart(channel, clusterStart + chunkSize, fileSize);
+            }
+
+            // files without clusters only consist of the header
+            if (offsets.isEmpty())
+                offsets.add(fileSize);
+            offsets.add(fileSize);
+
+            long[] result = new long[offsets.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = offsets.get(i);
+            }
+
+            chunkOffsets = result;
+
+            return chunkOffsets;
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the offset of the first "=Cluster=" line starting at or
+     * after the passed position.
+     * @return The offset or -1 if there is no further cluster.
+     */
+    private static long findClusterStart(FileChannel channel, long from, long fileSize) throws IOException {
+        // the line break before the cluster may be the byte before "from"
+        long position = Math.max(0, from - 1);
+
+        if (from == 0 && startsWithCluster(channel, fileSize))
+            return 0;
+
+        while (position + CLUSTER_START.length <= fileSize) {
+            // the windows overlap so that no line split between two windows is missed
+            int windowSize = (int) Math.min(SCAN_WINDOW_SIZE + CLUSTER_START.length - 1, fileSize - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+            for (int i = 0; i + CLUSTER_START.length <= windowSize; i++) {
+                if (matches(window, i, CLUSTER_START, 0))
+                    return position + i + 1;
+            }
+
+            position += SCAN_WINDOW_SIZE;
+        }
+
+        return -1;
+    }
+
+    private static boolean startsWithCluster(FileChannel channel, long fileSize) throws IOException {
+        if (fileSize < CLUSTER_START.length - 1)
+            return false;
+
+        MappedByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, CLUSTER_START.length - 1);
+
+        return matches(start, 0, CLUSTER_START, 1);
+    }
+
+    /**
+     * Checks whether the pattern starting at patternStart is found at
+     * the buffer's position.
+     */
+    private static boolean matches(MappedByteBuffer buffer, int position, byte[] pattern, int patternStart) {
+        for (int i = patternStart; i < pattern.length; i++) {
+            if (buffer.get(position + i - patternStart) != pattern[i])
+                return false;
+        }
+
+        return true;
+    }
+}
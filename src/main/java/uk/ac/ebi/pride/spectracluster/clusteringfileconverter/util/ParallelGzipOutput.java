@@ -0,0 +1,310 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the passed data using multiple threads and writes it
+ * to a channel in gzip format. Every block of data is compressed into
+ * a separate gzip member. Concatenated members are a valid gzip file
+ * (RFC 1952) that can be read by any gzip reader, similar to the
+ * BGZF files used by samtools.
+ *
+ * Blocks are written in the order they were passed. The number of
+ * blocks that are compressed at the same time is limited. If the limit
+ * is reached, write blocks until the oldest block is compressed.
+ *
+ * This class is not thread-safe.
+ */
+public class ParallelGzipOutput {
+    /**
+     * Number of blocks per thread that may be compressed or waiting
+     * to be written at the same time.
+     */
+    public static final int PENDING_BLOCKS_PER_THREAD = 2;
+
+    private static final byte[] GZIP_HEADER = new byte[] {
+            0x1f, (byte) 0x8b, // magic number
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            0 // operating system
+    };
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private final WritableByteChannel channel;
+    private final int compressionLevel;
+    private final int maxPendingBlocks;
+    private final ExecutorService compressionPool;
+    private final ArrayDeque<Future<Block>> pendingBlocks = new ArrayDeque<Future<Block>>();
+    private final ArrayDeque<Block> freeBlocks = new ArrayDeque<Block>();
+    private long compressedBytes = 0;
+    private boolean blockWritten = false;
+    private boolean finished = false;
+
+    private final ThreadLocal<Deflater> deflaters;
+    /**
+     * All Deflaters created by the compression threads. Their native
+     * memory is released once the output is finished.
+     */
+    private final List<Deflater> createdDeflaters = new ArrayList<Deflater>();
+
+    /**
+     * Creates a new ParallelGzipOutput.
+     * @param channel The channel to write the compressed data to.
+     * @param nThreads Number of compression threads.
+     * @param compressionLevel Deflater compression level (0 - 9 or Deflater.DEFAULT_COMPRESSION).
+     */
+    public ParallelGzipOutput(WritableByteChannel channel, int nThreads, final int compressionLevel) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("At least one compression thread is required");
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+
+        this.channel = channel;
+        this.compressionLevel = compressionLevel;
+        this.maxPendingBlocks = nThreads * PENDING_BLOCKS_PER_THREAD;
+
+        // daemon threads so that a missing call to finish does not keep the JVM running
+        this.compressionPool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "gzip-compressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.deflaters = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                // raw deflate data, the gzip header and trailer are written separately
+                Deflater deflater = new Deflater(compressionLevel, true);
+
+                synchronized (createdDeflaters) {
+                    createdDeflaters.add(deflater);
+                }
+
+                return deflater;
+            }
+        };
+    }
+
+    /**
+     * Compresses the remaining data of the buffer as one block. The
+     * buffer can be re-used as soon as the function returns.
+     * @param data The data to compress.
+     * @throws IOException
+     */
+    public void write(ByteBuffer data) throws IOException {
+        if (finished)
+            throw new IllegalStateException("ParallelGzipOutput was already finished");
+        if (!data.hasRemaining())
+            return;
+
+        // limit the number of blocks in memory
+        while (pendingBlocks.size() >= maxPendingBlocks) {
+            writeOldestBlock();
+        }
+
+        final Block block = getFreeBlock(data.remaining());
+        block.length = data.remaining();
+        data.get(block.data, 0, block.length);
+
+        pendingBlocks.add(compressionPool.submit(new Callable<Block>() {
+            @Override
+            public Block call() throws Exception {
+                compressBlock(block);
+                return block;
+            }
+        }));
+
+        // write all blocks that are already compressed
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().isDone()) {
+            writeOldestBlock();
+        }
+    }
+
+    /**
+     * Waits until all pending blocks are compressed and written.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+    }
+
+    /**
+     * Waits until all blocks are compressed and written. In case no data was
+     * written at all, an empty gzip member is created. The channel is not closed.
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+
+        try {
+            flush();
+
+            if (!blockWritten) {
+                Block emptyBlock = new Block(0);
+                compressBlock(emptyBlock);
+                writeBlock(emptyBlock);
+            }
+        }
+        finally {
+            close();
+        }
+    }
+
+    /**
+     * Stops the compression threads and releases the Deflaters' native
+     * memory. Blocks that were not written yet are discarded. Called
+     * by finish.
+     */
+    public void close() {
+        if (compressionPool.isShutdown())
+            return;
+
+        finished = true;
+        compressionPool.shutdownNow();
+
+        try {
+            // the Deflaters must not be in use when they are released
+            while (!compressionPool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the running compressions
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (createdDeflaters) {
+            for (Deflater deflater : createdDeflaters) {
+                deflater.end();
+            }
+            createdDeflaters.clear();
+        }
+    }
+
+    /**
+     * Returns the number of compressed bytes written to the channel.
+     * @return
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    private Block getFreeBlock(int minSize) {
+        Block block = freeBlocks.poll();
+
+        if (block == null || block.data.length < minSize) {
+            block = new Block(minSize);
+        }
+
+        return block;
+    }
+
+    private void writeOldestBlock() throws IOException {
+        Future<Block> future = pendingBlocks.poll();
+        Block block;
+
+        try {
+            block = future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the compression");
+        }
+        catch (ExecutionException e) {
+            IOException ioException = new IOException("Failed to compress block");
+            ioException.initCause(e.getCause());
+            throw ioException;
+        }
+
+        writeBlock(block);
+        freeBlocks.add(block);
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        ByteBuffer compressedData = ByteBuffer.wrap(block.compressedData, 0, block.compressedLength);
+
+        while (compressedData.hasRemaining()) {
+            compressedBytes += channel.write(compressedData);
+        }
+
+        blockWritten = true;
+    }
+
+    /**
+     * Compresses the block into a complete gzip member. This function
+     * is called by the compression threads.
+     */
+    private void compressBlock(Block block) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(block.data, 0, block.length);
+        deflater.finish();
+
+        // worst case size of the deflate data, see deflateBound in zlib
+        int maxSize = GZIP_HEADER.length + block.length + (block.length >> 12) + (block.length >> 14) + 64 + GZIP_TRAILER_LENGTH;
+        if (block.compressedData == null || block.compressedData.length < maxSize)
+            block.compressedData = new byte[maxSize];
+
+        System.arraycopy(GZIP_HEADER, 0, block.compressedData, 0, GZIP_HEADER.length);
+        int length = GZIP_HEADER.length;
+
+        while (!deflater.finished()) {
+            // should never happen due to the worst case size
+            if (length == block.compressedData.length - GZIP_TRAILER_LENGTH) {
+                byte[] newData = new byte[block.compressedData.length * 2];
+                System.arraycopy(block.compressedData, 0, newData, 0, length);
+                block.compressedData = newData;
+            }
+
+            length += deflater.deflate(block.compressedData, length, block.compressedData.length - GZIP_TRAILER_LENGTH - length);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(block.data, 0, block.length);
+
+        length = writeIntLE(block.compressedData, length, (int) crc.getValue());
+        length = writeIntLE(block.compressedData, length, block.length);
+
+        block.compressedLength = length;
+    }
+
+    private static int writeIntLE(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >> 8);
+        target[offset + 2] = (byte) (value >> 16);
+        target[offset + 3] = (byte) (value >> 24);
+
+        return offset + 4;
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private int length;
+        private byte[] compressedData;
+        private int compressedLength;
+
+        private Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
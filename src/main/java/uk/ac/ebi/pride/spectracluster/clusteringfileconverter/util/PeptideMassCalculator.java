@@ -0,0 +1,205 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IModification;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calculates the theoretical (neutral monoisotopic) mass of peptides
+ * based on a fixed residue mass table. Modifications are resolved
+ * through the ModificationRegistry and calculated peptide masses are
+ * memoized so that the same peptide form is only calculated once,
+ * even if it was identified in thousands of spectra.
+ *
+ * This class is thread-safe.
+ */
+public class PeptideMassCalculator {
+    public static final double PROTON_MASS = 1.007276;
+    public static final double H2O_MASS = 18.010565;
+    /**
+     * Once this number of peptide masses is memoized, the memo is
+     * cleared to limit the memory usage.
+     */
+    public static final int MAX_MEMOIZED_PEPTIDES = 200000;
+
+    /**
+     * Monoisotopic residue masses indexed by (amino acid - 'A'). Unknown
+     * amino acids are set to NaN.
+     */
+    private static final double[] RESIDUE_MASSES = new double[26];
+
+    static {
+        Arrays.fill(RESIDUE_MASSES, Double.NaN);
+        setResidueMass('G', 57.021464);
+        setResidueMass('A', 71.037114);
+        setResidueMass('S', 87.032028);
+        setResidueMass('P', 97.052764);
+        setResidueMass('V', 99.068414);
+        setResidueMass('T', 101.047679);
+        setResidueMass('C', 103.009185);
+        setResidueMass('L', 113.084064);
+        setResidueMass('I', 113.084064);
+        setResidueMass('N', 114.042927);
+        setResidueMass('D', 115.026943);
+        setResidueMass('Q', 128.058578);
+        setResidueMass('K', 128.094963);
+        setResidueMass('E', 129.042593);
+        setResidueMass('M', 131.040485);
+        setResidueMass('H', 137.058912);
+        setResidueMass('F', 147.068414);
+        setResidueMass('U', 150.953633);
+        setResidueMass('R', 156.101111);
+        setResidueMass('Y', 163.063329);
+        setResidueMass('W', 186.079313);
+        setResidueMass('O', 237.147727);
+    }
+
+    private static final PeptideMassCalculator instance = new PeptideMassCalculator();
+
+    private final ConcurrentHashMap<String, Double> peptideMasses = new ConcurrentHashMap<String, Double>();
+
+    public static PeptideMassCalculator getInstance() {
+        return instance;
+    }
+
+    private static void setResidueMass(char aminoAcid, double mass) {
+        RESIDUE_MASSES[aminoAcid - 'A'] = mass;
+    }
+
+    /**
+     * Returns the monoisotopic residue mass of the amino acid.
+     * @param aminoAcid The (upper case) amino acid.
+     * @return The mass or NaN in case the amino acid is unknown.
+     */
+    public static double getResidueMass(char aminoAcid) {
+        if (aminoAcid < 'A' || aminoAcid > 'Z')
+            return Double.NaN;
+
+        return RESIDUE_MASSES[aminoAcid - 'A'];
+    }
+
+    /**
+     * Returns the theoretical neutral mass of the PSM's peptide
+     * including all modifications.
+     * @param psm
+     * @return The neutral monoisotopic mass.
+     * @throws Exception Thrown in case the sequence contains unknown amino acids or
+     *                   a modification cannot be resolved.
+     */
+    public double getPeptideMass(IPeptideSpectrumMatch psm) throws Exception {
+        String key = getPeptideKey(psm);
+        Double mass = peptideMasses.get(key);
+
+        if (mass == null) {
+            mass = calculatePeptideMass(psm);
+
+            if (peptideMasses.size() >= MAX_MEMOIZED_PEPTIDES)
+                peptideMasses.clear();
+            peptideMasses.put(key, mass);
+        }
+
+        return mass;
+    }
+
+    /**
+     * Estimates the charge by dividing the theoretical mass by the observed
+     * precursor m/z.
+     * @param psm
+     * @param precursorMz
+     * @return The estimated charge.
+     * @throws Exception
+     */
+    public int estimateCharge(IPeptideSpectrumMatch psm, double precursorMz) throws Exception {
+        double peptideMass = getPeptideMass(psm);
+
+        return Math.round((float) peptideMass / (float) precursorMz);
+    }
+
+    /**
+     * Returns the difference between the observed precursor m/z and
+     * the PSM's theoretical m/z at the estimated charge.
+     * @param psm
+     * @param precursorMz
+     * @return The delta m/z (observed - theoretical).
+     * @throws Exception Thrown if the charge cannot be estimated.
+     */
+    public double getDeltaMz(IPeptideSpectrumMatch psm, double precursorMz) throws Exception {
+        double peptideMass = getPeptideMass(psm);
+        int charge = Math.round((float) peptideMass / (float) precursorMz);
+
+        if (charge == 0)
+            throw new Exception("Failed to estimate charge");
+
+        double theoreticalMz = (peptideMass + charge * PROTON_MASS) / charge;
+
+        return precursorMz - theoreticalMz;
+    }
+
+    /**
+     * The key consists of the sequence and the sorted modification
+     * accessions since the peptide's mass does not depend on the
+     * modifications' positions.
+     */
+    private static String getPeptideKey(IPeptideSpectrumMatch psm) {
+        List<IModification> modifications = psm.getModifications();
+
+        if (modifications.size() < 1)
+            return psm.getSequence();
+
+        String[] accessions = new String[modifications.size()];
+        for (int i = 0; i < accessions.length; i++) {
+            accessions[i] = modifications.get(i).getAccession();
+        }
+        Arrays.sort(accessions);
+
+        StringBuilder key = new StringBuilder(psm.getSequence());
+        for (String accession : accessions) {
+            key.append('/').append(accession);
+        }
+
+        return key.toString();
+    }
+
+    private double calculatePeptideMass(IPeptideSpectrumMatch psm) throws Exception {
+        String sequence = psm.getSequence();
+        double mass = H2O_MASS;
+
+        for (int i = 0; i < sequence.length(); i++) {
+            double residueMass = getResidueMass(sequence.charAt(i));
+
+            if (Double.isNaN(residueMass))
+                throw new Exception("Unknown amino acid '" + sequence.charAt(i) + "' in " + sequence);
+
+            mass += residueMass;
+        }
+
+        for (IModification modification : psm.getModifications()) {
+            mass += getModificationMass(modification.getAccession());
+        }
+
+        return mass;
+    }
+
+    /**
+     * Returns the monoisotopic delta mass of the modification.
+     * @param accession The modification's accession.
+     * @return The delta mass.
+     * @throws Exception Thrown if the modification is unknown or has no mass.
+     */
+    public double getModificationMass(String accession) throws Exception {
+        // fix a typo in the annotated data
+        String modAccession = ("MOD:010900".equals(accession)) ? "MOD:01090" : accession;
+
+        ModificationRecord modification = ModificationRegistry.getInstance().getModification(modAccession);
+
+        if (modification == null)
+            throw new Exception("Unknown PTM encountered: " + modAccession);
+        if (modification.getMonoDeltaMass() == null)
+            throw new Exception("No mass specified for " + modAccession);
+
+        return modification.getMonoDeltaMass();
+    }
+}
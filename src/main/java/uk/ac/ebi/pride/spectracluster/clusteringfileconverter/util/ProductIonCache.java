@@ -0,0 +1,167 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import uk.ac.ebi.pride.utilities.iongen.model.ProductIonSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, size-bounded cache of theoretical product ions.
+ * The key is the canonical peptide signature (sequence, modifications
+ * and charge) as created by SpectrumAnnotator.
+ *
+ * Lookups do not lock, so that the worker threads of a parallel
+ * conversion do not wait for each other. Every entry stores the time
+ * of its last access. Once the cache is full, the least recently used
+ * entries are removed in batches of EVICTION_BATCH_FRACTION of the
+ * maximum size.
+ *
+ * The cached ProductIonSetS are shared between clusters and threads
+ * and must therefore not be modified.
+ */
+public class ProductIonCache {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    /**
+     * Fraction of the maximum size that is removed in addition to the
+     * surplus entries once the cache is full.
+     */
+    public static final double EVICTION_BATCH_FRACTION = 0.1;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    /**
+     * Logical clock used to order the accesses.
+     */
+    private final AtomicLong accessClock = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private volatile int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ProductIonCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached ProductIonSet for the passed key.
+     * @param key The peptide signature.
+     * @return The ProductIonSet or null in case it is not cached.
+     */
+    public ProductIonSet get(String key) {
+        Entry entry = cache.get(key);
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        entry.lastAccess = accessClock.incrementAndGet();
+        hits.incrementAndGet();
+
+        return entry.productIonSet;
+    }
+
+    public void put(String key, ProductIonSet productIonSet) {
+        if (maxSize < 1)
+            return;
+
+        cache.put(key, new Entry(productIonSet, accessClock.incrementAndGet()));
+
+        if (cache.size() > maxSize)
+            evict(maxSize - (int) (maxSize * EVICTION_BATCH_FRACTION));
+    }
+
+    /**
+     * Removes the least recently used entries until at most
+     * targetSize entries are left.
+     * @param targetSize
+     */
+    private void evict(int targetSize) {
+        synchronized (evictionLock) {
+            int surplus = cache.size() - Math.max(0, targetSize);
+            if (surplus <= 0)
+                return;
+
+            List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(cache.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+                @Override
+                public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+                    long access1 = o1.getValue().lastAccess;
+                    long access2 = o2.getValue().lastAccess;
+
+                    return (access1 < access2) ? -1 : ((access1 == access2) ? 0 : 1);
+                }
+            });
+
+            for (int i = 0; i < surplus && i < entries.size(); i++) {
+                Map.Entry<String, Entry> eldest = entries.get(i);
+
+                // the entry may have been replaced in the meantime
+                if (cache.remove(eldest.getKey(), eldest.getValue()))
+                    evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Changes the maximum number of cached entries. Setting it to
+     * 0 disables the cache.
+     * @param maxSize
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+
+        evict(maxSize);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void clear() {
+        synchronized (evictionLock) {
+            cache.clear();
+            hits.set(0);
+            misses.set(0);
+            evictions.set(0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses, %d evictions, %d/%d entries",
+                hits.get(), misses.get(), evictions.get(), cache.size(), maxSize);
+    }
+
+    private static class Entry {
+        private final ProductIonSet productIonSet;
+        private volatile long lastAccess;
+
+        private Entry(ProductIonSet productIonSet, long lastAccess) {
+            this.productIonSet = productIonSet;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
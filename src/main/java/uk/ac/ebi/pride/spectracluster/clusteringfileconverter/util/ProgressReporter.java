@@ -0,0 +1,83 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.io.PrintStream;
+
+/**
+ * Periodically prints the progress of a conversion (see
+ * ConversionMetrics.getProgressLine) from a background thread.
+ */
+public class ProgressReporter {
+    private final ConversionMetrics metrics;
+    private final long intervalMillis;
+    private final PrintStream output;
+    private final Object lock = new Object();
+    private Thread reporterThread;
+    private boolean stopped = false;
+
+    /**
+     * Creates a new ProgressReporter.
+     * @param metrics The metrics of the conversion.
+     * @param intervalMillis Time between two reports in milliseconds.
+     * @param output The stream to print the reports to.
+     */
+    public ProgressReporter(ConversionMetrics metrics, long intervalMillis, PrintStream output) {
+        if (intervalMillis < 1)
+            throw new IllegalArgumentException("Invalid report interval " + intervalMillis);
+
+        this.metrics = metrics;
+        this.intervalMillis = intervalMillis;
+        this.output = output;
+    }
+
+    /**
+     * Starts the background thread.
+     */
+    public void start() {
+        if (reporterThread != null)
+            throw new IllegalStateException("ProgressReporter was already started.");
+
+        reporterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reportProgress();
+            }
+        }, "progress-reporter");
+        reporterThread.setDaemon(true);
+        reporterThread.start();
+    }
+
+    private void reportProgress() {
+        synchronized (lock) {
+            while (!stopped) {
+                try {
+                    lock.wait(intervalMillis);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                if (!stopped)
+                    output.println(metrics.getProgressLine());
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread without printing a further report.
+     */
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+
+        if (reporterThread != null) {
+            try {
+                reporterThread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Suffix array over the concatenated sequences of all proteins.
+ * Peptides are mapped to proteins using a binary search on the
+ * suffix array instead of scanning every protein sequence.
+ *
+ * The suffixes are sorted I/L agnostic (every I is treated as
+ * L). Exact matches are found by additionally comparing the
+ * original residues of every hit.
+ *
+ * All data is held in buffers so that a previously created index
+ * can be used directly from a memory mapped index file (see
+ * FastaIndexFile).
+ */
+public class ProteinSequenceIndex {
+    /**
+     * Separates protein sequences in the residue array. Any
+     * non-letter of the protein sequence is replaced by this
+     * separator.
+     */
+    public static final byte SEPARATOR = '|';
+    /**
+     * Suffixes are only sorted based on their first MAX_SORT_DEPTH
+     * residues. Longer peptides are verified against the residues.
+     */
+    public static final int MAX_SORT_DEPTH = 64;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final ByteBuffer residues;
+    private final int nResidues;
+    private final IntBuffer proteinStarts;
+    private final IntBuffer suffixArray;
+
+    /**
+     * Creates the index and sorts the suffixes.
+     * @param residues All (upper case) protein sequences, each protein followed by the SEPARATOR.
+     * @param proteinStarts The (sorted) start position of every protein in the residue array.
+     */
+    public ProteinSequenceIndex(byte[] residues, int[] proteinStarts) {
+        this.residues = ByteBuffer.wrap(residues);
+        this.nResidues = residues.length;
+        this.proteinStarts = IntBuffer.wrap(proteinStarts);
+        this.suffixArray = IntBuffer.wrap(createSuffixArray());
+    }
+
+    /**
+     * Creates the index based on an already sorted suffix array.
+     * @param residues All (upper case) protein sequences, each protein followed by the SEPARATOR.
+     * @param proteinStarts The (sorted) start position of every protein in the residue array.
+     * @param suffixArray The sorted suffix array.
+     */
+    public ProteinSequenceIndex(ByteBuffer residues, IntBuffer proteinStarts, IntBuffer suffixArray) {
+        this.residues = residues;
+        this.nResidues = residues.limit();
+        this.proteinStarts = proteinStarts;
+        this.suffixArray = suffixArray;
+    }
+
+    private int[] createSuffixArray() {
+        int nSuffixes = 0;
+        for (int i = 0; i < nResidues; i++) {
+            if (residues.get(i) != SEPARATOR)
+                nSuffixes++;
+        }
+
+        int[] suffixes = new int[nSuffixes];
+        int index = 0;
+        for (int i = 0; i < nResidues; i++) {
+            if (residues.get(i) != SEPARATOR)
+                suffixes[index++] = i;
+        }
+
+        sortSuffixes(suffixes, 0, suffixes.length, 0);
+
+        return suffixes;
+    }
+
+    /**
+     * Multikey quicksort (Bentley & Sedgewick) of the suffixes
+     * in the range [low, high) that share the first "depth" residues.
+     */
+    private void sortSuffixes(int[] suffixes, int low, int high, int depth) {
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            int pivot = getKey(medianOfThree(suffixes, low, low + (high - low) / 2, high - 1, depth), depth);
+
+            // three-way partition: [low, lt) < pivot, [lt, gt] == pivot, (gt, high) > pivot
+            int lt = low, gt = high - 1, i = low;
+            while (i <= gt) {
+                int key = getKey(suffixes[i], depth);
+
+                if (key < pivot)
+                    swap(suffixes, lt++, i++);
+                else if (key > pivot)
+                    swap(suffixes, i, gt--);
+                else
+                    i++;
+            }
+
+            sortSuffixes(suffixes, low, lt, depth);
+
+            // suffixes that ended (key 0) are equal
+            if (pivot != 0 && depth + 1 < MAX_SORT_DEPTH)
+                sortSuffixes(suffixes, lt, gt + 1, depth + 1);
+
+            low = gt + 1;
+        }
+
+        // insertion sort for small ranges
+        for (int i = low + 1; i < high; i++) {
+            for (int j = i; j > low && compareSuffixes(suffixes[j - 1], suffixes[j], depth) > 0; j--) {
+                swap(suffixes, j - 1, j);
+            }
+        }
+    }
+
+    private int medianOfThree(int[] suffixes, int a, int b, int c, int depth) {
+        int keyA = getKey(suffixes[a], depth);
+        int keyB = getKey(suffixes[b], depth);
+        int keyC = getKey(suffixes[c], depth);
+
+        if (keyA < keyB) {
+            if (keyB < keyC)
+                return suffixes[b];
+            return (keyA < keyC) ? suffixes[c] : suffixes[a];
+        }
+
+        if (keyA < keyC)
+            return suffixes[a];
+        return (keyB < keyC) ? suffixes[c] : suffixes[b];
+    }
+
+    private int compareSuffixes(int suffixA, int suffixB, int depth) {
+        for (int d = depth; d < MAX_SORT_DEPTH; d++) {
+            int keyA = getKey(suffixA, d);
+            int keyB = getKey(suffixB, d);
+
+            if (keyA != keyB)
+                return keyA - keyB;
+            if (keyA == 0)
+                return 0;
+        }
+
+        return 0;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    /**
+     * Returns the I/L agnostic residue at the given depth of the
+     * suffix or 0 in case the suffix (ie. its protein) ended.
+     */
+    private int getKey(int suffix, int depth) {
+        if (depth >= MAX_SORT_DEPTH)
+            return 0;
+
+        int position = suffix + depth;
+        if (position >= nResidues)
+            return 0;
+
+        byte residue = residues.get(position);
+        if (residue == SEPARATOR)
+            return 0;
+
+        return normalizeResidue(residue);
+    }
+
+    private static int normalizeResidue(int residue) {
+        return (residue == 'I') ? 'L' : residue;
+    }
+
+    /**
+     * Returns the indices of all proteins containing the peptide.
+     * @param peptideSequence The (upper case) peptide sequence.
+     * @param ilAgnostic If set, I and L are treated as identical.
+     * @return The sorted indices of all matching proteins.
+     */
+    public int[] findProteins(String peptideSequence, boolean ilAgnostic) {
+        if (peptideSequence == null || peptideSequence.length() < 1)
+            return new int[0];
+
+        int[] pattern = new int[Math.min(peptideSequence.length(), MAX_SORT_DEPTH)];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = normalizeResidue(peptideSequence.charAt(i));
+        }
+
+        int from = findBound(pattern, false);
+        int to = findBound(pattern, true);
+        boolean verify = !ilAgnostic || peptideSequence.length() > pattern.length;
+
+        int[] proteins = new int[to - from];
+        int nProteins = 0;
+
+        for (int i = from; i < to; i++) {
+            int suffix = suffixArray.get(i);
+
+            if (verify && !matchesAt(suffix, peptideSequence, ilAgnostic))
+                continue;
+
+            proteins[nProteins++] = getProteinIndex(suffix);
+        }
+
+        // remove duplicates
+        Arrays.sort(proteins, 0, nProteins);
+        int nUnique = 0;
+        for (int i = 0; i < nProteins; i++) {
+            if (nUnique == 0 || proteins[nUnique - 1] != proteins[i])
+                proteins[nUnique++] = proteins[i];
+        }
+
+        return Arrays.copyOf(proteins, nUnique);
+    }
+
+    /**
+     * Binary search for the first suffix that is larger (or equal if upper is false)
+     * than the pattern when comparing the pattern's length.
+     */
+    private int findBound(int[] pattern, boolean upper) {
+        int low = 0, high = suffixArray.limit();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareToPattern(suffixArray.get(mid), pattern);
+
+            if (comparison < 0 || (upper && comparison == 0))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    private int compareToPattern(int suffix, int[] pattern) {
+        for (int d = 0; d < pattern.length; d++) {
+            int key = getKey(suffix, d);
+
+            if (key != pattern[d])
+                return key - pattern[d];
+        }
+
+        return 0;
+    }
+
+    private boolean matchesAt(int suffix, String peptideSequence, boolean ilAgnostic) {
+        if (suffix + peptideSequence.length() > nResidues)
+            return false;
+
+        for (int i = 0; i < peptideSequence.length(); i++) {
+            int residue = residues.get(suffix + i);
+            int peptideResidue = peptideSequence.charAt(i);
+
+            if (ilAgnostic) {
+                residue = normalizeResidue(residue);
+                peptideResidue = normalizeResidue(peptideResidue);
+            }
+
+            if (residue != peptideResidue)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the index of the protein the residue position belongs to.
+     */
+    private int getProteinIndex(int position) {
+        int low = 0, high = proteinStarts.limit() - 1;
+
+        // find the last protein starting at or before the position
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (proteinStarts.get(mid) <= position)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+
+    public int getProteinCount() {
+        return proteinStarts.limit();
+    }
+
+    public ByteBuffer getResidues() {
+        return residues.duplicate();
+    }
+
+    public IntBuffer getProteinStarts() {
+        return proteinStarts.duplicate();
+    }
+
+    public IntBuffer getSuffixArray() {
+        return suffixArray.duplicate();
+    }
+}
@@ -6,49 +6,91 @@ import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpect
 import uk.ac.ebi.pride.utilities.exception.IllegalAminoAcidSequenceException;
 import uk.ac.ebi.pride.utilities.iongen.impl.DefaultPrecursorIon;
 import uk.ac.ebi.pride.utilities.iongen.model.*;
-import uk.ac.ebi.pride.utilities.mol.Group;
 import uk.ac.ebi.pride.utilities.mol.MoleculeUtilities;
 import uk.ac.ebi.pride.utilities.mol.PTModification;
 import uk.ac.ebi.pride.utilities.mol.Peptide;
-import uk.ac.ebi.pridemod.ModReader;
-import uk.ac.ebi.pridemod.model.PTM;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by jg on 21.10.15.
  */
 public class SpectrumAnnotator {
+    /**
+     * Theoretical product ions of all recently annotated peptides.
+     */
+    private static final ProductIonCache productIonCache = new ProductIonCache(ProductIonCache.DEFAULT_MAX_SIZE);
+    /**
+     * b- and y-ion generators used for the explained TIC. Every
+     * thread reuses its own generator.
+     */
+    private static final ThreadLocal<FragmentIonGenerator> fragmentIonGenerators = new ThreadLocal<FragmentIonGenerator>() {
+        @Override
+        protected FragmentIonGenerator initialValue() {
+            return new FragmentIonGenerator();
+        }
+    };
+    /**
+     * Peptide used to determine the fragment ion charges created by
+     * pride-utilities.
+     */
+    private static final String CHARGE_REFERENCE_PEPTIDE = "LGEYGFQNALIVR";
+    /**
+     * The b- and y-ion charges created by pride-utilities per precursor charge.
+     */
+    private static final ConcurrentHashMap<Integer, int[]> fragmentIonCharges = new ConcurrentHashMap<Integer, int[]>();
+
     private SpectrumAnnotator() {
 
     }
 
     public static float getAnnotatedTic(ICluster cluster, float fragmentIonTolerance) throws Exception {
-        ClusterUtilities clusterUtilities = new ClusterUtilities(cluster);
+        return getAnnotatedTic(new ClusterAnalysis(cluster), fragmentIonTolerance);
+    }
 
-        IPeptideSpectrumMatch maxPsm = clusterUtilities.getMostCommonPsm();
+    /**
+     * Returns the fraction of the total ion current explained by
+     * b- and y-ions. The b- and y-ions are generated using the thread's
+     * FragmentIonGenerator with the same charges as pride-utilities
+     * (see getFragmentIonCharges) and only within the observed m/z range.
+     * @param clusterAnalysis
+     * @param fragmentIonTolerance
+     * @return
+     * @throws Exception
+     */
+    public static float getAnnotatedTic(ClusterAnalysis clusterAnalysis, float fragmentIonTolerance) throws Exception {
+        ConsensusPeaks peaks = clusterAnalysis.getConsensusPeaks();
+        IPeptideSpectrumMatch maxPsm = clusterAnalysis.getMostCommonPsm();
 
         if (maxPsm == null)
             return 0;
 
-        int estimatedCharge = clusterUtilities.getCharge();
+        int charge = clusterAnalysis.getCharge();
+        if (charge < 1)
+            throw new Exception("Invalid charge " + charge + " for fragment ion generation");
 
-        ProductIonSet productIonSet = getProductIonSet(cluster, maxPsm, estimatedCharge);
+        FragmentIonGenerator fragmentIonGenerator = fragmentIonGenerators.get();
+        setPeptide(fragmentIonGenerator, maxPsm);
 
-        if (productIonSet == null)
-            return 0;
+        // setting the peptide removes all previously generated ions
+        if (peaks.getPeakCount() > 0) {
+            fragmentIonGenerator.generate(getFragmentIonCharges(charge),
+                    peaks.getSortedMz(0) - fragmentIonTolerance,
+                    peaks.getSortedMz(peaks.getPeakCount() - 1) + fragmentIonTolerance);
+        }
 
-        List<Integer> annotatedPeakIndices = getMatchedPeakIndices(cluster, productIonSet, fragmentIonTolerance);
+        BitSet annotatedPeaks = getMatchedPeaks(peaks, fragmentIonGenerator, fragmentIonTolerance);
 
         double totalTIC = 0;
         double annotatedTIC = 0;
 
-        for (int peakIndex = 0; peakIndex < cluster.getConsensusIntensValues().size(); peakIndex++) {
-            float intensity = cluster.getConsensusIntensValues().get(peakIndex);
+        for (int peakIndex = 0; peakIndex < peaks.getPeakCount(); peakIndex++) {
+            float intensity = peaks.getIntensity(peakIndex);
 
             totalTIC += intensity;
 
-            if (annotatedPeakIndices.contains(peakIndex)) {
+            if (annotatedPeaks.get(peakIndex)) {
                 annotatedTIC += intensity;
             }
         }
@@ -66,83 +108,177 @@ public class SpectrumAnnotator {
      * @throws Exception
      */
     public static Map<Integer, ProductIon> getPeakProductIons(ICluster cluster, float tolerance, ClusterUtilities clusterUtilities) throws Exception {
-        ProductIonSet productIonSet = getProductIonSet(cluster, clusterUtilities.getMostCommonPsm(), clusterUtilities.getCharge());
+        ProductIonSet productIonSet = getProductIonSet(clusterUtilities.getMostCommonPsm(), clusterUtilities.getCharge());
 
+        return getPeakProductIons(new ConsensusPeaks(cluster), productIonSet, tolerance);
+    }
+
+    /**
+     * Returns the peaks' annotations in the form of ProductIonS based on
+     * the peaks and product ions cached in the ClusterAnalysis. The key
+     * is the 0-based peak's index.
+     * @param clusterAnalysis
+     * @param tolerance
+     * @return
+     * @throws Exception
+     */
+    public static Map<Integer, ProductIon> getPeakProductIons(ClusterAnalysis clusterAnalysis, float tolerance) throws Exception {
+        return getPeakProductIons(clusterAnalysis.getConsensusPeaks(), clusterAnalysis.getProductIonSet(), tolerance);
+    }
+
+    private static Map<Integer, ProductIon> getPeakProductIons(ConsensusPeaks peaks, ProductIonSet productIonSet, float tolerance) {
         Map<Integer, ProductIon> peakProductIons = new HashMap<Integer, ProductIon>();
-        List<Float> sortedMz = new ArrayList<Float>(cluster.getConsensusMzValues());
-        Collections.sort(sortedMz);
+        int nPeaks = peaks.getPeakCount();
 
-        int lastIndex = 0;
+        int currentPeak = 0;
 
         // iterate over all possible product ions and try to match them against the peaks
         // - product ions are sorted according to m/z
         for (ProductIon productIon : productIonSet) {
+            if (currentPeak >= nPeaks)
+                break;
+
             double productMz = productIon.getMassOverCharge();
 
-            for (int i = lastIndex; i < sortedMz.size(); i++) {
-                float peakMz = sortedMz.get(i);
+            // peaks that are too low cannot match any of the following (larger) ions
+            while (currentPeak < nPeaks && peaks.getSortedMz(currentPeak) < productMz - tolerance)
+                currentPeak++;
 
-                // if it's too low, go on
-                if (peakMz < productMz - tolerance)
-                    continue;
+            // it's a match if the peak is within the range
+            if (currentPeak < nPeaks && peaks.getSortedMz(currentPeak) <= productMz + tolerance) {
+                peakProductIons.put(peaks.getSortedPeakIndex(currentPeak), productIon);
+                currentPeak++;
+            }
+        }
 
-                // if the peak is outside the range, it's no match
-                if (peakMz > productMz + tolerance)
-                    break;
+        return peakProductIons;
+    }
 
-                // it's a match
-                peakProductIons.put(i, productIon);
-                lastIndex = i + 1;
-                break;
+    /**
+     * Sets the PSM's sequence and modifications in the FragmentIonGenerator.
+     * As in buildModificationMap, only the last modification on every
+     * position is used.
+     * @param fragmentIonGenerator
+     * @param psm
+     * @throws Exception
+     */
+    private static void setPeptide(FragmentIonGenerator fragmentIonGenerator, IPeptideSpectrumMatch psm) throws Exception {
+        String sequence = psm.getSequence();
+        List<IModification> modifications = psm.getModifications();
+
+        fragmentIonGenerator.setSequence(sequence);
+
+        if (modifications.size() < 1)
+            return;
+
+        PeptideMassCalculator peptideMassCalculator = PeptideMassCalculator.getInstance();
+
+        for (int i = 0; i < modifications.size(); i++) {
+            IModification mod = modifications.get(i);
+            int position = getModificationPosition(mod, sequence);
+
+            // ignore modifications that are replaced by a later one
+            boolean replaced = false;
+            for (int j = i + 1; j < modifications.size() && !replaced; j++) {
+                replaced = getModificationPosition(modifications.get(j), sequence) == position;
+            }
+            if (replaced)
+                continue;
+
+            double deltaMass = peptideMassCalculator.getModificationMass(mod.getAccession());
+
+            try {
+                fragmentIonGenerator.addModification(position, deltaMass);
+            }
+            catch (IllegalArgumentException e) {
+                throw new Exception(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the charges of the b- and y-ions that pride-utilities
+     * creates for the passed precursor charge. The charges are taken from
+     * the ions created for a reference peptide once per precursor charge.
+     * @param precursorCharge
+     * @return The fragment ion charges in ascending order.
+     * @throws Exception
+     */
+    public static int[] getFragmentIonCharges(int precursorCharge) throws Exception {
+        int[] charges = fragmentIonCharges.get(precursorCharge);
+
+        if (charges == null) {
+            SortedSet<Integer> prideCharges = new TreeSet<Integer>();
+
+            try {
+                PrecursorIon precursorIon = new DefaultPrecursorIon(new Peptide(CHARGE_REFERENCE_PEPTIDE), precursorCharge);
+                PeptideScore peptideScore = new PeptideScore(precursorIon, PeakSet.getInstance(new double[0], new double[0]));
+
+                for (ProductIon productIon : peptideScore.getProductIonSet()) {
+                    String type = productIon.getType().getName();
+
+                    if (type.equals("b") || type.equals("y"))
+                        prideCharges.add(productIon.getCharge());
+                }
+            }
+            catch (IllegalArgumentException e) {
+                throw new Exception(e);
+            }
+
+            charges = new int[prideCharges.size()];
+            int i = 0;
+            for (Integer charge : prideCharges) {
+                charges[i++] = charge;
             }
+
+            fragmentIonCharges.putIfAbsent(precursorCharge, charges);
         }
 
-        return peakProductIons;
+        return charges;
     }
 
     /**
-     * Returns the indices of all peaks that are explained by a
-     * b- or y-ion.
-     * @param cluster
-     * @param productIons
+     * Marks all peaks that are explained by a b- or y-ion. Peaks
+     * and product ions are matched in a single merge pass over both
+     * m/z sorted lists. Every ion explains at most one peak and every
+     * peak is explained by at most one ion.
+     * @param peaks
+     * @param fragmentIons FragmentIonGenerator holding the generated ions.
      * @param tolerance
-     * @return
+     * @return The matched peaks as a set of their original indices.
      */
-    private static List<Integer> getMatchedPeakIndices(ICluster cluster, ProductIonSet productIons, float tolerance) {
-        List<Integer> matchedPeaksIndices = new ArrayList<Integer>();
-        List<Float> sortedMz = new ArrayList<Float>(cluster.getConsensusMzValues());
-        Collections.sort(sortedMz);
+    private static BitSet getMatchedPeaks(ConsensusPeaks peaks, FragmentIonGenerator fragmentIons, float tolerance) {
+        BitSet matchedPeaks = new BitSet(peaks.getPeakCount());
+        int nPeaks = peaks.getPeakCount();
 
-        int lastIndex = 0;
+        int currentPeak = 0;
 
         // iterate over all possible product ions and try to match them against the peaks
         // - product ions are sorted according to m/z
-        for (ProductIon productIon : productIons) {
+        for (int ionIndex = 0; ionIndex < fragmentIons.getIonCount(); ionIndex++) {
+            if (currentPeak >= nPeaks)
+                break;
+
             // only match b- and y- ions
-            if (!productIon.getType().getName().equals("b") && !productIon.getType().getName().equals("y"))
+            int type = fragmentIons.getType(ionIndex);
+            if ((type != FragmentIonGenerator.TYPE_B && type != FragmentIonGenerator.TYPE_Y) ||
+                    fragmentIons.getLoss(ionIndex) != FragmentIonGenerator.LOSS_NONE)
                 continue;
 
-            double productMz = productIon.getMassOverCharge();
-
-            for (int i = lastIndex; i < sortedMz.size(); i++) {
-                float peakMz = sortedMz.get(i);
+            double productMz = fragmentIons.getMz(ionIndex);
 
-                // if it's too low, go on
-                if (peakMz < productMz - tolerance)
-                    continue;
+            // peaks that are too low cannot match any of the following (larger) ions
+            while (currentPeak < nPeaks && peaks.getSortedMz(currentPeak) < productMz - tolerance)
+                currentPeak++;
 
-                // if the peak is outside the range, it's no match
-                if (peakMz > productMz + tolerance)
-                    break;
-
-                // it's a match
-                matchedPeaksIndices.add(i);
-                lastIndex = i + 1;
-                break;
+            // it's a match if the peak is within the range
+            if (currentPeak < nPeaks && peaks.getSortedMz(currentPeak) <= productMz + tolerance) {
+                matchedPeaks.set(peaks.getSortedPeakIndex(currentPeak));
+                currentPeak++;
             }
         }
 
-        return matchedPeaksIndices;
+        return matchedPeaks;
     }
 
     /**
@@ -154,8 +290,7 @@ public class SpectrumAnnotator {
      * @throws Exception
      */
     public static int estimateCharge(IPeptideSpectrumMatch psm, double precursorMz) throws Exception {
-        double calculatedMass = calculateTheoreticalMass(psm);
-        return Math.round((float) calculatedMass / (float) precursorMz);
+        return PeptideMassCalculator.getInstance().estimateCharge(psm, precursorMz);
     }
 
     /**
@@ -178,77 +313,104 @@ public class SpectrumAnnotator {
         }
     }
 
-    private static double[] getPtmMasses(IPeptideSpectrumMatch psm) throws Exception {
-        // add all modification delta masses to a mod array
-        ModReader modReader = ModReader.getInstance();
-
-        double[] ptmMasses = new double[psm.getModifications().size()];
-        for (int i = 0; i < psm.getModifications().size(); i++) {
-            String modAccession = psm.getModifications().get(i).getAccession();
+    /**
+     * Returns the theoretical neutral mass of the PSM's peptide including
+     * all modifications. Masses are memoized by the PeptideMassCalculator.
+     * @param psm
+     * @return
+     * @throws Exception
+     */
+    public static Double calculateTheoreticalMass(IPeptideSpectrumMatch psm) throws Exception {
+        return PeptideMassCalculator.getInstance().getPeptideMass(psm);
+    }
 
-            // fix a typo in the annotated data
-            if ("MOD:010900".equals(modAccession))
-                modAccession = "MOD:01090";
+    /**
+     * Returns the difference between the observed precursor m/z and the
+     * PSM's theoretical m/z at the estimated charge.
+     * @param psm
+     * @param precursorMz
+     * @return
+     * @throws Exception
+     */
+    public static Double getDeltaMass(IPeptideSpectrumMatch psm, double precursorMz) throws Exception {
+        return PeptideMassCalculator.getInstance().getDeltaMz(psm, precursorMz);
+    }
 
-            PTM ptm = modReader.getPTMbyAccession(modAccession);
+    /**
+     * Creates all possible product ions for the given peptide.
+     * @param cluster
+     * @param maxPsm
+     * @param charge
+     * @return
+     */
+    public static ProductIonSet getProductIonSet(ICluster cluster, IPeptideSpectrumMatch maxPsm, int charge) throws Exception {
+        return getProductIonSet(maxPsm, charge);
+    }
 
-            if (ptm == null)
-                throw new Exception("Unknown PTM encountered: " + modAccession);
-            if (ptm.getMonoDeltaMass() == null)
-                throw new Exception("No mass specified for " + modAccession);
+    /**
+     * Creates all possible product ions for the given peptide. Product
+     * ions are only created once for every combination of sequence,
+     * modifications and charge and then taken from the ProductIonCache.
+     * The returned ProductIonSet must therefore not be modified.
+     * @param maxPsm
+     * @param charge
+     * @return
+     */
+    public static ProductIonSet getProductIonSet(IPeptideSpectrumMatch maxPsm, int charge) throws Exception {
+        String peptideSignature = getPeptideSignature(maxPsm, charge);
+        ProductIonSet productIonSet = productIonCache.get(peptideSignature);
 
-            ptmMasses[i] = ptm.getMonoDeltaMass();
+        if (productIonSet == null) {
+            productIonSet = createProductIonSet(maxPsm, charge);
+            productIonCache.put(peptideSignature, productIonSet);
         }
 
-        return ptmMasses;
+        return productIonSet;
     }
 
-    public static Double calculateTheoreticalMass(IPeptideSpectrumMatch psm) throws Exception {
-        double[] ptmMasses = getPtmMasses(psm);
-
-        double estimatedMass = MoleculeUtilities.calculateTheoreticalMass(psm.getSequence(), ptmMasses);
-
-        return estimatedMass;
+    public static ProductIonCache getProductIonCache() {
+        return productIonCache;
     }
 
-    public static Double getDeltaMass(IPeptideSpectrumMatch psm, double precursorMz) throws Exception {
-        try {
-            // first estimate the charge
-            int charge = estimateCharge(psm, precursorMz);
-            if (charge == 0)
-                throw new Exception("Failed to estimate charge");
+    /**
+     * Creates the canonical signature of the peptide that defines its
+     * product ions: the sequence, the charge, and the modification
+     * accession on each (0-based) position. Since only one modification
+     * is used per position, later modifications replace earlier ones
+     * as in buildModificationMap.
+     * @param psm
+     * @param charge
+     * @return
+     */
+    private static String getPeptideSignature(IPeptideSpectrumMatch psm, int charge) {
+        StringBuilder signature = new StringBuilder(psm.getSequence()).append('/').append(charge);
 
-            double[] ptmMasses = getPtmMasses(psm);
-            List<Double> ptmMassList = new ArrayList<Double>(ptmMasses.length);
-            for (double mass : ptmMasses)
-                ptmMassList.add(mass);
+        if (psm.getModifications().size() > 0) {
+            Map<Integer, String> modificationAccessions = new TreeMap<Integer, String>();
 
-            return MoleculeUtilities.calculateDeltaMz(psm.getSequence(), precursorMz, charge, ptmMassList);
-        }
-        catch (Exception e) {
-            throw e;
+            for (IModification mod : psm.getModifications()) {
+                modificationAccessions.put(getModificationPosition(mod, psm.getSequence()), mod.getAccession());
+            }
+
+            for (Map.Entry<Integer, String> modification : modificationAccessions.entrySet()) {
+                signature.append('/').append(modification.getKey()).append(',').append(modification.getValue());
+            }
         }
+
+        return signature.toString();
     }
 
     /**
-     * Creates all possible product ions for the given peptide.
-     * @param cluster
+     * Creates the product ions using pride-utilities. Since the product
+     * ions are shared between clusters, they are created using an empty
+     * PeakSet and therefore only depend on the peptide and the charge.
      * @param maxPsm
      * @param charge
      * @return
+     * @throws Exception
      */
-    public static ProductIonSet getProductIonSet(ICluster cluster, IPeptideSpectrumMatch maxPsm, int charge) throws Exception {
-        // build the peak set
-        double mzValues[] = new double[cluster.getConsensusMzValues().size()];
-        double intensValues[] = new double[cluster.getConsensusMzValues().size()];
-
-        // convert into Doubles
-        for (int i = 0; i < cluster.getConsensusMzValues().size(); i++) {
-            mzValues[i] = new Double(cluster.getConsensusMzValues().get(i));
-            intensValues[i] = new Double(cluster.getConsensusIntensValues().get(i));
-        }
-
-        PeakSet peakSet = PeakSet.getInstance(mzValues, intensValues);
+    private static ProductIonSet createProductIonSet(IPeptideSpectrumMatch maxPsm, int charge) throws Exception {
+        PeakSet peakSet = PeakSet.getInstance(new double[0], new double[0]);
 
         // build the modification list
         Map<Integer, PTModification> modifications = buildModificationMap(maxPsm);
@@ -273,33 +435,42 @@ public class SpectrumAnnotator {
      * @return
      */
     private static Map<Integer, PTModification> buildModificationMap(IPeptideSpectrumMatch psm) throws Exception {
-        ModReader modReader = ModReader.getInstance();
+        ModificationRegistry modificationRegistry = ModificationRegistry.getInstance();
         Map<Integer, PTModification> modificationMap = new HashMap<Integer, PTModification>();
-        Group nTerm = null, cTerm = null;
 
         for (IModification mod : psm.getModifications()) {
-            int nPosition = mod.getPosition() - 1; // 0-based positions
-
-            // put n- / c-term mods on the first or last AA
-            if (mod.getPosition() == 0)
-                nPosition = 0;
-            if (mod.getPosition() > psm.getSequence().length())
-                nPosition = nPosition - 1;
+            int nPosition = getModificationPosition(mod, psm.getSequence());
 
-            PTM ptm = modReader.getPTMbyAccession(mod.getAccession());
+            ModificationRecord modification = modificationRegistry.getModification(mod.getAccession());
 
-            if (ptm == null || ptm.getMonoDeltaMass() == null)
+            if (modification == null || modification.getMonoDeltaMass() == null)
                 throw new Exception("Failed to resolve modification " + mod.getAccession());
 
             List<Double> avgMass = new ArrayList<Double>(1);
-            avgMass.add(ptm.getAveDeltaMass());
+            avgMass.add(modification.getAvgDeltaMass());
             List<Double> monoMass = new ArrayList<Double>(1);
-            monoMass.add(ptm.getMonoDeltaMass());
-            PTModification ptModification = new PTModification(ptm.getName(), ptm.getName(), ptm.getDescription(), monoMass, avgMass);
+            monoMass.add(modification.getMonoDeltaMass());
+            PTModification ptModification = new PTModification(modification.getName(), modification.getName(), modification.getDescription(), monoMass, avgMass);
 
             modificationMap.put(nPosition, ptModification);
         }
 
         return modificationMap;
     }
+
+    /**
+     * Returns the 0-based position of the modified amino acid. N- and
+     * C-terminal modifications are put on the first or last amino acid.
+     */
+    private static int getModificationPosition(IModification mod, String sequence) {
+        int nPosition = mod.getPosition() - 1; // 0-based positions
+
+        // put n- / c-term mods on the first or last AA
+        if (mod.getPosition() == 0)
+            nPosition = 0;
+        if (mod.getPosition() > sequence.length())
+            nPosition = nPosition - 1;
+
+        return nPosition;
+    }
 }
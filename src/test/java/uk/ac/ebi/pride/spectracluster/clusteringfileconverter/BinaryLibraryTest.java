@@ -0,0 +1,186 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterBinaryLibraryConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterConverterDispatcher;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterExporter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ParallelConversionPipeline;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.BinaryLibraryEntry;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.BinaryLibraryReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryLibraryTest {
+    List<ICluster> clusters;
+    File libraryFile;
+
+    @Before
+    public void setUp() throws Exception {
+        URI testFileUri = BinaryLibraryTest.class.getClassLoader().getResource("testfile.clustering").toURI();
+        ClusteringFileReader reader = new ClusteringFileReader(new File(testFileUri));
+        clusters = reader.readAllClusters();
+
+        libraryFile = File.createTempFile("binary_library", ".clib");
+        libraryFile.deleteOnExit();
+
+        ClusterBinaryLibraryConverter converter = new ClusterBinaryLibraryConverter();
+        converter.setOutputPath(libraryFile.getPath());
+
+        for (ICluster cluster : clusters) {
+            converter.writeExportedCluster(converter.encodeCluster(new ClusterAnalysis(cluster)));
+        }
+
+        converter.close();
+        Assert.assertEquals(libraryFile.length(), converter.getBytesWritten());
+    }
+
+    @Test
+    public void testReadLibrary() throws Exception {
+        BinaryLibraryReader libraryReader = new BinaryLibraryReader(libraryFile);
+
+        Assert.assertEquals(clusters.size(), libraryReader.getEntryCount());
+
+        // the entries are sorted by precursor m/z
+        for (int i = 1; i < libraryReader.getEntryCount(); i++) {
+            Assert.assertTrue(libraryReader.getIndexMz(i - 1) <= libraryReader.getIndexMz(i));
+        }
+
+        ICluster cluster = clusters.get(10);
+        BinaryLibraryEntry entry = findEntry(libraryReader, cluster);
+
+        Assert.assertEquals("KNYGK", entry.getPeptideSequence());
+        Assert.assertEquals(2, entry.getCharge());
+        Assert.assertEquals(cluster.getAvPrecursorMz(), entry.getPrecursorMz());
+        Assert.assertEquals(cluster.getSpecCount(), entry.getSize());
+        Assert.assertNull(entry.getModifications());
+        Assert.assertEquals(33, entry.getPeakCount());
+        Assert.assertEquals(93.084F, entry.getMz(0));
+        for (int i = 1; i < entry.getPeakCount(); i++) {
+            Assert.assertTrue(entry.getMz(i - 1) <= entry.getMz(i));
+        }
+    }
+
+    @Test
+    public void testMzWindow() throws Exception {
+        BinaryLibraryReader libraryReader = new BinaryLibraryReader(libraryFile);
+        float precursorMz = clusters.get(10).getAvPrecursorMz();
+
+        List<BinaryLibraryEntry> entries = libraryReader.getEntries(precursorMz - 1, precursorMz + 1);
+
+        int expectedEntries = 0;
+        for (ICluster cluster : clusters) {
+            if (cluster.getAvPrecursorMz() >= precursorMz - 1 && cluster.getAvPrecursorMz() <= precursorMz + 1)
+                expectedEntries++;
+        }
+
+        Assert.assertEquals(expectedEntries, entries.size());
+        Assert.assertTrue(libraryReader.getEntries(10000, 20000).isEmpty());
+    }
+
+    @Test
+    public void testSmallSegments() throws Exception {
+        // entries span multiple segments
+        BinaryLibraryReader libraryReader = new BinaryLibraryReader(libraryFile, 100);
+        BinaryLibraryReader referenceReader = new BinaryLibraryReader(libraryFile);
+
+        for (int i = 0; i < libraryReader.getEntryCount(); i++) {
+            BinaryLibraryEntry entry = libraryReader.getEntry(i);
+            BinaryLibraryEntry referenceEntry = referenceReader.getEntry(i);
+
+            Assert.assertEquals(referenceEntry.getClusterId(), entry.getClusterId());
+            Assert.assertEquals(referenceEntry.getPeptideSequence(), entry.getPeptideSequence());
+            Assert.assertEquals(referenceEntry.getPeakCount(), entry.getPeakCount());
+
+            for (int j = 0; j < entry.getPeakCount(); j++) {
+                Assert.assertEquals(referenceEntry.getMz(j), entry.getMz(j));
+                Assert.assertEquals(referenceEntry.getIntensity(j), entry.getIntensity(j));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelConversion() throws Exception {
+        File sequentialFile = File.createTempFile("sequential", ".clib");
+        File parallelFile = File.createTempFile("parallel", ".clib");
+        sequentialFile.deleteOnExit();
+        parallelFile.deleteOnExit();
+
+        List<IClusterExporter> converters = createConverters(sequentialFile);
+        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(1);
+        listeners.add(new ClusterConverterDispatcher(converters));
+        readClusters(listeners);
+        converters.get(0).close();
+
+        converters = createConverters(parallelFile);
+        ParallelConversionPipeline pipeline = new ParallelConversionPipeline(converters, 4, 3);
+        listeners = new ArrayList<IClusterSourceListener>(1);
+        listeners.add(pipeline);
+        readClusters(listeners);
+        pipeline.close();
+        converters.get(0).close();
+
+        // the entries are encoded by the pipeline's workers
+        Assert.assertTrue(new BinaryLibraryReader(sequentialFile).getEntryCount() > 0);
+        Assert.assertTrue(Arrays.equals(readFile(sequentialFile), readFile(parallelFile)));
+    }
+
+    private List<IClusterExporter> createConverters(File outputFile) {
+        ClusterBinaryLibraryConverter converter = new ClusterBinaryLibraryConverter();
+        converter.setMinTic(0);
+        converter.setMaxTic(1);
+        converter.setOutputPath(outputFile.getPath());
+
+        List<IClusterExporter> converters = new ArrayList<IClusterExporter>(1);
+        converters.add(converter);
+
+        return converters;
+    }
+
+    private void readClusters(List<IClusterSourceListener> listeners) throws Exception {
+        URI testFileUri = BinaryLibraryTest.class.getClassLoader().getResource("testfile.clustering").toURI();
+        new ClusteringFileReader(new File(testFileUri)).readClustersIteratively(listeners);
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                int read = inputStream.read(content, offset, content.length - offset);
+                if (read < 0)
+                    throw new IOException("Unexpected end of file " + file.getPath());
+                offset += read;
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+
+        return content;
+    }
+
+    private BinaryLibraryEntry findEntry(BinaryLibraryReader libraryReader, ICluster cluster) {
+        for (BinaryLibraryEntry entry : libraryReader.getEntries(cluster.getAvPrecursorMz(), cluster.getAvPrecursorMz())) {
+            if (cluster.getId().equals(entry.getClusterId()))
+                return entry;
+        }
+
+        Assert.fail("Cluster " + cluster.getId() + " not found");
+        return null;
+    }
+}
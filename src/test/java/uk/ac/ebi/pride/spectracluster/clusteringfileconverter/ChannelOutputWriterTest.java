@@ -0,0 +1,93 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ChannelOutputWriterTest {
+    @Test
+    public void testEncoding() throws Exception {
+        File outputFile = File.createTempFile("channel_writer", ".txt");
+        outputFile.deleteOnExit();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            expected.append("406.148 9366.847 \"b3/0.06 1/1 1.0\"\n");
+            expected.append("Protein=Prot\u00e9ine \u20ac \ud83d\ude00 ").append(i).append('\n');
+        }
+        // unpaired surrogates
+        expected.append("\ud83d ?\ude00\n");
+
+        ChannelOutputWriter writer = new ChannelOutputWriter(outputFile, false, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.WHEN_FULL, 0);
+        // split the input into different chunks, also in the middle of surrogate pairs
+        String string = expected.toString();
+        int position = 0;
+        for (int chunkSize = 1; position < string.length(); chunkSize = chunkSize * 3 % 1001 + 1) {
+            int end = Math.min(string.length(), position + chunkSize);
+
+            if (chunkSize % 2 == 0)
+                writer.append(string, position, end);
+            else
+                writer.write(string.toCharArray(), position, end - position);
+
+            position = end;
+        }
+        writer.close();
+
+        // String.getBytes also replaces unpaired surrogates with '?'
+        Assert.assertTrue(Arrays.equals(string.getBytes("UTF-8"), readFile(outputFile)));
+        Assert.assertEquals(outputFile.length(), ChannelOutputWriter.getEncodedLength(string));
+    }
+
+    @Test
+    public void testAppendAndPreallocation() throws Exception {
+        File outputFile = File.createTempFile("channel_writer", ".txt");
+        outputFile.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(outputFile);
+        outputStream.write("HEADER\n".getBytes("UTF-8"));
+        outputStream.close();
+
+        ChannelOutputWriter writer = new ChannelOutputWriter(outputFile, true, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.EVERY_RECORD, 1024 * 1024);
+        Assert.assertEquals(7 + 1024 * 1024, outputFile.length());
+
+        writer.append("BEGIN IONS\n");
+        writer.endRecord();
+        // the record was written to the file
+        Assert.assertEquals("HEADER\nBEGIN IONS\n", new String(readFile(outputFile), "UTF-8").substring(0, 18));
+
+        writer.append("END IONS\n");
+        writer.close();
+
+        // the preallocated space was removed
+        Assert.assertEquals("HEADER\nBEGIN IONS\nEND IONS\n", new String(readFile(outputFile), "UTF-8"));
+
+        // overwrite the file
+        writer = new ChannelOutputWriter(outputFile, false);
+        writer.write("new");
+        writer.close();
+
+        Assert.assertEquals("new", new String(readFile(outputFile), "UTF-8"));
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        int offset = 0;
+
+        while (offset < content.length) {
+            offset += inputStream.read(content, offset, content.length - offset);
+        }
+        inputStream.close();
+
+        return content;
+    }
+}
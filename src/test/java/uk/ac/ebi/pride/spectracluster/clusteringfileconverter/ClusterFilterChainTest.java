@@ -0,0 +1,99 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterFilterChain;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.IClusterFilter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClusterFilterChainTest {
+    @Test
+    public void testCostOrder() {
+        TestFilter expensiveFilter = new TestFilter("expensive", 100, false);
+        TestFilter cheapFilter = new TestFilter("cheap", 1, false);
+        ClusterFilterChain chain = createChain(false, expensiveFilter, cheapFilter);
+
+        Assert.assertSame(cheapFilter, chain.getFilters()[0]);
+
+        // the expensive filter is never evaluated
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(chain.accept(null));
+        }
+
+        Assert.assertEquals(10, chain.getEvaluatedClusters(cheapFilter));
+        Assert.assertEquals(10, chain.getRejectedClusters(cheapFilter));
+        Assert.assertEquals(0, chain.getEvaluatedClusters(expensiveFilter));
+    }
+
+    @Test
+    public void testAcceptAll() {
+        TestFilter filter1 = new TestFilter("filter1", 1, true);
+        TestFilter filter2 = new TestFilter("filter2", 2, true);
+        ClusterFilterChain chain = createChain(false, filter1, filter2);
+
+        Assert.assertTrue(chain.accept(null));
+        Assert.assertEquals(1, chain.getEvaluatedClusters(filter1));
+        Assert.assertEquals(1, chain.getEvaluatedClusters(filter2));
+        Assert.assertEquals(0, chain.getRejectedClusters(filter2));
+    }
+
+    @Test
+    public void testAdaptiveOrder() {
+        TestFilter passingFilter = new TestFilter("passing", 1, true);
+        TestFilter rejectingFilter = new TestFilter("rejecting", 10, false);
+
+        ClusterFilterChain staticChain = createChain(false, passingFilter, rejectingFilter);
+        ClusterFilterChain adaptiveChain = createChain(true, passingFilter, rejectingFilter);
+
+        for (int i = 0; i < ClusterFilterChain.REORDER_INTERVAL * 2; i++) {
+            staticChain.accept(null);
+            adaptiveChain.accept(null);
+        }
+
+        Assert.assertSame(passingFilter, staticChain.getFilters()[0]);
+        Assert.assertSame(rejectingFilter, adaptiveChain.getFilters()[0]);
+
+        // after the re-ordering, the passing filter is no longer evaluated
+        Assert.assertEquals(ClusterFilterChain.REORDER_INTERVAL, adaptiveChain.getEvaluatedClusters(passingFilter));
+        Assert.assertEquals(ClusterFilterChain.REORDER_INTERVAL * 2, adaptiveChain.getRejectedClusters(rejectingFilter));
+    }
+
+    private static ClusterFilterChain createChain(boolean adaptive, IClusterFilter... filters) {
+        List<IClusterFilter> filterList = new ArrayList<IClusterFilter>();
+        for (IClusterFilter filter : filters) {
+            filterList.add(filter);
+        }
+
+        return new ClusterFilterChain(filterList, adaptive);
+    }
+
+    private static class TestFilter implements IClusterFilter {
+        private final String name;
+        private final int cost;
+        private final boolean result;
+
+        private TestFilter(String name, int cost, boolean result) {
+            this.name = name;
+            this.cost = cost;
+            this.result = result;
+        }
+
+        @Override
+        public boolean accept(ClusterAnalysis clusterAnalysis) {
+            return result;
+        }
+
+        @Override
+        public int getCost() {
+            return cost;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMspConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
 import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
@@ -74,6 +76,19 @@ public class ClusterMspConverterTest {
                 "737.475 196.08217 \"? 1/1 0.5\"\n", mspCluster10);
     }
 
+    @Test
+    public void testStreamingConversion() throws Exception {
+        converter.setAddAnnotationString(true);
+        converter.setNormalizeSpectra(true);
+        String expected = converter.convertCluster(clusters.get(10));
+
+        // the cluster is appended to the existing content
+        StringBuilder target = new StringBuilder("previous\n");
+        converter.convertCluster(new ClusterAnalysis(clusters.get(10)), target);
+
+        Assert.assertEquals("previous\n" + expected, target.toString());
+    }
+
     @Test
     public void testCompleteConversion() throws Exception {
         File tmpFile = File.createTempFile("ConversionTest", ".msp");
@@ -85,6 +100,36 @@ public class ClusterMspConverterTest {
 
         reader.readClustersIteratively(listeners);
         converter.close();
+
+        Assert.assertEquals(tmpFile.length(), converter.getBytesWritten());
+    }
+
+    @Test
+    public void testCompressedOutputSize() throws Exception {
+        File tmpFile = File.createTempFile("ConversionTest", ".msp.gz");
+        tmpFile.deleteOnExit();
+        File uncompressedFile = File.createTempFile("ConversionTest", ".msp");
+        uncompressedFile.deleteOnExit();
+
+        converter.setOutputPath(tmpFile.getPath());
+        converter.setCompressionThreads(2);
+        ClusterMspConverter uncompressedConverter = new ClusterMspConverter();
+        uncompressedConverter.setOutputPath(uncompressedFile.getPath());
+
+        for (int i = 0; i < 1000; i++) {
+            ClusterEntryInfo entryInfo = new ClusterEntryInfo(Integer.toString(i), 400.5F, 2, 1);
+            String exportedCluster = "Name: PEPTIDE/2\nComment: Spec=Consensus ClusterId=" + i + "\nNum peaks: 0\n\n";
+
+            converter.writeExportedCluster(entryInfo, exportedCluster);
+            uncompressedConverter.writeExportedCluster(entryInfo, exportedCluster);
+        }
+        converter.close();
+        uncompressedConverter.close();
+
+        // the compressed size is reported
+        Assert.assertEquals(tmpFile.length(), converter.getBytesWritten());
+        Assert.assertEquals(uncompressedFile.length(), uncompressedConverter.getBytesWritten());
+        Assert.assertTrue(converter.getBytesWritten() < uncompressedConverter.getBytesWritten());
     }
 
     @Test
@@ -0,0 +1,95 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMspConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterUtilities;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URI;
+import java.util.List;
+
+public class ClusterUtilitiesTest {
+    List<ICluster> clusters;
+
+    @Before
+    public void setUp() throws Exception {
+        URI testFileUri = ClusterUtilitiesTest.class.getClassLoader().getResource("testfile.clustering").toURI();
+        clusters = new ClusteringFileReader(new File(testFileUri)).readAllClusters();
+    }
+
+    @Test
+    public void testLazyStatistics() throws Exception {
+        for (ICluster cluster : clusters) {
+            // the statistics do not depend on the order in which they are accessed
+            ClusterUtilities sequencesFirst = new ClusterUtilities(cluster);
+            Assert.assertEquals(cluster.getId(), sequencesFirst.getSequenceCounts().size() > 0, cluster.getIdentifiedSpecCount() > 0);
+            String maxSequence = sequencesFirst.getMaxSequence();
+            int charge = sequencesFirst.getCharge();
+
+            ClusterUtilities chargeFirst = new ClusterUtilities(cluster);
+            Assert.assertEquals(cluster.getId(), charge, chargeFirst.getCharge());
+            Assert.assertEquals(cluster.getId(), maxSequence, chargeFirst.getMaxSequence());
+            Assert.assertEquals(cluster.getId(), sequencesFirst.getSequenceCounts(), chargeFirst.getSequenceCounts());
+            Assert.assertEquals(cluster.getId(), sequencesFirst.getMaxSequenceCount(), chargeFirst.getMaxSequenceCount());
+        }
+
+        ClusterUtilities clusterUtilities = new ClusterUtilities(clusters.get(10));
+        Assert.assertEquals("KNYGK", clusterUtilities.getMaxSequence());
+        Assert.assertTrue(clusterUtilities.getSequenceCounts().containsKey("KNYGK"));
+    }
+
+    @Test
+    public void testUnidentifiedCluster() throws Exception {
+        File clusteringFile = File.createTempFile("unidentified", ".clustering");
+        clusteringFile.deleteOnExit();
+
+        FileWriter writer = new FileWriter(clusteringFile);
+        writer.write("name=unidentified\n\n" +
+                "=Cluster=\n" +
+                "id=unidentified\n" +
+                "av_precursor_mz=305.000\n" +
+                "av_precursor_intens=1.0\n" +
+                "sequence=[]\n" +
+                "consensus_mz=91.108,93.811,129.053\n" +
+                "consensus_intens=33.24,3.99,612.00\n" +
+                "SPEC\tPRD000493;PRIDE_Exp_Complete_Ac_18182.xml;spectrum=1\tfalse\t\t305.0\t2\t9606\t\t0.9\n" +
+                "SPEC\tPRD000493;PRIDE_Exp_Complete_Ac_18182.xml;spectrum=2\tfalse\t\t305.0\t2\t9606\t\t0.9\n");
+        writer.close();
+
+        List<ICluster> unidentifiedClusters = new ClusteringFileReader(clusteringFile).readAllClusters();
+        Assert.assertEquals(1, unidentifiedClusters.size());
+        Assert.assertEquals(0, unidentifiedClusters.get(0).getIdentifiedSpecCount());
+
+        ClusterUtilities clusterUtilities = new ClusterUtilities(unidentifiedClusters.get(0));
+        Assert.assertTrue(clusterUtilities.getSequenceCounts().isEmpty());
+        Assert.assertNull(clusterUtilities.getMaxSequence());
+        Assert.assertEquals(0, clusterUtilities.getMaxSequenceCount());
+        Assert.assertNull(clusterUtilities.getMostCommonPsm());
+    }
+
+    @Test
+    public void testRejectSmallClusters() {
+        ClusterMspConverter converter = new ClusterMspConverter();
+        converter.setMinSize(5);
+
+        ICluster smallCluster = null;
+        for (ICluster cluster : clusters) {
+            if (cluster.getSpecCount() < 5) {
+                smallCluster = cluster;
+                break;
+            }
+        }
+        Assert.assertNotNull(smallCluster);
+
+        // no output path is set, therefore writing the cluster would fail
+        converter.onNewClusterRead(smallCluster);
+        Assert.assertNull(converter.exportCluster(new ClusterAnalysis(smallCluster)));
+        Assert.assertEquals(0, converter.getFailedClusters());
+    }
+}
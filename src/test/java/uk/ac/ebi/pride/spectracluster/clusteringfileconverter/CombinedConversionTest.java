@@ -0,0 +1,94 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.cli.ClusteringFileConverterCli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class CombinedConversionTest {
+    private static final String[] INPUT_FILES = {"testfile.clustering", "empty_sequence.clustering", "position_0_mod.clustering"};
+
+    @Test
+    public void testParallelCombinedIdenticalOutput() throws Exception {
+        File sequentialDirectory = createDirectory("combined-sequential");
+        File parallelDirectory = createDirectory("combined-parallel");
+
+        try {
+            // one thread converts the files one after the other, multiple threads concatenate per-file segments
+            convertCombined(new File(sequentialDirectory, "result").getPath(), 1);
+            convertCombined(new File(parallelDirectory, "result").getPath(), 3);
+
+            byte[] sequentialResult = readFile(new File(sequentialDirectory, "result.mgf"));
+            Assert.assertTrue(sequentialResult.length > 0);
+            Assert.assertTrue(Arrays.equals(sequentialResult, readFile(new File(parallelDirectory, "result.mgf"))));
+
+            // no segment files are left in the output directory
+            for (String filename : parallelDirectory.list()) {
+                Assert.assertFalse(filename, filename.endsWith(".segment"));
+            }
+        }
+        finally {
+            deleteDirectory(sequentialDirectory);
+            deleteDirectory(parallelDirectory);
+        }
+    }
+
+    private void convertCombined(String outputPath, int nThreads) throws Exception {
+        String[] args = new String[9 + INPUT_FILES.length];
+        args[0] = "-output_path";
+        args[1] = outputPath;
+        args[2] = "-format";
+        args[3] = "mgf";
+        args[4] = "-combine";
+        args[5] = "-threads";
+        args[6] = String.valueOf(nThreads);
+        args[7] = "-progress_interval";
+        args[8] = "0";
+
+        for (int i = 0; i < INPUT_FILES.length; i++) {
+            args[9 + i] = new File(CombinedConversionTest.class.getClassLoader().getResource(INPUT_FILES[i]).toURI()).getPath();
+        }
+
+        ClusteringFileConverterCli.main(args);
+    }
+
+    private File createDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+
+        return directory;
+    }
+
+    private void deleteDirectory(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                int read = inputStream.read(content, offset, content.length - offset);
+                if (read < 0)
+                    throw new IOException("Unexpected end of file " + file.getPath());
+                offset += read;
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+
+        return content;
+    }
+}
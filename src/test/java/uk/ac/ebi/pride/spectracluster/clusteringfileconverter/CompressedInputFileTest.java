@@ -0,0 +1,123 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.CompressedInputFile;
+
+import java.io.*;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressedInputFileTest {
+    @Test
+    public void testCompressedFile() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        Random random = new Random(1);
+        // larger than the read-ahead buffer
+        while (expected.length() < CompressedInputFile.BLOCK_SIZE * (CompressedInputFile.READ_AHEAD_BLOCKS + 2)) {
+            expected.append(random.nextFloat() * 2000).append('\t').append(random.nextFloat() * 10000).append('\n');
+        }
+
+        File inputFile = File.createTempFile("compressed_input", ".clustering.gz");
+        inputFile.deleteOnExit();
+
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(inputFile)), "UTF-8");
+        writer.write(expected.toString());
+        writer.close();
+
+        CompressedInputFile input = CompressedInputFile.open(inputFile);
+
+        Assert.assertTrue(input.isCompressed());
+        Assert.assertEquals(CompressedInputFile.getUncompressedName(inputFile), input.getFile().getName());
+        Assert.assertEquals(expected.toString(), readFile(input.getFile()));
+
+        input.close();
+        Assert.assertFalse(input.getFile().exists());
+    }
+
+    @Test
+    public void testUncompressedFile() throws Exception {
+        File inputFile = File.createTempFile("compressed_input", ".clustering");
+        inputFile.deleteOnExit();
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(inputFile), "UTF-8");
+        writer.write("=Cluster=\n");
+        writer.close();
+
+        CompressedInputFile input = CompressedInputFile.open(inputFile);
+
+        Assert.assertFalse(input.isCompressed());
+        Assert.assertEquals(inputFile, input.getFile());
+
+        input.close();
+        Assert.assertTrue(inputFile.exists());
+    }
+
+    @Test
+    public void testUnreadFile() throws Exception {
+        File inputFile = File.createTempFile("compressed_input", ".clustering.gz");
+        inputFile.deleteOnExit();
+
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(inputFile)), "UTF-8");
+        writer.write("=Cluster=\n");
+        writer.close();
+
+        // closing without reading must not block
+        CompressedInputFile input = CompressedInputFile.open(inputFile);
+        input.close();
+
+        Assert.assertFalse(input.getFile().exists());
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        File inputFile = File.createTempFile("compressed_input", ".clustering.gz");
+        inputFile.deleteOnExit();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(compressed), "UTF-8");
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            writer.append(String.valueOf(random.nextFloat())).append('\n');
+        }
+        writer.close();
+
+        OutputStream outputStream = new FileOutputStream(inputFile);
+        outputStream.write(compressed.toByteArray(), 0, compressed.size() / 2);
+        outputStream.close();
+
+        CompressedInputFile input = CompressedInputFile.open(inputFile);
+        // the reader only sees the end of the file
+        readFile(input.getFile());
+
+        try {
+            input.checkDecompression();
+            Assert.fail("Truncated file not detected");
+        }
+        catch (IOException e) {
+            // expected
+        }
+
+        try {
+            input.close();
+            Assert.fail("Decompression error not reported");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    private String readFile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[64 * 1024];
+        int read;
+
+        while ((read = reader.read(buffer)) > 0) {
+            content.append(buffer, 0, read);
+        }
+        reader.close();
+
+        return content.toString();
+    }
+}
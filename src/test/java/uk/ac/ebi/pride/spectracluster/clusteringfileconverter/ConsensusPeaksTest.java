@@ -0,0 +1,38 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConsensusPeaks;
+
+import java.util.Arrays;
+
+public class ConsensusPeaksTest {
+    @Test
+    public void testSortedPeaks() {
+        ConsensusPeaks peaks = new ConsensusPeaks(Arrays.asList(100F, 200F, 300F), Arrays.asList(1F, 5F, 2F));
+
+        Assert.assertTrue(peaks.isSorted());
+        Assert.assertEquals(3, peaks.getPeakCount());
+        Assert.assertEquals(5F, peaks.getMaxIntensity(), 0);
+        Assert.assertEquals(1, peaks.getSortedPeakIndex(1));
+        Assert.assertEquals(200F, peaks.getSortedMz(1), 0);
+    }
+
+    @Test
+    public void testUnsortedPeaks() {
+        ConsensusPeaks peaks = new ConsensusPeaks(Arrays.asList(300F, 100F, 200F, 100F), Arrays.asList(1F, 2F, 3F, 4F));
+
+        Assert.assertFalse(peaks.isSorted());
+
+        // original order is kept
+        Assert.assertEquals(300F, peaks.getMz(0), 0);
+        Assert.assertEquals(3F, peaks.getIntensity(2), 0);
+
+        // sorted order refers to the original indices, equal m/z values keep their order
+        Assert.assertEquals(1, peaks.getSortedPeakIndex(0));
+        Assert.assertEquals(3, peaks.getSortedPeakIndex(1));
+        Assert.assertEquals(2, peaks.getSortedPeakIndex(2));
+        Assert.assertEquals(0, peaks.getSortedPeakIndex(3));
+        Assert.assertEquals(300F, peaks.getSortedMz(3), 0);
+    }
+}
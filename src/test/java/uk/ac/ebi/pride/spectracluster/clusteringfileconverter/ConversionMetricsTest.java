@@ -0,0 +1,133 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.IInputProgress;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.LatencyHistogram;
+
+public class ConversionMetricsTest {
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000L, histogram.getMaxNanos());
+        Assert.assertEquals(500500.0, histogram.getMeanNanos(), 0.001);
+
+        // the buckets' relative error is at most 1 / SUB_BUCKETS
+        assertWithinError(500000, histogram.getPercentile(50));
+        assertWithinError(990000, histogram.getPercentile(99));
+        Assert.assertEquals(1000000L, histogram.getPercentile(100));
+        assertWithinError(1000, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testHistogramSmallValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        Assert.assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+
+        Assert.assertEquals(0, histogram.getPercentile(10));
+        Assert.assertEquals(3, histogram.getPercentile(60));
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    private void assertWithinError(long expected, long actual) {
+        Assert.assertTrue("Expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testRecordClusters() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        long[] stageNanos = new long[ConversionMetrics.Stage.values().length];
+        stageNanos[ConversionMetrics.Stage.READ.ordinal()] = 1000;
+        stageNanos[ConversionMetrics.Stage.FORMAT.ordinal()] = 3000;
+
+        metrics.recordCluster(stageNanos, true);
+        metrics.recordCluster(stageNanos, false);
+        metrics.addStageNanos(ConversionMetrics.Stage.WRITE, 500);
+        metrics.addOutputBytes(100);
+
+        Assert.assertEquals(2, metrics.getClustersRead());
+        Assert.assertEquals(1, metrics.getClustersExported());
+        Assert.assertEquals(100, metrics.getOutputBytes());
+        Assert.assertEquals(2000, metrics.getStageNanos(ConversionMetrics.Stage.READ));
+        Assert.assertEquals(500, metrics.getStageNanos(ConversionMetrics.Stage.WRITE));
+        Assert.assertEquals(0, metrics.getStageHistogram(ConversionMetrics.Stage.WRITE).getTotalNanos());
+        Assert.assertEquals(2, metrics.getStageHistogram(ConversionMetrics.Stage.FORMAT).getCount());
+        Assert.assertEquals(4000, metrics.getClusterHistogram().getMaxNanos());
+    }
+
+    @Test
+    public void testProgress() {
+        ConversionMetrics metrics = new ConversionMetrics();
+
+        Assert.assertEquals(-1.0, metrics.getProgress(), 0);
+        Assert.assertEquals(-1, metrics.getRemainingNanos());
+
+        metrics.addTotalInputBytes(1000);
+        metrics.addTotalInputBytes(3000);
+
+        TestInputProgress input = new TestInputProgress();
+        metrics.startInput(input);
+        input.bytesConsumed = 1000;
+        Assert.assertEquals(0.25, metrics.getProgress(), 0.0001);
+        Assert.assertTrue(metrics.getRemainingNanos() >= 0);
+
+        metrics.finishInput(input, 2000);
+        input.bytesConsumed = 5000;
+        Assert.assertEquals(2000, metrics.getInputBytesConsumed());
+        Assert.assertEquals(0.5, metrics.getProgress(), 0.0001);
+        Assert.assertTrue(metrics.getProgressLine().startsWith("Progress: 50.0% (0 clusters"));
+        Assert.assertTrue(metrics.getProgressLine().contains("ETA "));
+    }
+
+    @Test
+    public void testFormatDuration() {
+        Assert.assertEquals("0:00:00", ConversionMetrics.formatDuration(0));
+        Assert.assertEquals("1:01:05", ConversionMetrics.formatDuration(3665 * 1000000000L));
+    }
+
+    @Test
+    public void testJsonReport() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        metrics.setRunInfo("output_path", "results/\"test\"");
+        metrics.setRunInfo("threads", 4);
+        metrics.addRejectedClusters("msp", "size", 3);
+        metrics.addRejectedClusters("msp", "size", 2);
+        metrics.recordCluster(new long[ConversionMetrics.Stage.values().length], true);
+        metrics.addOutputBytes(10);
+        metrics.finish();
+
+        String json = metrics.toJson();
+
+        Assert.assertTrue(json.startsWith("{"));
+        Assert.assertTrue(json.contains("\"output_path\": \"results/\\\"test\\\"\""));
+        Assert.assertTrue(json.contains("\"threads\": 4"));
+        Assert.assertTrue(json.contains("\"msp\": {\"size\": 5}"));
+        Assert.assertTrue(json.contains("\"clusters\": {\"read\": 1, \"exported\": 1, \"rejected\": 0}"));
+        Assert.assertTrue(json.contains("\"input_consumed\": 0, \"output\": 10}"));
+        Assert.assertTrue(json.contains("\"output_bytes_per_second\""));
+        Assert.assertTrue(json.contains("\"annotate\": {\"total_ms\": 0.000, \"count\": 1"));
+        Assert.assertTrue(json.contains("\"p99_9_us\""));
+    }
+
+    private static class TestInputProgress implements IInputProgress {
+        private volatile long bytesConsumed = 0;
+
+        @Override
+        public long getBytesConsumed() {
+            return bytesConsumed;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMspConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexFormat;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.EntryIndexReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.IndexedEntry;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class EntryIndexTest {
+    private File outputFile;
+
+    @Before
+    public void setUp() throws Exception {
+        outputFile = File.createTempFile("indexed_output", ".msp");
+        outputFile.delete();
+        outputFile.deleteOnExit();
+        new File(EntryIndexFormat.getIndexPath(outputFile.getPath())).deleteOnExit();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        writeEntries(0, 1000, false);
+
+        EntryIndexReader indexReader = new EntryIndexReader(outputFile);
+        Assert.assertEquals(1000, indexReader.getEntryCount());
+
+        List<IndexedEntry> entries = indexReader.getEntriesByClusterId("cluster-123");
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals("PEPTIDE3K", entries.get(0).getPeptideSequence());
+        Assert.assertEquals(getEntry(123), readEntry(entries.get(0)));
+
+        Assert.assertTrue(indexReader.getEntriesByClusterId("cluster-1000").isEmpty());
+
+        // identified entries with peptide 3 are 3, 13, 23, ...
+        entries = indexReader.getEntriesByPeptide("PEPTIDE3K", 0);
+        Assert.assertEquals(100, entries.size());
+        for (int i = 1; i < entries.size(); i++) {
+            Assert.assertTrue(entries.get(i - 1).getPrecursorMz() <= entries.get(i).getPrecursorMz());
+        }
+
+        entries = indexReader.getEntriesByPeptide("PEPTIDE3K", 3);
+        Assert.assertEquals(50, entries.size());
+        for (IndexedEntry entry : entries) {
+            Assert.assertEquals(3, entry.getCharge());
+        }
+
+        Assert.assertTrue(indexReader.getEntriesByPeptide("PEPTIDE", 0).isEmpty());
+
+        entries = indexReader.getEntries(400, 410);
+        Assert.assertEquals(11, entries.size());
+        Assert.assertEquals(400F, entries.get(0).getPrecursorMz());
+        Assert.assertEquals(410F, entries.get(10).getPrecursorMz());
+        Assert.assertEquals(getEntry(400 - 300), readEntry(entries.get(0)));
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        writeEntries(0, 500, false);
+        writeEntries(500, 1000, true);
+
+        EntryIndexReader indexReader = new EntryIndexReader(outputFile);
+        Assert.assertEquals(1000, indexReader.getEntryCount());
+
+        for (int i = 0; i < 1000; i += 99) {
+            List<IndexedEntry> entries = indexReader.getEntriesByClusterId("cluster-" + i);
+
+            Assert.assertEquals(1, entries.size());
+            Assert.assertEquals(getEntry(i), readEntry(entries.get(0)));
+        }
+    }
+
+    @Test
+    public void testOutdatedIndex() throws Exception {
+        writeEntries(0, 10, false);
+
+        RandomAccessFile file = new RandomAccessFile(outputFile, "rw");
+        file.setLength(file.length() + 1);
+        file.close();
+
+        try {
+            new EntryIndexReader(outputFile);
+            Assert.fail("Outdated index was opened");
+        }
+        catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    private void writeEntries(int first, int last, boolean append) throws Exception {
+        ClusterMspConverter converter = new ClusterMspConverter();
+        converter.setOutputPath(outputFile.getPath());
+        converter.setAppend(append);
+        converter.setCreateIndex(true);
+
+        for (int i = first; i < last; i++) {
+            // every second entry is not identified
+            String peptide = (i % 2 == 1) ? "PEPTIDE" + (i % 10) + "K" : null;
+            int charge = 2 + (i / 10) % 2;
+
+            converter.writeExportedCluster(new ClusterEntryInfo("cluster-" + i, 300 + i, charge, 1, peptide), getEntry(i));
+        }
+
+        converter.close();
+    }
+
+    private static String getEntry(int i) {
+        return "Name: entry " + i + "\nComment: \u00c5\nNum peaks: 0\n\n";
+    }
+
+    private String readEntry(IndexedEntry entry) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(outputFile, "r");
+
+        try {
+            byte[] data = new byte[entry.getLength()];
+            file.seek(entry.getOffset());
+            file.readFully(data);
+
+            return new String(data, "UTF-8");
+        }
+        finally {
+            file.close();
+        }
+    }
+}
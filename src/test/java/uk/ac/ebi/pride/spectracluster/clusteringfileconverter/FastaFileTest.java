@@ -0,0 +1,97 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaFile;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FastaIndexFile;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+public class FastaFileTest {
+    private static final String LONG_SEQUENCE = "MKWVTFISLLLLFSSAYSRGVFRRDTHKSEIAHRFKDLGEEHFKGLVLIAFSQYLQQCPFDEHVKLVNELTEFAKTCVADESHAGCEKSLHTLFGDELCKVASLRETYGDMADCCEKQEPERNECFLSHKDDSPDLPKLKPDPNTLCDEFKADEKKFWGKYLYEIARRHPYFYAPELLYYANKYNGVFQECCQAEDKGACLLPKIETMREKVLASSARQRLRCASIQKFGERALKAWSVARLSQKFPKAEFVEVTKLVTDLTKVHKECCHGDLLECADDRADLAKYICDNQDTISSKLKECCDKPLLEKSHCIAEVEKDAIPENLPPLTADFAEDKDVCKNYQEAKDAFLGSFLYEYSRRHPEYAVSVLLRLAKEYEATLEECCAKDDPHACYSTVFDKLKHLVDEPQNLIKQNCDQFEKLGEYGFQNALIVRYTRKVPQVSTPTLVEVSRSLGKVGTRCCTKPESERMPCTEDYLSLILNRLCVLHEKTPVSEKVTKCCTESLVNRRPCFSALTPDETYVPKAFDEKLFTFHADICTLPDTEKQIKKQTALVELLKHKPKATEEQLKTVMENFVAFVDKCCAADDKEACFAVEGPKLVVSTQTALA";
+
+    File fastaFile;
+
+    @Before
+    public void setUp() throws Exception {
+        fastaFile = File.createTempFile("proteins", ".fasta");
+        fastaFile.deleteOnExit();
+        FastaIndexFile.getIndexFile(fastaFile).deleteOnExit();
+
+        FileWriter writer = new FileWriter(fastaFile);
+        writer.write(">sp|P1|FIRST\nPEPTIDEKAAA\nLLLKR\n");
+        writer.write(">sp|P2|SECOND\nGGGPEPTLDEKCCC\n\n");
+        writer.write(">sp|P3|THIRD\n" + LONG_SEQUENCE + "\n");
+        writer.write(">sp|P4|FOURTH\nmmmpeptidek\n");
+        writer.close();
+    }
+
+    @Test
+    public void testExactMapping() throws Exception {
+        FastaFile fasta = new FastaFile(fastaFile);
+
+        Assert.assertEquals(4, fasta.getProteinCount());
+
+        List<String> annotations = fasta.getProteinAnnotations("PEPTIDEK");
+        Assert.assertEquals(2, annotations.size());
+        Assert.assertEquals("sp|P1|FIRST", annotations.get(0));
+        Assert.assertEquals("sp|P4|FOURTH", annotations.get(1));
+        Assert.assertEquals("sp|P1|FIRST", fasta.getProteinAnnotation("PEPTIDEK"));
+
+        // sequence spanning two lines
+        Assert.assertEquals("sp|P1|FIRST", fasta.getProteinAnnotation("AAALLLK"));
+        // peptides must not span two proteins
+        Assert.assertNull(fasta.getProteinAnnotation("LLLKRGGG"));
+        Assert.assertNull(fasta.getProteinAnnotation("UNKNOWNSEQ"));
+        Assert.assertNull(fasta.getProteinAnnotation(null));
+
+        // peptides longer than the sorted prefix
+        String longPeptide = LONG_SEQUENCE.substring(10, 110);
+        Assert.assertEquals("sp|P3|THIRD", fasta.getProteinAnnotation(longPeptide));
+        Assert.assertNull(fasta.getProteinAnnotation(longPeptide + "W"));
+    }
+
+    @Test
+    public void testIlAgnosticMapping() throws Exception {
+        FastaFile fasta = new FastaFile(fastaFile, true);
+
+        List<String> annotations = fasta.getProteinAnnotations("PEPTIDEK");
+        Assert.assertEquals(3, annotations.size());
+        Assert.assertEquals("sp|P1|FIRST", annotations.get(0));
+        Assert.assertEquals("sp|P2|SECOND", annotations.get(1));
+        Assert.assertEquals("sp|P4|FOURTH", annotations.get(2));
+
+        Assert.assertEquals("sp|P1|FIRST", fasta.getProteinAnnotation("AAAIIIK"));
+    }
+
+    @Test
+    public void testIndexFile() throws Exception {
+        File indexFile = FastaIndexFile.getIndexFile(fastaFile);
+        Assert.assertFalse(indexFile.exists());
+
+        new FastaFile(fastaFile);
+        Assert.assertTrue(indexFile.exists());
+        Assert.assertNotNull(FastaIndexFile.load(indexFile, fastaFile));
+
+        // the mapped index must return the same results
+        FastaFile fasta = new FastaFile(fastaFile, true);
+        Assert.assertEquals(4, fasta.getProteinCount());
+        Assert.assertEquals(3, fasta.getProteinAnnotations("PEPTIDEK").size());
+        Assert.assertEquals("sp|P3|THIRD", fasta.getProteinAnnotation(LONG_SEQUENCE.substring(10, 110)));
+
+        // changing the FASTA file invalidates the index
+        FileWriter writer = new FileWriter(fastaFile, true);
+        writer.write(">sp|P5|FIFTH\nNEWPEPTIDER\n");
+        writer.close();
+
+        Assert.assertNull(FastaIndexFile.load(indexFile, fastaFile));
+
+        fasta = new FastaFile(fastaFile);
+        Assert.assertEquals(5, fasta.getProteinCount());
+        Assert.assertEquals("sp|P5|FIFTH", fasta.getProteinAnnotation("NEWPEPTIDER"));
+        Assert.assertNotNull(FastaIndexFile.load(indexFile, fastaFile));
+    }
+}
@@ -0,0 +1,117 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.FragmentIonGenerator;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.SpectrumAnnotator;
+import uk.ac.ebi.pride.utilities.iongen.impl.DefaultPrecursorIon;
+import uk.ac.ebi.pride.utilities.iongen.model.*;
+import uk.ac.ebi.pride.utilities.mol.Peptide;
+
+public class FragmentIonGeneratorTest {
+    @Test
+    public void testIonMasses() throws Exception {
+        FragmentIonGenerator generator = new FragmentIonGenerator();
+        generator.setSequence("PEPTIDEK");
+
+        Assert.assertEquals(28, generator.generate(2, 0, 10000));
+
+        // sorted by m/z
+        for (int i = 1; i < generator.getIonCount(); i++) {
+            Assert.assertTrue(generator.getMz(i - 1) <= generator.getMz(i));
+        }
+
+        // y1 = K + H2O + H+
+        int y1 = findIon(generator, FragmentIonGenerator.TYPE_Y, 1, 1);
+        Assert.assertEquals(147.112804, generator.getMz(y1), 0.0001);
+        // b2 = P + E + H+
+        int b2 = findIon(generator, FragmentIonGenerator.TYPE_B, 2, 1);
+        Assert.assertEquals(227.102633, generator.getMz(b2), 0.0001);
+        int b2Doubly = findIon(generator, FragmentIonGenerator.TYPE_B, 2, 2);
+        Assert.assertEquals((227.102633 + 1.007276) / 2, generator.getMz(b2Doubly), 0.0001);
+
+        // modifications and the m/z range
+        generator.setSequence("PEPTIDEK");
+        generator.addModification(7, 8.014199);
+        generator.generate(1, 140, 230);
+
+        Assert.assertEquals(2, generator.getIonCount());
+        Assert.assertEquals(147.112804 + 8.014199, generator.getMz(0), 0.0001);
+        Assert.assertEquals(227.102633, generator.getMz(1), 0.0001);
+    }
+
+    @Test
+    public void testPrecursorAndLosses() throws Exception {
+        FragmentIonGenerator generator = new FragmentIonGenerator(true, true);
+        generator.setSequence("PEPTIDEK");
+        generator.generate(1, 0, 10000);
+
+        // 7 b-, 7 y-ions, each with 2 losses, and the precursor with 2 losses
+        Assert.assertEquals(7 * 2 * 3 + 3, generator.getIonCount());
+
+        // the precursor has the highest m/z
+        int precursor = generator.getIonCount() - 1;
+        Assert.assertEquals(FragmentIonGenerator.TYPE_PRECURSOR, generator.getType(precursor));
+        Assert.assertEquals(FragmentIonGenerator.LOSS_NONE, generator.getLoss(precursor));
+        Assert.assertEquals(147.112804 + 97.052764 + 129.042593 + 97.052764 + 101.047679 + 113.084064 + 115.026943 + 129.042593,
+                generator.getMz(precursor), 0.0001);
+    }
+
+    @Test(expected = Exception.class)
+    public void testUnknownAminoAcid() throws Exception {
+        new FragmentIonGenerator().setSequence("PEPTJDE");
+    }
+
+    /**
+     * The generated b- and y-ions must be identical to the ones created by pride-utilities.
+     */
+    @Test
+    public void testPrideUtilitiesIons() throws Exception {
+        String[] sequences = {"EDKTLQTPR", "PEPTIDEK", "AMQGLGSGPMSNMGNFMQTGR"};
+
+        for (String sequence : sequences) {
+            for (int charge = 1; charge <= 4; charge++) {
+                assertPrideUtilitiesIons(sequence, charge);
+            }
+        }
+    }
+
+    private void assertPrideUtilitiesIons(String sequence, int charge) throws Exception {
+        FragmentIonGenerator generator = new FragmentIonGenerator();
+        generator.setSequence(sequence);
+        generator.generate(SpectrumAnnotator.getFragmentIonCharges(charge), 0, 10000);
+
+        PeakSet peakSet = PeakSet.getInstance(new double[] {100, 200, 300}, new double[] {1, 1, 1});
+        PrecursorIon precursorIon = new DefaultPrecursorIon(new Peptide(sequence), charge);
+        ProductIonSet productIonSet = new PeptideScore(precursorIon, peakSet).getProductIonSet();
+
+        int nPrideIons = 0;
+
+        for (ProductIon productIon : productIonSet) {
+            String type = productIon.getType().getName();
+
+            if (!type.equals("b") && !type.equals("y"))
+                continue;
+
+            int ionIndex = findIon(generator, type.equals("b") ? FragmentIonGenerator.TYPE_B : FragmentIonGenerator.TYPE_Y,
+                    productIon.getPosition(), productIon.getCharge());
+
+            Assert.assertEquals(productIon.getMassOverCharge(), generator.getMz(ionIndex), 0.001);
+            nPrideIons++;
+        }
+
+        // no additional ions (f.e. of other charges) are generated
+        Assert.assertTrue(nPrideIons > 0);
+        Assert.assertEquals(sequence + " " + charge + "+", nPrideIons, generator.getIonCount());
+    }
+
+    private int findIon(FragmentIonGenerator generator, int type, int position, int charge) {
+        for (int i = 0; i < generator.getIonCount(); i++) {
+            if (generator.getType(i) == type && generator.getPosition(i) == position && generator.getCharge(i) == charge)
+                return i;
+        }
+
+        Assert.fail("Ion not found");
+        return -1;
+    }
+}
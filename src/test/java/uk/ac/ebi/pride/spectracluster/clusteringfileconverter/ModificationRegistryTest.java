@@ -0,0 +1,36 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationRecord;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ModificationRegistry;
+
+public class ModificationRegistryTest {
+    @Test
+    public void testMspName() {
+        ModificationRegistry registry = ModificationRegistry.getInstance();
+
+        Assert.assertEquals("Carbamidomethyl", registry.getMspName(57.021464));
+        Assert.assertEquals("Carbamidomethyl", registry.getMspName(57.0219));
+        Assert.assertEquals("Oxidation", registry.getMspName(15.99491));
+        Assert.assertNull(registry.getMspName(57.03));
+        Assert.assertNull(registry.getMspName(-1000));
+        Assert.assertNull(registry.getMspName(100000));
+    }
+
+    @Test
+    public void testGetModification() {
+        ModificationRegistry registry = ModificationRegistry.getInstance();
+
+        ModificationRecord modification = registry.getModification("MOD:00397");
+        Assert.assertNotNull(modification);
+        Assert.assertEquals("MOD:00397", modification.getAccession());
+        Assert.assertEquals(57.021464, modification.getMonoDeltaMass(), 0.0001);
+        Assert.assertEquals("Carbamidomethyl", modification.getMspName());
+
+        // records are only resolved once
+        Assert.assertSame(modification, registry.getModification("MOD:00397"));
+
+        Assert.assertNull(registry.getModification("MOD:XXXXX"));
+    }
+}
@@ -0,0 +1,102 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.NumberFormatter;
+
+import java.util.Locale;
+import java.util.Random;
+
+public class NumberFormatterTest {
+    @Test
+    public void testFixed() {
+        Assert.assertEquals("305.010", NumberFormatter.formatFixed(305.01f, 3));
+        Assert.assertEquals("-0.16", NumberFormatter.formatFixed(-0.16499, 2));
+        Assert.assertEquals("-0.00", NumberFormatter.formatFixed(-0.001, 2));
+        Assert.assertEquals("0.13", NumberFormatter.formatFixed(0.125, 2));
+        Assert.assertEquals("1.01", NumberFormatter.formatFixed(1.005, 2));
+        Assert.assertEquals("3", NumberFormatter.formatFixed(2.5, 0));
+        Assert.assertEquals("NaN", NumberFormatter.formatFixed(Double.NaN, 2));
+    }
+
+    @Test
+    public void testSameAsStringFormat() {
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100000; i++) {
+            double value = (i % 2 == 0) ? random.nextDouble() * 2000 : (float) (random.nextDouble() * 2000 - 1000);
+            int decimals = i % 6;
+
+            Assert.assertEquals(String.format(Locale.US, "%." + decimals + "f", value),
+                    NumberFormatter.formatFixed(value, decimals));
+        }
+
+        // values exactly at the rounding boundary
+        for (int i = 0; i < 100000; i++) {
+            double value = i / 1000.0 + 0.0005;
+
+            Assert.assertEquals(String.format(Locale.US, "%.3f", value),
+                    NumberFormatter.formatFixed(value, 3));
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        NumberFormatter.appendFloat(stringBuilder, 93.084F, 4);
+        stringBuilder.append(' ');
+        NumberFormatter.appendFloat(stringBuilder, 10000F, 2);
+        stringBuilder.append(' ');
+        NumberFormatter.appendFloat(stringBuilder, 800.05945F, 1);
+        stringBuilder.append(' ');
+        NumberFormatter.appendFloat(stringBuilder, 800.05945F, NumberFormatter.SHORTEST);
+
+        Assert.assertEquals("93.084 10000 800.1 800.05945", stringBuilder.toString());
+    }
+
+    @Test
+    public void testShortest() throws Exception {
+        float[] values = {1F, 100F, 0.001F, 9.999999E-4F, 1.0E-5F, 1E7F, 9999999F, 1277.4062F, 1.25F, -0.5F, -0F, 0F,
+                Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.MIN_VALUE, Float.MAX_VALUE, Float.MIN_NORMAL,
+                1.00000016E8F};
+        String[] expected = {"1.0", "100.0", "0.001", "9.999999E-4", "1.0E-5", "1.0E7", "9999999.0", "1277.4062", "1.25", "-0.5", "-0.0", "0.0",
+                "NaN", "Infinity", "-Infinity", "1.4E-45", "3.4028235E38", "1.1754944E-38",
+                "1.0000002E8"};
+
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(expected[i], formatShortest(values[i]));
+        }
+    }
+
+    @Test
+    public void testShortestIdentifiesValue() throws Exception {
+        Random random = new Random(1);
+
+        // peak values are written like Float.toString
+        for (int i = 0; i < 100000; i++) {
+            float value = random.nextFloat() * 2000;
+
+            Assert.assertEquals(Float.toString(value), formatShortest(value));
+        }
+
+        // older JREs write more digits than necessary for some values
+        for (int i = 0; i < 100000; i++) {
+            float value = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(value))
+                continue;
+
+            String formatted = formatShortest(value);
+
+            Assert.assertEquals(value, Float.parseFloat(formatted));
+            Assert.assertTrue(formatted.length() <= Float.toString(value).length());
+        }
+    }
+
+    private String formatShortest(float value) throws Exception {
+        StringBuilder stringBuilder = new StringBuilder();
+        NumberFormatter.appendFloat(stringBuilder, value, NumberFormatter.SHORTEST);
+
+        return stringBuilder.toString();
+    }
+}
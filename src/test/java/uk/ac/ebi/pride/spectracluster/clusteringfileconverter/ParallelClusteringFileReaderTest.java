@@ -0,0 +1,105 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ParallelClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.List;
+
+public class ParallelClusteringFileReaderTest {
+    private File testFile;
+
+    @Before
+    public void setUp() throws Exception {
+        URI testFileUri = ParallelClusteringFileReaderTest.class.getClassLoader().getResource("testfile.clustering").toURI();
+        testFile = new File(testFileUri);
+    }
+
+    @Test
+    public void testChunkOffsets() throws Exception {
+        ParallelClusteringFileReader reader = new ParallelClusteringFileReader(testFile, 4, 4096, null);
+        long[] offsets = reader.getChunkOffsets();
+
+        Assert.assertTrue(offsets.length > 10);
+        Assert.assertEquals(testFile.length(), offsets[offsets.length - 1]);
+
+        // the header ends with an empty line
+        Assert.assertEquals("\n\n=Cluster=", readString(testFile, offsets[0] - 2, 11));
+
+        for (int i = 1; i < offsets.length - 1; i++) {
+            Assert.assertTrue(offsets[i] - offsets[i - 1] >= 4096);
+            Assert.assertEquals("\n=Cluster=", readString(testFile, offsets[i] - 1, 10));
+        }
+    }
+
+    @Test
+    public void testFileWithoutHeader() throws Exception {
+        File file = writeFile("=Cluster=\nav_precursor_mz=305.000\n=Cluster=\nav_precursor_mz=306.000\n");
+
+        long[] offsets = new ParallelClusteringFileReader(file, 2, 10, null).getChunkOffsets();
+
+        Assert.assertEquals(3, offsets.length);
+        Assert.assertEquals(0, offsets[0]);
+        Assert.assertEquals(34, offsets[1]);
+        Assert.assertEquals(file.length(), offsets[2]);
+    }
+
+    @Test
+    public void testFileWithoutClusters() throws Exception {
+        File file = writeFile("name=empty\n\n");
+
+        long[] offsets = new ParallelClusteringFileReader(file, 2, 10, null).getChunkOffsets();
+
+        // a single empty chunk after the header
+        Assert.assertEquals(2, offsets.length);
+        Assert.assertEquals(file.length(), offsets[0]);
+        Assert.assertEquals(file.length(), offsets[1]);
+    }
+
+    @Test
+    public void testReadClusters() throws Exception {
+        List<ICluster> expectedClusters = new ClusteringFileReader(testFile).readAllClusters();
+        List<ICluster> clusters = new ParallelClusteringFileReader(testFile, 4, 4096, null).readAllClusters();
+
+        Assert.assertEquals(expectedClusters.size(), clusters.size());
+
+        for (int i = 0; i < clusters.size(); i++) {
+            Assert.assertEquals(expectedClusters.get(i).getId(), clusters.get(i).getId());
+            Assert.assertEquals(expectedClusters.get(i).getAvPrecursorMz(), clusters.get(i).getAvPrecursorMz());
+            Assert.assertEquals(expectedClusters.get(i).getSpecCount(), clusters.get(i).getSpecCount());
+        }
+    }
+
+    private static String readString(File file, long offset, int length) throws Exception {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] data = new byte[length];
+            randomAccessFile.seek(offset);
+            randomAccessFile.readFully(data);
+
+            return new String(data, "UTF-8");
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static File writeFile(String content) throws Exception {
+        File file = File.createTempFile("chunk_test", ".clustering");
+        file.deleteOnExit();
+
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+
+        return file;
+    }
+}
@@ -0,0 +1,167 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.*;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConversionMetrics;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.IClusterSourceListener;
+
+import java.io.*;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelConversionPipelineTest {
+    File testFile;
+
+    @Before
+    public void setUp() throws Exception {
+        URI testFileUri = ParallelConversionPipelineTest.class.getClassLoader().getResource("testfile.clustering").toURI();
+        testFile = new File(testFileUri);
+    }
+
+    @Test
+    public void testIdenticalOutput() throws Exception {
+        File sequentialFile = File.createTempFile("sequential", ".msp");
+        File parallelFile = File.createTempFile("parallel", ".msp");
+
+        // sequential conversion
+        List<IClusterConverter> converters = createConverters(sequentialFile);
+        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(1);
+        listeners.add(new ClusterConverterDispatcher(converters));
+        new ClusteringFileReader(testFile).readClustersIteratively(listeners);
+        converters.get(0).close();
+
+        // parallel conversion using a small reorder buffer
+        converters = createConverters(parallelFile);
+        ParallelConversionPipeline pipeline = new ParallelConversionPipeline(converters, 4, 3);
+        listeners = new ArrayList<IClusterSourceListener>(1);
+        listeners.add(pipeline);
+        new ClusteringFileReader(testFile).readClustersIteratively(listeners);
+        pipeline.close();
+        converters.get(0).close();
+
+        String sequentialResult = readFile(sequentialFile);
+        Assert.assertTrue(sequentialResult.length() > 0);
+        Assert.assertEquals(sequentialResult, readFile(parallelFile));
+
+        sequentialFile.delete();
+        parallelFile.delete();
+    }
+
+    @Test
+    public void testWriterError() throws Exception {
+        File outputFile = File.createTempFile("parallel", ".msp");
+        ClusterMspConverter converter = new ClusterMspConverter() {
+            @Override
+            public void writeExportedCluster(ClusterEntryInfo entryInfo, CharSequence exportedCluster) {
+                throw new OutOfMemoryError("test");
+            }
+        };
+        List<IClusterConverter> converters = createConverters(converter, outputFile);
+
+        // the reorder buffer is smaller than the number of clusters so the reader has to wait for the writer
+        ParallelConversionPipeline pipeline = new ParallelConversionPipeline(converters, 2, 1);
+        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(1);
+        listeners.add(pipeline);
+
+        Throwable readError = null;
+        Throwable closeError = null;
+        try {
+            new ClusteringFileReader(testFile).readClustersIteratively(listeners);
+        }
+        catch (Throwable e) {
+            readError = e;
+        }
+        try {
+            pipeline.close();
+        }
+        catch (Throwable e) {
+            closeError = e;
+        }
+        converter.close();
+        outputFile.delete();
+
+        // the reader may or may not have noticed the error, close always reports it
+        Assert.assertTrue(readError == null || isCausedBy(readError, OutOfMemoryError.class));
+        Assert.assertTrue(closeError instanceof OutOfMemoryError);
+    }
+
+    @Test
+    public void testConversionError() throws Exception {
+        File outputFile = File.createTempFile("parallel", ".msp");
+        ClusterMspConverter converter = new ClusterMspConverter() {
+            @Override
+            public void convertCluster(ClusterAnalysis clusterAnalysis, Appendable target) throws Exception {
+                target.append("incomplete");
+                throw new Exception("test");
+            }
+        };
+        List<IClusterConverter> converters = createConverters(converter, outputFile);
+        ConversionMetrics metrics = new ConversionMetrics();
+
+        ParallelConversionPipeline pipeline = new ParallelConversionPipeline(converters, 2, 4, metrics);
+        List<IClusterSourceListener> listeners = new ArrayList<IClusterSourceListener>(1);
+        listeners.add(pipeline);
+        new ClusteringFileReader(testFile).readClustersIteratively(listeners);
+        pipeline.close();
+        converter.close();
+
+        long rejectedClusters = 0;
+        for (IClusterFilter filter : converter.getFilterChain().getFilters()) {
+            rejectedClusters += converter.getFilterChain().getRejectedClusters(filter);
+        }
+
+        // failed clusters are counted but neither written nor counted as exported
+        Assert.assertTrue(converter.getFailedClusters() > 0);
+        Assert.assertEquals(metrics.getClustersRead() - rejectedClusters, converter.getFailedClusters());
+        Assert.assertEquals(0, metrics.getClustersExported());
+        Assert.assertEquals(0, outputFile.length());
+
+        outputFile.delete();
+    }
+
+    private boolean isCausedBy(Throwable e, Class<? extends Throwable> cause) {
+        for (Throwable current = e; current != null; current = current.getCause()) {
+            if (cause.isInstance(current))
+                return true;
+        }
+
+        return false;
+    }
+
+    private List<IClusterConverter> createConverters(File outputFile) {
+        return createConverters(new ClusterMspConverter(), outputFile);
+    }
+
+    private List<IClusterConverter> createConverters(ClusterMspConverter converter, File outputFile) {
+        converter.setMinTic(0);
+        converter.setMaxTic(1);
+        converter.setIncludeLargeDeltas(true);
+        converter.setAddAnnotationString(true);
+        converter.setOutputPath(outputFile.getPath());
+
+        List<IClusterConverter> converters = new ArrayList<IClusterConverter>(1);
+        converters.add(converter);
+
+        return converters;
+    }
+
+    private String readFile(File file) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        StringBuilder content = new StringBuilder();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            content.append(line).append("\n");
+        }
+
+        reader.close();
+
+        return content.toString();
+    }
+}
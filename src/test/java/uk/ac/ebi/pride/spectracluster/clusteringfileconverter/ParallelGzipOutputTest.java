@@ -0,0 +1,114 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ChannelOutputWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class ParallelGzipOutputTest {
+    @Test
+    public void testCompression() throws Exception {
+        File outputFile = File.createTempFile("parallel_gzip", ".msp.gz");
+        outputFile.deleteOnExit();
+
+        StringBuilder expected = new StringBuilder();
+        Random random = new Random(1);
+        ChannelOutputWriter writer = new ChannelOutputWriter(outputFile, false, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.WHEN_FULL, 0, 3);
+
+        for (int i = 0; i < 20000; i++) {
+            String line = (random.nextFloat() * 2000) + " " + (random.nextFloat() * 10000) + " \"? 1/1 0.5\"\n";
+            expected.append(line);
+            writer.write(line);
+        }
+        writer.close();
+
+        Assert.assertTrue(outputFile.length() < expected.length());
+        Assert.assertEquals(expected.toString(), readGzipFile(outputFile));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        File outputFile = File.createTempFile("parallel_gzip", ".msp.gz");
+        outputFile.deleteOnExit();
+
+        ChannelOutputWriter writer = new ChannelOutputWriter(outputFile, false, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.WHEN_FULL, 0, 1);
+        writer.close();
+
+        // an empty file is still a valid gzip file
+        Assert.assertEquals("", readGzipFile(outputFile));
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        File outputFile = File.createTempFile("parallel_gzip", ".mgf.gz");
+        outputFile.deleteOnExit();
+
+        ChannelOutputWriter writer = new ChannelOutputWriter(outputFile, false, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.WHEN_FULL, 0, 2);
+        writer.write("BEGIN IONS\n");
+        writer.flush();
+        // the flushed block is written, not only pending
+        Assert.assertTrue(writer.getFileSize() > 0);
+        writer.write("END IONS\n");
+        writer.close();
+
+        writer = new ChannelOutputWriter(outputFile, true, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.WHEN_FULL, 1024, 2);
+        writer.write("BEGIN IONS\nEND IONS\n");
+        writer.close();
+
+        Assert.assertEquals("BEGIN IONS\nEND IONS\nBEGIN IONS\nEND IONS\n", readGzipFile(outputFile));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEveryRecordRejected() throws Exception {
+        File outputFile = File.createTempFile("parallel_gzip", ".mgf.gz");
+        outputFile.deleteOnExit();
+
+        new ChannelOutputWriter(outputFile, false, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.EVERY_RECORD, 0, 2);
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        File outputFile = File.createTempFile("parallel_gzip", ".msp.gz");
+        outputFile.deleteOnExit();
+
+        ChannelOutputWriter writer = new ChannelOutputWriter(outputFile, false, ChannelOutputWriter.MIN_BUFFER_SIZE,
+                ChannelOutputWriter.FlushPolicy.SYNC, 0, 2);
+        StringBuilder expected = new StringBuilder();
+
+        while (expected.length() <= ChannelOutputWriter.MIN_BUFFER_SIZE) {
+            expected.append("406.148 9366.847\n");
+        }
+        writer.write(expected.toString());
+
+        // the full buffer was compressed and written before it was forced to the disk
+        Assert.assertTrue(writer.getFileSize() > 0);
+        writer.close();
+
+        Assert.assertEquals(expected.toString(), readGzipFile(outputFile));
+    }
+
+    private String readGzipFile(File file) throws IOException {
+        GZIPInputStream inputStream = new GZIPInputStream(new FileInputStream(file));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = inputStream.read(buffer)) > 0) {
+            content.write(buffer, 0, read);
+        }
+        inputStream.close();
+
+        return content.toString("UTF-8");
+    }
+}
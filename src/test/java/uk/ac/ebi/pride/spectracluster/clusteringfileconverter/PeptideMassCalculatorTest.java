@@ -0,0 +1,84 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.PeptideMassCalculator;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ISpectrumReference;
+import uk.ac.ebi.pride.utilities.mol.MoleculeUtilities;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PeptideMassCalculatorTest {
+    List<ICluster> clusters;
+
+    @Before
+    public void setUp() throws Exception {
+        URI testFileUri = PeptideMassCalculatorTest.class.getClassLoader().getResource("testfile.clustering").toURI();
+        clusters = new ClusteringFileReader(new File(testFileUri)).readAllClusters();
+    }
+
+    /**
+     * The calculated masses must match the ones calculated by pride-utilities.
+     */
+    @Test
+    public void testMassesMatchPrideUtilities() throws Exception {
+        PeptideMassCalculator calculator = PeptideMassCalculator.getInstance();
+        int nTested = 0;
+
+        for (ICluster cluster : clusters) {
+            for (ISpectrumReference specRef : cluster.getSpectrumReferences()) {
+                for (IPeptideSpectrumMatch psm : specRef.getPSMs()) {
+                    List<Double> ptmMasses = new ArrayList<Double>();
+                    double peptideMass;
+
+                    try {
+                        peptideMass = calculator.getPeptideMass(psm);
+
+                        for (int i = 0; i < psm.getModifications().size(); i++) {
+                            ptmMasses.add(calculator.getModificationMass(psm.getModifications().get(i).getAccession()));
+                        }
+                    }
+                    catch (Exception e) {
+                        continue;
+                    }
+
+                    double[] ptmMassArray = new double[ptmMasses.size()];
+                    for (int i = 0; i < ptmMassArray.length; i++) {
+                        ptmMassArray[i] = ptmMasses.get(i);
+                    }
+
+                    Assert.assertEquals(MoleculeUtilities.calculateTheoreticalMass(psm.getSequence(), ptmMassArray), peptideMass, 0.001);
+
+                    int charge = calculator.estimateCharge(psm, cluster.getAvPrecursorMz());
+                    if (charge > 0) {
+                        Assert.assertEquals(
+                                MoleculeUtilities.calculateDeltaMz(psm.getSequence(), cluster.getAvPrecursorMz(), charge, ptmMasses),
+                                calculator.getDeltaMz(psm, cluster.getAvPrecursorMz()), 0.001);
+                    }
+
+                    // memoized result
+                    Assert.assertEquals(peptideMass, calculator.getPeptideMass(psm), 0);
+
+                    nTested++;
+                }
+            }
+        }
+
+        Assert.assertTrue(nTested > 0);
+    }
+
+    @Test
+    public void testResidueMasses() {
+        Assert.assertEquals(113.084064, PeptideMassCalculator.getResidueMass('I'), 0.000001);
+        Assert.assertEquals(PeptideMassCalculator.getResidueMass('I'), PeptideMassCalculator.getResidueMass('L'), 0);
+        Assert.assertTrue(Double.isNaN(PeptideMassCalculator.getResidueMass('J')));
+        Assert.assertTrue(Double.isNaN(PeptideMassCalculator.getResidueMass('k')));
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ProductIonCache;
+import uk.ac.ebi.pride.utilities.iongen.model.ProductIonSet;
+
+import java.util.Random;
+
+public class ProductIonCacheTest {
+    @Test
+    public void testLruEviction() {
+        ProductIonCache cache = new ProductIonCache(2);
+        ProductIonSet setA = new ProductIonSet();
+        ProductIonSet setB = new ProductIonSet();
+        ProductIonSet setC = new ProductIonSet();
+
+        Assert.assertNull(cache.get("PEPTIDEA/2"));
+        cache.put("PEPTIDEA/2", setA);
+        cache.put("PEPTIDEB/2", setB);
+
+        // makes B the least recently used entry
+        Assert.assertSame(setA, cache.get("PEPTIDEA/2"));
+
+        cache.put("PEPTIDEC/2", setC);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("PEPTIDEB/2"));
+        Assert.assertSame(setA, cache.get("PEPTIDEA/2"));
+        Assert.assertSame(setC, cache.get("PEPTIDEC/2"));
+
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testDisabledCache() {
+        ProductIonCache cache = new ProductIonCache(2);
+        cache.put("PEPTIDEA/2", new ProductIonSet());
+
+        cache.setMaxSize(0);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+
+        cache.put("PEPTIDEB/2", new ProductIonSet());
+        Assert.assertNull(cache.get("PEPTIDEB/2"));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ProductIonCache cache = new ProductIonCache(100);
+        final int nLookups = 10000;
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+
+                    for (int i = 0; i < nLookups; i++) {
+                        String key = "PEPTIDE" + random.nextInt(500) + "/2";
+
+                        if (cache.get(key) == null)
+                            cache.put(key, new ProductIonSet());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertEquals(threads.length * nLookups, cache.getHits() + cache.getMisses());
+        Assert.assertTrue(cache.getHits() > 0);
+        Assert.assertTrue(cache.getEvictions() > 0);
+    }
+}
@@ -0,0 +1,188 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMgfConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ShardedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+
+import java.io.*;
+import java.util.List;
+
+public class ShardedClusterConverterTest {
+    private File outputDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        outputDirectory = File.createTempFile("sharded_output", "");
+        outputDirectory.delete();
+        outputDirectory.mkdir();
+        outputDirectory.deleteOnExit();
+    }
+
+    @Test
+    public void testShardName() {
+        ShardedClusterConverter converter = new ShardedClusterConverter(new ClusterMgfConverter(), 100, true, 0, 1);
+
+        Assert.assertEquals("mz400-500.z2", converter.getShardName(new ClusterEntryInfo("1", 450.2F, 2, 1)));
+        Assert.assertEquals("mz500-600.z3", converter.getShardName(new ClusterEntryInfo("2", 500F, 3, 1)));
+
+        converter = new ShardedClusterConverter(new ClusterMgfConverter(), 0.5, false, 0, 1);
+        Assert.assertEquals("mz450-450.5", converter.getShardName(new ClusterEntryInfo("3", 450.2F, 2, 1)));
+
+        converter = new ShardedClusterConverter(new ClusterMgfConverter(), 0, false, 1024, 1);
+        Assert.assertEquals("", converter.getShardName(new ClusterEntryInfo("4", 450.2F, 2, 1)));
+    }
+
+    @Test
+    public void testConcurrentShards() throws Exception {
+        ShardedClusterConverter converter = new ShardedClusterConverter(new ClusterMgfConverter(), 100, true, 0, 3);
+        converter.setOutputPath(new File(outputDirectory, "library.mgf").getPath());
+
+        StringBuilder[] expected = new StringBuilder[8];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new StringBuilder();
+        }
+
+        StringBuilder exportedCluster = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            int charge = 2 + i % 2;
+            float mz = 400 + (i % 4) * 100 + 0.5F;
+
+            exportedCluster.setLength(0);
+            exportedCluster.append("BEGIN IONS\nTITLE=").append(i).append("\nEND IONS\n\n");
+            expected[(i % 4) * 2 + (charge - 2)].append(exportedCluster);
+
+            // the buffer is re-used for every cluster
+            converter.writeExportedCluster(new ClusterEntryInfo(Integer.toString(i), mz, charge, 1), exportedCluster);
+        }
+
+        converter.close();
+
+        List<File> shardFiles = converter.getShardFiles();
+        Assert.assertEquals(4, shardFiles.size());
+        Assert.assertEquals("library.mz400-500.z2.mgf", shardFiles.get(0).getName());
+        Assert.assertEquals(expected[0].toString(), readFile(shardFiles.get(0)));
+        Assert.assertEquals("library.mz500-600.z3.mgf", shardFiles.get(1).getName());
+        Assert.assertEquals(expected[3].toString(), readFile(shardFiles.get(1)));
+        Assert.assertEquals(expected[4].toString(), readFile(shardFiles.get(2)));
+        Assert.assertEquals(expected[7].toString(), readFile(shardFiles.get(3)));
+    }
+
+    @Test
+    public void testMaxFileSize() throws Exception {
+        ShardedClusterConverter converter = new ShardedClusterConverter(new ClusterMgfConverter(), 0, false, 100, 1);
+        converter.setOutputPath(new File(outputDirectory, "rolled.mgf").getPath());
+
+        // 30 bytes per cluster
+        String exportedCluster = "BEGIN IONS\nTITLE=1\nEND IONS\n\n\n";
+        for (int i = 0; i < 10; i++) {
+            converter.writeExportedCluster(new ClusterEntryInfo(Integer.toString(i), 400, 2, 1), exportedCluster);
+        }
+
+        converter.close();
+
+        List<File> shardFiles = converter.getShardFiles();
+        Assert.assertEquals(4, shardFiles.size());
+        Assert.assertEquals("rolled.part1.mgf", shardFiles.get(0).getName());
+        Assert.assertEquals(90, shardFiles.get(0).length());
+        Assert.assertEquals("rolled.part4.mgf", shardFiles.get(3).getName());
+        Assert.assertEquals(30, shardFiles.get(3).length());
+    }
+
+    @Test
+    public void testMaxFileSizeInBytes() throws Exception {
+        ShardedClusterConverter converter = new ShardedClusterConverter(new ClusterMgfConverter(), 0, false, 92, 1);
+        converter.setOutputPath(new File(outputDirectory, "encoded.mgf").getPath());
+
+        // 30 characters but 31 bytes per cluster
+        String exportedCluster = "BEGIN IONS\nTITLE=\u00e9\nEND IONS\n\n\n";
+        for (int i = 0; i < 10; i++) {
+            converter.writeExportedCluster(new ClusterEntryInfo(Integer.toString(i), 400, 2, 1), exportedCluster);
+        }
+
+        converter.close();
+
+        List<File> shardFiles = converter.getShardFiles();
+        Assert.assertEquals(5, shardFiles.size());
+        for (File shardFile : shardFiles) {
+            Assert.assertEquals(62, shardFile.length());
+        }
+    }
+
+    @Test
+    public void testMaxOpenShards() throws Exception {
+        for (int nWriterThreads = 1; nWriterThreads <= 3; nWriterThreads += 2) {
+            ShardedClusterConverter converter = new ShardedClusterConverter(new ClusterMgfConverter(), 1, false, 0, nWriterThreads);
+            converter.setOutputPath(new File(outputDirectory, "reopened" + nWriterThreads + ".mgf").getPath());
+            converter.setMaxOpenShards(4);
+
+            StringBuilder[] expected = new StringBuilder[50];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = new StringBuilder();
+            }
+
+            // every cluster is written to a different shard than the previous one
+            for (int i = 0; i < 1000; i++) {
+                int shard = (i * 7) % expected.length;
+                String exportedCluster = "BEGIN IONS\nTITLE=" + i + "\nEND IONS\n\n";
+                expected[shard].append(exportedCluster);
+
+                converter.writeExportedCluster(new ClusterEntryInfo(Integer.toString(i), 300.5F + shard, 2, 1), exportedCluster);
+            }
+
+            converter.close();
+
+            // shard files are sorted by their name
+            List<File> shardFiles = converter.getShardFiles();
+            Assert.assertEquals(expected.length, shardFiles.size());
+            long totalSize = 0;
+            for (int i = 0; i < expected.length; i++) {
+                Assert.assertEquals(expected[i].toString(), readFile(new File(outputDirectory, "reopened" + nWriterThreads + ".mz" + (300 + i) + "-" + (301 + i) + ".mgf")));
+                totalSize += shardFiles.get(i).length();
+            }
+            Assert.assertEquals(totalSize, converter.getBytesWritten());
+        }
+    }
+
+    @Test
+    public void testCompressedBytesWritten() throws Exception {
+        ClusterMgfConverter mgfConverter = new ClusterMgfConverter();
+        mgfConverter.setCompressionThreads(1);
+        ShardedClusterConverter converter = new ShardedClusterConverter(mgfConverter, 100, false, 0, 1);
+        converter.setOutputPath(new File(outputDirectory, "compressed.mgf.gz").getPath());
+
+        long uncompressedSize = 0;
+        for (int i = 0; i < 1000; i++) {
+            String exportedCluster = "BEGIN IONS\nTITLE=" + i + "\nEND IONS\n\n";
+            uncompressedSize += exportedCluster.length();
+
+            converter.writeExportedCluster(new ClusterEntryInfo(Integer.toString(i), 400.5F + (i % 2) * 100, 2, 1), exportedCluster);
+        }
+
+        converter.close();
+
+        // the compressed size is reported
+        long totalSize = 0;
+        for (File shardFile : converter.getShardFiles()) {
+            totalSize += shardFile.length();
+        }
+        Assert.assertEquals(totalSize, converter.getBytesWritten());
+        Assert.assertTrue(totalSize < uncompressedSize);
+    }
+
+    private String readFile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[64 * 1024];
+        int read;
+
+        while ((read = reader.read(buffer)) > 0) {
+            content.append(buffer, 0, read);
+        }
+        reader.close();
+
+        return content.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.ClusterMgfConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.converters.SortedClusterConverter;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterEntryInfo;
+
+import java.io.*;
+import java.util.Random;
+
+public class SortedClusterConverterTest {
+    @Test
+    public void testInMemorySort() throws Exception {
+        String result = writeSorted(SortedClusterConverter.SortOrder.PRECURSOR_MZ, SortedClusterConverter.DEFAULT_MEMORY_BUDGET, 500);
+
+        assertSortedByMz(result, 500);
+    }
+
+    @Test
+    public void testExternalSort() throws Exception {
+        // every cluster is written to a separate run so that the runs have to be merged in multiple passes
+        String result = writeSorted(SortedClusterConverter.SortOrder.PRECURSOR_MZ, 1, SortedClusterConverter.MAX_MERGE_RUNS * 3);
+
+        assertSortedByMz(result, SortedClusterConverter.MAX_MERGE_RUNS * 3);
+    }
+
+    @Test
+    public void testSortBySize() throws Exception {
+        String result = writeSorted(SortedClusterConverter.SortOrder.SIZE, 2048, 300);
+        String[] lines = result.split("\n");
+
+        int lastSize = Integer.MAX_VALUE;
+        for (String line : lines) {
+            int size = Integer.parseInt(line.split("\t")[2]);
+            Assert.assertTrue(size <= lastSize);
+            lastSize = size;
+        }
+    }
+
+    @Test
+    public void testSortById() throws Exception {
+        String result = writeSorted(SortedClusterConverter.SortOrder.ID, 2048, 300);
+        String[] lines = result.split("\n");
+
+        for (int i = 1; i < lines.length; i++) {
+            Assert.assertTrue(lines[i - 1].split("\t")[0].compareTo(lines[i].split("\t")[0]) <= 0);
+        }
+    }
+
+    @Test
+    public void testRunDirectory() throws Exception {
+        File temporaryDirectory = createDirectory("sorted_tmp");
+        File outputDirectory = createDirectory("sorted_output");
+        File outputFile = new File(outputDirectory, "sorted.mgf");
+
+        SortedClusterConverter converter = new SortedClusterConverter(new ClusterMgfConverter(), SortedClusterConverter.SortOrder.PRECURSOR_MZ, 1, temporaryDirectory);
+        converter.setOutputPath(outputFile.getPath());
+
+        for (int i = 0; i < 10; i++) {
+            converter.writeExportedCluster(new ClusterEntryInfo("cluster-" + i, 500 - i, 2, 1), "cluster-" + i + "\t" + (500 - i) + "\t1\n");
+        }
+
+        // the runs are stored in a separate directory within the temporary directory
+        Assert.assertTrue(converter.getRunCount() > 0);
+        Assert.assertEquals(1, temporaryDirectory.list().length);
+        Assert.assertEquals(0, outputDirectory.list().length);
+
+        converter.close();
+
+        Assert.assertEquals(0, temporaryDirectory.list().length);
+        Assert.assertEquals(1, outputDirectory.list().length);
+        assertSortedByMz(readFile(outputFile), 10);
+
+        outputFile.delete();
+        outputDirectory.delete();
+        temporaryDirectory.delete();
+    }
+
+    private File createDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+
+        return directory;
+    }
+
+    /**
+     * Writes clusters with random precursor m/z values and sizes. Every
+     * cluster is represented by a line with its id, m/z, and size.
+     */
+    private String writeSorted(SortedClusterConverter.SortOrder sortOrder, long memoryBudget, int nClusters) throws Exception {
+        File outputFile = File.createTempFile("sorted_output", ".mgf");
+        outputFile.deleteOnExit();
+
+        SortedClusterConverter converter = new SortedClusterConverter(new ClusterMgfConverter(), sortOrder, memoryBudget, null);
+        converter.setOutputPath(outputFile.getPath());
+
+        Random random = new Random(1);
+        for (int i = 0; i < nClusters; i++) {
+            // only few distinct values to test that the input order is kept
+            float mz = 400 + random.nextInt(50);
+            int size = 1 + random.nextInt(20);
+            String id = "cluster-" + i;
+
+            converter.writeExportedCluster(new ClusterEntryInfo(id, mz, 2, size), id + "\t" + mz + "\t" + size + "\n");
+        }
+
+        converter.close();
+
+        Assert.assertEquals(0, converter.getRunCount());
+
+        return readFile(outputFile);
+    }
+
+    private void assertSortedByMz(String result, int nClusters) {
+        String[] lines = result.split("\n");
+        Assert.assertEquals(nClusters, lines.length);
+
+        float lastMz = 0;
+        int lastIndex = -1;
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            float mz = Float.parseFloat(fields[1]);
+            int index = Integer.parseInt(fields[0].substring("cluster-".length()));
+
+            Assert.assertTrue(mz >= lastMz);
+            // clusters with the same m/z keep their order
+            if (mz == lastMz)
+                Assert.assertTrue(index > lastIndex);
+
+            lastMz = mz;
+            lastIndex = index;
+        }
+    }
+
+    private String readFile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[64 * 1024];
+        int read;
+
+        while ((read = reader.read(buffer)) > 0) {
+            content.append(buffer, 0, read);
+        }
+        reader.close();
+
+        return content.toString();
+    }
+}
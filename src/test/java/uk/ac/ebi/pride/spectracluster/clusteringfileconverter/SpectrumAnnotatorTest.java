@@ -0,0 +1,142 @@
+package uk.ac.ebi.pride.spectracluster.clusteringfileconverter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ClusterAnalysis;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.ConsensusPeaks;
+import uk.ac.ebi.pride.spectracluster.clusteringfileconverter.util.SpectrumAnnotator;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.io.ClusteringFileReader;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.ICluster;
+import uk.ac.ebi.pride.spectracluster.clusteringfilereader.objects.IPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.iongen.impl.DefaultPrecursorIon;
+import uk.ac.ebi.pride.utilities.iongen.model.*;
+import uk.ac.ebi.pride.utilities.mol.Peptide;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpectrumAnnotatorTest {
+    List<ICluster> clusters;
+
+    @Before
+    public void setUp() throws Exception {
+        clusters = new ArrayList<ICluster>();
+
+        // the second file contains modified peptides
+        for (String filename : new String[] {"testfile.clustering", "position_0_mod.clustering"}) {
+            URI testFileUri = SpectrumAnnotatorTest.class.getClassLoader().getResource(filename).toURI();
+            clusters.addAll(new ClusteringFileReader(new File(testFileUri)).readAllClusters());
+        }
+    }
+
+    @Test
+    public void testAnnotatedTic() throws Exception {
+        int nTested = 0;
+        int nModified = 0;
+
+        for (ICluster cluster : clusters) {
+            ClusterAnalysis clusterAnalysis = new ClusterAnalysis(cluster);
+            ProductIonSet productIonSet;
+
+            try {
+                productIonSet = clusterAnalysis.getProductIonSet();
+            }
+            catch (Exception e) {
+                continue;
+            }
+
+            if (productIonSet == null)
+                continue;
+
+            float annotatedTic = SpectrumAnnotator.getAnnotatedTic(clusterAnalysis, 0.5F);
+
+            Assert.assertEquals(getReferenceTic(clusterAnalysis.getConsensusPeaks(), productIonSet, 0.5F), annotatedTic, 0.00001);
+            nTested++;
+
+            if (clusterAnalysis.getMostCommonPsm().getModifications().size() > 0)
+                nModified++;
+        }
+
+        Assert.assertTrue(nTested > 0);
+        Assert.assertTrue(nModified > 0);
+    }
+
+    /**
+     * The cached product ions are created without the cluster's peaks.
+     * They must be identical to the ones created using the peaks.
+     */
+    @Test
+    public void testProductIonsIndependentOfPeaks() throws Exception {
+        int nTested = 0;
+
+        for (ICluster cluster : clusters) {
+            ClusterAnalysis clusterAnalysis = new ClusterAnalysis(cluster);
+            IPeptideSpectrumMatch psm = clusterAnalysis.getMostCommonPsm();
+
+            if (psm == null || psm.getModifications().size() > 0 || clusterAnalysis.getCharge() < 1)
+                continue;
+
+            ConsensusPeaks peaks = clusterAnalysis.getConsensusPeaks();
+            PeakSet peakSet = PeakSet.getInstance(peaks.getMzAsDoubles(), peaks.getIntensitiesAsDoubles());
+            PrecursorIon precursorIon = new DefaultPrecursorIon(new Peptide(psm.getSequence()), clusterAnalysis.getCharge());
+            List<ProductIon> peakIons = new ArrayList<ProductIon>(new PeptideScore(precursorIon, peakSet).getProductIonSet());
+
+            List<ProductIon> cachedIons = new ArrayList<ProductIon>(SpectrumAnnotator.getProductIonSet(psm, clusterAnalysis.getCharge()));
+
+            Assert.assertEquals(peakIons.size(), cachedIons.size());
+            for (int i = 0; i < peakIons.size(); i++) {
+                Assert.assertEquals(peakIons.get(i).getType().getName(), cachedIons.get(i).getType().getName());
+                Assert.assertEquals(peakIons.get(i).getPosition(), cachedIons.get(i).getPosition());
+                Assert.assertEquals(peakIons.get(i).getCharge(), cachedIons.get(i).getCharge());
+                Assert.assertEquals(peakIons.get(i).getMassOverCharge(), cachedIons.get(i).getMassOverCharge(), 0.000001);
+            }
+            nTested++;
+        }
+
+        Assert.assertTrue(nTested > 0);
+    }
+
+    /**
+     * Straightforward matching of every b- and y-ion against all
+     * not yet matched peaks.
+     */
+    private float getReferenceTic(ConsensusPeaks peaks, ProductIonSet productIonSet, float tolerance) {
+        List<Integer> matchedPeaks = new ArrayList<Integer>();
+
+        for (ProductIon productIon : productIonSet) {
+            String type = productIon.getType().getName();
+            if (!type.equals("b") && !type.equals("y"))
+                continue;
+
+            double productMz = productIon.getMassOverCharge();
+            int bestPeak = -1;
+
+            // the lowest unmatched peak within the tolerance
+            for (int i = 0; i < peaks.getPeakCount(); i++) {
+                float peakMz = peaks.getMz(i);
+
+                if (matchedPeaks.contains(i) || peakMz < productMz - tolerance || peakMz > productMz + tolerance)
+                    continue;
+
+                if (bestPeak < 0 || peakMz < peaks.getMz(bestPeak))
+                    bestPeak = i;
+            }
+
+            if (bestPeak >= 0)
+                matchedPeaks.add(bestPeak);
+        }
+
+        double totalTic = 0, annotatedTic = 0;
+        for (int i = 0; i < peaks.getPeakCount(); i++) {
+            totalTic += peaks.getIntensity(i);
+
+            if (matchedPeaks.contains(i))
+                annotatedTic += peaks.getIntensity(i);
+        }
+
+        return (float) annotatedTic / (float) totalTic;
+    }
+}